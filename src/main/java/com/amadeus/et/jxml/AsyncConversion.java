@@ -0,0 +1,339 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * A push-based conversion, fed with chunks of the input as they arrive and never
+ * blocking the feeding thread: the size of the fed bytes is checked against the
+ * document size limit on the way, and the chunks are queued to the streaming
+ * conversion, which runs on the given executor and parses them as they arrive.
+ * The converted document is encoded and pushed to the sink in chunks while it is
+ * serialized, without being materialized as a whole.
+ *
+ * <p>The conversion is submitted to the executor once a chunk's worth of input has
+ * been fed, or when the end of the input is signalled, so that small documents are
+ * parsed at once. Until then, and whenever the input is fed faster than it is parsed,
+ * the chunks are held in the queue. The conversion blocks: the executor thread running
+ * it waits for the next chunks while the input is incomplete, so that each conversion
+ * in progress holds a thread, best a virtual thread where the runtime provides them.
+ * When the executor runs the conversion on the feeding thread, as a direct executor or
+ * an event loop does, that wait would never end: the conversion is then put off until
+ * the end of the input, submitted again, and parses the whole input held in the queue.
+ *
+ * <p>Under jXML rules, no part of the output is final before the whole input is
+ * known: repeated elements are grouped into arrays placed after the single elements
+ * of their parent, and json objects can hold their text after their children. The
+ * output is therefore only pushed once the input has been parsed. Conversions fed
+ * by chunks are not looked up in the cache of their converter.
+ *
+ * <p>The methods of a conversion are meant to be called by a single thread, typically
+ * an event loop; the sink is called by the executor threads.
+ */
+public final class AsyncConversion {
+
+  static final int CHUNK_SIZE = 8192;
+
+  private static final String ERROR_ALREADY_ENDED =
+      "The input of the conversion has already been ended.";
+
+  private final JxmlLimits limits;
+  private final Conversion conversion;
+  private final Consumer<ByteBuffer> sink;
+  private final Executor executor;
+  private final Charset charset;
+  private final CompletableFuture<Void> result = new CompletableFuture<>();
+  private final ChunkInputStream input = new ChunkInputStream();
+  // the thread calling the methods of the conversion, which the conversion must not wait on
+  private volatile Thread feeder;
+  private long size;
+  private boolean started;
+  private boolean deferred;
+  private boolean ended;
+
+  AsyncConversion(final JxmlLimits limits, final Conversion conversion, final Consumer<ByteBuffer> sink,
+                  final Executor executor, final Charset charset) {
+    this.limits = limits;
+    this.conversion = conversion;
+    this.sink = sink;
+    this.executor = executor;
+    this.charset = charset;
+  }
+
+  /**
+   * Feeds the next chunk of the input, consuming all its remaining bytes, which are copied
+   * so that the chunk can be reused. A chunk may end in the middle of a multi-byte character.
+   * Once the conversion has failed, chunks are consumed and ignored.
+   *
+   * @param  chunk  the next bytes of the input
+   */
+  public void feed(final ByteBuffer chunk) {
+    if (ended) {
+      throw new IllegalStateException(ERROR_ALREADY_ENDED);
+    }
+    feeder = Thread.currentThread();
+    if (result.isDone()) {
+      chunk.position(chunk.limit());
+      return;
+    }
+    size += chunk.remaining();
+    try {
+      limits.checkDocumentSize(size);
+    } catch (final JxmlException e) {
+      chunk.position(chunk.limit());
+      result.completeExceptionally(e);
+      input.fail(new IOException(e));
+      return;
+    }
+    final ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+    copy.put(chunk).flip();
+    input.offer(copy);
+    if (!started && size >= CHUNK_SIZE) {
+      start();
+    }
+  }
+
+  /**
+   * Signals the end of the input, submitting the conversion to the executor if it has not
+   * been submitted yet, or if it was put off as it ran on the feeding thread.
+   *
+   * @return  the result of the conversion, completed once the whole output has been pushed to the sink
+   */
+  public CompletableFuture<Void> end() {
+    if (ended) {
+      throw new IllegalStateException(ERROR_ALREADY_ENDED);
+    }
+    ended = true;
+    feeder = Thread.currentThread();
+    if (result.isDone()) {
+      return result;
+    }
+    input.end();
+    if (!started || deferred) {
+      deferred = false;
+      start();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the result of the conversion, completed once the whole output has been pushed to the sink,
+   * or completed exceptionally if the input is invalid or exceeds the limits.
+   *
+   * @return  the result of the conversion
+   */
+  public CompletableFuture<Void> getResult() {
+    return result;
+  }
+
+  private void start() {
+    started = true;
+    try {
+      executor.execute(this::convert);
+    } catch (final RejectedExecutionException e) {
+      result.completeExceptionally(e);
+      input.close();
+    }
+  }
+
+  private void convert() {
+    if (Thread.currentThread() == feeder && !input.isEnded()) {
+      // the next chunks can only be fed once this thread returns
+      deferred = true;
+      return;
+    }
+    final ChunkWriter output = new ChunkWriter(charset.newEncoder(), sink);
+    try {
+      conversion.convert(input, output);
+      output.close();
+      result.complete(null);
+    } catch (final Exception e) {
+      result.completeExceptionally(e);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * A streaming conversion of a document, read from the given stream and written to the given writer.
+   */
+  interface Conversion {
+    void convert(InputStream input, Writer output) throws Exception;
+  }
+
+  /*
+   * Queue of the fed chunks, read by the conversion, which waits for the next chunks until the end of the input.
+   */
+  private static final class ChunkInputStream extends InputStream {
+    private final Deque<ByteBuffer> chunks = new ArrayDeque<>();
+    private IOException failure;
+    private boolean ended;
+    private boolean closed;
+
+    private synchronized void offer(final ByteBuffer chunk) {
+      if (!closed) {
+        chunks.add(chunk);
+        notifyAll();
+      }
+    }
+
+    private synchronized void end() {
+      ended = true;
+      notifyAll();
+    }
+
+    private synchronized boolean isEnded() {
+      return ended;
+    }
+
+    private synchronized void fail(final IOException e) {
+      failure = e;
+      chunks.clear();
+      notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (chunks.isEmpty() && failure == null && !ended && !closed) {
+        try {
+          wait();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      final ByteBuffer chunk = chunks.peek();
+      if (chunk == null) {
+        return -1;
+      }
+      final int count = Math.min(len, chunk.remaining());
+      chunk.get(b, off, count);
+      if (!chunk.hasRemaining()) {
+        chunks.poll();
+      }
+      return count;
+    }
+
+    @Override
+    public synchronized int available() {
+      final ByteBuffer chunk = chunks.peek();
+      return chunk == null ? 0 : chunk.remaining();
+    }
+
+    @Override
+    public synchronized void close() {
+      // chunks fed once the conversion is over are dropped
+      closed = true;
+      chunks.clear();
+      notifyAll();
+    }
+  }
+
+  /*
+   * Encodes characters into fixed-size chunks, each chunk being pushed to the sink once full.
+   */
+  private static final class ChunkWriter extends Writer {
+    private final CharsetEncoder encoder;
+    private final Consumer<ByteBuffer> sink;
+    private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+    // high surrogate ending the last write, encoded with the first character of the next one
+    private char highSurrogate;
+    private boolean closed;
+
+    private ChunkWriter(final CharsetEncoder encoder, final Consumer<ByteBuffer> sink) {
+      this.encoder = encoder
+          .onMalformedInput(CodingErrorAction.REPORT)
+          .onUnmappableCharacter(CodingErrorAction.REPORT);
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int length) throws IOException {
+      encode(CharBuffer.wrap(chars, offset, length), false);
+    }
+
+    @Override
+    public void write(final String string, final int offset, final int length) throws IOException {
+      encode(CharBuffer.wrap(string, offset, offset + length), false);
+    }
+
+    @Override
+    public void flush() {
+      // chunks are pushed once full, or when closed
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      encode(CharBuffer.allocate(0), true);
+      while (encoder.flush(chunk).isOverflow()) {
+        push();
+      }
+      if (chunk.position() > 0) {
+        push();
+      }
+    }
+
+    private void encode(final CharBuffer chars, final boolean endOfInput) throws IOException {
+      if (highSurrogate != 0) {
+        final CharBuffer pair = CharBuffer.allocate(2);
+        pair.put(highSurrogate);
+        highSurrogate = 0;
+        if (chars.hasRemaining()) {
+          pair.put(chars.get());
+        }
+        pair.flip();
+        encode(pair, endOfInput);
+      }
+      while (true) {
+        final CoderResult coderResult = encoder.encode(chars, chunk, endOfInput);
+        if (coderResult.isError()) {
+          coderResult.throwException();
+        }
+        if (!coderResult.isOverflow()) {
+          break;
+        }
+        push();
+      }
+      if (chars.hasRemaining()) {
+        highSurrogate = chars.get();
+      }
+    }
+
+    private void push() {
+      chunk.flip();
+      sink.accept(chunk);
+      chunk = ByteBuffer.allocate(CHUNK_SIZE);
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package com.amadeus.et.jxml;
+
+/**
+ * Skips runs of bytes of the same kind for Utf8XmlTokenizer: whitespace, plain ASCII text and
+ * plain ASCII attribute values, the ones copied as they are.
+ *
+ * <p>This Java 8 version reads a byte at a time. The multi-release jar holds a Java 9 version
+ * reading eight bytes at a time through a VarHandle, used by the runtimes supporting it.
+ */
+final class ByteScanner {
+
+  private ByteScanner() {}
+
+  /**
+   * Returns the name of the implementation in use, reported by the benchmark.
+   */
+  static String implementation() {
+    return "scalar";
+  }
+
+  /**
+   * Returns the position of the first byte of the range that is not XML whitespace, or its end.
+   */
+  static int skipWhitespace(final byte[] in, final int from, final int end) {
+    int i = from;
+    while (i < end && isWhitespace(in[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Returns the position of the first byte of the range that is not plain text, or its end:
+   * plain text being ASCII, without markup, reference, carriage return or other control character
+   * than tab and line feed, and without ']', which may start the end of a CDATA section.
+   */
+  static int skipPlainText(final byte[] in, final int from, final int end) {
+    int i = from;
+    while (i < end && isPlainText(in[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Returns the position of the first byte of the range that is not a plain attribute value
+   * character, or its end: plain attribute value characters being ASCII, without markup,
+   * reference, quote or control character.
+   */
+  static int skipPlainAttribute(final byte[] in, final int from, final int end) {
+    int i = from;
+    while (i < end && isPlainAttribute(in[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isWhitespace(final byte b) {
+    return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+  }
+
+  private static boolean isPlainText(final byte b) {
+    return b >= 0x20 && b != '<' && b != '&' && b != ']' || b == '\t' || b == '\n';
+  }
+
+  private static boolean isPlainAttribute(final byte b) {
+    return b >= 0x20 && b != '<' && b != '&' && b != '"' && b != '\'';
+  }
+
+}
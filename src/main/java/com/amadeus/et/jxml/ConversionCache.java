@@ -0,0 +1,341 @@
+package com.amadeus.et.jxml;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of conversion results, keyed by a fast non-cryptographic hash
+ * of the input plus the conversion options, so that repeated inputs skip the
+ * conversion entirely. The full input is kept and compared on lookup, so hash
+ * collisions can never return the result of another input.
+ *
+ * <p>Entries are evicted in least-recently-used order once the maximum number of
+ * entries or the maximum weight (the total number of characters of the cached
+ * inputs and results) is exceeded, and expire after an optional time-to-live.
+ *
+ * <p>A cache is thread-safe and can be shared by both converters, and by converters
+ * configured differently: the key also holds the settings of the converter, its
+ * structure hints and namespace mapping, by identity and modification count, and
+ * the values of its limits, so that a result is only returned to a converter which
+ * would have converted the input the same way, within the same limits.
+ */
+public class ConversionCache {
+
+  private static final long NO_EXPIRATION = Long.MAX_VALUE;
+  private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+  private static final long HASH_MULTIPLIER_1 = 0x87C37B91114253D5L;
+  private static final long HASH_MULTIPLIER_2 = 0x4CF5AD432745937FL;
+  private static final String ERROR_NOT_POSITIVE =
+      "'%s' must be strictly positive.";
+
+  enum Direction { XML_TO_JSON, JSON_TO_XML }
+
+  private final int maxEntries;
+  private final long maxWeight;
+  private final long timeToLiveNanos;
+  private final LongSupplier nanoClock;
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+  private long expirationCount;
+
+  /**
+   * Creates a cache whose entries never expire.
+   *
+   * @param  maxEntries  the maximum number of cached results, strictly positive
+   * @param  maxWeight   the maximum number of characters of cached inputs and results, strictly positive
+   */
+  public ConversionCache(final int maxEntries, final long maxWeight) {
+    this(maxEntries, maxWeight, NO_EXPIRATION, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates a cache whose entries expire after the given time-to-live.
+   *
+   * @param  maxEntries  the maximum number of cached results, strictly positive
+   * @param  maxWeight   the maximum number of characters of cached inputs and results, strictly positive
+   * @param  timeToLive  the time-to-live of the cached results, strictly positive
+   * @param  unit        the unit of the time-to-live
+   */
+  public ConversionCache(final int maxEntries, final long maxWeight, final long timeToLive, final TimeUnit unit) {
+    this(maxEntries, maxWeight, unit.toNanos(timeToLive), System::nanoTime);
+  }
+
+  ConversionCache(final int maxEntries, final long maxWeight, final long timeToLiveNanos,
+                  final LongSupplier nanoClock) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException(String.format(ERROR_NOT_POSITIVE, "maxEntries"));
+    }
+    if (maxWeight <= 0) {
+      throw new IllegalArgumentException(String.format(ERROR_NOT_POSITIVE, "maxWeight"));
+    }
+    if (timeToLiveNanos <= 0) {
+      throw new IllegalArgumentException(String.format(ERROR_NOT_POSITIVE, "timeToLive"));
+    }
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+    this.timeToLiveNanos = timeToLiveNanos;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Returns the number of lookups which found a cached result.
+   *
+   * @return  the hit count
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of lookups which did not find a cached result, expired results included.
+   *
+   * @return  the miss count
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of results evicted to respect the maximum number of entries or the maximum weight.
+   *
+   * @return  the eviction count
+   */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the number of results removed because their time-to-live had elapsed.
+   *
+   * @return  the expiration count
+   */
+  public synchronized long getExpirationCount() {
+    return expirationCount;
+  }
+
+  /**
+   * Returns the ratio of lookups which found a cached result, or 0 if no lookup has been done.
+   *
+   * @return  the hit rate, between 0 and 1
+   */
+  public synchronized double getHitRate() {
+    final long lookupCount = hitCount + missCount;
+    return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+  }
+
+  /**
+   * Returns the number of cached results.
+   *
+   * @return  the number of entries
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the total number of characters of the cached inputs and results.
+   *
+   * @return  the current weight
+   */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /**
+   * Removes all cached results, keeping the statistics.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    weight = 0;
+  }
+
+  /**
+   * Builds the key of the given conversion; the input hash is computed outside of any lock.
+   */
+  static Key key(final Direction direction, final String input, final boolean keepNamespaces,
+                 final String specialAttributePrefix, final Settings settings) {
+    return new Key(direction, input, keepNamespaces, specialAttributePrefix, settings, hash(input));
+  }
+
+  /**
+   * Captures the settings of a converter which its results depend on; hints and mapping may be null.
+   */
+  static Settings settings(final StructureHints hints, final NamespaceMapping mapping, final JxmlLimits limits) {
+    return new Settings(hints, hints == null ? 0 : hints.getModificationCount(), mapping,
+                        mapping == null ? 0 : mapping.getModificationCount(), limits.getValues());
+  }
+
+  synchronized String get(final Key key) {
+    final Entry entry = entries.get(key);
+    if (entry == null) {
+      missCount++;
+      return null;
+    }
+    if (timeToLiveNanos != NO_EXPIRATION && nanoClock.getAsLong() - entry.creationTime >= timeToLiveNanos) {
+      remove(key, entry);
+      expirationCount++;
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    return entry.result;
+  }
+
+  synchronized void put(final Key key, final String result) {
+    final Entry entry = new Entry(result, weight(key, result), nanoClock.getAsLong());
+    if (entry.weight > maxWeight) {
+      // would evict everything else, and itself
+      return;
+    }
+    final Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      weight -= previous.weight;
+    }
+    weight += entry.weight;
+
+    final Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+    while (entries.size() > maxEntries || weight > maxWeight) {
+      final Map.Entry<Key, Entry> evicted = eldest.next();
+      weight -= evicted.getValue().weight;
+      eldest.remove();
+      evictionCount++;
+    }
+  }
+
+  private void remove(final Key key, final Entry entry) {
+    entries.remove(key);
+    weight -= entry.weight;
+  }
+
+  private static long weight(final Key key, final String result) {
+    return (long) key.input.length() + result.length();
+  }
+
+  /*
+   * 64-bit multiply-rotate hash over blocks of four characters, with a final avalanche.
+   */
+  static long hash(final String input) {
+    final int length = input.length();
+    long hash = HASH_SEED ^ length;
+    int i = 0;
+    for (; i + 4 <= length; i += 4) {
+      final long block = input.charAt(i)
+          | (long) input.charAt(i + 1) << 16
+          | (long) input.charAt(i + 2) << 32
+          | (long) input.charAt(i + 3) << 48;
+      hash = Long.rotateLeft(hash ^ block * HASH_MULTIPLIER_1, 31) * HASH_MULTIPLIER_2;
+    }
+    for (; i < length; i++) {
+      hash = Long.rotateLeft(hash ^ input.charAt(i) * HASH_MULTIPLIER_1, 27) * HASH_MULTIPLIER_2;
+    }
+    hash ^= hash >>> 33;
+    hash *= HASH_MULTIPLIER_1;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  static final class Key {
+    private final Direction direction;
+    private final String input;
+    private final boolean keepNamespaces;
+    private final String specialAttributePrefix;
+    private final Settings settings;
+    private final long inputHash;
+
+    private Key(final Direction direction, final String input, final boolean keepNamespaces,
+                final String specialAttributePrefix, final Settings settings, final long inputHash) {
+      this.direction = direction;
+      this.input = input;
+      this.keepNamespaces = keepNamespaces;
+      this.specialAttributePrefix = specialAttributePrefix;
+      this.settings = settings;
+      this.inputHash = inputHash;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((int) (inputHash ^ inputHash >>> 32) * 31 + settings.hashCode) * 31 + direction.ordinal() * 2
+          + (keepNamespaces ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) other;
+      // the full input is only compared when everything else matches
+      return inputHash == key.inputHash
+          && direction == key.direction
+          && keepNamespaces == key.keepNamespaces
+          && specialAttributePrefix.equals(key.specialAttributePrefix)
+          && settings.equals(key.settings)
+          && input.equals(key.input);
+    }
+  }
+
+  static final class Settings {
+    private final StructureHints hints;
+    private final long hintsModificationCount;
+    private final NamespaceMapping mapping;
+    private final long mappingModificationCount;
+    private final long[] limits;
+    private final int hashCode;
+
+    private Settings(final StructureHints hints, final long hintsModificationCount, final NamespaceMapping mapping,
+                     final long mappingModificationCount, final long[] limits) {
+      this.hints = hints;
+      this.hintsModificationCount = hintsModificationCount;
+      this.mapping = mapping;
+      this.mappingModificationCount = mappingModificationCount;
+      this.limits = limits;
+      this.hashCode = (System.identityHashCode(hints) * 31 + System.identityHashCode(mapping)) * 31
+          + Arrays.hashCode(limits);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Settings)) {
+        return false;
+      }
+      final Settings settings = (Settings) other;
+      // hints and mappings are mutable, hence compared by identity and modification count
+      return hints == settings.hints
+          && hintsModificationCount == settings.hintsModificationCount
+          && mapping == settings.mapping
+          && mappingModificationCount == settings.mappingModificationCount
+          && Arrays.equals(limits, settings.limits);
+    }
+  }
+
+  private static final class Entry {
+    private final String result;
+    private final long weight;
+    private final long creationTime;
+
+    private Entry(final String result, final long weight, final long creationTime) {
+      this.result = result;
+      this.weight = weight;
+      this.creationTime = creationTime;
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.amadeus.et.jxml;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The counters and latencies of a run of conversions, reported once done by the command
+ * line and by the load generator. Recording is thread-safe.
+ */
+final class ConversionStatistics {
+
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final double NANOS_PER_MILLISECOND = 1e6;
+  private static final double BYTES_PER_MEGABYTE = 1 << 20;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final String unit;
+  private long converted;
+  private long failed;
+  private long bytesRead;
+  private long bytesWritten;
+  private long[] latencies = new long[INITIAL_CAPACITY];
+
+  /**
+   * @param  unit  the plural name of what is converted, such as files or requests
+   */
+  ConversionStatistics(final String unit) {
+    this.unit = unit;
+  }
+
+  synchronized void recordSuccess(final long latency, final long read, final long written) {
+    if (converted == latencies.length) {
+      latencies = Arrays.copyOf(latencies, latencies.length * 2);
+    }
+    latencies[(int) converted++] = latency;
+    bytesRead += read;
+    bytesWritten += written;
+  }
+
+  synchronized void recordFailure() {
+    failed++;
+  }
+
+  synchronized long converted() {
+    return converted;
+  }
+
+  synchronized long failed() {
+    return failed;
+  }
+
+  synchronized void report(final PrintStream output, final long elapsed) {
+    final double seconds = Math.max(elapsed, 1) / NANOS_PER_SECOND;
+    final long[] sorted = Arrays.copyOf(latencies, (int) converted);
+    Arrays.sort(sorted);
+    output.println(String.format(Locale.ROOT, "%d %s converted, %d failed, in %.3f s", converted, unit, failed,
+                                 seconds));
+    output.println(String.format(Locale.ROOT, "Throughput: %.1f MB/s read, %.1f MB/s written, %.1f %s/s",
+                                 bytesRead / BYTES_PER_MEGABYTE / seconds,
+                                 bytesWritten / BYTES_PER_MEGABYTE / seconds, converted / seconds, unit));
+    if (sorted.length > 0) {
+      output.println(String.format(Locale.ROOT, "Latency: p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                                   percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                                   sorted[sorted.length - 1] / NANOS_PER_MILLISECOND));
+    }
+  }
+
+  /*
+   * Nearest-rank percentile, in milliseconds.
+   */
+  private static double percentile(final long[] sorted, final int percent) {
+    final int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+    return sorted[Math.max(rank, 1) - 1] / NANOS_PER_MILLISECOND;
+  }
+
+}
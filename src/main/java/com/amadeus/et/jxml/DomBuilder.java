@@ -0,0 +1,231 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Builds the DOM converted by XmlToJson from SAX events, checking the configured
+ * limits on each event, so that an oversized document is rejected as soon as
+ * a limit is crossed instead of after its full materialization.
+ *
+ * <p>Only the elements and the attributes are kept, with the text of each element as
+ * its first child: the value of its first child node, as {@link LeadingText} reads it
+ * from the character, CDATA, comment and processing instruction events, held as a
+ * single text node.
+ */
+final class DomBuilder extends DefaultHandler2 {
+
+  private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+  private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+  private final Document document;
+  private final JxmlLimits limits;
+  private final boolean namespaceAware;
+  private final LeadingText leadingText = new LeadingText();
+  // same-name sibling counts of the open elements, only tracked when the array length is limited
+  private final Deque<Map<String, int[]>> siblingCounts;
+  private Node current;
+  private int depth;
+  private long textLength;
+  private long elementCount;
+
+  DomBuilder(final Document document, final JxmlLimits limits, final boolean namespaceAware) {
+    this.document = document;
+    this.limits = limits;
+    this.namespaceAware = namespaceAware;
+    this.current = document;
+    this.siblingCounts = limits.isArrayLengthLimited() ? new ArrayDeque<>() : null;
+  }
+
+  /**
+   * Returns the DOM built so far, complete once the end of the document has been reported.
+   */
+  Document getDocument() {
+    return document;
+  }
+
+  /**
+   * Parses the given XML into a DOM, checking the given limits while parsing.
+   * A namespace-aware DOM keeps the namespace declarations as attributes.
+   */
+  static Document parse(final InputSource source, final JxmlLimits limits, final boolean namespaceAware)
+      throws ParserConfigurationException, SAXException, IOException, JxmlException {
+    final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    parse(source, new DomBuilder(document, limits, namespaceAware), namespaceAware);
+    return document;
+  }
+
+  /**
+   * Parses the given XML, reporting its events to the given handler, a namespace-aware
+   * parsing also reporting the namespace declarations as attributes. A handler that is
+   * also a LexicalHandler is reported the comments and the bounds of CDATA sections.
+   */
+  static void parse(final InputSource source, final DefaultHandler handler, final boolean namespaceAware)
+      throws ParserConfigurationException, SAXException, IOException, JxmlException {
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(namespaceAware);
+    try {
+      final XMLReader reader = factory.newSAXParser().getXMLReader();
+      if (namespaceAware) {
+        reader.setFeature(NAMESPACE_PREFIXES_FEATURE, true);
+      }
+      reader.setContentHandler(handler);
+      reader.setErrorHandler(handler);
+      if (handler instanceof LexicalHandler) {
+        reader.setProperty(LEXICAL_HANDLER_PROPERTY, handler);
+      }
+      reader.parse(source);
+    } catch (final SAXException e) {
+      throw unwrap(e);
+    }
+  }
+
+  /**
+   * Returns the JxmlException raised by a limit check, or the given exception itself.
+   */
+  static SAXException unwrap(final SAXException e) throws JxmlException {
+    if (e.getException() instanceof JxmlException) {
+      throw (JxmlException) e.getException();
+    }
+    return e;
+  }
+
+  @Override
+  public void startElement(final String uri, final String localName, final String qName,
+                           final Attributes attributes) throws SAXException {
+    appendText();
+    textLength = 0;
+    try {
+      limits.checkDepth(++depth);
+      limits.checkElementCount(++elementCount);
+      limits.checkNameLength(qName.length());
+      limits.checkAttributeCount(attributes.getLength());
+      if (siblingCounts != null) {
+        countSibling(qName);
+      }
+
+      final Element element = namespaceAware ? document.createElementNS(emptyToNull(uri), qName)
+          : document.createElement(qName);
+      for (int i = 0; i < attributes.getLength(); i++) {
+        final String attributeName = attributes.getQName(i);
+        final String attributeValue = attributes.getValue(i);
+        limits.checkNameLength(attributeName.length());
+        limits.checkTextLength(attributeValue.length());
+        if (namespaceAware) {
+          element.setAttributeNS(getAttributeNamespaceUri(attributes.getURI(i), attributeName), attributeName,
+                                 attributeValue);
+        } else {
+          element.setAttribute(attributeName, attributeValue);
+        }
+      }
+      current.appendChild(element);
+      current = element;
+      leadingText.start();
+    } catch (final JxmlException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void endElement(final String uri, final String localName, final String qName) {
+    appendText();
+    textLength = 0;
+    if (siblingCounts != null) {
+      siblingCounts.pop();
+    }
+    current = current.getParentNode();
+    depth--;
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length) throws SAXException {
+    textLength += length;
+    checkTextLength((int) Math.min(textLength, Integer.MAX_VALUE));
+    leadingText.characters(ch, start, length);
+  }
+
+  @Override
+  public void startCDATA() {
+    leadingText.startCdata();
+  }
+
+  @Override
+  public void endCDATA() {
+    leadingText.endCdata();
+  }
+
+  @Override
+  public void comment(final char[] ch, final int start, final int length) throws SAXException {
+    checkTextLength(length);
+    leadingText.comment(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    checkTextLength(data.length());
+    leadingText.processingInstruction(data);
+  }
+
+  private void checkTextLength(final int length) throws SAXException {
+    try {
+      limits.checkTextLength(length);
+    } catch (final JxmlException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  private void countSibling(final String qName) throws JxmlException {
+    final Map<String, int[]> counts = siblingCounts.peek();
+    if (counts != null) {
+      final int[] count = counts.computeIfAbsent(qName, k -> new int[1]);
+      limits.checkArrayLength(++count[0]);
+    }
+    siblingCounts.push(new HashMap<>());
+  }
+
+  /*
+   * SAX reports namespace declarations without namespace URI, unless the 'xmlns-uris' feature is set,
+   * which is not supported by all parsers.
+   */
+  private static String getAttributeNamespaceUri(final String uri, final String qName) {
+    if (qName.startsWith(XMLConstants.XMLNS_ATTRIBUTE)
+        && (qName.length() == XMLConstants.XMLNS_ATTRIBUTE.length()
+            || qName.charAt(XMLConstants.XMLNS_ATTRIBUTE.length()) == ':')) {
+      return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+    }
+    return emptyToNull(uri);
+  }
+
+  private static String emptyToNull(final String uri) {
+    return uri == null || uri.isEmpty() ? null : uri;
+  }
+
+  private void appendText() {
+    if (leadingText.isOpen()) {
+      final String text = leadingText.take();
+      if (text != null) {
+        current.appendChild(document.createTextNode(text));
+      }
+    }
+  }
+
+}
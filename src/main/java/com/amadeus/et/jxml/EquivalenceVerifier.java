@@ -0,0 +1,810 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Verifies that an XML and a json are equivalent under the jXML conversion rules, without
+ * converting either of them nor building any tree, for instance to check sampled conversions
+ * in production.
+ *
+ * <p>The XML is read from its SAX events and the json from its tokens, each element being reduced
+ * to a digest of its name, attributes, normalized leading text and children. As a conversion
+ * groups repeated elements into arrays after the single ones, only the order of the elements of
+ * the same name is significant, so that a json object and an array of a single object are
+ * equivalent, whatever the structure hints. Equivalent documents are verified in a single pass
+ * over each input, the heap only holding the open elements with their distinct child names.
+ * Otherwise, the first divergence is located by further passes, each one descending by one
+ * element along the divergent path: each input is read at most 1 + d times, d being the depth of
+ * the divergent element, the root element having a depth of 1, so that the worst case is bounded
+ * by 1 + {@link JxmlLimits#getMaxDepth()} passes. Documents too large to be held in memory are
+ * verified as {@link Source sources}, opened again for each pass.
+ *
+ * <p>Digests are 64-bit long, so that two different elements have a negligible, but not null,
+ * probability to be taken as equivalent.
+ */
+public class EquivalenceVerifier {
+
+  private static final String DIVERGENCE_ROOT =
+      "The root element is '%s' in the XML, '%s' in the json.";
+  private static final String DIVERGENCE_ATTRIBUTE =
+      "Attribute '%s' is %s in the XML, %s in the json.";
+  private static final String DIVERGENCE_TEXT =
+      "Text is %s in the XML, %s in the json.";
+  private static final String DIVERGENCE_ELEMENT_COUNT =
+      "Element '%s' occurs %d time(s) in the XML, %d time(s) in the json.";
+  private static final String DIVERGENCE_DUPLICATE_MEMBERS =
+      "The element differs through duplicate json members.";
+  private static final String DIVERGENCE_NO_SINGLE_ROOT =
+      "The json is not an object with a single root member.";
+  private static final String DIVERGENCE_NOT_A_STRING =
+      "Member '%s' is not a json string.";
+  private static final String DIVERGENCE_NOT_AN_OBJECT =
+      "Member '%s' is neither a json object nor an array of json objects.";
+
+  private static final long NAME_SEED = 0x3c6ef372fe94f82bL;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+
+  private JxmlLimits limits = new JxmlLimits();
+  private NamespaceMapping namespaceMapping;
+
+  public EquivalenceVerifier() {}
+
+  /**
+   * Sets the limits applied to the verified documents.
+   * A document exceeding them is rejected with a JxmlException.
+   *
+   * @param  limits  the limits to apply
+   */
+  public void setLimits(final JxmlLimits limits) {
+    this.limits = Objects.requireNonNull(limits, "limits");
+  }
+
+  /**
+   * Sets the namespace mapping of the namespace-aware mode, as set on the converters: XML names
+   * are then resolved through the namespace URIs declared in the XML before being compared.
+   *
+   * @param  namespaceMapping  the mapping to apply, or null to use the XML prefixes as they are
+   */
+  public void setNamespaceMapping(final NamespaceMapping namespaceMapping) {
+    this.namespaceMapping = namespaceMapping;
+  }
+
+  /**
+   * Verifies that the json is the conversion of the XML, namespaces being kept and
+   * the special attribute prefix being the default one.
+   *
+   * @param  xml   an XML, presented as string
+   * @param  json  a json, presented as string
+   * @return       the first divergence between both documents, or null if they are equivalent
+   */
+  public Divergence verify(final String xml, final String json)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    return verify(xml, json, true, null);
+  }
+
+  /**
+   * Verifies that the json is the conversion of the XML, with the keepNamespaces and
+   * inputSpecialAttributePrefix arguments of {@link XmlToJson#execute(String, boolean, String)}.
+   * The XML must be a valid XML, and the json a valid json; a json not following the
+   * conversion rules diverges from any XML.
+   *
+   * @param  xml                          an XML, presented as string
+   * @param  json                         a json, presented as string
+   * @param  keepNamespaces               a boolean used to specify if the conversion keeps Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the first divergence between both documents, or null if they are equivalent
+   */
+  public Divergence verify(final String xml, final String json, final boolean keepNamespaces,
+                           final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    Utilities.checkXml(xml);
+    Utilities.checkJson(json);
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    limits.checkDocumentSize(xml.length());
+    limits.checkDocumentSize(json.length());
+    return verify(new StringDocuments(xml, json, keepNamespaces, getAttributePrefix(inputSpecialAttributePrefix)));
+  }
+
+  /**
+   * Verifies that the json is the conversion of the XML, as {@link #verify(String, String)} does,
+   * without holding either document in memory.
+   *
+   * @param  xml   an XML, encoded as declared by its XML declaration, UTF-8 by default
+   * @param  json  a json, encoded in UTF-8
+   * @return       the first divergence between both documents, or null if they are equivalent
+   */
+  public Divergence verify(final Source xml, final Source json)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    return verify(xml, json, true, null);
+  }
+
+  /**
+   * Verifies that the json is the conversion of the XML, as {@link #verify(String, String, boolean, String)}
+   * does, without holding either document in memory: each pass opens both sources again and reads
+   * them as streams, their sizes, in bytes, being checked against the limits while they are read.
+   *
+   * @param  xml                          an XML, encoded as declared by its XML declaration, UTF-8 by default
+   * @param  json                         a json, encoded in UTF-8
+   * @param  keepNamespaces               a boolean used to specify if the conversion keeps Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the first divergence between both documents, or null if they are equivalent
+   */
+  public Divergence verify(final Source xml, final Source json, final boolean keepNamespaces,
+                           final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    Utilities.checkXml(xml);
+    if (json == null) {
+      Utilities.checkJson(null);
+    }
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    try {
+      return verify(new StreamDocuments(xml, json, keepNamespaces, getAttributePrefix(inputSpecialAttributePrefix)));
+    } catch (final IOException e) {
+      if (e.getCause() instanceof JxmlException) {
+        throw (JxmlException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private Divergence verify(final Documents documents)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+    List<Step> path = Collections.emptyList();
+    final Walk xmlWalk = documents.walkXml(path);
+    final Walk jsonWalk = new Walk(limits, path);
+    Divergence divergence = documents.walkJson(jsonWalk);
+    if (divergence != null) {
+      return divergence;
+    }
+    if (!xmlWalk.rootName.equals(jsonWalk.rootName)) {
+      return new Divergence("/", String.format(DIVERGENCE_ROOT, xmlWalk.rootName, jsonWalk.rootName));
+    }
+    if (xmlWalk.rootDigest == jsonWalk.rootDigest) {
+      return null;
+    }
+
+    path = new ArrayList<>();
+    path.add(new Step(xmlWalk.rootName, 0, false));
+    while (true) {
+      final Summary xmlSummary = documents.walkXml(path).summary;
+      final Walk jsonProbe = new Walk(limits, path);
+      documents.walkJson(jsonProbe);
+      final Summary jsonSummary = jsonProbe.summary;
+      divergence = compareMembers(xmlSummary, jsonSummary, path);
+      if (divergence != null) {
+        return divergence;
+      }
+      final Step child = findDivergentChild(xmlSummary, jsonSummary);
+      if (child == null) {
+        return new Divergence(toPath(path), DIVERGENCE_DUPLICATE_MEMBERS);
+      }
+      path.add(child);
+    }
+  }
+
+  private static String getAttributePrefix(final String inputSpecialAttributePrefix) {
+    return inputSpecialAttributePrefix != null ? inputSpecialAttributePrefix
+        : JxmlConstants.DEFAULT_SPECIAL_ATTRIBUTE_PREFIX;
+  }
+
+  private Walk walkXml(final InputSource xml, final boolean keepNamespaces, final String attributePrefix,
+                       final List<Step> target)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+    final Walk walk = new Walk(limits, target);
+    final QualifiedNames names = namespaceMapping == null ? null : new QualifiedNames(namespaceMapping,
+                                                                                      keepNamespaces);
+    final XmlHandler handler = new XmlHandler(walk, names, keepNamespaces, attributePrefix);
+    DomBuilder.parse(xml, handler, namespaceMapping != null);
+    return walk;
+  }
+
+  /*
+   * Walks the json tokens, members being told apart as JsonToXml does. Returns the divergence
+   * of a json not following the conversion rules, or null.
+   */
+  private static Divergence walkJson(final Reader json, final String attributePrefix, final Walk walk)
+      throws JxmlException, IOException {
+    final String textContentPrefix = attributePrefix + attributePrefix + JxmlConstants.TEXT_CONTENT_IDENTIFIER_SUFFIX;
+    final JsonReader reader = new JsonReader(json);
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      return new Divergence("/", DIVERGENCE_NO_SINGLE_ROOT);
+    }
+    reader.beginObject();
+    if (!reader.hasNext()) {
+      return new Divergence("/", DIVERGENCE_NO_SINGLE_ROOT);
+    }
+    final String rootName = reader.nextName();
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      return new Divergence("/", String.format(DIVERGENCE_NOT_AN_OBJECT, rootName));
+    }
+    reader.beginObject();
+    walk.start(rootName, false);
+
+    while (!walk.isComplete()) {
+      final Frame frame = walk.current();
+      // array items
+      if (frame.arrayName != null) {
+        if (!reader.hasNext()) {
+          reader.endArray();
+          frame.arrayName = null;
+        } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+          reader.beginObject();
+          walk.start(frame.arrayName, true);
+        } else {
+          return new Divergence(walk.path(frame.arrayName), String.format(DIVERGENCE_NOT_AN_OBJECT, frame.arrayName));
+        }
+        continue;
+      }
+      if (!reader.hasNext()) {
+        reader.endObject();
+        walk.end();
+        continue;
+      }
+
+      final String name = reader.nextName();
+      final JsonToken token = reader.peek();
+      final boolean text = name.length() >= JxmlConstants.TEXT_CONTENT_PREFIX_LENGTH
+          && name.startsWith(textContentPrefix);
+      final boolean attribute = name.length() >= JxmlConstants.ATTRIBUTE_PREFIX_PLUS_CHARACTER_LENGTH
+          && name.charAt(0) == attributePrefix.charAt(0);
+      if (text || attribute) {
+        if (token != JsonToken.STRING) {
+          return new Divergence(walk.path(name), String.format(DIVERGENCE_NOT_A_STRING, name));
+        }
+        if (text) {
+          walk.text(reader.nextString());
+        } else {
+          walk.attribute(name, reader.nextString());
+        }
+      } else if (token == JsonToken.BEGIN_OBJECT) {
+        reader.beginObject();
+        walk.start(name, false);
+      } else if (token == JsonToken.BEGIN_ARRAY) {
+        reader.beginArray();
+        frame.arrayName = name;
+      } else {
+        return new Divergence(walk.path(name), String.format(DIVERGENCE_NOT_AN_OBJECT, name));
+      }
+    }
+    if (reader.hasNext()) {
+      return new Divergence("/", DIVERGENCE_NO_SINGLE_ROOT);
+    }
+    reader.endObject();
+    // the reader being strict, any value following the root object is malformed json
+    reader.peek();
+    return null;
+  }
+
+  private static Divergence compareMembers(final Summary xml, final Summary json, final List<Step> path) {
+    final Set<String> attributeNames = new TreeSet<>(xml.attributes.keySet());
+    attributeNames.addAll(json.attributes.keySet());
+    for (final String name : attributeNames) {
+      final String xmlValue = xml.attributes.get(name);
+      final String jsonValue = json.attributes.get(name);
+      if (!Objects.equals(xmlValue, jsonValue)) {
+        return new Divergence(toPath(path), String.format(DIVERGENCE_ATTRIBUTE, name, describe(xmlValue),
+                                                          describe(jsonValue)));
+      }
+    }
+    if (!Objects.equals(xml.text, json.text)) {
+      return new Divergence(toPath(path), String.format(DIVERGENCE_TEXT, describe(xml.text), describe(json.text)));
+    }
+    for (final String name : getChildNames(xml, json)) {
+      final int xmlCount = xml.getChildCount(name);
+      final int jsonCount = json.getChildCount(name);
+      if (xmlCount != jsonCount) {
+        return new Divergence(toPath(path), String.format(DIVERGENCE_ELEMENT_COUNT, name, xmlCount, jsonCount));
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Returns the first child whose digest differs, both elements having the same number of children of each name.
+   */
+  private static Step findDivergentChild(final Summary xml, final Summary json) {
+    for (final String name : getChildNames(xml, json)) {
+      final Group xmlChildren = xml.children.get(name);
+      final Group jsonChildren = json.children.get(name);
+      for (int i = 0; i < xmlChildren.count; i++) {
+        if (xmlChildren.digests[i] != jsonChildren.digests[i]) {
+          return new Step(name, i, xmlChildren.count > 1);
+        }
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Returns the child names of an element, in order of first occurrence in the XML, then in the json.
+   */
+  private static Set<String> getChildNames(final Summary xml, final Summary json) {
+    final Set<String> names = new LinkedHashSet<>(xml.children.keySet());
+    names.addAll(json.children.keySet());
+    return names;
+  }
+
+  private static String describe(final String value) {
+    return value == null ? "missing" : "'" + value + "'";
+  }
+
+  private static String toPath(final List<Step> steps) {
+    final StringBuilder path = new StringBuilder();
+    for (final Step step : steps) {
+      path.append('/').append(step);
+    }
+    return path.toString();
+  }
+
+  private static long hash(final String value) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  private static long combine(final long first, final long second) {
+    return mix(first * GOLDEN_RATIO + second);
+  }
+
+  private static long mix(final long value) {
+    long mixed = value;
+    mixed = (mixed ^ (mixed >>> 33)) * 0xff51afd7ed558ccdL;
+    mixed = (mixed ^ (mixed >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return mixed ^ (mixed >>> 33);
+  }
+
+  /**
+   * A document verified without being held in memory, opened again for each pass of a verification,
+   * for instance {@code () -> Files.newInputStream(path)}. The opened streams are closed by the verifier.
+   */
+  @FunctionalInterface
+  public interface Source {
+    InputStream open() throws IOException;
+  }
+
+  /**
+   * The first divergence found between an XML and a json: the path of the divergent element,
+   * made of json names, the position among the elements of the same name being given from 1
+   * when there are several of them, and a description of the divergence.
+   */
+  public static final class Divergence {
+    private final String path;
+    private final String message;
+
+    private Divergence(final String path, final String message) {
+      this.path = path;
+      this.message = message;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String toString() {
+      return path + ": " + message;
+    }
+  }
+
+  /*
+   * The XML and the json of a verification, read again by each pass.
+   */
+  private interface Documents {
+    Walk walkXml(List<Step> target) throws JxmlException, ParserConfigurationException, SAXException, IOException;
+
+    Divergence walkJson(Walk walk) throws JxmlException, IOException;
+  }
+
+  private final class StringDocuments implements Documents {
+    private final String xml;
+    private final String json;
+    private final boolean keepNamespaces;
+    private final String attributePrefix;
+
+    private StringDocuments(final String xml, final String json, final boolean keepNamespaces,
+                            final String attributePrefix) {
+      this.xml = xml;
+      this.json = json;
+      this.keepNamespaces = keepNamespaces;
+      this.attributePrefix = attributePrefix;
+    }
+
+    @Override
+    public Walk walkXml(final List<Step> target)
+        throws JxmlException, ParserConfigurationException, SAXException, IOException {
+      return EquivalenceVerifier.this.walkXml(new InputSource(new StringReader(xml)), keepNamespaces,
+                                              attributePrefix, target);
+    }
+
+    @Override
+    public Divergence walkJson(final Walk walk) throws JxmlException, IOException {
+      return EquivalenceVerifier.walkJson(new StringReader(json), attributePrefix, walk);
+    }
+  }
+
+  private final class StreamDocuments implements Documents {
+    private final Source xml;
+    private final Source json;
+    private final boolean keepNamespaces;
+    private final String attributePrefix;
+
+    private StreamDocuments(final Source xml, final Source json, final boolean keepNamespaces,
+                            final String attributePrefix) {
+      this.xml = xml;
+      this.json = json;
+      this.keepNamespaces = keepNamespaces;
+      this.attributePrefix = attributePrefix;
+    }
+
+    @Override
+    public Walk walkXml(final List<Step> target)
+        throws JxmlException, ParserConfigurationException, SAXException, IOException {
+      try (InputStream input = xml.open()) {
+        return EquivalenceVerifier.this.walkXml(new InputSource(new SizeCheckingInputStream(input, limits)),
+                                                keepNamespaces, attributePrefix, target);
+      }
+    }
+
+    @Override
+    public Divergence walkJson(final Walk walk) throws JxmlException, IOException {
+      try (InputStream input = json.open()) {
+        return EquivalenceVerifier.walkJson(new InputStreamReader(new SizeCheckingInputStream(input, limits),
+                                                                  StandardCharsets.UTF_8.newDecoder()),
+                                            attributePrefix, walk);
+      }
+    }
+  }
+
+  /*
+   * Reduces the XML events to the members of the json conversion, as StreamingJsonBuilder does.
+   */
+  private static final class XmlHandler extends DefaultHandler2 {
+    private final Walk walk;
+    private final LeadingText leadingText = new LeadingText();
+    private final QualifiedNames names;
+    private final boolean keepNamespaces;
+    private final String attributePrefix;
+
+    private XmlHandler(final Walk walk, final QualifiedNames names, final boolean keepNamespaces,
+                       final String attributePrefix) {
+      this.walk = walk;
+      this.names = names;
+      this.keepNamespaces = keepNamespaces;
+      this.attributePrefix = attributePrefix;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName,
+                             final Attributes attributes) throws SAXException {
+      try {
+        walk.limits.checkNameLength(qName.length());
+        walk.limits.checkAttributeCount(attributes.getLength());
+        takeText();
+        walk.start(names != null ? names.toJsonName(uri, StreamingJsonBuilder.getLocalName(localName, qName),
+                                                    StreamingJsonBuilder.getPrefix(qName))
+                       : XmlToJson.toJsonName(qName, keepNamespaces), false);
+        leadingText.start();
+        for (int i = 0; i < attributes.getLength(); i++) {
+          readAttribute(attributes, i);
+        }
+      } catch (final JxmlException e) {
+        throw new SAXException(e);
+      }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+      leadingText.characters(ch, start, length);
+    }
+
+    @Override
+    public void startCDATA() {
+      leadingText.startCdata();
+    }
+
+    @Override
+    public void endCDATA() {
+      leadingText.endCdata();
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) {
+      leadingText.comment(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) {
+      leadingText.processingInstruction(data);
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+      takeText();
+      walk.end();
+    }
+
+    private void takeText() {
+      if (leadingText.isOpen()) {
+        final String text = leadingText.take();
+        if (text != null) {
+          walk.text(text);
+        }
+      }
+    }
+
+    private void readAttribute(final Attributes attributes, final int index) throws JxmlException {
+      final String qName = attributes.getQName(index);
+      final String value = attributes.getValue(index);
+      walk.limits.checkTextLength(value.length());
+      if (names == null) {
+        if (keepNamespaces || !value.contains(":")) {
+          walk.attribute(attributePrefix + qName, value);
+        }
+      } else if (StreamingJsonBuilder.isNamespaceDeclaration(qName)) {
+        if (keepNamespaces) {
+          final String declaredPrefix = qName.length() == XMLConstants.XMLNS_ATTRIBUTE.length() ? null
+              : qName.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+          walk.attribute(attributePrefix + names.toJsonDeclarationName(declaredPrefix, value), value);
+        }
+      } else {
+        walk.attribute(attributePrefix + names.toJsonName(attributes.getURI(index),
+                                                          StreamingJsonBuilder.getLocalName(
+                                                              attributes.getLocalName(index), qName),
+                                                          StreamingJsonBuilder.getPrefix(qName)), value);
+      }
+    }
+  }
+
+  /*
+   * Digests the elements of one document, reported by its walker, and keeps the members of the element
+   * at the end of the target path, if any.
+   */
+  private static final class Walk {
+    private final JxmlLimits limits;
+    private final List<Step> target;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private long elementCount;
+    private String rootName;
+    private long rootDigest;
+    private Summary summary;
+
+    private Walk(final JxmlLimits limits, final List<Step> target) {
+      this.limits = limits;
+      this.target = target;
+    }
+
+    private boolean isComplete() {
+      return stack.isEmpty();
+    }
+
+    private Frame current() {
+      return stack.peek();
+    }
+
+    /*
+     * Opens an element, known to be repeated when it is an array item.
+     */
+    private void start(final String name, final boolean repeated) throws JxmlException {
+      limits.checkDepth(stack.size() + 1);
+      limits.checkElementCount(++elementCount);
+      final Frame parent = stack.peek();
+      final int depth = stack.size();
+      final int index;
+      final boolean onTarget;
+      if (parent == null) {
+        rootName = name;
+        index = 0;
+        onTarget = !target.isEmpty();
+      } else {
+        // the previous siblings of the same name are complete
+        index = parent.getGroup(name).count;
+        onTarget = parent.onTarget && depth < target.size() && target.get(depth).matches(name, index);
+      }
+      stack.push(new Frame(name, index, repeated || index > 0, onTarget, onTarget && depth == target.size() - 1));
+    }
+
+    private void attribute(final String name, final String value) {
+      final Frame frame = stack.peek();
+      frame.attributeDigests += combine(hash(name), hash(value));
+      if (frame.attributes != null) {
+        frame.attributes.put(name, value);
+      }
+    }
+
+    private void text(final String text) {
+      stack.peek().getText().append(text);
+    }
+
+    private void end() {
+      final Frame frame = stack.pop();
+      final String text = XmlToJson.toJsonText(frame.text == null ? null : frame.text.toString());
+      long childDigests = 0;
+      if (frame.children != null) {
+        for (final Map.Entry<String, Group> group : frame.children.entrySet()) {
+          childDigests += combine(hash(group.getKey()), combine(group.getValue().count, group.getValue().sequence));
+        }
+      }
+      long digest = combine(NAME_SEED, hash(frame.name));
+      digest = combine(digest, mix(frame.attributeDigests));
+      digest = combine(digest, text == null ? 0 : hash(text));
+      digest = combine(digest, mix(childDigests));
+
+      if (frame.isTarget) {
+        summary = new Summary(frame.attributes, text,
+                              frame.children == null ? Collections.emptyMap() : frame.children);
+      }
+      final Frame parent = stack.peek();
+      if (parent == null) {
+        rootDigest = digest;
+      } else {
+        parent.getGroup(frame.name).add(digest, parent.isTarget);
+      }
+    }
+
+    /*
+     * Returns the path of a member of the current element.
+     */
+    private String path(final String memberName) {
+      final List<Step> steps = new ArrayList<>();
+      for (final Iterator<Frame> frames = stack.descendingIterator(); frames.hasNext();) {
+        final Frame frame = frames.next();
+        steps.add(new Step(frame.name, frame.index, frame.repeated));
+      }
+      steps.add(new Step(memberName, 0, false));
+      return toPath(steps);
+    }
+  }
+
+  /*
+   * State of an open element.
+   */
+  private static final class Frame {
+    private final String name;
+    private final int index;
+    private final boolean repeated;
+    private final boolean onTarget;
+    private final boolean isTarget;
+    private final Map<String, String> attributes;
+    private StringBuilder text;
+    private long attributeDigests;
+    private Map<String, Group> children;
+    private String arrayName;
+
+    private Frame(final String name, final int index, final boolean repeated, final boolean onTarget,
+                  final boolean isTarget) {
+      this.name = name;
+      this.index = index;
+      this.repeated = repeated;
+      this.onTarget = onTarget;
+      this.isTarget = isTarget;
+      this.attributes = isTarget ? new TreeMap<>() : null;
+    }
+
+    private StringBuilder getText() {
+      if (text == null) {
+        text = new StringBuilder();
+      }
+      return text;
+    }
+
+    private Group getGroup(final String childName) {
+      if (children == null) {
+        children = new LinkedHashMap<>();
+      }
+      return children.computeIfAbsent(childName, k -> new Group());
+    }
+  }
+
+  /*
+   * The complete children of the same name of an element, digested in order.
+   */
+  private static final class Group {
+    private int count;
+    private long sequence;
+    private long[] digests;
+
+    private void add(final long digest, final boolean kept) {
+      sequence = combine(sequence, digest);
+      if (kept) {
+        if (digests == null) {
+          digests = new long[4];
+        } else if (count == digests.length) {
+          digests = Arrays.copyOf(digests, count * 2);
+        }
+        digests[count] = digest;
+      }
+      count++;
+    }
+  }
+
+  /*
+   * The members of the element at the end of the target path.
+   */
+  private static final class Summary {
+    private final Map<String, String> attributes;
+    private final String text;
+    private final Map<String, Group> children;
+
+    private Summary(final Map<String, String> attributes, final String text, final Map<String, Group> children) {
+      this.attributes = attributes;
+      this.text = text;
+      this.children = children;
+    }
+
+    private int getChildCount(final String name) {
+      final Group group = children.get(name);
+      return group == null ? 0 : group.count;
+    }
+  }
+
+  /*
+   * An element of a path: its name and its position among the elements of the same name.
+   */
+  private static final class Step {
+    private final String name;
+    private final int index;
+    private final boolean repeated;
+
+    private Step(final String name, final int index, final boolean repeated) {
+      this.name = name;
+      this.index = index;
+      this.repeated = repeated;
+    }
+
+    private boolean matches(final String elementName, final int elementIndex) {
+      return index == elementIndex && name.equals(elementName);
+    }
+
+    @Override
+    public String toString() {
+      return repeated ? name + "[" + (index + 1) + "]" : name;
+    }
+  }
+
+}
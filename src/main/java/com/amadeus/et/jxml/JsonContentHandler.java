@@ -0,0 +1,187 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * A SAX ContentHandler and LexicalHandler converting the reported XML document into json,
+ * so that XmlToJson can be the target of a Transformer through a SAXResult, or of any other
+ * SAX pipeline.
+ *
+ * <p>Events are written to json by the builder of the streaming conversion, with the limits
+ * checked on each event, so that the heap does not grow with the size of the document: the
+ * json is written as the root element completes, and flushed once the end of the document is
+ * reported, the temporary files of the builder being then deleted. Namespace declarations reported as prefix mappings only are turned
+ * into attributes, and missing qualified names are rebuilt from the declarations in
+ * scope, so that the events of any SAX producer give the json of the parsed text. Comments,
+ * CDATA sections and processing instructions are reported to the builder, which takes the text
+ * of an element from them as when parsing.
+ */
+final class JsonContentHandler implements ContentHandler, LexicalHandler {
+
+  private static final String CDATA = "CDATA";
+
+  private final StreamingJsonBuilder builder;
+  private final Writer output;
+  private final NamespaceSupport namespaces = new NamespaceSupport();
+  private final List<String[]> declarations = new ArrayList<>();
+
+  JsonContentHandler(final StreamingJsonBuilder builder, final Writer output) {
+    this.builder = builder;
+    this.output = output;
+  }
+
+  @Override
+  public void setDocumentLocator(final Locator locator) {
+    // locations are not reported in json
+  }
+
+  @Override
+  public void startDocument() {
+    namespaces.reset();
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    try {
+      try {
+        output.flush();
+      } finally {
+        builder.close();
+      }
+    } catch (final IOException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void startPrefixMapping(final String prefix, final String uri) {
+    declarations.add(new String[] {prefix, uri});
+  }
+
+  @Override
+  public void endPrefixMapping(final String prefix) {
+    // declarations go out of scope with their element
+  }
+
+  @Override
+  public void startElement(final String uri, final String localName, final String qName, final Attributes atts)
+      throws SAXException {
+    namespaces.pushContext();
+    for (final String[] declaration : declarations) {
+      namespaces.declarePrefix(declaration[0], declaration[1]);
+    }
+    Attributes attributes = atts;
+    if (!declarations.isEmpty() || hasMissingQualifiedName(atts)) {
+      final AttributesImpl completed = new AttributesImpl();
+      for (int i = 0; i < atts.getLength(); i++) {
+        completed.addAttribute(atts.getURI(i), atts.getLocalName(i), getQualifiedName(atts.getURI(i),
+            atts.getLocalName(i), atts.getQName(i)), atts.getType(i), atts.getValue(i));
+      }
+      for (final String[] declaration : declarations) {
+        final String declarationName = declaration[0].isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE
+            : XMLConstants.XMLNS_ATTRIBUTE + ':' + declaration[0];
+        if (completed.getIndex(declarationName) < 0) {
+          completed.addAttribute("", "", declarationName, CDATA, declaration[1]);
+        }
+      }
+      attributes = completed;
+      declarations.clear();
+    }
+    builder.startElement(uri, localName, getQualifiedName(uri, localName, qName), attributes);
+  }
+
+  @Override
+  public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+    builder.endElement(uri, localName, qName);
+    namespaces.popContext();
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length) throws SAXException {
+    builder.characters(ch, start, length);
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start, final int length) {
+    // dropped, as when parsing
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    builder.processingInstruction(target, data);
+  }
+
+  @Override
+  public void skippedEntity(final String name) {
+    // nothing to convert
+  }
+
+  @Override
+  public void startDTD(final String name, final String publicId, final String systemId) {
+    // document type declarations are not converted
+  }
+
+  @Override
+  public void endDTD() {
+    // document type declarations are not converted
+  }
+
+  @Override
+  public void startEntity(final String name) {
+    // entities are reported expanded
+  }
+
+  @Override
+  public void endEntity(final String name) {
+    // entities are reported expanded
+  }
+
+  @Override
+  public void startCDATA() {
+    builder.startCDATA();
+  }
+
+  @Override
+  public void endCDATA() {
+    builder.endCDATA();
+  }
+
+  @Override
+  public void comment(final char[] ch, final int start, final int length) throws SAXException {
+    builder.comment(ch, start, length);
+  }
+
+  private static boolean hasMissingQualifiedName(final Attributes atts) {
+    for (int i = 0; i < atts.getLength(); i++) {
+      if (atts.getQName(i) == null || atts.getQName(i).isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Qualified names are optional in SAX when the 'namespace-prefixes' feature is not set.
+   */
+  private String getQualifiedName(final String uri, final String localName, final String qName) {
+    if (qName != null && !qName.isEmpty()) {
+      return qName;
+    }
+    final String prefix = uri == null || uri.isEmpty() ? null : namespaces.getPrefix(uri);
+    return prefix == null ? localName : prefix + ':' + localName;
+  }
+
+}
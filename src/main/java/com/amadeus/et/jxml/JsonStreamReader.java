@@ -0,0 +1,385 @@
+package com.amadeus.et.jxml;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * An XMLStreamReader over the StAX events of the XML conversion of a json tree, so that
+ * JsonToXml can be plugged as a StAXSource into a Transformer, a Validator or any other
+ * StAX consumer, without any DOM nor XML text being built.
+ */
+final class JsonStreamReader implements XMLStreamReader {
+
+  private static final String ERROR_UNEXPECTED_EVENT =
+      "Unexpected event %d.";
+
+  private static final Location LOCATION = new Location() {
+    @Override
+    public int getLineNumber() {
+      return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+      return -1;
+    }
+
+    @Override
+    public int getCharacterOffset() {
+      return -1;
+    }
+
+    @Override
+    public String getPublicId() {
+      return null;
+    }
+
+    @Override
+    public String getSystemId() {
+      return null;
+    }
+  };
+
+  private final JsonXmlCursor cursor;
+
+  JsonStreamReader(final JsonXmlCursor cursor) {
+    this.cursor = cursor;
+  }
+
+  @Override
+  public Object getProperty(final String name) {
+    return null;
+  }
+
+  @Override
+  public int next() throws XMLStreamException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    try {
+      return cursor.next();
+    } catch (final JxmlException | RuntimeException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  @Override
+  public void require(final int type, final String namespaceURI, final String localName) throws XMLStreamException {
+    if (type != getEventType()
+        || namespaceURI != null && !namespaceURI.equals(getNamespaceURI())
+        || localName != null && !localName.equals(getLocalName())) {
+      throw new XMLStreamException(String.format(ERROR_UNEXPECTED_EVENT, getEventType()));
+    }
+  }
+
+  @Override
+  public String getElementText() throws XMLStreamException {
+    require(XMLStreamConstants.START_ELEMENT, null, null);
+    final StringBuilder text = new StringBuilder();
+    for (int event = next(); event != XMLStreamConstants.END_ELEMENT; event = next()) {
+      if (event != XMLStreamConstants.CHARACTERS) {
+        throw new XMLStreamException(String.format(ERROR_UNEXPECTED_EVENT, event));
+      }
+      text.append(getText());
+    }
+    return text.toString();
+  }
+
+  @Override
+  public int nextTag() throws XMLStreamException {
+    int event = next();
+    while (event == XMLStreamConstants.CHARACTERS && isWhiteSpace()) {
+      event = next();
+    }
+    if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+      throw new XMLStreamException(String.format(ERROR_UNEXPECTED_EVENT, event));
+    }
+    return event;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return cursor.getEventType() != XMLStreamConstants.END_DOCUMENT;
+  }
+
+  @Override
+  public void close() {
+    // nothing to release, the json being read as a whole
+  }
+
+  @Override
+  public String getNamespaceURI(final String prefix) {
+    return cursor.getNamespaces().getURI(prefix);
+  }
+
+  @Override
+  public boolean isStartElement() {
+    return getEventType() == XMLStreamConstants.START_ELEMENT;
+  }
+
+  @Override
+  public boolean isEndElement() {
+    return getEventType() == XMLStreamConstants.END_ELEMENT;
+  }
+
+  @Override
+  public boolean isCharacters() {
+    return getEventType() == XMLStreamConstants.CHARACTERS;
+  }
+
+  @Override
+  public boolean isWhiteSpace() {
+    return isCharacters() && getText().trim().isEmpty();
+  }
+
+  @Override
+  public String getAttributeValue(final String namespaceURI, final String localName) {
+    checkStartElement();
+    for (final JsonXmlCursor.Attribute attribute : cursor.getAttributes()) {
+      if (attribute.getName().getLocalPart().equals(localName)
+          && (namespaceURI == null || namespaceURI.equals(attribute.getName().getNamespaceURI()))) {
+        return attribute.getValue();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int getAttributeCount() {
+    checkStartElement();
+    return cursor.getAttributes().size();
+  }
+
+  @Override
+  public QName getAttributeName(final int index) {
+    return getAttribute(index).getName();
+  }
+
+  @Override
+  public String getAttributeNamespace(final int index) {
+    return emptyToNull(getAttribute(index).getName().getNamespaceURI());
+  }
+
+  @Override
+  public String getAttributeLocalName(final int index) {
+    return getAttribute(index).getName().getLocalPart();
+  }
+
+  @Override
+  public String getAttributePrefix(final int index) {
+    return getAttribute(index).getName().getPrefix();
+  }
+
+  @Override
+  public String getAttributeType(final int index) {
+    getAttribute(index);
+    return "CDATA";
+  }
+
+  @Override
+  public String getAttributeValue(final int index) {
+    return getAttribute(index).getValue();
+  }
+
+  @Override
+  public boolean isAttributeSpecified(final int index) {
+    getAttribute(index);
+    return true;
+  }
+
+  @Override
+  public int getNamespaceCount() {
+    return getDeclarations().size();
+  }
+
+  @Override
+  public String getNamespacePrefix(final int index) {
+    final String prefix = getDeclarations().get(index)[0];
+    // the default namespace has a null prefix in StAX
+    return prefix.isEmpty() ? null : prefix;
+  }
+
+  @Override
+  public String getNamespaceURI(final int index) {
+    return getDeclarations().get(index)[1];
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    final NamespaceSupport namespaces = cursor.getNamespaces();
+    return new NamespaceContext() {
+      @Override
+      public String getNamespaceURI(final String prefix) {
+        final String namespaceUri = namespaces.getURI(prefix);
+        return namespaceUri == null ? XMLConstants.NULL_NS_URI : namespaceUri;
+      }
+
+      @Override
+      public String getPrefix(final String namespaceURI) {
+        final Iterator<String> prefixes = getPrefixes(namespaceURI);
+        return prefixes.hasNext() ? prefixes.next() : null;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public Iterator<String> getPrefixes(final String namespaceURI) {
+        final List<String> prefixes = Collections.list(namespaces.getPrefixes(namespaceURI));
+        if (namespaceURI.equals(namespaces.getURI(XMLConstants.DEFAULT_NS_PREFIX))) {
+          prefixes.add(XMLConstants.DEFAULT_NS_PREFIX);
+        }
+        return prefixes.iterator();
+      }
+    };
+  }
+
+  @Override
+  public int getEventType() {
+    return cursor.getEventType();
+  }
+
+  @Override
+  public String getText() {
+    checkCharacters();
+    return cursor.getText();
+  }
+
+  @Override
+  public char[] getTextCharacters() {
+    return getText().toCharArray();
+  }
+
+  @Override
+  public int getTextCharacters(final int sourceStart, final char[] target, final int targetStart, final int length) {
+    final String text = getText();
+    final int copied = Math.max(0, Math.min(length, text.length() - sourceStart));
+    text.getChars(sourceStart, sourceStart + copied, target, targetStart);
+    return copied;
+  }
+
+  @Override
+  public int getTextStart() {
+    checkCharacters();
+    return 0;
+  }
+
+  @Override
+  public int getTextLength() {
+    return getText().length();
+  }
+
+  @Override
+  public String getEncoding() {
+    return null;
+  }
+
+  @Override
+  public boolean hasText() {
+    return isCharacters();
+  }
+
+  @Override
+  public Location getLocation() {
+    return LOCATION;
+  }
+
+  @Override
+  public QName getName() {
+    checkElement();
+    return cursor.getName();
+  }
+
+  @Override
+  public String getLocalName() {
+    return getName().getLocalPart();
+  }
+
+  @Override
+  public boolean hasName() {
+    return isStartElement() || isEndElement();
+  }
+
+  @Override
+  public String getNamespaceURI() {
+    return hasName() ? emptyToNull(cursor.getName().getNamespaceURI()) : null;
+  }
+
+  @Override
+  public String getPrefix() {
+    return getName().getPrefix();
+  }
+
+  @Override
+  public String getVersion() {
+    return null;
+  }
+
+  @Override
+  public boolean isStandalone() {
+    return false;
+  }
+
+  @Override
+  public boolean standaloneSet() {
+    return false;
+  }
+
+  @Override
+  public String getCharacterEncodingScheme() {
+    return null;
+  }
+
+  @Override
+  public String getPITarget() {
+    return null;
+  }
+
+  @Override
+  public String getPIData() {
+    return null;
+  }
+
+  private JsonXmlCursor.Attribute getAttribute(final int index) {
+    checkStartElement();
+    return cursor.getAttributes().get(index);
+  }
+
+  private List<String[]> getDeclarations() {
+    checkElement();
+    return cursor.getNamespaceDeclarations();
+  }
+
+  private void checkStartElement() {
+    if (!isStartElement()) {
+      throw new IllegalStateException(String.format(ERROR_UNEXPECTED_EVENT, getEventType()));
+    }
+  }
+
+  private void checkElement() {
+    if (!hasName()) {
+      throw new IllegalStateException(String.format(ERROR_UNEXPECTED_EVENT, getEventType()));
+    }
+  }
+
+  private void checkCharacters() {
+    if (!isCharacters()) {
+      throw new IllegalStateException(String.format(ERROR_UNEXPECTED_EVENT, getEventType()));
+    }
+  }
+
+  private static String emptyToNull(final String namespaceUri) {
+    return namespaceUri.isEmpty() ? null : namespaceUri;
+  }
+
+}
@@ -0,0 +1,410 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * An XMLStreamWriter reporting what is written as SAX events to a JsonContentHandler, so
+ * that XmlToJson can be the target of a Transformer through a StAXResult, or of any other
+ * StAX producer. The json is written once the document is ended.
+ *
+ * <p>The writer is not namespace-repairing: prefixes must be bound, by writeNamespace or
+ * setPrefix, before being used. Comments, CDATA sections and processing instructions are
+ * reported as well, to a handler that is also a LexicalHandler for the first two, so that they
+ * give the text of an element as when parsing.
+ */
+final class JsonStreamWriter implements XMLStreamWriter {
+
+  private static final String CDATA = "CDATA";
+  private static final String ERROR_UNBOUND_NAMESPACE =
+      "Namespace URI '%s' is not bound to any prefix.";
+  private static final String ERROR_UNSUPPORTED_ENTITY =
+      "Entity reference '%s' is not supported.";
+  private static final String ERROR_NO_OPEN_ELEMENT =
+      "There is no open element.";
+
+  private final ContentHandler handler;
+  private final LexicalHandler lexicalHandler;
+  private final Writer output;
+  private final NamespaceSupport namespaces = new NamespaceSupport();
+  private final Deque<String[]> openElements = new ArrayDeque<>();
+  private final AttributesImpl attributes = new AttributesImpl();
+  private NamespaceContext namespaceContext;
+  private boolean documentStarted;
+  private boolean documentEnded;
+  // start element waiting for its attributes and namespaces
+  private String[] pendingElement;
+  private boolean pendingEmpty;
+
+  JsonStreamWriter(final ContentHandler handler, final Writer output) {
+    this.handler = handler;
+    this.lexicalHandler = handler instanceof LexicalHandler ? (LexicalHandler) handler : null;
+    this.output = output;
+    namespaces.pushContext();
+  }
+
+  @Override
+  public void writeStartElement(final String localName) throws XMLStreamException {
+    final String defaultUri = namespaces.getURI(XMLConstants.DEFAULT_NS_PREFIX);
+    startElement(defaultUri == null ? XMLConstants.NULL_NS_URI : defaultUri, localName,
+                 XMLConstants.DEFAULT_NS_PREFIX, false);
+  }
+
+  @Override
+  public void writeStartElement(final String namespaceURI, final String localName) throws XMLStreamException {
+    startElement(namespaceURI, localName, getBoundPrefix(namespaceURI), false);
+  }
+
+  @Override
+  public void writeStartElement(final String prefix, final String localName, final String namespaceURI)
+      throws XMLStreamException {
+    startElement(namespaceURI, localName, prefix, false);
+  }
+
+  @Override
+  public void writeEmptyElement(final String namespaceURI, final String localName) throws XMLStreamException {
+    startElement(namespaceURI, localName, getBoundPrefix(namespaceURI), true);
+  }
+
+  @Override
+  public void writeEmptyElement(final String prefix, final String localName, final String namespaceURI)
+      throws XMLStreamException {
+    startElement(namespaceURI, localName, prefix, true);
+  }
+
+  @Override
+  public void writeEmptyElement(final String localName) throws XMLStreamException {
+    final String defaultUri = namespaces.getURI(XMLConstants.DEFAULT_NS_PREFIX);
+    startElement(defaultUri == null ? XMLConstants.NULL_NS_URI : defaultUri, localName,
+                 XMLConstants.DEFAULT_NS_PREFIX, true);
+  }
+
+  @Override
+  public void writeEndElement() throws XMLStreamException {
+    flushStartElement();
+    if (openElements.isEmpty()) {
+      throw new XMLStreamException(ERROR_NO_OPEN_ELEMENT);
+    }
+    endElement();
+  }
+
+  @Override
+  public void writeEndDocument() throws XMLStreamException {
+    flushStartElement();
+    while (!openElements.isEmpty()) {
+      endElement();
+    }
+    endDocument();
+  }
+
+  @Override
+  public void close() throws XMLStreamException {
+    if (documentStarted && openElements.isEmpty() && pendingElement == null) {
+      endDocument();
+    }
+  }
+
+  @Override
+  public void flush() throws XMLStreamException {
+    try {
+      output.flush();
+    } catch (final IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  @Override
+  public void writeAttribute(final String localName, final String value) {
+    attributes.addAttribute(XMLConstants.NULL_NS_URI, localName, localName, CDATA, value);
+  }
+
+  @Override
+  public void writeAttribute(final String prefix, final String namespaceURI, final String localName,
+                             final String value) {
+    attributes.addAttribute(namespaceURI, localName, qualify(prefix, localName), CDATA, value);
+  }
+
+  @Override
+  public void writeAttribute(final String namespaceURI, final String localName, final String value)
+      throws XMLStreamException {
+    attributes.addAttribute(namespaceURI, localName, qualify(getBoundPrefix(namespaceURI), localName), CDATA, value);
+  }
+
+  @Override
+  public void writeNamespace(final String prefix, final String namespaceURI) throws XMLStreamException {
+    if (prefix == null || prefix.isEmpty() || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+      writeDefaultNamespace(namespaceURI);
+      return;
+    }
+    namespaces.declarePrefix(prefix, namespaceURI);
+    startPrefixMapping(prefix, namespaceURI);
+  }
+
+  @Override
+  public void writeDefaultNamespace(final String namespaceURI) throws XMLStreamException {
+    namespaces.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+    startPrefixMapping(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+  }
+
+  @Override
+  public void writeComment(final String data) throws XMLStreamException {
+    flushStartElement();
+    if (lexicalHandler != null) {
+      final char[] chars = data.toCharArray();
+      try {
+        lexicalHandler.comment(chars, 0, chars.length);
+      } catch (final SAXException e) {
+        throw new XMLStreamException(e);
+      }
+    }
+  }
+
+  @Override
+  public void writeProcessingInstruction(final String target) throws XMLStreamException {
+    writeProcessingInstruction(target, "");
+  }
+
+  @Override
+  public void writeProcessingInstruction(final String target, final String data) throws XMLStreamException {
+    flushStartElement();
+    try {
+      handler.processingInstruction(target, data);
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  @Override
+  public void writeCData(final String data) throws XMLStreamException {
+    flushStartElement();
+    if (lexicalHandler == null) {
+      writeCharacters(data);
+      return;
+    }
+    try {
+      lexicalHandler.startCDATA();
+      writeCharacters(data);
+      lexicalHandler.endCDATA();
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  @Override
+  public void writeDTD(final String dtd) {
+    // document type declarations are not converted
+  }
+
+  @Override
+  public void writeEntityRef(final String name) throws XMLStreamException {
+    switch (name) {
+      case "amp":
+        writeCharacters("&");
+        break;
+      case "lt":
+        writeCharacters("<");
+        break;
+      case "gt":
+        writeCharacters(">");
+        break;
+      case "quot":
+        writeCharacters("\"");
+        break;
+      case "apos":
+        writeCharacters("'");
+        break;
+      default:
+        throw new XMLStreamException(String.format(ERROR_UNSUPPORTED_ENTITY, name));
+    }
+  }
+
+  @Override
+  public void writeStartDocument() throws XMLStreamException {
+    startDocument();
+  }
+
+  @Override
+  public void writeStartDocument(final String version) throws XMLStreamException {
+    startDocument();
+  }
+
+  @Override
+  public void writeStartDocument(final String encoding, final String version) throws XMLStreamException {
+    startDocument();
+  }
+
+  @Override
+  public void writeCharacters(final String text) throws XMLStreamException {
+    final char[] chars = text.toCharArray();
+    writeCharacters(chars, 0, chars.length);
+  }
+
+  @Override
+  public void writeCharacters(final char[] text, final int start, final int len) throws XMLStreamException {
+    flushStartElement();
+    try {
+      handler.characters(text, start, len);
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  @Override
+  public String getPrefix(final String uri) {
+    final String prefix = namespaces.getPrefix(uri);
+    if (prefix != null) {
+      return prefix;
+    }
+    if (uri.equals(namespaces.getURI(XMLConstants.DEFAULT_NS_PREFIX))) {
+      return XMLConstants.DEFAULT_NS_PREFIX;
+    }
+    return namespaceContext == null ? null : namespaceContext.getPrefix(uri);
+  }
+
+  @Override
+  public void setPrefix(final String prefix, final String uri) {
+    namespaces.declarePrefix(prefix, uri);
+  }
+
+  @Override
+  public void setDefaultNamespace(final String uri) {
+    namespaces.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, uri);
+  }
+
+  @Override
+  public void setNamespaceContext(final NamespaceContext context) {
+    this.namespaceContext = context;
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return new NamespaceContext() {
+      @Override
+      public String getNamespaceURI(final String prefix) {
+        final String namespaceUri = namespaces.getURI(prefix);
+        if (namespaceUri != null) {
+          return namespaceUri;
+        }
+        return namespaceContext == null ? XMLConstants.NULL_NS_URI : namespaceContext.getNamespaceURI(prefix);
+      }
+
+      @Override
+      public String getPrefix(final String namespaceURI) {
+        return JsonStreamWriter.this.getPrefix(namespaceURI);
+      }
+
+      @Override
+      public Iterator<String> getPrefixes(final String namespaceURI) {
+        final String prefix = getPrefix(namespaceURI);
+        return prefix == null ? Collections.<String>emptyIterator()
+            : Collections.singletonList(prefix).iterator();
+      }
+    };
+  }
+
+  @Override
+  public Object getProperty(final String name) {
+    throw new IllegalArgumentException(name);
+  }
+
+  private String getBoundPrefix(final String namespaceURI) throws XMLStreamException {
+    if (namespaceURI == null || namespaceURI.isEmpty()) {
+      return XMLConstants.DEFAULT_NS_PREFIX;
+    }
+    final String prefix = getPrefix(namespaceURI);
+    if (prefix == null) {
+      throw new XMLStreamException(String.format(ERROR_UNBOUND_NAMESPACE, namespaceURI));
+    }
+    return prefix;
+  }
+
+  private static String qualify(final String prefix, final String localName) {
+    return prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName;
+  }
+
+  private void startDocument() throws XMLStreamException {
+    if (documentStarted) {
+      return;
+    }
+    documentStarted = true;
+    try {
+      handler.startDocument();
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  private void startPrefixMapping(final String prefix, final String namespaceURI) throws XMLStreamException {
+    try {
+      handler.startPrefixMapping(prefix, namespaceURI);
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  private void startElement(final String namespaceURI, final String localName, final String prefix,
+                            final boolean empty) throws XMLStreamException {
+    startDocument();
+    flushStartElement();
+    namespaces.pushContext();
+    pendingElement = new String[] {namespaceURI == null ? XMLConstants.NULL_NS_URI : namespaceURI, localName,
+                                   qualify(prefix, localName)};
+    pendingEmpty = empty;
+  }
+
+  private void flushStartElement() throws XMLStreamException {
+    if (pendingElement == null) {
+      return;
+    }
+    final String[] element = pendingElement;
+    pendingElement = null;
+    try {
+      handler.startElement(element[0], element[1], element[2], attributes);
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+    attributes.clear();
+    openElements.push(element);
+    if (pendingEmpty) {
+      endElement();
+    }
+  }
+
+  private void endElement() throws XMLStreamException {
+    final String[] element = openElements.pop();
+    try {
+      handler.endElement(element[0], element[1], element[2]);
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+    namespaces.popContext();
+  }
+
+  private void endDocument() throws XMLStreamException {
+    if (documentEnded) {
+      return;
+    }
+    documentEnded = true;
+    try {
+      handler.endDocument();
+    } catch (final SAXException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+}
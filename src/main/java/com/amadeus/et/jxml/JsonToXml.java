@@ -1,13 +1,30 @@
 package com.amadeus.et.jxml;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -16,15 +33,56 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.XMLReader;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 public class JsonToXml {
 
+  private static final String SERIALIZER_THREAD_NAME = "jxml-serializer";
+  private static final long BASE_STACK_SIZE = 1L << 20;
+  // twice the stack used by a level of the identity transformer, interpreted
+  private static final long STACK_SIZE_PER_LEVEL = 1024;
+
+  private JxmlLimits limits = new JxmlLimits();
+  private ConversionCache cache;
+  private NamespaceMapping namespaceMapping;
+
   public JsonToXml() {}
 
+  /**
+   * Sets the limits applied to the converted documents.
+   * A document exceeding them is rejected with a JxmlException.
+   *
+   * @param  limits  the limits to apply
+   */
+  public void setLimits(final JxmlLimits limits) {
+    this.limits = Objects.requireNonNull(limits, "limits");
+  }
+
+  /**
+   * Sets the cache used to skip the conversion of already converted inputs.
+   *
+   * @param  cache  the cache to use, or null to always convert
+   */
+  public void setCache(final ConversionCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the namespace mapping enabling the namespace-aware mode: json prefixes are then
+   * resolved to the namespace URIs of the mapping, producing namespace-qualified elements
+   * and attributes, and namespace declarations are identified by their name. Without
+   * namespaces, only the namespace declarations are dropped, all other attributes are kept.
+   *
+   * @param  namespaceMapping  the mapping to apply, or null to use the json prefixes as they are
+   */
+  public void setNamespaceMapping(final NamespaceMapping namespaceMapping) {
+    this.namespaceMapping = namespaceMapping;
+  }
+
   /**
    * Returns a String object that represents the XML conversion
    * of the input argument. The json argument must be a valid JSON.
@@ -90,6 +148,259 @@ public class JsonToXml {
     return buildXml(json, keepNamespaces, inputSpecialAttributePrefix);
   }
 
+  /**
+   * Writes the XML conversion of the json read from the input argument to the output, without
+   * building the whole XML text. The json is parsed straight from the reader, its size, in
+   * characters, being checked against the limits while it is read.
+   *
+   * @param  json    a JSON, read from a Reader, to be converted to XML format
+   * @param  output  the writer of the converted object, flushed but not closed
+   */
+  public void execute(final Reader json, final Writer output)
+      throws JxmlException, ParserConfigurationException, TransformerException, IOException {
+
+    execute(json, output, true, null);
+  }
+
+  /**
+   * Writes the XML conversion of the json read from the input argument to the output, as
+   * {@link #execute(Reader, Writer)} does. The keepNamespaces and inputSpecialAttributePrefix
+   * arguments are the ones of {@link #execute(String, boolean, String)}.
+   *
+   * @param  json                         a JSON, read from a Reader, to be converted to XML format
+   * @param  output                       the writer of the converted object, flushed but not closed
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   */
+  public void execute(final Reader json, final Writer output, final boolean keepNamespaces,
+                      final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, TransformerException, IOException {
+    if (json == null) {
+      Utilities.checkJson(null);
+    }
+    buildXml(new SizeCheckingReader(json, limits), keepNamespaces, inputSpecialAttributePrefix, output);
+  }
+
+  /**
+   * Writes the XML conversion of the json read from the input argument, encoded in UTF-8, to the
+   * output, without building the whole XML text. The json is parsed straight from the stream,
+   * its size, in bytes, being checked against the limits while it is read.
+   *
+   * @param  json    a JSON, presented as a byte stream, to be converted to XML format
+   * @param  output  the writer of the converted object, flushed but not closed
+   */
+  public void execute(final InputStream json, final Writer output)
+      throws JxmlException, ParserConfigurationException, TransformerException, IOException {
+
+    execute(json, output, true, null);
+  }
+
+  /**
+   * Writes the XML conversion of the json read from the input argument to the output, as
+   * {@link #execute(InputStream, Writer)} does. The keepNamespaces and inputSpecialAttributePrefix
+   * arguments are the ones of {@link #execute(String, boolean, String)}.
+   *
+   * @param  json                         a JSON, presented as a byte stream, to be converted to XML format
+   * @param  output                       the writer of the converted object, flushed but not closed
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   */
+  public void execute(final InputStream json, final Writer output, final boolean keepNamespaces,
+                      final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, TransformerException, IOException {
+    if (json == null) {
+      Utilities.checkJson(null);
+    }
+    buildXml(new InputStreamReader(new SizeCheckingInputStream(json, limits), StandardCharsets.UTF_8.newDecoder()),
+             keepNamespaces, inputSpecialAttributePrefix, output);
+  }
+
+  /**
+   * Returns the DOM conversion of a json tree, without serializing nor parsing any json.
+   * The limits checked while parsing do not apply, the nesting depth being still checked.
+   *
+   * @param  json  a json tree to be converted to XML format
+   * @return       the converted DOM document
+   */
+  public Document toDocument(final JsonElement json) throws JxmlException, ParserConfigurationException {
+
+    return toDocument(json, true, null);
+  }
+
+  /**
+   * Returns the DOM conversion of a json tree, without serializing nor parsing any json.
+   * The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}.
+   *
+   * @param  json                         a json tree to be converted to XML format
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the converted DOM document
+   */
+  public Document toDocument(final JsonElement json, final boolean keepNamespaces,
+                             final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    return convertToDocument(Utilities.checkJsonRoot(json), keepNamespaces,
+                             getSpecialAttributePrefix(inputSpecialAttributePrefix));
+  }
+
+  /**
+   * Converts a json tree to XML, written to the given result: a DOM result receives the converted
+   * nodes, a stream result the serialized XML, and a SAX result the events of the converted document.
+   *
+   * @param  json    a json tree to be converted to XML format
+   * @param  result  the result receiving the converted XML
+   */
+  public void transform(final JsonElement json, final Result result)
+      throws JxmlException, ParserConfigurationException, TransformerException {
+
+    transform(json, result, true, null);
+  }
+
+  /**
+   * Converts a json tree to XML, written to the given result. The keepNamespaces and
+   * inputSpecialAttributePrefix arguments are the ones of {@link #execute(String, boolean, String)}.
+   *
+   * @param  json                         a json tree to be converted to XML format
+   * @param  result                       the result receiving the converted XML
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   */
+  public void transform(final JsonElement json, final Result result, final boolean keepNamespaces,
+                        final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, TransformerException {
+
+    transform(toDocument(json, keepNamespaces, inputSpecialAttributePrefix), result);
+  }
+
+  /**
+   * Returns an XMLReader reading json, and reporting the SAX events of its XML conversion
+   * without building any DOM nor XML text, to be used as the reader of a SAXSource.
+   *
+   * @return  the XMLReader
+   */
+  public XMLReader newXmlReader() {
+    return new JsonXmlReader(this, true, JxmlConstants.DEFAULT_SPECIAL_ATTRIBUTE_PREFIX);
+  }
+
+  /**
+   * Returns an XMLReader reading json, and reporting the SAX events of its XML conversion.
+   * The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}.
+   *
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the XMLReader
+   */
+  public XMLReader newXmlReader(final boolean keepNamespaces, final String inputSpecialAttributePrefix)
+      throws JxmlException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    return new JsonXmlReader(this, keepNamespaces, getSpecialAttributePrefix(inputSpecialAttributePrefix));
+  }
+
+  /**
+   * Returns an XMLStreamReader over the StAX events of the XML conversion of the given json,
+   * without building any DOM nor XML text. The json is read when this method is called.
+   *
+   * @param  json  a JSON, read from a Reader, to be converted to XML format
+   * @return       the XMLStreamReader
+   */
+  public XMLStreamReader newXmlStreamReader(final Reader json) throws JxmlException {
+
+    return newXmlStreamReader(json, true, null);
+  }
+
+  /**
+   * Returns an XMLStreamReader over the StAX events of the XML conversion of the given json.
+   * The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}.
+   *
+   * @param  json                         a JSON, read from a Reader, to be converted to XML format
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the XMLStreamReader
+   */
+  public XMLStreamReader newXmlStreamReader(final Reader json, final boolean keepNamespaces,
+                                            final String inputSpecialAttributePrefix) throws JxmlException {
+    if (json == null) {
+      Utilities.checkJson(null);
+    }
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    return new JsonStreamReader(newCursor(json, keepNamespaces,
+                                          getSpecialAttributePrefix(inputSpecialAttributePrefix)));
+  }
+
+  JsonXmlCursor newCursor(final Reader json, final boolean keepNamespaces, final String specialAttributePrefix)
+      throws JxmlException {
+    final JsonObject rootNode = JsonTreeReader.read(json, limits, specialAttributePrefix).getAsJsonObject();
+    Utilities.checkJsonRoot(rootNode);
+    final QualifiedNames names = namespaceMapping == null ? null : new QualifiedNames(namespaceMapping, keepNamespaces);
+    return new JsonXmlCursor(rootNode, limits, keepNamespaces, specialAttributePrefix, names);
+  }
+
+  /**
+   * Starts a non-blocking conversion of a JSON encoded in UTF-8, fed by chunks as they arrive.
+   * The chunks are parsed on the given executor as they arrive, as {@link AsyncConversion} details,
+   * and the XML output is pushed to the sink by chunks of UTF-8 bytes.
+   *
+   * @param  sink      the consumer of the output chunks
+   * @param  executor  the executor running the conversion
+   * @return           the conversion to feed
+   */
+  public AsyncConversion executeAsync(final Consumer<ByteBuffer> sink, final Executor executor) {
+    return new AsyncConversion(limits, (json, output) -> execute(json, output), sink, executor,
+                               StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Starts a non-blocking conversion of a JSON encoded in UTF-8, fed by chunks as they arrive.
+   * The chunks are parsed on the given executor as they arrive, as {@link AsyncConversion} details,
+   * and the XML output is pushed to the sink by chunks of UTF-8 bytes.
+   * The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}.
+   *
+   * @param  sink                         the consumer of the output chunks
+   * @param  executor                     the executor running the conversion
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the conversion to feed
+   */
+  public AsyncConversion executeAsync(final Consumer<ByteBuffer> sink, final Executor executor,
+                                      final boolean keepNamespaces, final String inputSpecialAttributePrefix)
+      throws JxmlException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    return new AsyncConversion(limits, (json, output) -> execute(json, output, keepNamespaces,
+                                                                 inputSpecialAttributePrefix),
+                               sink, executor, StandardCharsets.UTF_8);
+  }
+
+  private void buildXml(final Reader json, final boolean keepNamespaces, final String inputSpecialAttributePrefix,
+                        final Writer output) throws JxmlException, ParserConfigurationException,
+                                                    TransformerException, IOException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    final String specialAttributePrefix = getSpecialAttributePrefix(inputSpecialAttributePrefix);
+    // parsed from the reader, without holding the json text
+    final JsonObject rootNode = Utilities.checkJsonRoot(JsonTreeReader.read(json, limits, specialAttributePrefix));
+    transform(convertToDocument(rootNode, keepNamespaces, specialAttributePrefix), new StreamResult(output));
+    output.flush();
+  }
+
+  private static String getSpecialAttributePrefix(final String inputSpecialAttributePrefix) {
+    return inputSpecialAttributePrefix != null ? inputSpecialAttributePrefix
+        : JxmlConstants.DEFAULT_SPECIAL_ATTRIBUTE_PREFIX;
+  }
+
   private String buildXml(final String json, final boolean keepNamespaces, final String inputSpecialAttributePrefix)
       throws JxmlException, ParserConfigurationException, TransformerException {
     checkInputParameters(json, inputSpecialAttributePrefix);
@@ -100,31 +411,56 @@ public class JsonToXml {
       specialAttributePrefix = JxmlConstants.DEFAULT_SPECIAL_ATTRIBUTE_PREFIX;
     }
 
-    return convert(json, keepNamespaces, specialAttributePrefix);
+    if (cache == null) {
+      return convert(json, keepNamespaces, specialAttributePrefix);
+    }
+    final ConversionCache.Key key = ConversionCache.key(
+        ConversionCache.Direction.JSON_TO_XML, json, keepNamespaces, specialAttributePrefix,
+        ConversionCache.settings(null, namespaceMapping, limits));
+    String xml = cache.get(key);
+    if (xml == null) {
+      xml = convert(json, keepNamespaces, specialAttributePrefix);
+      cache.put(key, xml);
+    }
+    return xml;
+  }
+
+  private String convert(final String json, final boolean keepNamespace, final String specialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, TransformerException {
+
+    return convertDomToString(convertToDocument(json, keepNamespace, specialAttributePrefix));
+  }
+
+  private Document convertToDocument(final String json, final boolean keepNamespace,
+                                     final String specialAttributePrefix)
+      throws JxmlException, ParserConfigurationException {
+    // the json is parsed only once, without recursion, and checked against the limits while parsed
+    final JsonObject rootNode = JsonTreeReader.read(json, limits, specialAttributePrefix).getAsJsonObject();
+    Utilities.checkJsonRoot(rootNode);
+
+    return convertToDocument(rootNode, keepNamespace, specialAttributePrefix);
   }
 
   private void checkInputParameters(final String json, final String specialAttributePrefix)
       throws JxmlException {
     Utilities.checkJson(json);
+    limits.checkDocumentSize(json.length());
     if (specialAttributePrefix != null) {
       Utilities.checkDelimiter(specialAttributePrefix);
     }
   }
 
-  private String convert(final String json, final boolean keepNamespace,
-                         final String specialAttributePrefix) throws ParserConfigurationException,
-                                                                     TransformerException {
+  private Document convertToDocument(final JsonObject rootNode, final boolean keepNamespace,
+                                     final String specialAttributePrefix) throws ParserConfigurationException,
+                                                                                 JxmlException {
 
 
     final DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
     final Document doc = builder.newDocument();
     doc.setXmlStandalone(true);
 
-    final JsonElement jelement = new JsonParser().parse(json);
-
-    final JsonObject rootNode = jelement.getAsJsonObject();
-
-    final Element rootData = doc.createElement(getRootName(rootNode, keepNamespace));
+    final QualifiedNames names = namespaceMapping == null ? null : new QualifiedNames(namespaceMapping, keepNamespace);
+    final Element rootData = createElement(doc, getRootName(rootNode), keepNamespace, names);
     doc.appendChild(rootData);
     final String attributePrefix = specialAttributePrefix;
     final String textContentPrefix = specialAttributePrefix + specialAttributePrefix +
@@ -135,52 +471,104 @@ public class JsonToXml {
     for(final Map.Entry<String, JsonElement> entry : rootNode.entrySet()) {
       jsonEntry = entry.getValue();
     }
-    convertRecursively(jsonEntry.getAsJsonObject(), rootData, keepNamespace, attributePrefix, textContentPrefix, doc);
+    convertIteratively(jsonEntry.getAsJsonObject(), rootData, keepNamespace, attributePrefix, textContentPrefix, doc,
+                       names);
 
-    return convertDomToString(doc);
+    return doc;
   }
 
-  private void convertRecursively(final JsonObject node, final Element nodeValue, final boolean keepNamespace,
-                                  final String attributePrefix, final String textContentPrefix, final Document doc) {
+  private void convertIteratively(final JsonObject rootNode, final Element rootData, final boolean keepNamespace,
+                                  final String attributePrefix, final String textContentPrefix, final Document doc,
+                                  final QualifiedNames names) throws JxmlException {
+    final Deque<ObjectFrame> stack = new ArrayDeque<>();
+    stack.push(new ObjectFrame(rootNode, rootData));
+
+    while (!stack.isEmpty()) {
+      final ObjectFrame frame = stack.peek();
+      //array items
+      if (frame.arrayItems != null) {
+        if (frame.arrayItems.hasNext()) {
+          final JsonElement arrayValue = frame.arrayItems.next();
+          limits.checkDepth(stack.size() + 1);
+          final Element child = createElement(doc, frame.arrayElementName, keepNamespace, names);
+          frame.element.appendChild(child);
+          stack.push(new ObjectFrame(arrayValue.getAsJsonObject(), child));
+          continue;
+        }
+        frame.arrayItems = null;
+      }
+      if (!frame.entries.hasNext()) {
+        stack.pop();
+        continue;
+      }
 
-    for(final Map.Entry<String, JsonElement> entry : node.entrySet()) {
+      final Map.Entry<String, JsonElement> entry = frame.entries.next();
       //text
       if (entry.getKey().length()>=JxmlConstants.TEXT_CONTENT_PREFIX_LENGTH &&
           entry.getKey().substring(0,JxmlConstants.TEXT_CONTENT_PREFIX_LENGTH).equals(textContentPrefix)) {
-        nodeValue.appendChild(doc.createTextNode(entry.getValue().toString()
-                                                     .substring(1, entry.getValue().toString().length()-1)));
+        frame.element.appendChild(doc.createTextNode(entry.getValue().toString()
+                                                         .substring(1, entry.getValue().toString().length()-1)));
       }
       //attribute
       else if (entry.getKey().length()>=JxmlConstants.ATTRIBUTE_PREFIX_PLUS_CHARACTER_LENGTH &&
           entry.getKey().charAt(0)==attributePrefix.charAt(0)) {
-        if (!(!keepNamespace && entry.getKey().contains(":"))) {
-          nodeValue.setAttribute(entry.getKey().substring(1), entry.getValue().toString()
+        if (names != null) {
+          setQualifiedAttribute(frame.element, entry.getKey().substring(1), entry.getValue().toString()
+              .substring(1, entry.getValue().toString().length()-1), keepNamespace, names);
+        } else if (!(!keepNamespace && entry.getKey().contains(":"))) {
+          frame.element.setAttribute(entry.getKey().substring(1), entry.getValue().toString()
               .substring(1, entry.getValue().toString().length()-1));
         }
       }
       //inner object
       else {
         if (entry.getValue().isJsonArray()) {
-          for (final JsonElement arrayValue : entry.getValue().getAsJsonArray()) {
-            final Element child = doc.createElement(getElementName(entry.getKey(), keepNamespace));
-            nodeValue.appendChild(child);
-            convertRecursively(arrayValue.getAsJsonObject(), child, keepNamespace, attributePrefix, textContentPrefix, doc);
-          }
+          frame.arrayItems = entry.getValue().getAsJsonArray().iterator();
+          frame.arrayElementName = entry.getKey();
         }
         else {
-          final Element child = doc.createElement(getElementName(entry.getKey(), keepNamespace));
-          nodeValue.appendChild(child);
-          convertRecursively(entry.getValue().getAsJsonObject(), child, keepNamespace, attributePrefix, textContentPrefix, doc);
+          limits.checkDepth(stack.size() + 1);
+          final Element child = createElement(doc, entry.getKey(), keepNamespace, names);
+          frame.element.appendChild(child);
+          stack.push(new ObjectFrame(entry.getValue().getAsJsonObject(), child));
         }
       }
     }
   }
 
-  private String getRootName(final JsonObject rootNode, final boolean keepNamespace) {
+  private Element createElement(final Document doc, final String jsonName, final boolean keepNamespace,
+                                final QualifiedNames names) {
+    if (names == null) {
+      return doc.createElement(getElementName(jsonName, keepNamespace));
+    }
+    final QName xmlName = names.toXmlName(jsonName, false);
+    if (xmlName.getNamespaceURI().isEmpty()) {
+      return doc.createElement(xmlName.getLocalPart());
+    }
+    // the XML prefix is the json prefix, so the qualified name is the json name
+    return doc.createElementNS(xmlName.getNamespaceURI(), jsonName);
+  }
+
+  private void setQualifiedAttribute(final Element element, final String jsonName, final String value,
+                                     final boolean keepNamespace, final QualifiedNames names) {
+    if (QualifiedNames.isJsonNamespaceDeclaration(jsonName)) {
+      if (keepNamespace) {
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, jsonName, value);
+      }
+      return;
+    }
+    final QName xmlName = names.toXmlName(jsonName, true);
+    if (xmlName.getNamespaceURI().isEmpty()) {
+      element.setAttribute(xmlName.getLocalPart(), value);
+    } else {
+      element.setAttributeNS(xmlName.getNamespaceURI(), jsonName, value);
+    }
+  }
+
+  private String getRootName(final JsonObject rootNode) {
     final Set<String> keys = rootNode.keySet();
     final Iterator<String> iterator = keys.iterator();
-    final String rootName = iterator.next();
-    return getElementName(rootName, keepNamespace);
+    return iterator.next();
   }
 
   private String getElementName(final String basicName, final boolean keepNamespace) {
@@ -191,13 +579,144 @@ public class JsonToXml {
   }
 
   private String convertDomToString(final Document doc) throws TransformerException {
-    final DOMSource domSource = new DOMSource(doc);
     final StringWriter writer = new StringWriter();
-    final StreamResult result = new StreamResult(writer);
+    transform(doc, new StreamResult(writer));
+    return writer.toString();
+  }
+
+  /*
+   * Serializes a document with the identity transformer, which walks the DOM recursively: documents deeper than
+   * the default depth limit are serialized on a thread whose stack is sized for their depth, the caller waiting.
+   */
+  private void transform(final Document doc, final Result result) throws TransformerException {
+    final DOMSource domSource = new DOMSource(doc);
     final TransformerFactory tf = TransformerFactory.newInstance();
     final Transformer transformer = tf.newTransformer();
-    transformer.transform(domSource, result);
-    return writer.toString();
+    final int depth = getDepth(doc);
+    if (depth <= JxmlLimits.DEFAULT_MAX_DEPTH) {
+      transformer.transform(domSource, result);
+      return;
+    }
+    final Throwable[] failure = new Throwable[1];
+    final Thread serializer = new Thread(null, () -> {
+      try {
+        transformer.transform(domSource, result);
+      } catch (final TransformerException | RuntimeException | Error e) {
+        failure[0] = e;
+      }
+    }, SERIALIZER_THREAD_NAME, BASE_STACK_SIZE + depth * STACK_SIZE_PER_LEVEL);
+    serializer.start();
+    boolean interrupted = false;
+    while (serializer.isAlive()) {
+      try {
+        serializer.join();
+      } catch (final InterruptedException e) {
+        // the result is being written, so the serialization runs to its end
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure[0] instanceof TransformerException) {
+      throw (TransformerException) failure[0];
+    }
+    if (failure[0] instanceof RuntimeException) {
+      throw (RuntimeException) failure[0];
+    }
+    if (failure[0] != null) {
+      throw (Error) failure[0];
+    }
+  }
+
+  /*
+   * Returns the element nesting depth of a document, walking it without recursion.
+   */
+  private static int getDepth(final Document doc) {
+    final Node root = doc.getDocumentElement();
+    int maxDepth = 0;
+    int depth = 1;
+    Node node = root;
+    while (node != null) {
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        maxDepth = Math.max(maxDepth, depth);
+      }
+      final Node child = node.getFirstChild();
+      if (child != null) {
+        node = child;
+        depth++;
+        continue;
+      }
+      while (node != root && node.getNextSibling() == null) {
+        node = node.getParentNode();
+        depth--;
+      }
+      node = node == root ? null : node.getNextSibling();
+    }
+    return maxDepth;
+  }
+
+  /*
+   * Checks the size, in characters, of a json read from a Reader, a limit violation being raised as the cause of an
+   * IOException so that it goes through the parser.
+   */
+  static final class SizeCheckingReader extends FilterReader {
+    private final JxmlLimits limits;
+    private long size;
+
+    SizeCheckingReader(final Reader input, final JxmlLimits limits) {
+      super(input);
+      this.limits = limits;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int c = super.read();
+      if (c >= 0) {
+        count(1);
+      }
+      return c;
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+      final int count = super.read(cbuf, off, len);
+      if (count > 0) {
+        count(count);
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    private void count(final long count) throws IOException {
+      size += count;
+      try {
+        limits.checkDocumentSize(size);
+      } catch (final JxmlException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /*
+   * State of a json object being converted, replacing a stack frame of the former recursive walk.
+   */
+  private static final class ObjectFrame {
+    private final Iterator<Map.Entry<String, JsonElement>> entries;
+    private final Element element;
+    private Iterator<JsonElement> arrayItems;
+    private String arrayElementName;
+
+    private ObjectFrame(final JsonObject node, final Element element) {
+      this.entries = node.entrySet().iterator();
+      this.element = element;
+    }
   }
 
 }
@@ -0,0 +1,172 @@
+package com.amadeus.et.jxml;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.ToNumberPolicy;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Builds a Gson tree from a json text without recursion, the configured limits
+ * being checked on each token, so that an oversized document is rejected as soon
+ * as a limit is crossed. Produces the same tree, and raises the same exceptions,
+ * as Gson's JsonParser.
+ *
+ * <p>Limits are counted in XML terms: the top-level object holding the root
+ * element does not count as an element, an array only adds a nesting level when
+ * nested in another array, and attributes are the members whose name starts with
+ * the special attribute prefix.
+ */
+final class JsonTreeReader {
+
+  private JsonTreeReader() {}
+
+  static JsonElement read(final String json, final JxmlLimits limits, final String attributePrefix)
+      throws JxmlException {
+    return read(new StringReader(json), limits, attributePrefix);
+  }
+
+  static JsonElement read(final Reader json, final JxmlLimits limits, final String attributePrefix)
+      throws JxmlException {
+    try {
+      final JsonReader reader = new JsonReader(json);
+      reader.setLenient(true);
+      final JsonElement element = read(reader, limits, attributePrefix);
+      if (!element.isJsonNull() && reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new JsonSyntaxException("Did not consume the entire document.");
+      }
+      return element;
+    } catch (final MalformedJsonException | NumberFormatException e) {
+      throw new JsonSyntaxException(e);
+    } catch (final IOException e) {
+      if (e.getCause() instanceof JxmlException) {
+        // a limit checked while the input is read
+        throw (JxmlException) e.getCause();
+      }
+      throw new JsonIOException(e);
+    }
+  }
+
+  private static JsonElement read(final JsonReader reader, final JxmlLimits limits, final String attributePrefix)
+      throws IOException, JxmlException {
+    try {
+      reader.peek();
+    } catch (final EOFException e) {
+      // empty document
+      return JsonNull.INSTANCE;
+    }
+
+    final char attributePrefixChar = attributePrefix.charAt(0);
+    final String textContentPrefix = attributePrefix + attributePrefix + JxmlConstants.TEXT_CONTENT_IDENTIFIER_SUFFIX;
+    final Deque<Container> containers = new ArrayDeque<>();
+    long elementCount = 0;
+    String name = null;
+    while (true) {
+      final JsonToken token = reader.peek();
+      final JsonElement value;
+      switch (token) {
+        case BEGIN_OBJECT:
+          reader.beginObject();
+          value = new JsonObject();
+          break;
+        case BEGIN_ARRAY:
+          reader.beginArray();
+          value = new JsonArray();
+          break;
+        case END_OBJECT:
+          reader.endObject();
+          if (containers.size() == 1) {
+            return containers.pop().element;
+          }
+          containers.pop();
+          continue;
+        case END_ARRAY:
+          reader.endArray();
+          if (containers.size() == 1) {
+            return containers.pop().element;
+          }
+          containers.pop();
+          continue;
+        case NAME:
+          name = reader.nextName();
+          limits.checkNameLength(name.length());
+          if (name.length() >= JxmlConstants.ATTRIBUTE_PREFIX_PLUS_CHARACTER_LENGTH
+              && name.charAt(0) == attributePrefixChar && !name.startsWith(textContentPrefix)) {
+            limits.checkAttributeCount(++containers.peek().attributeCount);
+          }
+          continue;
+        case STRING:
+          final String string = reader.nextString();
+          limits.checkTextLength(string.length());
+          value = new JsonPrimitive(string);
+          break;
+        case NUMBER:
+          // kept as written, as JsonParser does
+          value = new JsonPrimitive(ToNumberPolicy.LAZILY_PARSED_NUMBER.readNumber(reader));
+          break;
+        case BOOLEAN:
+          value = new JsonPrimitive(reader.nextBoolean());
+          break;
+        case NULL:
+          reader.nextNull();
+          value = JsonNull.INSTANCE;
+          break;
+        default:
+          throw new IllegalArgumentException();
+      }
+
+      final Container parent = containers.peek();
+      if (parent == null) {
+        if (!value.isJsonObject() && !value.isJsonArray()) {
+          return value;
+        }
+      } else if (parent.element.isJsonObject()) {
+        parent.element.getAsJsonObject().add(name, value);
+      } else {
+        final JsonArray array = parent.element.getAsJsonArray();
+        array.add(value);
+        limits.checkArrayLength(array.size());
+      }
+      if (value.isJsonObject() || value.isJsonArray()) {
+        final int depth;
+        if (parent == null) {
+          depth = 0;
+        } else if (value.isJsonObject() || parent.element.isJsonArray()) {
+          depth = parent.depth + 1;
+        } else {
+          depth = parent.depth;
+        }
+        limits.checkDepth(depth);
+        if (value.isJsonObject() && parent != null) {
+          limits.checkElementCount(++elementCount);
+        }
+        containers.push(new Container(value, depth));
+      }
+    }
+  }
+
+  private static final class Container {
+    private final JsonElement element;
+    private final int depth;
+    private int attributeCount;
+
+    private Container(final JsonElement element, final int depth) {
+      this.element = element;
+      this.depth = depth;
+    }
+  }
+
+}
@@ -0,0 +1,302 @@
+package com.amadeus.et.jxml;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+
+import org.xml.sax.helpers.NamespaceSupport;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Walks a json tree as the sequence of XML events of its conversion, without building
+ * any DOM: the events are the ones a namespace-aware parser reports when parsing the
+ * XML produced by JsonToXml. The attributes and namespace declarations of an element
+ * are gathered before its start event, wherever they are in its json object.
+ *
+ * <p>Namespace prefixes are resolved through the declarations in scope. In the
+ * namespace-aware mode, mapped prefixes are declared where first used, as the XML
+ * serializer does, and names with an unmapped prefix are resolved like the others.
+ */
+final class JsonXmlCursor {
+
+  private final JxmlLimits limits;
+  private final boolean keepNamespaces;
+  private final char attributePrefixChar;
+  private final String textContentPrefix;
+  private final QualifiedNames names;
+  private final NamespaceSupport namespaces = new NamespaceSupport();
+  private final Deque<ObjectFrame> stack = new ArrayDeque<>();
+  private final String[] nameParts = new String[3];
+  private JsonObject rootNode;
+  private int eventType = XMLStreamConstants.START_DOCUMENT;
+  private boolean popContext;
+  // current event
+  private ObjectFrame element;
+  private String text;
+
+  /**
+   * @param  rootNode  the json object holding the root element as its single member
+   */
+  JsonXmlCursor(final JsonObject rootNode, final JxmlLimits limits, final boolean keepNamespaces,
+                final String specialAttributePrefix, final QualifiedNames names) {
+    this.rootNode = rootNode;
+    this.limits = limits;
+    this.keepNamespaces = keepNamespaces;
+    this.attributePrefixChar = specialAttributePrefix.charAt(0);
+    this.textContentPrefix = specialAttributePrefix + specialAttributePrefix
+        + JxmlConstants.TEXT_CONTENT_IDENTIFIER_SUFFIX;
+    this.names = names;
+  }
+
+  /**
+   * Moves to the next event, one of the START_ELEMENT, END_ELEMENT, CHARACTERS and END_DOCUMENT
+   * constants of XMLStreamConstants, the cursor starting on START_DOCUMENT.
+   */
+  int next() throws JxmlException {
+    if (popContext) {
+      namespaces.popContext();
+      popContext = false;
+    }
+    if (rootNode != null) {
+      final Map.Entry<String, JsonElement> root = rootNode.entrySet().iterator().next();
+      rootNode = null;
+      return open(root.getValue().getAsJsonObject(), root.getKey());
+    }
+    while (!stack.isEmpty()) {
+      final ObjectFrame frame = stack.peek();
+      //array items
+      if (frame.arrayItems != null) {
+        if (frame.arrayItems.hasNext()) {
+          limits.checkDepth(stack.size() + 1);
+          return open(frame.arrayItems.next().getAsJsonObject(), frame.arrayElementName);
+        }
+        frame.arrayItems = null;
+      }
+      if (!frame.entries.hasNext()) {
+        stack.pop();
+        element = frame;
+        popContext = true;
+        return eventType = XMLStreamConstants.END_ELEMENT;
+      }
+
+      final Map.Entry<String, JsonElement> entry = frame.entries.next();
+      final String key = entry.getKey();
+      //text
+      if (key.length() >= JxmlConstants.TEXT_CONTENT_PREFIX_LENGTH && key.startsWith(textContentPrefix)) {
+        text = toXmlText(entry.getValue());
+        if (!text.isEmpty()) {
+          return eventType = XMLStreamConstants.CHARACTERS;
+        }
+      }
+      //attributes are read when the element is opened
+      else if (key.length() < JxmlConstants.ATTRIBUTE_PREFIX_PLUS_CHARACTER_LENGTH
+          || key.charAt(0) != attributePrefixChar) {
+        //inner object
+        if (entry.getValue().isJsonArray()) {
+          frame.arrayItems = entry.getValue().getAsJsonArray().iterator();
+          frame.arrayElementName = key;
+        } else {
+          limits.checkDepth(stack.size() + 1);
+          return open(entry.getValue().getAsJsonObject(), key);
+        }
+      }
+    }
+    return eventType = XMLStreamConstants.END_DOCUMENT;
+  }
+
+  int getEventType() {
+    return eventType;
+  }
+
+  /**
+   * Returns the name of the element started or ended by the current event.
+   */
+  QName getName() {
+    return element.name;
+  }
+
+  /**
+   * Returns the qualified name, as written in XML, of the element started or ended by the current event.
+   */
+  String getQualifiedName() {
+    return element.qualifiedName;
+  }
+
+  /**
+   * Returns the attributes of the element started by the current event.
+   */
+  List<Attribute> getAttributes() {
+    return element.attributes;
+  }
+
+  /**
+   * Returns the namespace declarations, as prefix and namespace URI pairs, of the element
+   * started or ended by the current event, the default namespace having an empty prefix.
+   */
+  List<String[]> getNamespaceDeclarations() {
+    return element.declarations;
+  }
+
+  /**
+   * Returns the text of the current characters event.
+   */
+  String getText() {
+    return text;
+  }
+
+  /**
+   * Returns the declarations in scope of the current event.
+   */
+  NamespaceSupport getNamespaces() {
+    return namespaces;
+  }
+
+  /*
+   * Same text as set in the DOM by JsonToXml.
+   */
+  static String toXmlText(final JsonElement value) {
+    final String text = value.toString();
+    return text.substring(1, text.length() - 1);
+  }
+
+  private int open(final JsonObject node, final String jsonName) {
+    namespaces.pushContext();
+    final ObjectFrame frame = new ObjectFrame(node);
+    final List<String[]> rawAttributes = new ArrayList<>();
+    for (final Map.Entry<String, JsonElement> entry : node.entrySet()) {
+      final String key = entry.getKey();
+      if (key.length() < JxmlConstants.ATTRIBUTE_PREFIX_PLUS_CHARACTER_LENGTH || key.charAt(0) != attributePrefixChar
+          || key.startsWith(textContentPrefix)) {
+        continue;
+      }
+      final String attributeName = key.substring(1);
+      final String value = toXmlText(entry.getValue());
+      if (names == null && !keepNamespaces && attributeName.contains(":")) {
+        continue;
+      }
+      if (QualifiedNames.isJsonNamespaceDeclaration(attributeName)) {
+        if (names == null || keepNamespaces) {
+          final int separator = attributeName.indexOf(':');
+          declare(frame, separator < 0 ? XMLConstants.DEFAULT_NS_PREFIX : attributeName.substring(separator + 1), value);
+        }
+      } else if (names != null) {
+        final QName xmlName = names.toXmlName(attributeName, true);
+        if (xmlName.getNamespaceURI().isEmpty()) {
+          rawAttributes.add(new String[] {xmlName.getLocalPart(), value});
+        } else {
+          declareIfNeeded(frame, xmlName);
+          frame.attributes.add(new Attribute(xmlName, attributeName, value));
+        }
+      } else {
+        rawAttributes.add(new String[] {attributeName, value});
+      }
+    }
+
+    final String elementName;
+    if (names != null) {
+      final QName xmlName = names.toXmlName(jsonName, false);
+      if (xmlName.getNamespaceURI().isEmpty()) {
+        elementName = xmlName.getLocalPart();
+      } else {
+        declareIfNeeded(frame, xmlName);
+        elementName = jsonName;
+      }
+    } else if (!keepNamespaces && jsonName.contains(":")) {
+      elementName = jsonName.split(":", JxmlConstants.ATTRIBUTE_NAME_SPLIT_LIMIT)[1];
+    } else {
+      elementName = jsonName;
+    }
+    // names are resolved once all the declarations of the element are known
+    frame.qualifiedName = elementName;
+    frame.name = resolve(elementName, false);
+    for (final String[] rawAttribute : rawAttributes) {
+      frame.attributes.add(new Attribute(resolve(rawAttribute[0], true), rawAttribute[0], rawAttribute[1]));
+    }
+
+    stack.push(frame);
+    element = frame;
+    return eventType = XMLStreamConstants.START_ELEMENT;
+  }
+
+  private void declareIfNeeded(final ObjectFrame frame, final QName xmlName) {
+    if (!xmlName.getNamespaceURI().equals(namespaces.getURI(xmlName.getPrefix()))) {
+      declare(frame, xmlName.getPrefix(), xmlName.getNamespaceURI());
+    }
+  }
+
+  private void declare(final ObjectFrame frame, final String prefix, final String namespaceUri) {
+    namespaces.declarePrefix(prefix, namespaceUri);
+    for (final String[] declaration : frame.declarations) {
+      if (declaration[0].equals(prefix)) {
+        declaration[1] = namespaceUri;
+        return;
+      }
+    }
+    frame.declarations.add(new String[] {prefix, namespaceUri});
+  }
+
+  private QName resolve(final String qualifiedName, final boolean attribute) {
+    final int separator = qualifiedName.indexOf(':');
+    final String[] parts = namespaces.processName(qualifiedName, nameParts, attribute);
+    if (parts == null) {
+      // undeclared prefix: no namespace, as with a non namespace-aware parser
+      return new QName(qualifiedName);
+    }
+    return new QName(parts[0], parts[1], separator < 0 ? XMLConstants.DEFAULT_NS_PREFIX
+        : qualifiedName.substring(0, separator));
+  }
+
+  /**
+   * An attribute of the element started by the current event.
+   */
+  static final class Attribute {
+    private final QName name;
+    private final String qualifiedName;
+    private final String value;
+
+    private Attribute(final QName name, final String qualifiedName, final String value) {
+      this.name = name;
+      this.qualifiedName = qualifiedName;
+      this.value = value;
+    }
+
+    QName getName() {
+      return name;
+    }
+
+    String getQualifiedName() {
+      return qualifiedName;
+    }
+
+    String getValue() {
+      return value;
+    }
+  }
+
+  /*
+   * State of an open element, as in the DOM conversion of JsonToXml.
+   */
+  private static final class ObjectFrame {
+    private final Iterator<Map.Entry<String, JsonElement>> entries;
+    private final List<Attribute> attributes = new ArrayList<>();
+    private final List<String[]> declarations = new ArrayList<>();
+    private QName name;
+    private String qualifiedName;
+    private Iterator<JsonElement> arrayItems;
+    private String arrayElementName;
+
+    private ObjectFrame(final JsonObject node) {
+      this.entries = node.entrySet().iterator();
+    }
+  }
+
+}
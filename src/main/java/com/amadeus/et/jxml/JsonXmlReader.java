@@ -0,0 +1,198 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * An XMLReader parsing json, and reporting the SAX events of its XML conversion, so that
+ * JsonToXml can be plugged as a SAXSource into a Transformer, a Validator or any other
+ * SAX pipeline. The json is read as a tree, with the limits checked, but no DOM nor XML
+ * text is built.
+ *
+ * <p>Events are namespace-aware; namespace declarations are only reported as attributes
+ * when the 'namespace-prefixes' feature is set.
+ */
+final class JsonXmlReader implements XMLReader {
+
+  private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+  private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+  private static final String CDATA = "CDATA";
+
+  private final JsonToXml converter;
+  private final boolean keepNamespaces;
+  private final String specialAttributePrefix;
+  private boolean namespacePrefixes;
+  private ContentHandler contentHandler;
+  private ErrorHandler errorHandler;
+  private DTDHandler dtdHandler;
+  private EntityResolver entityResolver;
+
+  JsonXmlReader(final JsonToXml converter, final boolean keepNamespaces, final String specialAttributePrefix) {
+    this.converter = converter;
+    this.keepNamespaces = keepNamespaces;
+    this.specialAttributePrefix = specialAttributePrefix;
+  }
+
+  @Override
+  public boolean getFeature(final String name) throws SAXNotRecognizedException {
+    if (NAMESPACES_FEATURE.equals(name)) {
+      return true;
+    }
+    if (NAMESPACE_PREFIXES_FEATURE.equals(name)) {
+      return namespacePrefixes;
+    }
+    throw new SAXNotRecognizedException(name);
+  }
+
+  @Override
+  public void setFeature(final String name, final boolean value)
+      throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (NAMESPACES_FEATURE.equals(name)) {
+      if (!value) {
+        throw new SAXNotSupportedException(name);
+      }
+    } else if (NAMESPACE_PREFIXES_FEATURE.equals(name)) {
+      namespacePrefixes = value;
+    } else {
+      throw new SAXNotRecognizedException(name);
+    }
+  }
+
+  @Override
+  public Object getProperty(final String name) throws SAXNotRecognizedException {
+    throw new SAXNotRecognizedException(name);
+  }
+
+  @Override
+  public void setProperty(final String name, final Object value) throws SAXNotRecognizedException {
+    throw new SAXNotRecognizedException(name);
+  }
+
+  @Override
+  public void setEntityResolver(final EntityResolver resolver) {
+    this.entityResolver = resolver;
+  }
+
+  @Override
+  public EntityResolver getEntityResolver() {
+    return entityResolver;
+  }
+
+  @Override
+  public void setDTDHandler(final DTDHandler handler) {
+    this.dtdHandler = handler;
+  }
+
+  @Override
+  public DTDHandler getDTDHandler() {
+    return dtdHandler;
+  }
+
+  @Override
+  public void setContentHandler(final ContentHandler handler) {
+    this.contentHandler = handler;
+  }
+
+  @Override
+  public ContentHandler getContentHandler() {
+    return contentHandler;
+  }
+
+  @Override
+  public void setErrorHandler(final ErrorHandler handler) {
+    this.errorHandler = handler;
+  }
+
+  @Override
+  public ErrorHandler getErrorHandler() {
+    return errorHandler;
+  }
+
+  @Override
+  public void parse(final String systemId) throws IOException, SAXException {
+    parse(new InputSource(systemId));
+  }
+
+  @Override
+  public void parse(final InputSource input) throws IOException, SAXException {
+    try (Reader json = open(input)) {
+      final JsonXmlCursor cursor = converter.newCursor(json, keepNamespaces, specialAttributePrefix);
+      if (contentHandler != null) {
+        report(cursor);
+      }
+    } catch (final JxmlException | JsonParseException | IllegalStateException e) {
+      // IllegalStateException is raised by Gson on json values which are not objects where objects are expected
+      throw new SAXException(e);
+    }
+  }
+
+  private static Reader open(final InputSource input) throws IOException {
+    if (input.getCharacterStream() != null) {
+      return input.getCharacterStream();
+    }
+    final InputStream bytes = input.getByteStream() != null ? input.getByteStream()
+        : new URL(input.getSystemId()).openStream();
+    // json is encoded in UTF-8, unless told otherwise
+    return input.getEncoding() == null ? new InputStreamReader(bytes, StandardCharsets.UTF_8)
+        : new InputStreamReader(bytes, input.getEncoding());
+  }
+
+  private void report(final JsonXmlCursor cursor) throws JxmlException, SAXException {
+    final AttributesImpl attributes = new AttributesImpl();
+    contentHandler.startDocument();
+    for (int event = cursor.next(); event != XMLStreamConstants.END_DOCUMENT; event = cursor.next()) {
+      switch (event) {
+        case XMLStreamConstants.START_ELEMENT:
+          attributes.clear();
+          for (final String[] declaration : cursor.getNamespaceDeclarations()) {
+            contentHandler.startPrefixMapping(declaration[0], declaration[1]);
+            if (namespacePrefixes) {
+              attributes.addAttribute("", "", declaration[0].isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE
+                  : XMLConstants.XMLNS_ATTRIBUTE + ':' + declaration[0], CDATA, declaration[1]);
+            }
+          }
+          for (final JsonXmlCursor.Attribute attribute : cursor.getAttributes()) {
+            attributes.addAttribute(attribute.getName().getNamespaceURI(), attribute.getName().getLocalPart(),
+                                    attribute.getQualifiedName(), CDATA, attribute.getValue());
+          }
+          contentHandler.startElement(cursor.getName().getNamespaceURI(), cursor.getName().getLocalPart(),
+                                      cursor.getQualifiedName(), attributes);
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          contentHandler.endElement(cursor.getName().getNamespaceURI(), cursor.getName().getLocalPart(),
+                                    cursor.getQualifiedName());
+          for (final String[] declaration : cursor.getNamespaceDeclarations()) {
+            contentHandler.endPrefixMapping(declaration[0]);
+          }
+          break;
+        default:
+          final char[] text = cursor.getText().toCharArray();
+          contentHandler.characters(text, 0, text.length);
+          break;
+      }
+    }
+    contentHandler.endDocument();
+  }
+
+}
@@ -0,0 +1,495 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * The command line of the jar, converting files, directory trees or the standard streams
+ * in either direction within a single JVM:
+ *
+ * <pre>
+ * java -jar jxml.jar (xml2json|json2xml) [options] [input...]
+ * </pre>
+ *
+ * <p>XML files are read whole into the byte tokenizer, or streamed past 256 MiB, json files are
+ * streamed, and they are converted by a pool of workers sized to the cores, each with its own
+ * converter. Directories are walked recursively for the files
+ * matching the glob, and mirrored in the output directory, or converted next to their input
+ * by default. Without input, or with '-', the standard input is converted to the standard
+ * output. A summary of the throughput and of the latencies is reported once done.
+ */
+public final class JxmlCli {
+
+  static final int EXIT_SUCCESS = 0;
+  static final int EXIT_FAILURE = 1;
+  static final int EXIT_USAGE = 2;
+
+  private static final String XML_TO_JSON = "xml2json";
+  private static final String JSON_TO_XML = "json2xml";
+  private static final String STANDARD_STREAM = "-";
+  private static final String XML_EXTENSION = ".xml";
+  private static final String JSON_EXTENSION = ".json";
+  private static final String ON_ERROR_SKIP = "skip";
+  private static final String ON_ERROR_FAIL = "fail";
+  // larger xml files are streamed rather than read whole
+  private static final long STREAMING_THRESHOLD = 256L << 20;
+  private static final int QUEUED_TASKS_PER_THREAD = 4;
+
+  private static final String USAGE = String.join(System.lineSeparator(),
+      "Usage: java -jar jxml.jar (xml2json|json2xml) [options] [input...]",
+      "Converts files, directory trees, or the standard input when no input or '-' is given.",
+      "Options:",
+      "  -o, --output <path>              output file, directory, or '-' for the standard output;",
+      "                                   by default, next to each input",
+      "  --glob <pattern>                 files to convert in directories, by default *.xml or *.json;",
+      "                                   matched against the relative path when containing '/'",
+      "  --threads <count>                number of workers, by default the number of cores",
+      "  --virtual-threads                a virtual thread per file, at most --threads at a time, on Java 21",
+      "                                   onwards, overlapping the reads and writes of slow storage",
+      "  --on-error (skip|fail)           skip the failed files, or stop at the first one (default)",
+      "  --no-namespaces                  drop the namespaces",
+      "  --prefix <prefix>                special attribute prefix, by default '_'",
+      "  --hints <file>                   structure hints of xml2json",
+      "  --namespace-mapping <file>       namespace mapping enabling the namespace-aware mode",
+      "  -q, --quiet                      do not report the summary",
+      "  -h, --help                       print this help");
+
+  private static final String ERROR_MISSING_COMMAND =
+      "A command, xml2json or json2xml, is expected.";
+  private static final String ERROR_UNKNOWN_COMMAND =
+      "Unknown command '%s'.";
+  private static final String ERROR_UNKNOWN_OPTION =
+      "Unknown option '%s'.";
+  private static final String ERROR_MISSING_VALUE =
+      "Option '%s' expects a value.";
+  private static final String ERROR_INVALID_VALUE =
+      "Invalid value '%s' of option '%s'.";
+  private static final String ERROR_INPUT_NOT_FOUND =
+      "Input '%s' does not exist.";
+  private static final String ERROR_STANDARD_OUTPUT =
+      "The standard output can only receive a single conversion.";
+  private static final String ERROR_CONVERSION =
+      "Failed to convert '%s': %s";
+
+  private final Options options;
+  private final ThreadLocal<XmlToJson> xmlToJson;
+  private final ThreadLocal<JsonToXml> jsonToXml;
+  private final ConversionStatistics statistics = new ConversionStatistics("files");
+  private final AtomicBoolean stopped = new AtomicBoolean();
+  private final PrintStream stderr;
+
+  private JxmlCli(final Options options, final StructureHints hints, final NamespaceMapping mapping,
+                  final PrintStream stderr) {
+    this.options = options;
+    this.stderr = stderr;
+    this.xmlToJson = ThreadLocal.withInitial(() -> {
+      final XmlToJson converter = new XmlToJson();
+      converter.setStructureHints(hints);
+      converter.setNamespaceMapping(mapping);
+      converter.setByteTokenizer(true);
+      return converter;
+    });
+    this.jsonToXml = ThreadLocal.withInitial(() -> {
+      final JsonToXml converter = new JsonToXml();
+      converter.setNamespaceMapping(mapping);
+      return converter;
+    });
+  }
+
+  public static void main(final String[] args) {
+    System.exit(run(args, System.in, System.out, System.err));
+  }
+
+  /**
+   * Runs the command line with the given arguments and standard streams.
+   *
+   * @return  the exit status: 0 on success, 1 on failure, 2 on invalid arguments
+   */
+  static int run(final String[] args, final InputStream stdin, final PrintStream stdout, final PrintStream stderr) {
+    final Options options;
+    try {
+      options = Options.parse(args);
+    } catch (final IllegalArgumentException e) {
+      stderr.println(e.getMessage());
+      stderr.println(USAGE);
+      return EXIT_USAGE;
+    }
+    if (options.help) {
+      stdout.println(USAGE);
+      return EXIT_SUCCESS;
+    }
+    final JxmlCli cli;
+    final List<Path[]> tasks;
+    try {
+      cli = new JxmlCli(options, options.hints == null ? null : StructureHints.load(options.hints),
+                        options.namespaceMapping == null ? null : NamespaceMapping.load(options.namespaceMapping),
+                        stderr);
+      tasks = options.isStandardInput() ? null : cli.listTasks();
+    } catch (final IllegalArgumentException e) {
+      stderr.println(e.getMessage());
+      return EXIT_USAGE;
+    } catch (final IOException | JxmlException e) {
+      stderr.println(describe(e));
+      return EXIT_FAILURE;
+    }
+    final long start = System.nanoTime();
+    if (tasks == null) {
+      cli.convertStandardStreams(stdin, stdout);
+    } else {
+      cli.convertFiles(tasks, stdout);
+    }
+    if (!options.quiet) {
+      cli.statistics.report(stderr, System.nanoTime() - start);
+    }
+    return cli.statistics.failed() > 0 && !options.skipErrors ? EXIT_FAILURE : EXIT_SUCCESS;
+  }
+
+  /*
+   * Lists the pairs of input and output files, the output being null for the standard output.
+   */
+  private List<Path[]> listTasks() throws IOException {
+    final boolean toDirectory = options.output != null && !STANDARD_STREAM.equals(options.output)
+        && (options.inputs.size() > 1 || Files.isDirectory(Paths.get(options.output)));
+    final List<Path[]> tasks = new ArrayList<>();
+    for (final String name : options.inputs) {
+      final Path input = Paths.get(name);
+      if (Files.isDirectory(input)) {
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + options.getGlob());
+        final boolean relative = options.getGlob().contains("/");
+        try (Stream<Path> files = Files.walk(input)) {
+          for (final Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+            final Path path = input.relativize(file);
+            if (matcher.matches(relative ? path : path.getFileName())) {
+              tasks.add(new Path[] {file, getOutput(file, path, true)});
+            }
+          }
+        }
+      } else if (Files.isRegularFile(input)) {
+        tasks.add(new Path[] {input, getOutput(input, input.getFileName(), toDirectory)});
+      } else {
+        throw new IllegalArgumentException(String.format(ERROR_INPUT_NOT_FOUND, name));
+      }
+    }
+    if (STANDARD_STREAM.equals(options.output) && tasks.size() > 1) {
+      throw new IllegalArgumentException(ERROR_STANDARD_OUTPUT);
+    }
+    return tasks;
+  }
+
+  private Path getOutput(final Path input, final Path relativePath, final boolean toDirectory) {
+    if (options.output == null) {
+      return input.resolveSibling(swapExtension(input.getFileName().toString()));
+    }
+    if (STANDARD_STREAM.equals(options.output)) {
+      return null;
+    }
+    final Path output = Paths.get(options.output);
+    if (!toDirectory) {
+      return output;
+    }
+    final Path parent = relativePath.getParent();
+    final String fileName = swapExtension(relativePath.getFileName().toString());
+    return parent == null ? output.resolve(fileName) : output.resolve(parent.toString()).resolve(fileName);
+  }
+
+  private String swapExtension(final String fileName) {
+    final String from = options.xmlToJson ? XML_EXTENSION : JSON_EXTENSION;
+    final String to = options.xmlToJson ? JSON_EXTENSION : XML_EXTENSION;
+    final boolean matching = fileName.regionMatches(true, fileName.length() - from.length(), from, 0, from.length());
+    return (matching ? fileName.substring(0, fileName.length() - from.length()) : fileName) + to;
+  }
+
+  private void convertFiles(final List<Path[]> tasks, final PrintStream stdout) {
+    final int threads = Math.min(options.threads, Math.max(tasks.size(), 1));
+    final ExecutorService virtualThreads = options.virtualThreads ? VirtualThreads.newExecutor("jxml-cli-worker")
+        : null;
+    if (virtualThreads != null) {
+      convertFiles(tasks, stdout, virtualThreads, new Semaphore(threads));
+      return;
+    }
+    // a bounded queue, the submitting thread converting too when it is full
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * QUEUED_TASKS_PER_THREAD),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    try {
+      for (final Path[] task : tasks) {
+        if (stopped.get()) {
+          break;
+        }
+        executor.execute(() -> convertFile(task[0], task[1], stdout));
+      }
+    } finally {
+      executor.shutdown();
+      awaitTermination(executor);
+    }
+  }
+
+  /*
+   * Converts each file in its own virtual thread, the permits bounding the conversions in progress.
+   */
+  private void convertFiles(final List<Path[]> tasks, final PrintStream stdout, final ExecutorService executor,
+                            final Semaphore permits) {
+    try {
+      for (final Path[] task : tasks) {
+        if (stopped.get()) {
+          break;
+        }
+        permits.acquireUninterruptibly();
+        executor.execute(() -> {
+          try {
+            convertFile(task[0], task[1], stdout);
+          } finally {
+            permits.release();
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+      awaitTermination(executor);
+    }
+  }
+
+  private static void awaitTermination(final ExecutorService executor) {
+    boolean interrupted = false;
+    while (!executor.isTerminated()) {
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (final InterruptedException e) {
+        interrupted = true;
+        executor.shutdownNow();
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void convertFile(final Path input, final Path output, final PrintStream stdout) {
+    if (stopped.get()) {
+      return;
+    }
+    final long start = System.nanoTime();
+    try {
+      final long size = Files.size(input);
+      final long written;
+      if (options.xmlToJson && size <= STREAMING_THRESHOLD) {
+        final String json = xmlToJson.get().execute(Files.readAllBytes(input), options.keepNamespaces, options.prefix);
+        written = write(json.getBytes(StandardCharsets.UTF_8), output, stdout);
+      } else {
+        try (InputStream stream = Files.newInputStream(input)) {
+          written = stream(stream, output, stdout);
+        }
+      }
+      statistics.recordSuccess(System.nanoTime() - start, size, written);
+    } catch (final Exception e) {
+      recordFailure(input.toString(), e);
+    }
+  }
+
+  private void convertStandardStreams(final InputStream stdin, final PrintStream stdout) {
+    final long start = System.nanoTime();
+    try {
+      final CountingInputStream input = new CountingInputStream(stdin);
+      final long written = stream(input, null, stdout);
+      statistics.recordSuccess(System.nanoTime() - start, input.getByteCount(), written);
+    } catch (final Exception e) {
+      recordFailure(STANDARD_STREAM, e);
+    }
+  }
+
+  private long stream(final InputStream input, final Path output, final PrintStream stdout) throws Exception {
+    if (output == null) {
+      final CountingOutputStream counted = new CountingOutputStream(stdout);
+      convert(input, new OutputStreamWriter(counted, StandardCharsets.UTF_8));
+      return counted.getByteCount();
+    }
+    createParentDirectories(output);
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      convert(input, writer);
+    }
+    return Files.size(output);
+  }
+
+  private void convert(final InputStream input, final Writer output) throws Exception {
+    if (options.xmlToJson) {
+      xmlToJson.get().execute(input, output, options.keepNamespaces, options.prefix);
+    } else {
+      jsonToXml.get().execute(input, output, options.keepNamespaces, options.prefix);
+    }
+  }
+
+  private static long write(final byte[] converted, final Path output, final PrintStream stdout) throws IOException {
+    if (output == null) {
+      stdout.write(converted);
+      stdout.flush();
+    } else {
+      createParentDirectories(output);
+      Files.write(output, converted);
+    }
+    return converted.length;
+  }
+
+  private static void createParentDirectories(final Path output) throws IOException {
+    final Path parent = output.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+  }
+
+  private void recordFailure(final String input, final Exception e) {
+    statistics.recordFailure();
+    if (!options.skipErrors) {
+      stopped.set(true);
+    }
+    synchronized (stderr) {
+      stderr.println(String.format(ERROR_CONVERSION, input, describe(e)));
+    }
+  }
+
+  private static String describe(final Exception e) {
+    final Throwable cause = e.getCause() instanceof JxmlException ? e.getCause() : e;
+    return cause.getMessage() == null ? cause.getClass().getName() : cause.getMessage();
+  }
+
+  /*
+   * The parsed arguments of the command line.
+   */
+  private static final class Options {
+
+    private boolean xmlToJson;
+    private final List<String> inputs = new ArrayList<>();
+    private String output;
+    private String glob;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean virtualThreads;
+    private boolean skipErrors;
+    private boolean keepNamespaces = true;
+    private String prefix;
+    private Path hints;
+    private Path namespaceMapping;
+    private boolean quiet;
+    private boolean help;
+
+    static Options parse(final String[] args) {
+      final Options options = new Options();
+      if (args.length == 0) {
+        throw new IllegalArgumentException(ERROR_MISSING_COMMAND);
+      }
+      if ("-h".equals(args[0]) || "--help".equals(args[0])) {
+        options.help = true;
+        return options;
+      }
+      if (XML_TO_JSON.equals(args[0])) {
+        options.xmlToJson = true;
+      } else if (!JSON_TO_XML.equals(args[0])) {
+        throw new IllegalArgumentException(String.format(ERROR_UNKNOWN_COMMAND, args[0]));
+      }
+      final List<String> arguments = Arrays.asList(args).subList(1, args.length);
+      for (int i = 0; i < arguments.size(); i++) {
+        final String argument = arguments.get(i);
+        if (!argument.startsWith("-") || STANDARD_STREAM.equals(argument)) {
+          options.inputs.add(argument);
+          continue;
+        }
+        switch (argument) {
+          case "-o":
+          case "--output":
+            options.output = getValue(arguments, ++i, argument);
+            break;
+          case "--glob":
+            options.glob = getValue(arguments, ++i, argument);
+            break;
+          case "--threads":
+            options.threads = getPositiveValue(arguments, ++i, argument);
+            break;
+          case "--virtual-threads":
+            options.virtualThreads = true;
+            break;
+          case "--on-error":
+            final String onError = getValue(arguments, ++i, argument);
+            if (!ON_ERROR_SKIP.equals(onError) && !ON_ERROR_FAIL.equals(onError)) {
+              throw new IllegalArgumentException(String.format(ERROR_INVALID_VALUE, onError, argument));
+            }
+            options.skipErrors = ON_ERROR_SKIP.equals(onError);
+            break;
+          case "--no-namespaces":
+            options.keepNamespaces = false;
+            break;
+          case "--prefix":
+            options.prefix = getValue(arguments, ++i, argument);
+            break;
+          case "--hints":
+            options.hints = Paths.get(getValue(arguments, ++i, argument));
+            break;
+          case "--namespace-mapping":
+            options.namespaceMapping = Paths.get(getValue(arguments, ++i, argument));
+            break;
+          case "-q":
+          case "--quiet":
+            options.quiet = true;
+            break;
+          case "-h":
+          case "--help":
+            options.help = true;
+            break;
+          default:
+            throw new IllegalArgumentException(String.format(ERROR_UNKNOWN_OPTION, argument));
+        }
+      }
+      return options;
+    }
+
+    private static String getValue(final List<String> arguments, final int index, final String option) {
+      if (index >= arguments.size()) {
+        throw new IllegalArgumentException(String.format(ERROR_MISSING_VALUE, option));
+      }
+      return arguments.get(index);
+    }
+
+    private static int getPositiveValue(final List<String> arguments, final int index, final String option) {
+      final String value = getValue(arguments, index, option);
+      try {
+        final int parsed = Integer.parseInt(value);
+        if (parsed > 0) {
+          return parsed;
+        }
+      } catch (final NumberFormatException e) {
+        // reported below
+      }
+      throw new IllegalArgumentException(String.format(ERROR_INVALID_VALUE, value, option));
+    }
+
+    boolean isStandardInput() {
+      return inputs.isEmpty() || inputs.size() == 1 && STANDARD_STREAM.equals(inputs.get(0));
+    }
+
+    String getGlob() {
+      return glob != null ? glob : xmlToJson ? "*" + XML_EXTENSION : "*" + JSON_EXTENSION;
+    }
+
+  }
+
+}
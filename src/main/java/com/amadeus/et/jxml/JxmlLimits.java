@@ -0,0 +1,247 @@
+package com.amadeus.et.jxml;
+
+/**
+ * Limits applied by the converters to the documents they process,
+ * so that pathological inputs are rejected with a JxmlException
+ * instead of exhausting the thread stack or the heap.
+ *
+ * <p>Limits are checked while the input is parsed, so an oversized document
+ * is rejected as soon as a limit is crossed, before being fully read.
+ * Except for the nesting depth, no limit is applied by default.
+ */
+public class JxmlLimits {
+
+  /** Default maximum element nesting depth. */
+  public static final int DEFAULT_MAX_DEPTH = 1000;
+
+  private static final String ERROR_DEPTH_EXCEEDED =
+      "Document nesting depth exceeds the maximum allowed depth of %d.";
+  private static final String ERROR_DOCUMENT_SIZE_EXCEEDED =
+      "Document size exceeds the maximum allowed size of %d.";
+  private static final String ERROR_ELEMENT_COUNT_EXCEEDED =
+      "Document element count exceeds the maximum allowed count of %d.";
+  private static final String ERROR_ATTRIBUTE_COUNT_EXCEEDED =
+      "Element attribute count exceeds the maximum allowed count of %d.";
+  private static final String ERROR_TEXT_LENGTH_EXCEEDED =
+      "Text length exceeds the maximum allowed length of %d.";
+  private static final String ERROR_NAME_LENGTH_EXCEEDED =
+      "Name length exceeds the maximum allowed length of %d.";
+  private static final String ERROR_ARRAY_LENGTH_EXCEEDED =
+      "Array length exceeds the maximum allowed length of %d.";
+  private static final String ERROR_NOT_POSITIVE =
+      "'%s' must be strictly positive.";
+
+  private int maxDepth = DEFAULT_MAX_DEPTH;
+  private long maxDocumentSize = Long.MAX_VALUE;
+  private long maxElementCount = Long.MAX_VALUE;
+  private int maxAttributeCount = Integer.MAX_VALUE;
+  private int maxTextLength = Integer.MAX_VALUE;
+  private int maxNameLength = Integer.MAX_VALUE;
+  private int maxArrayLength = Integer.MAX_VALUE;
+
+  public JxmlLimits() {}
+
+  /**
+   * Returns the maximum element nesting depth, the root element having a depth of 1.
+   *
+   * @return  the maximum nesting depth
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Sets the maximum element nesting depth, the root element having a depth of 1.
+   *
+   * <p>Any depth is safe on the calling thread: the converters parse and write json iteratively,
+   * and JsonToXml serializes a document deeper than {@link #DEFAULT_MAX_DEPTH} on a dedicated
+   * thread whose stack is sized for its depth, since the identity transformer recurses once per
+   * level. Raising the limit thus mostly costs time and memory proportional to the depth.
+   *
+   * @param  maxDepth  the maximum nesting depth, strictly positive
+   */
+  public void setMaxDepth(final int maxDepth) {
+    this.maxDepth = checkPositive(maxDepth, "maxDepth");
+  }
+
+  /**
+   * Returns the maximum document size: a number of bytes for byte inputs,
+   * a number of characters for string inputs.
+   *
+   * @return  the maximum document size
+   */
+  public long getMaxDocumentSize() {
+    return maxDocumentSize;
+  }
+
+  /**
+   * Sets the maximum document size: a number of bytes for byte inputs,
+   * a number of characters for string inputs.
+   *
+   * @param  maxDocumentSize  the maximum document size, strictly positive
+   */
+  public void setMaxDocumentSize(final long maxDocumentSize) {
+    this.maxDocumentSize = checkPositive(maxDocumentSize, "maxDocumentSize");
+  }
+
+  /**
+   * Returns the maximum number of elements in a document.
+   *
+   * @return  the maximum element count
+   */
+  public long getMaxElementCount() {
+    return maxElementCount;
+  }
+
+  /**
+   * Sets the maximum number of elements in a document.
+   *
+   * @param  maxElementCount  the maximum element count, strictly positive
+   */
+  public void setMaxElementCount(final long maxElementCount) {
+    this.maxElementCount = checkPositive(maxElementCount, "maxElementCount");
+  }
+
+  /**
+   * Returns the maximum number of attributes of a single element, namespace declarations included.
+   *
+   * @return  the maximum attribute count
+   */
+  public int getMaxAttributeCount() {
+    return maxAttributeCount;
+  }
+
+  /**
+   * Sets the maximum number of attributes of a single element, namespace declarations included.
+   *
+   * @param  maxAttributeCount  the maximum attribute count, strictly positive
+   */
+  public void setMaxAttributeCount(final int maxAttributeCount) {
+    this.maxAttributeCount = checkPositive(maxAttributeCount, "maxAttributeCount");
+  }
+
+  /**
+   * Returns the maximum length of a text content or of an attribute value, in characters.
+   *
+   * @return  the maximum text length
+   */
+  public int getMaxTextLength() {
+    return maxTextLength;
+  }
+
+  /**
+   * Sets the maximum length of a text content or of an attribute value, in characters.
+   *
+   * @param  maxTextLength  the maximum text length, strictly positive
+   */
+  public void setMaxTextLength(final int maxTextLength) {
+    this.maxTextLength = checkPositive(maxTextLength, "maxTextLength");
+  }
+
+  /**
+   * Returns the maximum length of an element or attribute name, in characters.
+   *
+   * @return  the maximum name length
+   */
+  public int getMaxNameLength() {
+    return maxNameLength;
+  }
+
+  /**
+   * Sets the maximum length of an element or attribute name, in characters.
+   *
+   * @param  maxNameLength  the maximum name length, strictly positive
+   */
+  public void setMaxNameLength(final int maxNameLength) {
+    this.maxNameLength = checkPositive(maxNameLength, "maxNameLength");
+  }
+
+  /**
+   * Returns the maximum length of an array, that is the maximum number
+   * of elements with the same name under a single element.
+   *
+   * @return  the maximum array length
+   */
+  public int getMaxArrayLength() {
+    return maxArrayLength;
+  }
+
+  /**
+   * Sets the maximum length of an array, that is the maximum number
+   * of elements with the same name under a single element.
+   *
+   * @param  maxArrayLength  the maximum array length, strictly positive
+   */
+  public void setMaxArrayLength(final int maxArrayLength) {
+    this.maxArrayLength = checkPositive(maxArrayLength, "maxArrayLength");
+  }
+
+  void checkDepth(final int depth) throws JxmlException {
+    if (depth > maxDepth) {
+      throw new JxmlException(String.format(ERROR_DEPTH_EXCEEDED, maxDepth));
+    }
+  }
+
+  void checkDocumentSize(final long size) throws JxmlException {
+    if (size > maxDocumentSize) {
+      throw new JxmlException(String.format(ERROR_DOCUMENT_SIZE_EXCEEDED, maxDocumentSize));
+    }
+  }
+
+  void checkElementCount(final long count) throws JxmlException {
+    if (count > maxElementCount) {
+      throw new JxmlException(String.format(ERROR_ELEMENT_COUNT_EXCEEDED, maxElementCount));
+    }
+  }
+
+  void checkAttributeCount(final int count) throws JxmlException {
+    if (count > maxAttributeCount) {
+      throw new JxmlException(String.format(ERROR_ATTRIBUTE_COUNT_EXCEEDED, maxAttributeCount));
+    }
+  }
+
+  void checkTextLength(final int length) throws JxmlException {
+    if (length > maxTextLength) {
+      throw new JxmlException(String.format(ERROR_TEXT_LENGTH_EXCEEDED, maxTextLength));
+    }
+  }
+
+  void checkNameLength(final int length) throws JxmlException {
+    if (length > maxNameLength) {
+      throw new JxmlException(String.format(ERROR_NAME_LENGTH_EXCEEDED, maxNameLength));
+    }
+  }
+
+  void checkArrayLength(final int length) throws JxmlException {
+    if (length > maxArrayLength) {
+      throw new JxmlException(String.format(ERROR_ARRAY_LENGTH_EXCEEDED, maxArrayLength));
+    }
+  }
+
+  /**
+   * Returns the values of all limits, in a fixed order.
+   */
+  long[] getValues() {
+    return new long[] {maxDepth, maxDocumentSize, maxElementCount, maxAttributeCount, maxTextLength, maxNameLength,
+                       maxArrayLength};
+  }
+
+  boolean isArrayLengthLimited() {
+    return maxArrayLength != Integer.MAX_VALUE;
+  }
+
+  private static int checkPositive(final int value, final String name) {
+    if (value <= 0) {
+      throw new IllegalArgumentException(String.format(ERROR_NOT_POSITIVE, name));
+    }
+    return value;
+  }
+
+  private static long checkPositive(final long value, final String name) {
+    if (value <= 0) {
+      throw new IllegalArgumentException(String.format(ERROR_NOT_POSITIVE, name));
+    }
+    return value;
+  }
+
+}
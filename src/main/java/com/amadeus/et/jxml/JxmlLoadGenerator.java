@@ -0,0 +1,152 @@
+package com.amadeus.et.jxml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A load generator for the conversion server, posting the same document over keep-alive
+ * connections from concurrent clients, and reporting the throughput and the latencies:
+ *
+ * <pre>
+ * java -cp jxml.jar com.amadeus.et.jxml.JxmlLoadGenerator url file [--concurrency count] [--requests count] [--gzip]
+ * </pre>
+ */
+public final class JxmlLoadGenerator {
+
+  private static final int DEFAULT_CONCURRENCY = 8;
+  private static final int DEFAULT_REQUESTS = 10000;
+  private static final int READ_CHUNK_SIZE = 8192;
+
+  private JxmlLoadGenerator() {}
+
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    System.exit(run(args, System.out, System.err));
+  }
+
+  /**
+   * Runs the load generator with the given arguments, reporting to the given streams.
+   *
+   * @return  the exit status: 0 when all requests succeeded, 1 when some failed, 2 on invalid arguments
+   */
+  static int run(final String[] args, final PrintStream stdout, final PrintStream stderr)
+      throws IOException, InterruptedException {
+    if (args.length < 2) {
+      stderr.println("Usage: java -cp jxml.jar com.amadeus.et.jxml.JxmlLoadGenerator url file"
+                     + " [--concurrency count] [--requests count] [--gzip]");
+      return JxmlCli.EXIT_USAGE;
+    }
+    int concurrency = DEFAULT_CONCURRENCY;
+    int requests = DEFAULT_REQUESTS;
+    boolean gzip = false;
+    for (int i = 2; i < args.length; i++) {
+      switch (args[i]) {
+        case "--concurrency":
+          concurrency = Integer.parseInt(args[++i]);
+          break;
+        case "--requests":
+          requests = Integer.parseInt(args[++i]);
+          break;
+        case "--gzip":
+          gzip = true;
+          break;
+        default:
+          throw new IllegalArgumentException(args[i]);
+      }
+    }
+    final byte[] body = Files.readAllBytes(Paths.get(args[1]));
+    // a first request, so that the connections and the server are warm
+    run(new URL(args[0]), body, 1, 1, gzip);
+    final long start = System.nanoTime();
+    final ConversionStatistics statistics = run(new URL(args[0]), body, concurrency, requests, gzip);
+    statistics.report(stdout, System.nanoTime() - start);
+    return statistics.failed() > 0 ? JxmlCli.EXIT_FAILURE : JxmlCli.EXIT_SUCCESS;
+  }
+
+  /**
+   * Posts the body the given number of times from concurrent clients, each reusing its connection.
+   *
+   * @return  the statistics of the requests, a request failing on a status other than 200
+   */
+  static ConversionStatistics run(final URL url, final byte[] body, final int concurrency, final int requests,
+                                  final boolean gzip) throws IOException, InterruptedException {
+    final byte[] sent = gzip ? compress(body) : body;
+    final ConversionStatistics statistics = new ConversionStatistics("requests");
+    final AtomicLong remaining = new AtomicLong(requests);
+    final List<Thread> clients = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      final Thread client = new Thread(() -> {
+        final byte[] buffer = new byte[READ_CHUNK_SIZE];
+        while (remaining.getAndDecrement() > 0) {
+          final long start = System.nanoTime();
+          try {
+            final long received = post(url, sent, gzip, buffer);
+            if (received < 0) {
+              statistics.recordFailure();
+            } else {
+              statistics.recordSuccess(System.nanoTime() - start, sent.length, received);
+            }
+          } catch (final IOException e) {
+            statistics.recordFailure();
+          }
+        }
+      }, "jxml-load-" + i);
+      client.start();
+      clients.add(client);
+    }
+    for (final Thread client : clients) {
+      client.join();
+    }
+    return statistics;
+  }
+
+  /*
+   * Returns the number of bytes received, or -1 on a status other than 200. The response is
+   * read whole and the streams closed, so that the connection is kept alive.
+   */
+  private static long post(final URL url, final byte[] body, final boolean gzip, final byte[] buffer)
+      throws IOException {
+    final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setFixedLengthStreamingMode(body.length);
+    if (gzip) {
+      connection.setRequestProperty("Content-Encoding", "gzip");
+      connection.setRequestProperty("Accept-Encoding", "gzip");
+    }
+    try (OutputStream output = connection.getOutputStream()) {
+      output.write(body);
+    }
+    final int status = connection.getResponseCode();
+    long received = 0;
+    try (InputStream input = status == HttpURLConnection.HTTP_OK ? connection.getInputStream()
+        : connection.getErrorStream()) {
+      if (input != null) {
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+          received += read;
+        }
+      }
+    }
+    return status == HttpURLConnection.HTTP_OK ? received : -1;
+  }
+
+  private static byte[] compress(final byte[] body) throws IOException {
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+      output.write(body);
+    }
+    return compressed.toByteArray();
+  }
+
+}
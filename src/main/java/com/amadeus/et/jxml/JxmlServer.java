@@ -0,0 +1,595 @@
+package com.amadeus.et.jxml;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.xml.sax.SAXException;
+
+import com.google.gson.JsonSyntaxException;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded conversion server on the HTTP server of the JDK, with the endpoints:
+ * <ul>
+ *   <li>POST /xml2json and POST /json2xml, converting the request body, with the optional
+ *   query parameters keepNamespaces (true by default) and prefix;</li>
+ *   <li>GET /metrics, reporting the counters of the server in the Prometheus text format.</li>
+ * </ul>
+ *
+ * <p>Request bodies are streamed into the converters, XML bodies being converted without
+ * building any tree, and responses are chunked so that connections are kept alive. Bodies
+ * may be gzip-encoded, and responses are gzip-encoded when accepted by the client.
+ *
+ * <p>Requests are handled by a bounded pool of threads, or by virtual threads when the
+ * runtime provides them and they are enabled. Past the concurrent and queued requests
+ * allowed, conversions are answered with 503 by a single overload thread, without being read,
+ * the metrics being still reported. Past the requests waiting for the overload thread, the
+ * connections of the conversions are closed at once, on the thread of the HTTP server.
+ * The converters are shared by all requests, and must not be reconfigured once started.
+ *
+ * <p>TCP_NODELAY is left to the sun.net.httpserver.nodelay system property of the JDK, which
+ * applies to all its HTTP servers, and is only set by {@link #main(String[])} when asked to.
+ */
+public final class JxmlServer implements Closeable {
+
+  /**
+   * The default number of requests waiting for a thread before being rejected.
+   */
+  public static final int DEFAULT_MAX_QUEUED_REQUESTS = 1000;
+
+  static final String XML_TO_JSON_PATH = "/xml2json";
+  static final String JSON_TO_XML_PATH = "/json2xml";
+  static final String METRICS_PATH = "/metrics";
+
+  private static final String GZIP = "gzip";
+  private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+  private static final String XML_CONTENT_TYPE = "application/xml; charset=utf-8";
+  private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+  private static final String METRICS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final String KEEP_NAMESPACES_PARAMETER = "keepNamespaces";
+  private static final String PREFIX_PARAMETER = "prefix";
+  private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+  private static final int STOP_DELAY_SECONDS = 1;
+  private static final int MAX_QUEUED_REJECTIONS = 100;
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private static final String ERROR_NOT_POSITIVE =
+      "'%s' must be strictly positive.";
+  private static final String ERROR_NEGATIVE =
+      "'%s' must not be negative.";
+  private static final String ERROR_ALREADY_STARTED =
+      "The server is already started.";
+  private static final String ERROR_METHOD_NOT_ALLOWED =
+      "Method '%s' is not allowed.";
+  private static final String ERROR_UNSUPPORTED_ENCODING =
+      "Content encoding '%s' is not supported.";
+  private static final String ERROR_OVERLOADED =
+      "The server is overloaded.";
+
+  // set on the thread handling a rejected request
+  private static final ThreadLocal<Rejection> REJECTION = new ThreadLocal<>();
+
+  private final XmlToJson xmlToJson;
+  private final JsonToXml jsonToXml;
+  private int maxConcurrentRequests = Runtime.getRuntime().availableProcessors();
+  private int maxQueuedRequests = DEFAULT_MAX_QUEUED_REQUESTS;
+  private boolean virtualThreads;
+  private HttpServer server;
+  private ExecutorService workers;
+  private ExecutorService overload;
+  private final Metrics xmlToJsonMetrics = new Metrics(XML_TO_JSON_PATH.substring(1));
+  private final Metrics jsonToXmlMetrics = new Metrics(JSON_TO_XML_PATH.substring(1));
+  private final AtomicInteger pendingRequests = new AtomicInteger();
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final LongAdder rejectedRequests = new LongAdder();
+  private final LongAdder droppedRequests = new LongAdder();
+
+  /**
+   * @param  xmlToJson  the converter of the xml2json requests
+   * @param  jsonToXml  the converter of the json2xml requests
+   */
+  public JxmlServer(final XmlToJson xmlToJson, final JsonToXml jsonToXml) {
+    this.xmlToJson = Objects.requireNonNull(xmlToJson, "xmlToJson");
+    this.jsonToXml = Objects.requireNonNull(jsonToXml, "jsonToXml");
+  }
+
+  /**
+   * Sets the number of requests handled at the same time, the number of cores by default.
+   *
+   * @param  maxConcurrentRequests  the number of requests handled at the same time
+   */
+  public void setMaxConcurrentRequests(final int maxConcurrentRequests) {
+    if (maxConcurrentRequests <= 0) {
+      throw new IllegalArgumentException(String.format(ERROR_NOT_POSITIVE, "maxConcurrentRequests"));
+    }
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * Sets the number of requests waiting for a thread, past which requests are rejected.
+   *
+   * @param  maxQueuedRequests  the number of requests waiting for a thread
+   */
+  public void setMaxQueuedRequests(final int maxQueuedRequests) {
+    if (maxQueuedRequests < 0) {
+      throw new IllegalArgumentException(String.format(ERROR_NEGATIVE, "maxQueuedRequests"));
+    }
+    this.maxQueuedRequests = maxQueuedRequests;
+  }
+
+  /**
+   * Enables virtual threads, one per request, when the runtime provides them. The pool of
+   * threads is used otherwise. Up to the concurrent and queued requests allowed are then
+   * handled at the same time, requests blocked on slow clients not holding any core.
+   *
+   * @param  virtualThreads  true to use virtual threads when available
+   */
+  public void setVirtualThreads(final boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  /**
+   * Starts the server on the given address, port 0 choosing a free port.
+   *
+   * @param  address  the address to listen on
+   */
+  public synchronized void start(final InetSocketAddress address) throws IOException {
+    if (server != null) {
+      throw new IllegalStateException(ERROR_ALREADY_STARTED);
+    }
+    overload = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<>(MAX_QUEUED_REJECTIONS),
+                                      newThreadFactory("jxml-server-overload"));
+    workers = newVirtualThreadExecutor();
+    final Executor executor;
+    if (workers != null) {
+      executor = newAdmissionExecutor(workers, new Semaphore(maxConcurrentRequests + maxQueuedRequests));
+    } else {
+      workers = new ThreadPoolExecutor(
+          maxConcurrentRequests, maxConcurrentRequests, 0, TimeUnit.MILLISECONDS,
+          maxQueuedRequests == 0 ? new SynchronousQueue<>()
+              : new ArrayBlockingQueue<>(maxQueuedRequests),
+          newThreadFactory("jxml-server-worker"), (task, pool) -> {
+            pendingRequests.decrementAndGet();
+            reject(((Admitted) task).task);
+          });
+      executor = newAdmissionExecutor(workers, null);
+    }
+    server = HttpServer.create(address, 0);
+    server.setExecutor(executor);
+    server.createContext(XML_TO_JSON_PATH, exchange -> convert(exchange, true));
+    server.createContext(JSON_TO_XML_PATH, exchange -> convert(exchange, false));
+    server.createContext(METRICS_PATH, this::reportMetrics);
+    server.start();
+  }
+
+  /**
+   * Returns the address the server listens on, or null if not started.
+   *
+   * @return  the address of the server
+   */
+  public synchronized InetSocketAddress getAddress() {
+    return server == null ? null : server.getAddress();
+  }
+
+  /**
+   * Stops the server, waiting a second at most for the exchanges in progress to complete.
+   */
+  @Override
+  public synchronized void close() {
+    if (server == null) {
+      return;
+    }
+    server.stop(STOP_DELAY_SECONDS);
+    workers.shutdownNow();
+    overload.shutdownNow();
+    server = null;
+  }
+
+  /**
+   * Starts a server with default converters, until the process is stopped:
+   * {@code java -cp jxml.jar com.amadeus.et.jxml.JxmlServer [port] [--threads count]
+   * [--queue count] [--virtual-threads] [--tcp-nodelay] [--hints file] [--namespace-mapping file]}.
+   * The --tcp-nodelay option sets the sun.net.httpserver.nodelay system property, so that small
+   * response chunks do not wait for delayed acknowledgements; as the JDK reads it once, when its
+   * first HTTP server is created, it applies to every HTTP server of the process.
+   */
+  public static void main(final String[] args) throws IOException, JxmlException {
+    System.out.println("Listening on " + start(args).getAddress());
+  }
+
+  /**
+   * Starts a server configured by the command line arguments of {@link #main(String[])}.
+   */
+  static JxmlServer start(final String[] args) throws IOException, JxmlException {
+    final XmlToJson xmlToJson = new XmlToJson();
+    xmlToJson.setByteTokenizer(true);
+    final JsonToXml jsonToXml = new JsonToXml();
+    final JxmlServer server = new JxmlServer(xmlToJson, jsonToXml);
+    int port = 8080;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--threads":
+          server.setMaxConcurrentRequests(Integer.parseInt(args[++i]));
+          break;
+        case "--queue":
+          server.setMaxQueuedRequests(Integer.parseInt(args[++i]));
+          break;
+        case "--virtual-threads":
+          server.setVirtualThreads(true);
+          break;
+        case "--tcp-nodelay":
+          System.setProperty(NO_DELAY_PROPERTY, "true");
+          break;
+        case "--hints":
+          xmlToJson.setStructureHints(StructureHints.load(Paths.get(args[++i])));
+          break;
+        case "--namespace-mapping":
+          final NamespaceMapping mapping = NamespaceMapping.load(Paths.get(args[++i]));
+          xmlToJson.setNamespaceMapping(mapping);
+          jsonToXml.setNamespaceMapping(mapping);
+          break;
+        default:
+          port = Integer.parseInt(args[i]);
+      }
+    }
+    server.start(new InetSocketAddress(port));
+    return server;
+  }
+
+  private ExecutorService newVirtualThreadExecutor() {
+    return virtualThreads ? VirtualThreads.newExecutor("jxml-server-worker") : null;
+  }
+
+  /*
+   * Counts the requests waiting for a thread, and rejects the ones past the permits if any.
+   */
+  private Executor newAdmissionExecutor(final ExecutorService executor, final Semaphore permits) {
+    return task -> {
+      if (permits != null && !permits.tryAcquire()) {
+        reject(task);
+        return;
+      }
+      pendingRequests.incrementAndGet();
+      try {
+        executor.execute(new Admitted(task, permits));
+      } catch (final RejectedExecutionException e) {
+        // the executor is shut down
+        pendingRequests.decrementAndGet();
+        if (permits != null) {
+          permits.release();
+        }
+      }
+    };
+  }
+
+  private void reject(final Runnable task) {
+    try {
+      overload.execute(() -> handle(task, Rejection.ANSWERED));
+    } catch (final RejectedExecutionException e) {
+      // the overload queue is full, or the server is stopped
+      handle(task, Rejection.DROPPED);
+    }
+  }
+
+  private static void handle(final Runnable task, final Rejection rejection) {
+    REJECTION.set(rejection);
+    try {
+      task.run();
+    } finally {
+      REJECTION.remove();
+    }
+  }
+
+  private void convert(final HttpExchange exchange, final boolean toJson) throws IOException {
+    final Rejection rejection = REJECTION.get();
+    if (rejection == Rejection.DROPPED) {
+      droppedRequests.increment();
+      // closes the connection, no response having been sent
+      exchange.close();
+      return;
+    }
+    if (rejection == Rejection.ANSWERED) {
+      rejectedRequests.increment();
+      exchange.getResponseHeaders().set("Connection", "close");
+      exchange.getResponseHeaders().set("Retry-After", "1");
+      sendText(exchange, 503, ERROR_OVERLOADED);
+      return;
+    }
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      exchange.getResponseHeaders().set("Allow", "POST");
+      sendText(exchange, 405, String.format(ERROR_METHOD_NOT_ALLOWED, exchange.getRequestMethod()));
+      return;
+    }
+    final String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+    if (contentEncoding != null && !GZIP.equalsIgnoreCase(contentEncoding)
+        && !"identity".equalsIgnoreCase(contentEncoding)) {
+      sendText(exchange, 415, String.format(ERROR_UNSUPPORTED_ENCODING, contentEncoding));
+      return;
+    }
+    final Metrics metrics = toJson ? xmlToJsonMetrics : jsonToXmlMetrics;
+    final long start = System.nanoTime();
+    final CountingInputStream body = new CountingInputStream(exchange.getRequestBody());
+    final ResponseStream response = new ResponseStream(exchange, toJson ? JSON_CONTENT_TYPE : XML_CONTENT_TYPE,
+                                                       acceptsGzip(exchange.getRequestHeaders()));
+    activeRequests.incrementAndGet();
+    try {
+      final InputStream input = GZIP.equalsIgnoreCase(contentEncoding) ? new GZIPInputStream(body) : body;
+      final Writer output = new OutputStreamWriter(response, StandardCharsets.UTF_8);
+      final String query = exchange.getRequestURI().getRawQuery();
+      final boolean keepNamespaces = !"false".equals(getParameter(query, KEEP_NAMESPACES_PARAMETER));
+      final String prefix = getParameter(query, PREFIX_PARAMETER);
+      if (toJson) {
+        xmlToJson.execute(input, output, keepNamespaces, prefix);
+      } else {
+        jsonToXml.execute(input, output, keepNamespaces, prefix);
+      }
+      response.finish();
+      metrics.recordSuccess(System.nanoTime() - start, body.getByteCount(), response.getByteCount());
+    } catch (final JxmlException | SAXException | TransformerException | ParserConfigurationException
+        | JsonSyntaxException e) {
+      // malformed json is reported by Gson as an unchecked exception, answered as the other invalid bodies
+      metrics.recordFailure();
+      if (response.isCommitted()) {
+        // the status is sent already: the connection is dropped so that the client sees a truncated response
+        throw new IOException(e);
+      }
+      sendText(exchange, e instanceof ParserConfigurationException ? 500 : 400, String.valueOf(e.getMessage()));
+    } catch (final IOException | RuntimeException e) {
+      metrics.recordFailure();
+      throw e;
+    } finally {
+      activeRequests.decrementAndGet();
+    }
+  }
+
+  /*
+   * Also answered by the overload thread, the metrics being needed the most then.
+   */
+  private void reportMetrics(final HttpExchange exchange) throws IOException {
+    final StringBuilder text = new StringBuilder();
+    text.append("# TYPE jxml_requests_total counter\n");
+    xmlToJsonMetrics.appendRequests(text);
+    jsonToXmlMetrics.appendRequests(text);
+    text.append("jxml_requests_total{outcome=\"rejected\"} ").append(rejectedRequests.sum()).append('\n');
+    text.append("jxml_requests_total{outcome=\"dropped\"} ").append(droppedRequests.sum()).append('\n');
+    text.append("# TYPE jxml_request_bytes_total counter\n");
+    xmlToJsonMetrics.appendBytes(text, "jxml_request_bytes_total", xmlToJsonMetrics.bytesRead);
+    jsonToXmlMetrics.appendBytes(text, "jxml_request_bytes_total", jsonToXmlMetrics.bytesRead);
+    text.append("# TYPE jxml_response_bytes_total counter\n");
+    xmlToJsonMetrics.appendBytes(text, "jxml_response_bytes_total", xmlToJsonMetrics.bytesWritten);
+    jsonToXmlMetrics.appendBytes(text, "jxml_response_bytes_total", jsonToXmlMetrics.bytesWritten);
+    text.append("# TYPE jxml_request_duration_seconds summary\n");
+    xmlToJsonMetrics.appendDuration(text);
+    jsonToXmlMetrics.appendDuration(text);
+    text.append("# TYPE jxml_requests_active gauge\n");
+    text.append("jxml_requests_active ").append(activeRequests.get()).append('\n');
+    text.append("# TYPE jxml_requests_queued gauge\n");
+    text.append("jxml_requests_queued ").append(pendingRequests.get()).append('\n');
+    final byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", METRICS_CONTENT_TYPE);
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+
+  private static void sendText(final HttpExchange exchange, final int status, final String message)
+      throws IOException {
+    final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", TEXT_CONTENT_TYPE);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+
+  private static boolean acceptsGzip(final Headers headers) {
+    final String accepted = headers.getFirst("Accept-Encoding");
+    return accepted != null && accepted.toLowerCase(Locale.ROOT).contains(GZIP);
+  }
+
+  private static String getParameter(final String query, final String name) throws UnsupportedEncodingException {
+    if (query == null) {
+      return null;
+    }
+    for (final String parameter : query.split("&")) {
+      final int separator = parameter.indexOf('=');
+      if (separator > 0 && name.equals(parameter.substring(0, separator))) {
+        return URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8.name());
+      }
+    }
+    return null;
+  }
+
+  private static ThreadFactory newThreadFactory(final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return task -> {
+      final Thread thread = new Thread(task, name + '-' + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+  /*
+   * Handling of a request past the concurrent and queued requests allowed.
+   */
+  private enum Rejection {
+    // answered with 503 by the overload thread
+    ANSWERED,
+    // closed at once, the overload thread being saturated as well
+    DROPPED
+  }
+
+
+  /*
+   * A request admitted to the workers, counted as pending until it runs.
+   */
+  private final class Admitted implements Runnable {
+
+    private final Runnable task;
+    private final Semaphore permits;
+
+    Admitted(final Runnable task, final Semaphore permits) {
+      this.task = task;
+      this.permits = permits;
+    }
+
+    @Override
+    public void run() {
+      pendingRequests.decrementAndGet();
+      try {
+        task.run();
+      } finally {
+        if (permits != null) {
+          permits.release();
+        }
+      }
+    }
+
+  }
+
+  /*
+   * The response body, whose status is sent on the first bytes written, so that a failed
+   * conversion can still be answered with an error status.
+   */
+  private static final class ResponseStream extends OutputStream {
+
+    private final HttpExchange exchange;
+    private final String contentType;
+    private final boolean gzip;
+    private CountingOutputStream counted;
+    private OutputStream output;
+
+    ResponseStream(final HttpExchange exchange, final String contentType, final boolean gzip) {
+      this.exchange = exchange;
+      this.contentType = contentType;
+      this.gzip = gzip;
+    }
+
+    boolean isCommitted() {
+      return output != null;
+    }
+
+    long getByteCount() {
+      return counted == null ? 0 : counted.getByteCount();
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      commit().write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      if (len > 0) {
+        commit().write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() {
+      // the response is flushed once complete
+    }
+
+    void finish() throws IOException {
+      commit().close();
+    }
+
+    private OutputStream commit() throws IOException {
+      if (output == null) {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (gzip) {
+          exchange.getResponseHeaders().set("Content-Encoding", GZIP);
+        }
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        // chunked, the length being unknown
+        exchange.sendResponseHeaders(200, 0);
+        counted = new CountingOutputStream(exchange.getResponseBody());
+        output = gzip ? new GZIPOutputStream(counted, AsyncConversion.CHUNK_SIZE)
+            : new BufferedOutputStream(counted, AsyncConversion.CHUNK_SIZE);
+      }
+      return output;
+    }
+
+  }
+
+  /*
+   * The counters of an endpoint.
+   */
+  private static final class Metrics {
+
+    private final String endpoint;
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder durationNanos = new LongAdder();
+
+    Metrics(final String endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    void recordSuccess(final long duration, final long read, final long written) {
+      succeeded.increment();
+      durationNanos.add(duration);
+      bytesRead.add(read);
+      bytesWritten.add(written);
+    }
+
+    void recordFailure() {
+      failed.increment();
+    }
+
+    void appendRequests(final StringBuilder text) {
+      text.append("jxml_requests_total{endpoint=\"").append(endpoint).append("\",outcome=\"success\"} ")
+          .append(succeeded.sum()).append('\n');
+      text.append("jxml_requests_total{endpoint=\"").append(endpoint).append("\",outcome=\"failure\"} ")
+          .append(failed.sum()).append('\n');
+    }
+
+    void appendBytes(final StringBuilder text, final String name, final LongAdder bytes) {
+      text.append(name).append("{endpoint=\"").append(endpoint).append("\"} ").append(bytes.sum()).append('\n');
+    }
+
+    void appendDuration(final StringBuilder text) {
+      text.append("jxml_request_duration_seconds_sum{endpoint=\"").append(endpoint).append("\"} ")
+          .append(String.format(Locale.ROOT, "%.6f", durationNanos.sum() / NANOS_PER_SECOND)).append('\n');
+      text.append("jxml_request_duration_seconds_count{endpoint=\"").append(endpoint).append("\"} ")
+          .append(succeeded.sum()).append('\n');
+    }
+
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.amadeus.et.jxml;
+
+/**
+ * Reduces the SAX events following the start of the innermost open element to its text under
+ * jXML rules, the value of its first child node in the normalized DOM the conversion has always
+ * parsed: the text up to the next node, adjacent character events making a single text node, or
+ * the content of a CDATA section, or the data of a comment or of a processing instruction, and no
+ * text when the first child is an element. The events following the first child node are ignored,
+ * so that the text of an element is known once its first child element starts, or once it ends.
+ */
+final class LeadingText {
+
+  // no child node yet
+  private static final int NONE = 0;
+  private static final int TEXT = 1;
+  private static final int CDATA = 2;
+  // first child node complete, its value not taken yet
+  private static final int READ = 3;
+  private static final int TAKEN = 4;
+
+  private final StringBuilder text = new StringBuilder();
+  private int state = TAKEN;
+  private boolean inCdata;
+  private String value;
+
+  /**
+   * Starts the text of a newly opened element, the text of its parent having been taken before.
+   */
+  void start() {
+    state = NONE;
+  }
+
+  /**
+   * Tells whether the text of the innermost open element has not been taken yet.
+   */
+  boolean isOpen() {
+    return state != TAKEN;
+  }
+
+  /**
+   * Takes the text of the innermost open element, when its first child element starts or when it ends.
+   *
+   * @return  the value of its first child node, or null if it has none, or if it is an element
+   */
+  String take() {
+    if (state == TEXT || state == CDATA) {
+      readText();
+    }
+    final String result = value;
+    value = null;
+    state = TAKEN;
+    return result;
+  }
+
+  void characters(final char[] ch, final int start, final int length) {
+    if (state == NONE) {
+      state = inCdata ? CDATA : TEXT;
+    }
+    if (state == (inCdata ? CDATA : TEXT)) {
+      text.append(ch, start, length);
+    }
+  }
+
+  void startCdata() {
+    inCdata = true;
+    if (state == NONE) {
+      state = CDATA;
+    } else if (state == TEXT) {
+      readText();
+    }
+  }
+
+  void endCdata() {
+    inCdata = false;
+    if (state == CDATA) {
+      readText();
+    }
+  }
+
+  void comment(final char[] ch, final int start, final int length) {
+    if (state == NONE) {
+      value = new String(ch, start, length);
+      state = READ;
+    } else if (state == TEXT) {
+      readText();
+    }
+  }
+
+  void processingInstruction(final String data) {
+    if (state == NONE) {
+      value = data;
+      state = READ;
+    } else if (state == TEXT) {
+      readText();
+    }
+  }
+
+  private void readText() {
+    value = text.toString();
+    text.setLength(0);
+    state = READ;
+  }
+
+}
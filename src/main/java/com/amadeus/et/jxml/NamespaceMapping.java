@@ -0,0 +1,127 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.XMLConstants;
+
+/**
+ * A mapping between XML namespace URIs and the prefixes used for them in json names,
+ * enabling the namespace-aware conversion mode: element and attribute names are then
+ * resolved through the namespace URIs declared in the XML instead of the raw prefixes,
+ * and namespace declarations are identified by their namespace.
+ *
+ * <p>An empty json prefix can be mapped to a namespace URI, its names then have no
+ * prefix in json. Namespace URIs without mapping keep the first prefix they are
+ * declared with in the converted document, a JxmlException being raised when it is
+ * the json prefix of another namespace URI. The 'xml' and 'xmlns' prefixes are reserved.
+ *
+ * <p>Mappings can be loaded from a properties file, one 'jsonPrefix=namespaceUri' per line:
+ * <pre>
+ * soap=http://schemas.xmlsoap.org/soap/envelope/
+ * tx=https://www.w3schools.com/transaction/
+ * </pre>
+ */
+public class NamespaceMapping {
+
+  private static final String ERROR_INVALID_PREFIX =
+      "Json prefix must not be null, contain ':' or be 'xml' or 'xmlns': '%s'.";
+  private static final String ERROR_INVALID_URI =
+      "Namespace URI must not be null, empty or reserved: '%s'.";
+  private static final String ERROR_DUPLICATE_PREFIX =
+      "Json prefix '%s' is already mapped to namespace URI '%s'.";
+  private static final String ERROR_DUPLICATE_URI =
+      "Namespace URI '%s' is already mapped to json prefix '%s'.";
+
+  private final Map<String, String> prefixByUri = new HashMap<>();
+  private final Map<String, String> uriByPrefix = new HashMap<>();
+  private volatile long modificationCount;
+
+  public NamespaceMapping() {}
+
+  /**
+   * Loads a namespace mapping from a properties file, whose keys are the json prefixes
+   * and whose values are the namespace URIs.
+   *
+   * @param  path  the properties file, encoded in UTF-8
+   * @return       the loaded mapping
+   */
+  public static NamespaceMapping load(final Path path) throws IOException, JxmlException {
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      return load(reader);
+    }
+  }
+
+  /**
+   * Loads a namespace mapping from properties, whose keys are the json prefixes
+   * and whose values are the namespace URIs.
+   *
+   * @param  reader  the properties content
+   * @return         the loaded mapping
+   */
+  public static NamespaceMapping load(final Reader reader) throws IOException, JxmlException {
+    final Properties properties = new Properties();
+    properties.load(reader);
+    final NamespaceMapping mapping = new NamespaceMapping();
+    for (final String prefix : properties.stringPropertyNames()) {
+      mapping.map(properties.getProperty(prefix).trim(), prefix);
+    }
+    return mapping;
+  }
+
+  /**
+   * Maps a namespace URI to the prefix used for it in json names.
+   *
+   * @param  namespaceUri  the XML namespace URI
+   * @param  jsonPrefix    the json prefix, possibly empty
+   */
+  public synchronized void map(final String namespaceUri, final String jsonPrefix) throws JxmlException {
+    if (jsonPrefix == null || jsonPrefix.indexOf(':') >= 0 || XMLConstants.XML_NS_PREFIX.equals(jsonPrefix)
+        || XMLConstants.XMLNS_ATTRIBUTE.equals(jsonPrefix)) {
+      throw new JxmlException(String.format(ERROR_INVALID_PREFIX, jsonPrefix));
+    }
+    if (namespaceUri == null || namespaceUri.isEmpty() || XMLConstants.XML_NS_URI.equals(namespaceUri)
+        || XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceUri)) {
+      throw new JxmlException(String.format(ERROR_INVALID_URI, namespaceUri));
+    }
+    final String mappedUri = uriByPrefix.get(jsonPrefix);
+    if (mappedUri != null && !mappedUri.equals(namespaceUri)) {
+      throw new JxmlException(String.format(ERROR_DUPLICATE_PREFIX, jsonPrefix, mappedUri));
+    }
+    final String mappedPrefix = prefixByUri.get(namespaceUri);
+    if (mappedPrefix != null && !mappedPrefix.equals(jsonPrefix)) {
+      throw new JxmlException(String.format(ERROR_DUPLICATE_URI, namespaceUri, mappedPrefix));
+    }
+    prefixByUri.put(namespaceUri, jsonPrefix);
+    uriByPrefix.put(jsonPrefix, namespaceUri);
+    modificationCount++;
+  }
+
+  /**
+   * Returns the number of mappings added so far, which identifies the state of the mapping along with its identity.
+   */
+  long getModificationCount() {
+    return modificationCount;
+  }
+
+  /**
+   * Returns the json prefix mapped to the given namespace URI, or null if not mapped.
+   */
+  synchronized String getJsonPrefix(final String namespaceUri) {
+    return prefixByUri.get(namespaceUri);
+  }
+
+  /**
+   * Returns the namespace URI mapped to the given json prefix, or null if not mapped.
+   */
+  synchronized String getNamespaceUri(final String jsonPrefix) {
+    return uriByPrefix.get(jsonPrefix);
+  }
+
+}
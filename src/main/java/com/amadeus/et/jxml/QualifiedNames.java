@@ -0,0 +1,130 @@
+package com.amadeus.et.jxml;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/**
+ * Resolves names between XML and json for a single namespace-aware conversion,
+ * interning each resolved name so that every distinct qualified name is resolved
+ * and built only once per document, in both directions.
+ *
+ * <p>A namespace URI without mapping takes the first prefix it is declared with as json prefix,
+ * which must not be the json prefix of another namespace URI, so that the names of distinct
+ * namespaces are never merged in json.
+ */
+final class QualifiedNames {
+
+  private static final String NAMESPACE_DECLARATION_PREFIX = XMLConstants.XMLNS_ATTRIBUTE + ":";
+  private static final String ERROR_PREFIX_CONFLICT =
+      "Namespace URIs '%s' and '%s' both have json prefix '%s'; map them to distinct json prefixes.";
+
+  private final NamespaceMapping mapping;
+  private final boolean keepNamespaces;
+  // namespace URI -> local name -> json name
+  private final Map<String, Map<String, String>> jsonNames = new HashMap<>();
+  // namespace URI -> json prefix, either mapped or the first declared one
+  private final Map<String, String> jsonPrefixes = new HashMap<>();
+  // json prefix -> namespace URI, for the namespace URIs without mapping
+  private final Map<String, String> unmappedUris = new HashMap<>();
+  // json name -> XML name, for elements and for attributes
+  private final Map<String, QName> xmlNames = new HashMap<>();
+  private final Map<String, QName> xmlAttributeNames = new HashMap<>();
+
+  QualifiedNames(final NamespaceMapping mapping, final boolean keepNamespaces) {
+    this.mapping = mapping;
+    this.keepNamespaces = keepNamespaces;
+  }
+
+  /**
+   * Tells whether an XML attribute is a namespace declaration, given its namespace URI.
+   */
+  static boolean isXmlNamespaceDeclaration(final String namespaceUri) {
+    return XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceUri);
+  }
+
+  /**
+   * Tells whether a json attribute, given its name without the special attribute prefix,
+   * is a namespace declaration.
+   */
+  static boolean isJsonNamespaceDeclaration(final String jsonName) {
+    return XMLConstants.XMLNS_ATTRIBUTE.equals(jsonName) || jsonName.startsWith(NAMESPACE_DECLARATION_PREFIX);
+  }
+
+  /**
+   * Returns the json name of an element or attribute, given its namespace URI (null or empty if none),
+   * its local name and the prefix it is written with in the XML document.
+   */
+  String toJsonName(final String namespaceUri, final String localName, final String documentPrefix)
+      throws JxmlException {
+    if (!keepNamespaces || namespaceUri == null || namespaceUri.isEmpty()) {
+      return localName;
+    }
+    final Map<String, String> localNames = jsonNames.computeIfAbsent(namespaceUri, k -> new HashMap<>());
+    String jsonName = localNames.get(localName);
+    if (jsonName == null) {
+      final String jsonPrefix = getJsonPrefix(namespaceUri, documentPrefix);
+      jsonName = jsonPrefix.isEmpty() ? localName : jsonPrefix + ':' + localName;
+      localNames.put(localName, jsonName);
+    }
+    return jsonName;
+  }
+
+  /**
+   * Returns the json name of a namespace declaration, given the declared prefix (null for the default
+   * namespace) and the declared namespace URI.
+   */
+  String toJsonDeclarationName(final String declaredPrefix, final String namespaceUri) throws JxmlException {
+    if (namespaceUri.isEmpty()) {
+      return XMLConstants.XMLNS_ATTRIBUTE;
+    }
+    final String jsonPrefix = getJsonPrefix(namespaceUri, declaredPrefix);
+    return jsonPrefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : NAMESPACE_DECLARATION_PREFIX + jsonPrefix;
+  }
+
+  /**
+   * Returns the XML name of an element or attribute given its json name, the prefix of the XML
+   * name being the json prefix. Its namespace URI is empty when the json prefix is not mapped,
+   * the local part then being the full json name. As in XML, attributes without prefix are
+   * never in a namespace.
+   */
+  QName toXmlName(final String jsonName, final boolean attribute) {
+    final Map<String, QName> names = attribute ? xmlAttributeNames : xmlNames;
+    QName xmlName = names.get(jsonName);
+    if (xmlName == null) {
+      final int separator = jsonName.indexOf(':');
+      final String prefix = separator < 0 ? XMLConstants.DEFAULT_NS_PREFIX : jsonName.substring(0, separator);
+      final String localName = jsonName.substring(separator + 1);
+      final String namespaceUri = mapping.getNamespaceUri(prefix);
+      if (!keepNamespaces) {
+        xmlName = new QName(localName);
+      } else if (namespaceUri == null || (attribute && separator < 0)) {
+        xmlName = new QName(jsonName);
+      } else {
+        xmlName = new QName(namespaceUri, localName, prefix);
+      }
+      names.put(jsonName, xmlName);
+    }
+    return xmlName;
+  }
+
+  private String getJsonPrefix(final String namespaceUri, final String documentPrefix) throws JxmlException {
+    String jsonPrefix = jsonPrefixes.get(namespaceUri);
+    if (jsonPrefix == null) {
+      jsonPrefix = mapping.getJsonPrefix(namespaceUri);
+      if (jsonPrefix == null) {
+        jsonPrefix = documentPrefix == null ? XMLConstants.DEFAULT_NS_PREFIX : documentPrefix;
+        final String mappedUri = mapping.getNamespaceUri(jsonPrefix);
+        final String otherUri = mappedUri != null ? mappedUri : unmappedUris.putIfAbsent(jsonPrefix, namespaceUri);
+        if (otherUri != null) {
+          throw new JxmlException(String.format(ERROR_PREFIX_CONFLICT, otherUri, namespaceUri, jsonPrefix));
+        }
+      }
+      jsonPrefixes.put(namespaceUri, jsonPrefix);
+    }
+    return jsonPrefix;
+  }
+
+}
@@ -0,0 +1,58 @@
+package com.amadeus.et.jxml;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Checks the size of a streamed document as it is read, a limit violation being raised as the cause of an IOException
+ * so that it goes through the parser.
+ */
+final class SizeCheckingInputStream extends FilterInputStream {
+  private final JxmlLimits limits;
+  private long size;
+
+  SizeCheckingInputStream(final InputStream input, final JxmlLimits limits) {
+    super(input);
+    this.limits = limits;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int b = super.read();
+    if (b >= 0) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    final int count = super.read(b, off, len);
+    if (count > 0) {
+      count(count);
+    }
+    return count;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    final long skipped = super.skip(n);
+    count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public void close() {
+    // the caller's stream is left open
+  }
+
+  private void count(final long count) throws IOException {
+    size += count;
+    try {
+      limits.checkDocumentSize(size);
+    } catch (final JxmlException e) {
+      throw new IOException(e);
+    }
+  }
+}
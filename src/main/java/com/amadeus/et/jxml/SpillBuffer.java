@@ -0,0 +1,199 @@
+package com.amadeus.et.jxml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A growable byte store kept on the heap within a budget shared by the buffers of a
+ * conversion, and spilled past it to a temporary file mapped in memory by segments, so
+ * that the heap stays flat whatever the amount of buffered data. Positions are stable
+ * across the spill.
+ *
+ * <p>Chars are read and written at even positions and longs at positions multiple of
+ * eight, in the native byte order, so that no value straddles two mapped segments nor
+ * needs swapping. The temporary file is deleted on close; its mapped segments are
+ * released by the garbage collector.
+ */
+final class SpillBuffer implements Closeable {
+
+  private static final int SEGMENT_SHIFT = 26;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  private static final int INITIAL_CAPACITY = 8192;
+  private static final int MAX_HEAP_CAPACITY = Integer.MAX_VALUE - 8;
+  private static final int COPY_CHUNK_SIZE = 65536;
+  private static final String TEMPORARY_FILE_PREFIX = "jxml";
+  private static final String TEMPORARY_FILE_SUFFIX = ".spill";
+
+  private final Budget budget;
+  private final Path directory;
+  private ByteBuffer heap;
+  private Path file;
+  private FileChannel channel;
+  private final List<ByteBuffer> segments = new ArrayList<>();
+  private long size;
+  private char[] chars;
+
+  /**
+   * @param  budget     the heap budget shared with the other buffers of the conversion
+   * @param  directory  the directory of the temporary file, or null for the default temporary directory
+   */
+  SpillBuffer(final Budget budget, final Path directory) {
+    this.budget = budget;
+    this.directory = directory;
+    // allocated on first write
+    this.heap = ByteBuffer.allocate(0);
+  }
+
+  long size() {
+    return size;
+  }
+
+  boolean isSpilled() {
+    return heap == null;
+  }
+
+  void truncate(final long newSize) {
+    size = newSize;
+  }
+
+  void putChars(final CharSequence chars) throws IOException {
+    final int length = chars.length();
+    ensureCapacity(size + 2L * length);
+    for (int i = 0; i < length; i++) {
+      buffer(size).putChar(index(size), chars.charAt(i));
+      size += 2;
+    }
+  }
+
+  void putLong(final long value) throws IOException {
+    ensureCapacity(size + 8);
+    setLong(size, value);
+    size += 8;
+  }
+
+  void setLong(final long position, final long value) {
+    buffer(position).putLong(index(position), value);
+  }
+
+  long getLong(final long position) {
+    return buffer(position).getLong(index(position));
+  }
+
+  /**
+   * Writes the chars stored at the given position to the writer.
+   */
+  void writeChars(final long position, final long length, final Writer output) throws IOException {
+    final int needed = (int) Math.min(COPY_CHUNK_SIZE / 2, length / 2);
+    if (chars == null || chars.length < needed) {
+      chars = new char[Math.min(Math.max(needed, chars == null ? 0 : chars.length * 2), COPY_CHUNK_SIZE / 2)];
+    }
+    long done = 0;
+    while (done < length) {
+      final long from = position + done;
+      final int count = (int) Math.min(Math.min(chars.length, (length - done) / 2), (segmentRoom(from)) / 2);
+      final ByteBuffer buffer = buffer(from);
+      final int index = index(from);
+      for (int i = 0; i < count; i++) {
+        chars[i] = buffer.getChar(index + 2 * i);
+      }
+      output.write(chars, 0, count);
+      done += count * 2L;
+    }
+  }
+
+  private long segmentRoom(final long position) {
+    return heap != null ? heap.capacity() - position : SEGMENT_SIZE - index(position);
+  }
+
+  private ByteBuffer buffer(final long position) {
+    return heap != null ? heap : segments.get((int) (position >>> SEGMENT_SHIFT));
+  }
+
+  private int index(final long position) {
+    return heap != null ? (int) position : (int) (position & (SEGMENT_SIZE - 1));
+  }
+
+  private void ensureCapacity(final long capacity) throws IOException {
+    if (heap != null) {
+      if (capacity <= heap.capacity()) {
+        return;
+      }
+      final long room = Math.min(heap.capacity() + budget.available, MAX_HEAP_CAPACITY);
+      if (capacity <= room) {
+        final long grownCapacity = Math.max(Math.max(heap.capacity() * 2L, INITIAL_CAPACITY), capacity);
+        final ByteBuffer grown = ByteBuffer.allocate((int) Math.min(grownCapacity, room))
+            .order(ByteOrder.nativeOrder());
+        grown.put(heap.array(), 0, (int) size);
+        budget.available -= grown.capacity() - heap.capacity();
+        heap = grown;
+        return;
+      }
+      spill(capacity);
+      return;
+    }
+    mapSegments(capacity);
+  }
+
+  private void spill(final long capacity) throws IOException {
+    file = directory == null ? Files.createTempFile(TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX)
+        : Files.createTempFile(directory, TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX);
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    mapSegments(capacity);
+    final byte[] spilled = heap.array();
+    heap = null;
+    budget.available += spilled.length;
+    long done = 0;
+    while (done < size) {
+      final int count = (int) Math.min(size - done, SEGMENT_SIZE);
+      buffer(done).duplicate().put(spilled, (int) done, count);
+      done += count;
+    }
+  }
+
+  private void mapSegments(final long capacity) throws IOException {
+    while ((long) segments.size() << SEGMENT_SHIFT < capacity) {
+      segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() << SEGMENT_SHIFT,
+                               SEGMENT_SIZE).order(ByteOrder.nativeOrder()));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (heap != null) {
+      budget.available += heap.capacity();
+      heap = null;
+    }
+    segments.clear();
+    if (channel != null) {
+      try {
+        channel.close();
+      } finally {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  /**
+   * The number of bytes the buffers of a conversion may still keep on the heap.
+   */
+  static final class Budget {
+    private long available;
+
+    /**
+     * @param  threshold  the number of bytes kept on the heap by all the buffers before spilling
+     */
+    Budget(final long threshold) {
+      this.available = threshold;
+    }
+  }
+
+}
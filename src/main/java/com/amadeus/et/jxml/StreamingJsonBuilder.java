@@ -0,0 +1,515 @@
+package com.amadeus.et.jxml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Writes the json conversion of an XML document from its SAX events, without building
+ * any tree, for documents too large to be held in memory.
+ *
+ * <p>The members of an element can only be written once the element is complete, single
+ * children coming before the arrays of repeated ones. The json of each complete element is
+ * therefore buffered until its parent completes, in stores spilling to memory-mapped
+ * temporary files past a heap budget they share, and replayed in output order: the heap only
+ * holds the open elements, with their attributes, leading text and distinct child names,
+ * whatever the size and layout of the document. The output is the one of the tree conversion,
+ * the text of each element being read by {@link LeadingText} from the character, CDATA, comment
+ * and processing instruction events.
+ *
+ * <p>The json of a complete element is buffered as its chars when it has no child element,
+ * and else as a list of pieces, each either its own chars or a reference to a child, so that
+ * the json of each element is written to the buffers once, whatever its depth, and the
+ * buffered data stays about the output size.
+ */
+final class StreamingJsonBuilder extends DefaultHandler2 implements Closeable {
+
+  // entries of the buffered children of the open elements: json, next entry of the same name and name index
+  private static final int ENTRY_SIZE = 32;
+  private static final int NEXT_ENTRY_OFFSET = 16;
+  private static final int NAME_INDEX_OFFSET = 24;
+  // json, as entries and pieces hold it: data position and length, or else -1 - the position of a piece list and 0,
+  // a piece list starting with its count
+  private static final int PIECE_SIZE = 16;
+  private static final String[] REPLACEMENT_CHARS = new String[128];
+
+  static {
+    for (int c = 0; c < 0x20; c++) {
+      REPLACEMENT_CHARS[c] = String.format("\\u%04x", c);
+    }
+    REPLACEMENT_CHARS['"'] = "\\\"";
+    REPLACEMENT_CHARS['\\'] = "\\\\";
+    REPLACEMENT_CHARS['\t'] = "\\t";
+    REPLACEMENT_CHARS['\b'] = "\\b";
+    REPLACEMENT_CHARS['\n'] = "\\n";
+    REPLACEMENT_CHARS['\r'] = "\\r";
+    REPLACEMENT_CHARS['\f'] = "\\f";
+  }
+
+  private final JxmlLimits limits;
+  private final StructureHints.HintNode hints;
+  private final QualifiedNames names;
+  private final boolean keepNamespaces;
+  private final String attributePrefix;
+  private final String textContentPrefix;
+  private final Writer output;
+  // json chars of the complete elements waiting for their parent
+  private final SpillBuffer data;
+  // piece lists ordering these chars
+  private final SpillBuffer pieces;
+  // entries locating these lists, by open element
+  private final SpillBuffer entries;
+  private final Deque<ElementFrame> stack = new ArrayDeque<>();
+  // json written since the last buffered or referenced json
+  private final StringBuilder pending = new StringBuilder();
+  private final LeadingText leadingText = new LeadingText();
+  private long elementCount;
+  private long textLength;
+  // the piece list being written, and the start of its chars not yet in a piece
+  private long pieceList;
+  private long pieceCount;
+  private long literalStart;
+
+  StreamingJsonBuilder(final JxmlLimits limits, final StructureHints.HintNode hints, final QualifiedNames names,
+                       final boolean keepNamespaces, final String specialAttributePrefix, final Writer output,
+                       final long spillThreshold, final Path spillDirectory) {
+    this.limits = limits;
+    this.hints = hints;
+    this.names = names;
+    this.keepNamespaces = keepNamespaces;
+    this.attributePrefix = specialAttributePrefix;
+    this.textContentPrefix = specialAttributePrefix + specialAttributePrefix
+        + JxmlConstants.TEXT_CONTENT_IDENTIFIER_SUFFIX;
+    this.output = output;
+    final SpillBuffer.Budget budget = new SpillBuffer.Budget(spillThreshold);
+    this.data = new SpillBuffer(budget, spillDirectory);
+    this.pieces = new SpillBuffer(budget, spillDirectory);
+    this.entries = new SpillBuffer(budget, spillDirectory);
+  }
+
+  @Override
+  public void startElement(final String uri, final String localName, final String qName,
+                           final Attributes attributes) throws SAXException {
+    textLength = 0;
+    final ElementFrame parent = stack.peek();
+    try {
+      limits.checkDepth(stack.size() + 1);
+      limits.checkElementCount(++elementCount);
+      limits.checkNameLength(qName.length());
+      limits.checkAttributeCount(attributes.getLength());
+      final String name = names != null ? names.toJsonName(uri, getLocalName(localName, qName), getPrefix(qName))
+          : XmlToJson.toJsonName(qName, keepNamespaces);
+      final StructureHints.HintNode elementHints;
+      ChildName childName = null;
+      if (parent == null) {
+        elementHints = hints == null ? null : hints.child(name);
+      } else {
+        if (leadingText.isOpen()) {
+          parent.text = leadingText.take();
+        }
+        if (parent.siblingCounts != null) {
+          limits.checkArrayLength(++parent.siblingCounts.computeIfAbsent(qName, k -> new int[1])[0]);
+        }
+        elementHints = parent.hints == null ? null : parent.hints.child(name);
+        childName = parent.getChildName(name, elementHints == null ? null : elementHints.getShape());
+      }
+      final ElementFrame frame = new ElementFrame(name, elementHints, childName, entries.size(),
+                                                  limits.isArrayLengthLimited());
+      readAttributes(attributes, frame.members);
+      if (childName != null && childName.shape == StructureHints.Shape.NEVER_ARRAY
+          && (childName.count > 0 || parent.members.containsKey(name))) {
+        throw new JxmlException(String.format(XmlToJson.ERROR_NEVER_ARRAY_REPEATED, name));
+      }
+      if (childName != null) {
+        childName.count++;
+      }
+      stack.push(frame);
+      leadingText.start();
+    } catch (final JxmlException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length) throws SAXException {
+    textLength += length;
+    checkTextLength((int) Math.min(textLength, Integer.MAX_VALUE));
+    leadingText.characters(ch, start, length);
+  }
+
+  @Override
+  public void startCDATA() {
+    leadingText.startCdata();
+  }
+
+  @Override
+  public void endCDATA() {
+    leadingText.endCdata();
+  }
+
+  @Override
+  public void comment(final char[] ch, final int start, final int length) throws SAXException {
+    checkTextLength(length);
+    leadingText.comment(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    checkTextLength(data.length());
+    leadingText.processingInstruction(data);
+  }
+
+  private void checkTextLength(final int length) throws SAXException {
+    try {
+      limits.checkTextLength(length);
+    } catch (final JxmlException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+    textLength = 0;
+    final ElementFrame frame = stack.pop();
+    if (leadingText.isOpen()) {
+      frame.text = leadingText.take();
+    }
+    try {
+      final ElementFrame parent = stack.peek();
+      if (parent == null) {
+        pending.append('{');
+        writeString(frame.name);
+        pending.append(':');
+        writeObject(frame, output);
+        pending.append('}');
+        flush(output);
+        return;
+      }
+      final long start = data.size();
+      final boolean leaf = entries.size() == frame.entriesStart;
+      if (!leaf) {
+        pieceList = pieces.size();
+        pieceCount = 0;
+        literalStart = start;
+        pieces.putLong(0);
+      }
+      writeObject(frame, null);
+      if (!leaf) {
+        endLiteral();
+        pieces.setLong(pieceList, pieceCount);
+      }
+      // the json of the element replaces the entries of its children
+      entries.truncate(frame.entriesStart);
+      final long entry = entries.size();
+      entries.putLong(leaf ? start : -1 - pieceList);
+      entries.putLong(leaf ? data.size() - start : 0);
+      entries.putLong(-1);
+      entries.putLong(frame.childName.index);
+      if (frame.childName.lastEntry >= 0) {
+        entries.setLong(frame.childName.lastEntry + NEXT_ENTRY_OFFSET, entry);
+      } else {
+        frame.childName.firstEntry = entry;
+      }
+      frame.childName.lastEntry = entry;
+    } catch (final IOException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      data.close();
+    } finally {
+      try {
+        pieces.close();
+      } finally {
+        entries.close();
+      }
+    }
+  }
+
+  private void readAttributes(final Attributes attributes, final Map<String, Object> members) throws JxmlException {
+    // a DOM lists attributes by qualified name
+    final Integer[] order = new Integer[attributes.getLength()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      limits.checkNameLength(attributes.getQName(i).length());
+      limits.checkTextLength(attributes.getValue(i).length());
+    }
+    Arrays.sort(order, (a, b) -> attributes.getQName(a).compareTo(attributes.getQName(b)));
+    for (final int i : order) {
+      final String qName = attributes.getQName(i);
+      final String value = attributes.getValue(i);
+      if (names == null) {
+        if (keepNamespaces || !value.contains(":")) {
+          members.put(attributePrefix + qName, value);
+        }
+      } else if (isNamespaceDeclaration(qName)) {
+        if (keepNamespaces) {
+          final String declaredPrefix = qName.length() == XMLConstants.XMLNS_ATTRIBUTE.length() ? null
+              : qName.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+          members.put(attributePrefix + names.toJsonDeclarationName(declaredPrefix, value), value);
+        }
+      } else {
+        members.put(attributePrefix + names.toJsonName(attributes.getURI(i),
+                                                       getLocalName(attributes.getLocalName(i), qName),
+                                                       getPrefix(qName)), value);
+      }
+    }
+  }
+
+  /*
+   * Writes the json object of a complete element, to the output, or else to the buffered data.
+   * Members are gathered as a json object would: a member added twice keeps its first position.
+   */
+  private void writeObject(final ElementFrame frame, final Writer target) throws IOException {
+    final Map<String, Object> members = frame.members;
+    if (frame.childNames != null) {
+      for (long entry = frame.entriesStart; entry < entries.size(); entry += ENTRY_SIZE) {
+        final ChildName childName = frame.childNames.get((int) entries.getLong(entry + NAME_INDEX_OFFSET));
+        if (!childName.isArray()) {
+          members.put(childName.name, entry);
+        }
+      }
+      // arrays are added once all single elements have been added, as a tree conversion does
+      Map<String, ChildName> arrays = null;
+      for (final ChildName childName : frame.childNames) {
+        if (childName.isArray()) {
+          if (arrays == null) {
+            arrays = new HashMap<>();
+          }
+          arrays.put(childName.name, childName);
+        }
+      }
+      if (arrays != null) {
+        for (final Map.Entry<String, ChildName> array : arrays.entrySet()) {
+          members.put(array.getKey(), array.getValue());
+        }
+      }
+    }
+    final String text = XmlToJson.toJsonText(frame.text);
+    if (text != null) {
+      members.put(textContentPrefix, text);
+    }
+
+    pending.append('{');
+    boolean first = true;
+    for (final Map.Entry<String, Object> member : members.entrySet()) {
+      if (!first) {
+        pending.append(',');
+      }
+      first = false;
+      writeString(member.getKey());
+      pending.append(':');
+      final Object value = member.getValue();
+      if (value instanceof String) {
+        writeString((String) value);
+      } else if (value instanceof Long) {
+        writeEntry((Long) value, target);
+      } else {
+        pending.append('[');
+        for (long entry = ((ChildName) value).firstEntry; entry >= 0;
+             entry = entries.getLong(entry + NEXT_ENTRY_OFFSET)) {
+          writeEntry(entry, target);
+          if (entries.getLong(entry + NEXT_ENTRY_OFFSET) >= 0) {
+            pending.append(',');
+          }
+        }
+        pending.append(']');
+      }
+    }
+    pending.append('}');
+    if (target == null) {
+      flush(null);
+    }
+  }
+
+  /*
+   * Writes the pending json to the output, or else to the buffered data.
+   */
+  private void flush(final Writer target) throws IOException {
+    if (target != null) {
+      target.append(pending);
+    } else {
+      data.putChars(pending);
+    }
+    pending.setLength(0);
+  }
+
+  private void writeEntry(final long entry, final Writer target) throws IOException {
+    flush(target);
+    final long position = entries.getLong(entry);
+    final long length = entries.getLong(entry + 8);
+    if (target == null) {
+      endLiteral();
+      pieces.putLong(position);
+      pieces.putLong(length);
+      pieceCount++;
+    } else if (position >= 0) {
+      data.writeChars(position, length, target);
+    } else {
+      writePieces(-1 - position, target);
+    }
+  }
+
+  /*
+   * Ends the piece of the chars written since the last piece of the list being written.
+   */
+  private void endLiteral() throws IOException {
+    if (data.size() > literalStart) {
+      pieces.putLong(literalStart);
+      pieces.putLong(data.size() - literalStart);
+      pieceCount++;
+      literalStart = data.size();
+    }
+  }
+
+  /*
+   * Writes the chars of a piece list and of the lists it references, without recursion
+   * whatever the depth of the document.
+   */
+  private void writePieces(final long list, final Writer target) throws IOException {
+    // next piece and remaining pieces, by list
+    final Deque<long[]> lists = new ArrayDeque<>();
+    lists.push(new long[] {list + 8, pieces.getLong(list)});
+    while (!lists.isEmpty()) {
+      final long[] current = lists.peek();
+      if (current[1] == 0) {
+        lists.pop();
+        continue;
+      }
+      final long piece = current[0];
+      current[0] += PIECE_SIZE;
+      current[1]--;
+      final long position = pieces.getLong(piece);
+      if (position >= 0) {
+        data.writeChars(position, pieces.getLong(piece + 8), target);
+      } else {
+        final long child = -1 - position;
+        lists.push(new long[] {child + 8, pieces.getLong(child)});
+      }
+    }
+  }
+
+  /*
+   * Writes a json string as Gson does, without HTML escaping.
+   */
+  private void writeString(final String value) {
+    pending.append('"');
+    int last = 0;
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      final String replacement;
+      if (c < REPLACEMENT_CHARS.length) {
+        replacement = REPLACEMENT_CHARS[c];
+      } else if (c == '\u2028') {
+        replacement = "\\u2028";
+      } else if (c == '\u2029') {
+        replacement = "\\u2029";
+      } else {
+        continue;
+      }
+      if (replacement != null) {
+        pending.append(value, last, i).append(replacement);
+        last = i + 1;
+      }
+    }
+    pending.append(value, last, value.length()).append('"');
+  }
+
+  static boolean isNamespaceDeclaration(final String qName) {
+    return qName.startsWith(XMLConstants.XMLNS_ATTRIBUTE)
+        && (qName.length() == XMLConstants.XMLNS_ATTRIBUTE.length()
+            || qName.charAt(XMLConstants.XMLNS_ATTRIBUTE.length()) == ':');
+  }
+
+  static String getLocalName(final String localName, final String qName) {
+    return localName == null || localName.isEmpty() ? qName : localName;
+  }
+
+  static String getPrefix(final String qName) {
+    final int separator = qName.indexOf(':');
+    return separator < 0 ? null : qName.substring(0, separator);
+  }
+
+  /*
+   * State of an open element.
+   */
+  private static final class ElementFrame {
+    private final String name;
+    private final StructureHints.HintNode hints;
+    private final ChildName childName;
+    private final long entriesStart;
+    // attributes first, the other members being added once the element is complete
+    private final Map<String, Object> members = new LinkedHashMap<>();
+    private final Map<String, int[]> siblingCounts;
+    private String text;
+    private Map<String, ChildName> childNamesByName;
+    private List<ChildName> childNames;
+
+    private ElementFrame(final String name, final StructureHints.HintNode hints, final ChildName childName,
+                         final long entriesStart, final boolean countSiblings) {
+      this.name = name;
+      this.hints = hints;
+      this.childName = childName;
+      this.entriesStart = entriesStart;
+      this.siblingCounts = countSiblings ? new HashMap<>() : null;
+    }
+
+    private ChildName getChildName(final String childName, final StructureHints.Shape shape) {
+      if (childNames == null) {
+        childNamesByName = new HashMap<>();
+        childNames = new ArrayList<>();
+      }
+      ChildName result = childNamesByName.get(childName);
+      if (result == null) {
+        result = new ChildName(childName, childNames.size(), shape);
+        childNamesByName.put(childName, result);
+        childNames.add(result);
+      }
+      return result;
+    }
+  }
+
+  /*
+   * A distinct json name among the children of an element, in order of first occurrence.
+   */
+  private static final class ChildName {
+    private final String name;
+    private final int index;
+    private final StructureHints.Shape shape;
+    private long count;
+    private long firstEntry = -1;
+    private long lastEntry = -1;
+
+    private ChildName(final String name, final int index, final StructureHints.Shape shape) {
+      this.name = name;
+      this.index = index;
+      this.shape = shape;
+    }
+
+    private boolean isArray() {
+      if (shape == StructureHints.Shape.ALWAYS_ARRAY) {
+        return true;
+      }
+      return shape != StructureHints.Shape.NEVER_ARRAY && count > 1;
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+package com.amadeus.et.jxml;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schema-less structure hints telling the XML to JSON conversion which elements
+ * have to be converted into a json array and which ones into a json object,
+ * whatever the number of occurrences found under their parent element.
+ *
+ * <p>Hints are expressed as absolute element paths, using the json names of the
+ * elements (so namespace prefixes are part of the path only when namespaces are kept).
+ * A '*' segment matches any element name. When several paths match the same element,
+ * the most specific one (the one with the fewest '*' segments) wins; in case of tie,
+ * the last declared one wins. The root element can not be hinted, as it is always
+ * converted into a json object.
+ *
+ * <p>Hints can be loaded from a configuration file, one hint per line:
+ * <pre>
+ * # comment
+ * array  /soap:Envelope/soap:Body/Actions/Rights
+ * object /soap:Envelope/soap:Header/*
+ * </pre>
+ */
+public class StructureHints {
+
+  /**
+   * The output shape forced by a hint.
+   */
+  public enum Shape {
+    /** The element is always converted into a json array, even when it occurs only once. */
+    ALWAYS_ARRAY,
+    /** The element is always converted into a json object; it must not occur more than once. */
+    NEVER_ARRAY
+  }
+
+  private static final String PATH_SEPARATOR = "/";
+  private static final String WILDCARD = "*";
+  private static final String ARRAY_KEYWORD = "array";
+  private static final String OBJECT_KEYWORD = "object";
+  private static final String COMMENT_START = "#";
+  private static final String ERROR_INVALID_PATH =
+      "Structure hint path must be absolute and must not contain empty segments: '%s'.";
+  private static final String ERROR_INVALID_LINE =
+      "Structure hint line %d must follow the pattern '(array|object) /path/to/element': '%s'.";
+
+  private final List<Hint> hints = new ArrayList<>();
+  private HintNode root;
+  private volatile long modificationCount;
+
+  public StructureHints() {}
+
+  /**
+   * Loads structure hints from a UTF-8 configuration file.
+   *
+   * @param  path  the configuration file
+   * @return       the loaded hints
+   */
+  public static StructureHints load(final Path path) throws IOException, JxmlException {
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      return load(reader);
+    }
+  }
+
+  /**
+   * Loads structure hints from a configuration, presented as a reader.
+   *
+   * @param  reader  the configuration content
+   * @return         the loaded hints
+   */
+  public static StructureHints load(final Reader reader) throws IOException, JxmlException {
+    final StructureHints structureHints = new StructureHints();
+    final BufferedReader lines = new BufferedReader(reader);
+    String line;
+    int lineNumber = 0;
+    while ((line = lines.readLine()) != null) {
+      lineNumber++;
+      final String content = line.trim();
+      if (content.isEmpty() || content.startsWith(COMMENT_START)) {
+        continue;
+      }
+      final String[] tokens = content.split("\\s+");
+      if (tokens.length != 2) {
+        throw new JxmlException(String.format(ERROR_INVALID_LINE, lineNumber, line));
+      }
+      if (ARRAY_KEYWORD.equals(tokens[0])) {
+        structureHints.addAlwaysArray(tokens[1]);
+      } else if (OBJECT_KEYWORD.equals(tokens[0])) {
+        structureHints.addNeverArray(tokens[1]);
+      } else {
+        throw new JxmlException(String.format(ERROR_INVALID_LINE, lineNumber, line));
+      }
+    }
+    return structureHints;
+  }
+
+  /**
+   * Loads structure hints from a configuration, presented as string.
+   *
+   * @param  configuration  the configuration content
+   * @return                the loaded hints
+   */
+  public static StructureHints parse(final String configuration) throws JxmlException {
+    try {
+      return load(new StringReader(configuration));
+    } catch (final IOException e) {
+      // not expected when reading from a string
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Declares that elements matching the given path are always converted into a json array.
+   *
+   * @param  path  an absolute element path, like '/Envelope/Body/Item'
+   */
+  public void addAlwaysArray(final String path) throws JxmlException {
+    add(path, Shape.ALWAYS_ARRAY);
+  }
+
+  /**
+   * Declares that elements matching the given path are always converted into a json object.
+   *
+   * @param  path  an absolute element path, like '/Envelope/Body/Item'
+   */
+  public void addNeverArray(final String path) throws JxmlException {
+    add(path, Shape.NEVER_ARRAY);
+  }
+
+  /**
+   * Returns the number of hints added so far, which identifies the state of the hints along with their identity.
+   */
+  long getModificationCount() {
+    return modificationCount;
+  }
+
+  private synchronized void add(final String path, final Shape shape) throws JxmlException {
+    if (path == null || !path.startsWith(PATH_SEPARATOR)) {
+      throw new JxmlException(String.format(ERROR_INVALID_PATH, path));
+    }
+    final String[] segments = path.substring(1).split(PATH_SEPARATOR, -1);
+    int wildcards = 0;
+    for (final String segment : segments) {
+      if (segment.isEmpty()) {
+        throw new JxmlException(String.format(ERROR_INVALID_PATH, path));
+      }
+      if (WILDCARD.equals(segment)) {
+        wildcards++;
+      }
+    }
+    hints.add(new Hint(segments, shape, wildcards, hints.size()));
+    root = null;
+    modificationCount++;
+  }
+
+  /**
+   * Returns the compiled trie, whose root node stands above the XML root element.
+   */
+  synchronized HintNode compile() {
+    if (root == null) {
+      root = compile(hints, 0);
+    }
+    return root;
+  }
+
+  /*
+   * Builds a deterministic trie: every named child also contains the paths going through
+   * a wildcard at the same level, so a lookup follows a single branch per element.
+   */
+  private static HintNode compile(final List<Hint> candidates, final int depth) {
+    final HintNode node = new HintNode();
+    Hint winner = null;
+    final Map<String, List<Hint>> named = new HashMap<>();
+    final List<Hint> wildcard = new ArrayList<>();
+    for (final Hint hint : candidates) {
+      if (hint.segments.length == depth) {
+        if (winner == null || hint.wildcards < winner.wildcards
+            || (hint.wildcards == winner.wildcards && hint.order > winner.order)) {
+          winner = hint;
+        }
+      } else if (WILDCARD.equals(hint.segments[depth])) {
+        wildcard.add(hint);
+      } else {
+        named.computeIfAbsent(hint.segments[depth], k -> new ArrayList<>()).add(hint);
+      }
+    }
+    if (winner != null) {
+      node.shape = winner.shape;
+    }
+    for (final Map.Entry<String, List<Hint>> entry : named.entrySet()) {
+      final List<Hint> childCandidates = entry.getValue();
+      childCandidates.addAll(wildcard);
+      node.children.put(entry.getKey(), compile(childCandidates, depth + 1));
+    }
+    if (!wildcard.isEmpty()) {
+      node.wildcard = compile(wildcard, depth + 1);
+    }
+    return node;
+  }
+
+  /**
+   * A node of the compiled hint trie.
+   */
+  static final class HintNode {
+    private final Map<String, HintNode> children = new HashMap<>();
+    private HintNode wildcard;
+    private Shape shape;
+
+    /**
+     * Returns the node matching the child element with the given json name,
+     * or null if no hint can match this child or its descendants.
+     */
+    HintNode child(final String name) {
+      final HintNode child = children.get(name);
+      return child != null ? child : wildcard;
+    }
+
+    /**
+     * Returns the shape forced on the element matching this node, or null if none.
+     */
+    Shape getShape() {
+      return shape;
+    }
+  }
+
+  private static final class Hint {
+    private final String[] segments;
+    private final Shape shape;
+    private final int wildcards;
+    private final int order;
+
+    private Hint(final String[] segments, final Shape shape, final int wildcards, final int order) {
+      this.segments = segments;
+      this.shape = shape;
+      this.wildcards = wildcards;
+      this.order = order;
+    }
+  }
+
+}
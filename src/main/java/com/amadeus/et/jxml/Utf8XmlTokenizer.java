@@ -0,0 +1,763 @@
+package com.amadeus.et.jxml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * A tokenizer for the subset of XML converted by jXML, working directly on UTF-8 bytes
+ * and reporting the same SAX events as a JAXP parser, without the cost of a general
+ * purpose parser: no decoding of the whole document, ASCII runs copied by tight loops,
+ * and element and attribute names decoded once per document through a name table.
+ *
+ * <p>Documents using anything else than elements, attributes, text, character and
+ * predefined entity references, CDATA sections, comments and processing instructions,
+ * such as document type declarations, other encodings or non-ASCII names, are not
+ * supported, and neither are malformed documents: the tokenizer then gives up, so that
+ * the document is parsed by JAXP, with its exact error messages. A handler that is also
+ * a LexicalHandler is reported the comments and the bounds of CDATA sections, and, as any
+ * handler, the processing instructions, within the root element only.
+ */
+final class Utf8XmlTokenizer {
+
+  private static final String CDATA = "CDATA";
+  private static final byte[] CDATA_START = ascii("<![CDATA[");
+  private static final byte[] COMMENT_START = ascii("<!--");
+  private static final byte[] DECLARATION_START = ascii("<?xml");
+  private static final Pattern DECLARATION = Pattern.compile(
+      "<\\?xml\\s+version\\s*=\\s*([\"'])1\\.0\\1(?:\\s+encoding\\s*=\\s*([\"'])([A-Za-z][A-Za-z0-9._-]*)\\2)?"
+      + "(?:\\s+standalone\\s*=\\s*([\"'])(?:yes|no)\\4)?\\s*\\?>");
+
+  // ASCII character classes
+  private static final byte NAME_START = 1;
+  private static final byte NAME_PART = 2;
+  private static final byte PLAIN_TEXT = 4;
+  private static final byte PLAIN_ATTRIBUTE = 8;
+  private static final byte[] ASCII_CLASSES = new byte[128];
+
+  static {
+    for (int c = 0x20; c < 0x7F; c++) {
+      ASCII_CLASSES[c] |= PLAIN_TEXT | PLAIN_ATTRIBUTE;
+    }
+    ASCII_CLASSES['\t'] |= PLAIN_TEXT;
+    ASCII_CLASSES['\n'] |= PLAIN_TEXT;
+    ASCII_CLASSES[0x7F] |= PLAIN_TEXT | PLAIN_ATTRIBUTE;
+    ASCII_CLASSES['<'] &= ~(PLAIN_TEXT | PLAIN_ATTRIBUTE);
+    ASCII_CLASSES['&'] &= ~(PLAIN_TEXT | PLAIN_ATTRIBUTE);
+    ASCII_CLASSES[']'] &= ~PLAIN_TEXT;
+    ASCII_CLASSES['"'] &= ~PLAIN_ATTRIBUTE;
+    ASCII_CLASSES['\''] &= ~PLAIN_ATTRIBUTE;
+    for (int c = 'a'; c <= 'z'; c++) {
+      ASCII_CLASSES[c] |= NAME_START | NAME_PART;
+      ASCII_CLASSES[c - 'a' + 'A'] |= NAME_START | NAME_PART;
+    }
+    for (int c = '0'; c <= '9'; c++) {
+      ASCII_CLASSES[c] |= NAME_PART;
+    }
+    ASCII_CLASSES['_'] |= NAME_START | NAME_PART;
+    ASCII_CLASSES[':'] |= NAME_START | NAME_PART;
+    ASCII_CLASSES['-'] |= NAME_PART;
+    ASCII_CLASSES['.'] |= NAME_PART;
+  }
+
+  private final byte[] in;
+  private final int end;
+  private final ContentHandler handler;
+  private final LexicalHandler lexicalHandler;
+  private final NamespaceSupport namespaces;
+  private final NameTable names = new NameTable();
+  private final AttributesImpl attributes = new AttributesImpl();
+  private final String[] nameParts = new String[3];
+  private String[] openElements = new String[16];
+  private int depth;
+  private char[] chars = new char[256];
+  private int charCount;
+  private int pos;
+
+  private Utf8XmlTokenizer(final byte[] in, final int offset, final int length, final ContentHandler handler,
+                           final boolean namespaceAware) {
+    this.in = in;
+    this.pos = offset;
+    this.end = offset + length;
+    this.handler = handler;
+    this.lexicalHandler = handler instanceof LexicalHandler ? (LexicalHandler) handler : null;
+    this.namespaces = namespaceAware ? new NamespaceSupport() : null;
+  }
+
+  /**
+   * Reports the SAX events of the given UTF-8 document to the handler, or returns false
+   * as soon as the document is outside the supported subset, or malformed, the events
+   * reported so far having then to be discarded.
+   */
+  static boolean tokenize(final byte[] in, final int offset, final int length, final ContentHandler handler,
+                          final boolean namespaceAware) throws SAXException {
+    try {
+      new Utf8XmlTokenizer(in, offset, length, handler, namespaceAware).document();
+      return true;
+    } catch (final UnsupportedXmlException e) {
+      return false;
+    }
+  }
+
+  private void document() throws SAXException, UnsupportedXmlException {
+    if (end - pos >= 3 && in[pos] == (byte) 0xEF && in[pos + 1] == (byte) 0xBB && in[pos + 2] == (byte) 0xBF) {
+      pos += 3;
+    }
+    if (startsWith(DECLARATION_START) && end - pos > DECLARATION_START.length
+        && isWhitespace(in[pos + DECLARATION_START.length])) {
+      declaration();
+    }
+    handler.startDocument();
+    misc();
+    if (pos >= end || in[pos] != '<') {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    content();
+    misc();
+    if (pos < end) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    handler.endDocument();
+  }
+
+  private void declaration() throws UnsupportedXmlException {
+    final int declarationEnd = indexOf('?', '>', pos);
+    final Matcher matcher = DECLARATION.matcher(new String(in, pos, declarationEnd + 2 - pos,
+                                                           StandardCharsets.ISO_8859_1));
+    if (!matcher.matches() || matcher.group(3) != null && !"UTF-8".equalsIgnoreCase(matcher.group(3))) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    pos = declarationEnd + 2;
+  }
+
+  /*
+   * Whitespace, comments and processing instructions, before and after the root element.
+   */
+  private void misc() throws SAXException, UnsupportedXmlException {
+    while (pos < end) {
+      final byte b = in[pos];
+      if (isWhitespace(b)) {
+        pos = ByteScanner.skipWhitespace(in, pos, end);
+      } else if (startsWith(COMMENT_START)) {
+        comment(false);
+      } else if (b == '<' && pos + 1 < end && in[pos + 1] == '?') {
+        processingInstruction(false);
+      } else {
+        return;
+      }
+    }
+  }
+
+  /*
+   * The root element and its content, walked without recursion.
+   */
+  private void content() throws SAXException, UnsupportedXmlException {
+    startTag();
+    while (depth > 0) {
+      if (pos >= end) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      if (in[pos] != '<') {
+        text();
+      } else if (pos + 1 < end && in[pos + 1] == '/') {
+        endTag();
+      } else if (startsWith(COMMENT_START)) {
+        comment(lexicalHandler != null);
+      } else if (startsWith(CDATA_START)) {
+        cdata();
+      } else if (pos + 1 < end && in[pos + 1] == '?') {
+        processingInstruction(true);
+      } else {
+        startTag();
+      }
+    }
+  }
+
+  private void startTag() throws SAXException, UnsupportedXmlException {
+    pos++;
+    final String qName = name();
+    attributes.clear();
+    while (true) {
+      final boolean separated = skipWhitespace();
+      if (pos >= end) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      final byte b = in[pos];
+      if (b == '>' || b == '/') {
+        break;
+      }
+      if (!separated) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      final String attributeName = name();
+      skipWhitespace();
+      expect('=');
+      skipWhitespace();
+      final String value = attributeValue();
+      if (attributes.getIndex(attributeName) >= 0) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      attributes.addAttribute("", "", attributeName, CDATA, value);
+    }
+    final boolean empty = in[pos] == '/';
+    if (empty) {
+      pos++;
+      expect('>');
+    } else {
+      pos++;
+    }
+
+    if (depth == openElements.length) {
+      openElements = Arrays.copyOf(openElements, depth * 2);
+    }
+    openElements[depth++] = qName;
+    if (namespaces == null) {
+      handler.startElement("", "", qName, attributes);
+    } else {
+      startQualifiedElement(qName);
+    }
+    if (empty) {
+      endElement();
+    }
+  }
+
+  private void startQualifiedElement(final String qName) throws SAXException, UnsupportedXmlException {
+    namespaces.pushContext();
+    final int attributeCount = attributes.getLength();
+    for (int i = 0; i < attributeCount; i++) {
+      final String attributeName = attributes.getQName(i);
+      if (attributeName.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+        if (attributeName.length() == XMLConstants.XMLNS_ATTRIBUTE.length()) {
+          namespaces.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, attributes.getValue(i));
+        } else if (attributeName.charAt(XMLConstants.XMLNS_ATTRIBUTE.length()) == ':') {
+          final String prefix = attributeName.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+          if (attributes.getValue(i).isEmpty() || !namespaces.declarePrefix(prefix, attributes.getValue(i))) {
+            throw UnsupportedXmlException.INSTANCE;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < attributeCount; i++) {
+      final String attributeName = attributes.getQName(i);
+      if (!QualifiedNames.isJsonNamespaceDeclaration(attributeName)) {
+        final String[] parts = processName(attributeName, true);
+        attributes.setURI(i, parts[0]);
+        attributes.setLocalName(i, parts[1]);
+        if (!parts[0].isEmpty() && attributes.getIndex(parts[0], parts[1]) != i) {
+          // same expanded name
+          throw UnsupportedXmlException.INSTANCE;
+        }
+      }
+    }
+    final String[] parts = processName(qName, false);
+    handler.startElement(parts[0], parts[1], qName, attributes);
+  }
+
+  private String[] processName(final String qName, final boolean attribute) throws UnsupportedXmlException {
+    final int separator = qName.indexOf(':');
+    if (separator == 0 || separator == qName.length() - 1 || qName.indexOf(':', separator + 1) >= 0) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    final String[] parts = namespaces.processName(qName, nameParts, attribute);
+    if (parts == null) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    return parts;
+  }
+
+  private void endTag() throws SAXException, UnsupportedXmlException {
+    pos += 2;
+    final String qName = name();
+    skipWhitespace();
+    expect('>');
+    // names are interned by the name table
+    if (qName != openElements[depth - 1]) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    endElement();
+  }
+
+  private void endElement() throws SAXException {
+    final String qName = openElements[--depth];
+    if (namespaces == null) {
+      handler.endElement("", "", qName);
+    } else {
+      final String[] parts = namespaces.processName(qName, nameParts, false);
+      handler.endElement(parts[0], parts[1], qName);
+      namespaces.popContext();
+    }
+  }
+
+  private void text() throws SAXException, UnsupportedXmlException {
+    charCount = 0;
+    while (pos < end) {
+      final int b = in[pos];
+      if (b >= 0 && (ASCII_CLASSES[b] & PLAIN_TEXT) != 0) {
+        plainRun(PLAIN_TEXT);
+      } else if (b == '<') {
+        break;
+      } else if (b == '&') {
+        reference();
+      } else if (b == '\r') {
+        lineEnd();
+      } else if (b == ']') {
+        if (end - pos >= 3 && in[pos + 1] == ']' && in[pos + 2] == '>') {
+          throw UnsupportedXmlException.INSTANCE;
+        }
+        append(']');
+        pos++;
+      } else {
+        multiByteCharacter();
+      }
+    }
+    handler.characters(chars, 0, charCount);
+  }
+
+  private void cdata() throws SAXException, UnsupportedXmlException {
+    pos += CDATA_START.length;
+    if (lexicalHandler != null) {
+      lexicalHandler.startCDATA();
+    }
+    charCount = 0;
+    while (true) {
+      if (pos >= end) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      final int b = in[pos];
+      if (b == ']' && end - pos >= 3 && in[pos + 1] == ']' && in[pos + 2] == '>') {
+        pos += 3;
+        break;
+      }
+      if (b >= 0 && (ASCII_CLASSES[b] & PLAIN_TEXT) != 0 && b != ']') {
+        plainRun(PLAIN_TEXT);
+      } else if (b == '<' || b == '&' || b == ']') {
+        append((char) b);
+        pos++;
+      } else if (b == '\r') {
+        lineEnd();
+      } else {
+        multiByteCharacter();
+      }
+    }
+    handler.characters(chars, 0, charCount);
+    if (lexicalHandler != null) {
+      lexicalHandler.endCDATA();
+    }
+  }
+
+  private String attributeValue() throws UnsupportedXmlException {
+    if (pos >= end || in[pos] != '"' && in[pos] != '\'') {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    final byte quote = in[pos++];
+    final int plainEnd = ByteScanner.skipPlainAttribute(in, pos, end);
+    if (plainEnd < end && in[plainEnd] == quote) {
+      // an ASCII value is a Latin-1 string, copied as it is by compact strings
+      final String value = new String(in, pos, plainEnd - pos, StandardCharsets.ISO_8859_1);
+      pos = plainEnd + 1;
+      return value;
+    }
+    charCount = 0;
+    copy(plainEnd);
+    while (true) {
+      if (pos >= end) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      final int b = in[pos];
+      if (b == quote) {
+        pos++;
+        break;
+      }
+      if (b >= 0 && (ASCII_CLASSES[b] & PLAIN_ATTRIBUTE) != 0) {
+        plainRun(PLAIN_ATTRIBUTE);
+      } else if (b == '"' || b == '\'') {
+        append((char) b);
+        pos++;
+      } else if (b == '&') {
+        reference();
+      } else if (b == '\t' || b == '\n') {
+        // attribute value normalization
+        append(' ');
+        pos++;
+      } else if (b == '\r') {
+        append(' ');
+        pos++;
+        if (pos < end && in[pos] == '\n') {
+          pos++;
+        }
+      } else if (b == '<') {
+        throw UnsupportedXmlException.INSTANCE;
+      } else {
+        multiByteCharacter();
+      }
+    }
+    return new String(chars, 0, charCount);
+  }
+
+  /*
+   * Copies the run of ASCII characters of the given class starting at the current position.
+   */
+  private void plainRun(final byte characterClass) {
+    final int runEnd = characterClass == PLAIN_TEXT ? ByteScanner.skipPlainText(in, pos + 1, end)
+        : ByteScanner.skipPlainAttribute(in, pos + 1, end);
+    copy(runEnd);
+  }
+
+  /*
+   * Copies the ASCII characters from the current position to the given one.
+   */
+  private void copy(final int runEnd) {
+    ensureCapacity(runEnd - pos);
+    final char[] buffer = chars;
+    int count = charCount;
+    for (int i = pos; i < runEnd; i++) {
+      buffer[count++] = (char) in[i];
+    }
+    charCount = count;
+    pos = runEnd;
+  }
+
+  private void lineEnd() {
+    append('\n');
+    pos++;
+    if (pos < end && in[pos] == '\n') {
+      pos++;
+    }
+  }
+
+  private void reference() throws UnsupportedXmlException {
+    final int referenceEnd = indexOf(';', pos + 1);
+    final int length = referenceEnd - pos - 1;
+    if (length >= 2 && in[pos + 1] == '#') {
+      final boolean hexadecimal = in[pos + 2] == 'x';
+      int codePoint = 0;
+      final int digitsStart = pos + (hexadecimal ? 3 : 2);
+      if (digitsStart == referenceEnd || referenceEnd - digitsStart > 8) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      for (int i = digitsStart; i < referenceEnd; i++) {
+        final int digit = Character.digit(in[i], hexadecimal ? 16 : 10);
+        if (digit < 0) {
+          throw UnsupportedXmlException.INSTANCE;
+        }
+        codePoint = codePoint * (hexadecimal ? 16 : 10) + digit;
+      }
+      appendCodePoint(codePoint);
+    } else if (isReference("amp", length)) {
+      append('&');
+    } else if (isReference("lt", length)) {
+      append('<');
+    } else if (isReference("gt", length)) {
+      append('>');
+    } else if (isReference("quot", length)) {
+      append('"');
+    } else if (isReference("apos", length)) {
+      append('\'');
+    } else {
+      // entities can only be declared in a document type declaration
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    pos = referenceEnd + 1;
+  }
+
+  private boolean isReference(final String entity, final int length) {
+    if (entity.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (in[pos + 1 + i] != entity.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void multiByteCharacter() throws UnsupportedXmlException {
+    appendCodePoint(decodeCharacter());
+  }
+
+  /*
+   * Decodes the character at the current position, rejecting invalid UTF-8 and characters not allowed in XML.
+   */
+  private int decodeCharacter() throws UnsupportedXmlException {
+    final int b = in[pos] & 0xFF;
+    final int codePoint;
+    final int length;
+    if (b < 0x80) {
+      if (b < 0x20 && b != '\t' && b != '\n' && b != '\r') {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      codePoint = b;
+      length = 1;
+    } else if (b >= 0xC2 && b < 0xE0) {
+      codePoint = (b & 0x1F) << 6 | continuation(1);
+      length = 2;
+    } else if (b >= 0xE0 && b < 0xF0) {
+      codePoint = (b & 0x0F) << 12 | continuation(1) << 6 | continuation(2);
+      length = 3;
+      if (codePoint < 0x800 || codePoint >= 0xD800 && codePoint < 0xE000 || codePoint >= 0xFFFE) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+    } else if (b >= 0xF0 && b < 0xF5) {
+      codePoint = (b & 0x07) << 18 | continuation(1) << 12 | continuation(2) << 6 | continuation(3);
+      length = 4;
+      if (codePoint < 0x10000 || codePoint > 0x10FFFF) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+    } else {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    pos += length;
+    return codePoint;
+  }
+
+  private int continuation(final int index) throws UnsupportedXmlException {
+    if (pos + index >= end || (in[pos + index] & 0xC0) != 0x80) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    return in[pos + index] & 0x3F;
+  }
+
+  /*
+   * Reads a comment, its data being decoded when reported.
+   */
+  private void comment(final boolean reported) throws SAXException, UnsupportedXmlException {
+    pos += COMMENT_START.length;
+    charCount = 0;
+    while (true) {
+      if (end - pos < 3) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      if (in[pos] == '-' && in[pos + 1] == '-') {
+        if (in[pos + 2] != '>') {
+          throw UnsupportedXmlException.INSTANCE;
+        }
+        pos += 3;
+        if (reported) {
+          lexicalHandler.comment(chars, 0, charCount);
+        }
+        return;
+      }
+      dataCharacter(reported);
+    }
+  }
+
+  /*
+   * Reads a processing instruction, its data being decoded when reported.
+   */
+  private void processingInstruction(final boolean reported) throws SAXException, UnsupportedXmlException {
+    pos += 2;
+    final String target = name();
+    if (target.equalsIgnoreCase("xml") || target.indexOf(':') >= 0) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    if (!skipWhitespace() && (pos >= end || in[pos] != '?')) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    charCount = 0;
+    while (true) {
+      if (end - pos < 2) {
+        throw UnsupportedXmlException.INSTANCE;
+      }
+      if (in[pos] == '?' && in[pos + 1] == '>') {
+        pos += 2;
+        if (reported) {
+          handler.processingInstruction(target, new String(chars, 0, charCount));
+        }
+        return;
+      }
+      dataCharacter(reported);
+    }
+  }
+
+  private void dataCharacter(final boolean decoded) throws UnsupportedXmlException {
+    if (!decoded) {
+      decodeCharacter();
+    } else if (in[pos] == '\r') {
+      lineEnd();
+    } else {
+      appendCodePoint(decodeCharacter());
+    }
+  }
+
+  /*
+   * Reads an ASCII name, interned by the name table.
+   */
+  private String name() throws UnsupportedXmlException {
+    final int start = pos;
+    if (pos >= end || in[pos] < 0 || (ASCII_CLASSES[in[pos]] & NAME_START) == 0) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    int hash = in[pos++];
+    while (pos < end && in[pos] >= 0 && (ASCII_CLASSES[in[pos]] & NAME_PART) != 0) {
+      hash = 31 * hash + in[pos++];
+    }
+    if (pos < end && in[pos] < 0) {
+      // non-ASCII names
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    return names.get(in, start, pos - start, hash);
+  }
+
+  private boolean skipWhitespace() {
+    final int start = pos;
+    pos = ByteScanner.skipWhitespace(in, pos, end);
+    return pos > start;
+  }
+
+  private void expect(final char c) throws UnsupportedXmlException {
+    if (pos >= end || in[pos] != c) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    pos++;
+  }
+
+  private boolean startsWith(final byte[] prefix) {
+    if (end - pos < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (in[pos + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(final char c, final int from) throws UnsupportedXmlException {
+    for (int i = from; i < end; i++) {
+      if (in[i] == c) {
+        return i;
+      }
+    }
+    throw UnsupportedXmlException.INSTANCE;
+  }
+
+  private int indexOf(final char first, final char second, final int from) throws UnsupportedXmlException {
+    for (int i = from; i < end - 1; i++) {
+      if (in[i] == first && in[i + 1] == second) {
+        return i;
+      }
+    }
+    throw UnsupportedXmlException.INSTANCE;
+  }
+
+  private void appendCodePoint(final int codePoint) throws UnsupportedXmlException {
+    if (codePoint < 0x20 && codePoint != '\t' && codePoint != '\n' && codePoint != '\r'
+        || codePoint >= 0xD800 && codePoint < 0xE000 || codePoint == 0xFFFE || codePoint == 0xFFFF
+        || codePoint > 0x10FFFF) {
+      throw UnsupportedXmlException.INSTANCE;
+    }
+    if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      append((char) codePoint);
+    } else {
+      append(Character.highSurrogate(codePoint));
+      append(Character.lowSurrogate(codePoint));
+    }
+  }
+
+  private void append(final char c) {
+    ensureCapacity(1);
+    chars[charCount++] = c;
+  }
+
+  private void ensureCapacity(final int length) {
+    if (charCount + length > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+    }
+  }
+
+  private static boolean isWhitespace(final byte b) {
+    return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+  }
+
+  private static byte[] ascii(final String string) {
+    return string.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Hash-consed ASCII names of a document: each distinct name is decoded into a String only once,
+   * and equal names are the same String instance.
+   */
+  static final class NameTable {
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int size;
+
+    String get(final byte[] bytes, final int offset, final int length, final int hash) {
+      int mask = names.length - 1;
+      int index = mix(hash) & mask;
+      String name;
+      while ((name = names[index]) != null) {
+        if (hashes[index] == hash && matches(name, bytes, offset, length)) {
+          return name;
+        }
+        index = (index + 1) & mask;
+      }
+      name = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+      names[index] = name;
+      hashes[index] = hash;
+      if (++size * 2 > names.length) {
+        rehash();
+      }
+      return name;
+    }
+
+    private static boolean matches(final String name, final byte[] bytes, final int offset, final int length) {
+      if (name.length() != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (name.charAt(i) != bytes[offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int mix(final int hash) {
+      final int mixed = hash * 0x9E3779B9;
+      return mixed ^ mixed >>> 16;
+    }
+
+    private void rehash() {
+      final String[] oldNames = names;
+      final int[] oldHashes = hashes;
+      names = new String[oldNames.length * 2];
+      hashes = new int[oldNames.length * 2];
+      final int mask = names.length - 1;
+      for (int i = 0; i < oldNames.length; i++) {
+        if (oldNames[i] != null) {
+          int index = mix(oldHashes[i]) & mask;
+          while (names[index] != null) {
+            index = (index + 1) & mask;
+          }
+          names[index] = oldNames[i];
+          hashes[index] = oldHashes[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Raised when the document is outside the supported subset, or malformed.
+   */
+  private static final class UnsupportedXmlException extends Exception {
+    private static final long serialVersionUID = -2166410315720337146L;
+    private static final UnsupportedXmlException INSTANCE = new UnsupportedXmlException();
+
+    private UnsupportedXmlException() {
+      super(null, null, false, false);
+    }
+  }
+
+}
@@ -3,9 +3,11 @@ package com.amadeus.et.jxml;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 class Utilities {
   private static final String ELEMENT_DELIMITER_PATTERN = "[._=!@#~%&*^?,-]";
@@ -19,6 +21,8 @@ class Utilities {
       "'json' should contain a root element to be converted to XML.";
   private static final String ERROR_NO_SINGLE_ROOT_IN_JSON =
       "'json' should contain only a single root element to be converted to XML.";
+  private static final String ERROR_NOT_AN_ELEMENT =
+      "'node' should be a document with a root element, or an element.";
 
   static void checkDelimiter(final String delimiter) throws JxmlException {
     final Pattern pattern = Pattern.compile(ELEMENT_DELIMITER_PATTERN);
@@ -28,7 +32,7 @@ class Utilities {
     }
   }
 
-  static void checkXml(final String xml) throws JxmlException {
+  static void checkXml(final Object xml) throws JxmlException {
     if (xml == null) {
       throw new JxmlException(ERROR_NULL_XML);
     }
@@ -38,9 +42,28 @@ class Utilities {
     if (json == null) {
       throw new JxmlException(ERROR_NULL_JSON);
     }
+  }
+
+  static Node checkRootElement(final Node node) throws JxmlException {
+    final Node element = node instanceof Document ? ((Document) node).getDocumentElement() : node;
+    if (element == null || element.getNodeType() != Node.ELEMENT_NODE) {
+      throw new JxmlException(ERROR_NOT_AN_ELEMENT);
+    }
+    return element;
+  }
+
+  static JsonObject checkJsonRoot(final JsonElement json) throws JxmlException {
+    if (json == null) {
+      throw new JxmlException(ERROR_NULL_JSON);
+    }
+    if (!json.isJsonObject()) {
+      throw new JxmlException(ERROR_NO_ROOT_IN_JSON);
+    }
+    checkJsonRoot(json.getAsJsonObject());
+    return json.getAsJsonObject();
+  }
 
-    final JsonElement jelement = new JsonParser().parse(json);
-    final JsonObject rootNode = jelement.getAsJsonObject();
+  static void checkJsonRoot(final JsonObject rootNode) throws JxmlException {
     if (rootNode.entrySet().size() == 0) {
       throw new JxmlException(ERROR_NO_ROOT_IN_JSON);
     }
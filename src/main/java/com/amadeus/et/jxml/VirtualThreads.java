@@ -0,0 +1,39 @@
+package com.amadeus.et.jxml;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors starting a virtual thread per task, of the server and of the command line.
+ *
+ * <p>This Java 8 version looks the executor factory up, so that virtual threads are only used by
+ * the runtimes providing them. The multi-release jar holds a Java 21 version creating them directly,
+ * with names.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {}
+
+  /**
+   * Returns the name of the implementation in use, reported by the benchmark.
+   */
+  static String implementation() {
+    return "reflection";
+  }
+
+  /**
+   * Returns an executor starting a virtual thread per task, or null when the runtime does not
+   * provide virtual threads.
+   *
+   * @param  name  the name of the threads, followed by a counter, only given from the Java 21 version
+   */
+  static ExecutorService newExecutor(final String name) {
+    try {
+      // Java 21 onwards
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (final ReflectiveOperationException | UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+}
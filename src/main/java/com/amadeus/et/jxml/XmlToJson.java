@@ -1,33 +1,148 @@
 package com.amadeus.et.jxml;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
-import java.util.ArrayList;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 
 public class XmlToJson {
 
+  static final String ERROR_NEVER_ARRAY_REPEATED =
+      "Element '%s' is hinted as never being an array, but it occurs more than once under the same element.";
+  private static final String ERROR_NEGATIVE_SPILL_THRESHOLD =
+      "'spillThreshold' must not be negative.";
+
+  /**
+   * The default number of bytes of json buffered on the heap by a streaming conversion, before spilling.
+   */
+  public static final long DEFAULT_SPILL_THRESHOLD = 64L << 20;
+
+
+  private StructureHints structureHints;
+  private JxmlLimits limits = new JxmlLimits();
+  private ConversionCache cache;
+  private NamespaceMapping namespaceMapping;
+  private boolean byteTokenizer;
+  private long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+  private Path spillDirectory;
+
   public XmlToJson() {}
 
+  /**
+   * Sets the structure hints used to force the conversion of some elements
+   * into json arrays or json objects, whatever their number of occurrences.
+   * Hinted elements do not require any sibling counting.
+   *
+   * @param  structureHints  the hints to apply, or null to rely only on sibling counting
+   */
+  public void setStructureHints(final StructureHints structureHints) {
+    this.structureHints = structureHints;
+  }
+
+  /**
+   * Sets the limits applied to the converted documents.
+   * A document exceeding them is rejected with a JxmlException.
+   *
+   * @param  limits  the limits to apply
+   */
+  public void setLimits(final JxmlLimits limits) {
+    this.limits = Objects.requireNonNull(limits, "limits");
+  }
+
+  /**
+   * Sets the cache used to skip the conversion of already converted inputs.
+   *
+   * @param  cache  the cache to use, or null to always convert
+   */
+  public void setCache(final ConversionCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the namespace mapping enabling the namespace-aware mode: names are then resolved through
+   * the namespace URIs declared in the XML, json prefixes being taken from the mapping, and
+   * namespace declarations are identified by their namespace. Without namespaces, only the
+   * namespace declarations are dropped, all other attributes are kept.
+   *
+   * @param  namespaceMapping  the mapping to apply, or null to use the XML prefixes as they are
+   */
+  public void setNamespaceMapping(final NamespaceMapping namespaceMapping) {
+    this.namespaceMapping = namespaceMapping;
+  }
+
+  /**
+   * Enables the tokenizer reading byte inputs directly as UTF-8, instead of through JAXP.
+   * It handles the elements, attributes, text, character and predefined entity references,
+   * CDATA sections, comments and processing instructions of UTF-8 documents with ASCII names,
+   * writing the json as the tokens come, without any tree, as a streaming conversion does;
+   * any other document, including a malformed one, is still parsed by JAXP.
+   *
+   * @param  enabled  true to tokenize byte inputs directly, false to always parse them with JAXP
+   */
+  public void setByteTokenizer(final boolean enabled) {
+    this.byteTokenizer = enabled;
+  }
+
+  /**
+   * Sets the number of bytes a streaming conversion, or a tokenized byte input, buffers on the
+   * heap, in total for the json and its index, past which the buffered json is spilled to
+   * memory-mapped temporary files.
+   *
+   * @param  spillThreshold  the number of bytes buffered on the heap by a conversion, 0 to always spill
+   */
+  public void setSpillThreshold(final long spillThreshold) {
+    if (spillThreshold < 0) {
+      throw new IllegalArgumentException(ERROR_NEGATIVE_SPILL_THRESHOLD);
+    }
+    this.spillThreshold = spillThreshold;
+  }
+
+  /**
+   * Sets the directory of the temporary files of the streaming conversions.
+   *
+   * @param  spillDirectory  the directory of the temporary files, or null for the default temporary directory
+   */
+  public void setSpillDirectory(final Path spillDirectory) {
+    this.spillDirectory = spillDirectory;
+  }
+
   /**
    * Returns a String object that represents the json conversion
    * of the input argument. The xml argument must be a valid XML.
@@ -93,6 +208,393 @@ public class XmlToJson {
     return buildJson(xml, keepNamespaces, inputSpecialAttributePrefix);
   }
 
+  /**
+   * Returns a String object that represents the json conversion
+   * of the xml input argument. The xml argument must be a valid XML, encoded
+   * as declared by its XML declaration, UTF-8 by default.
+   * The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}. Byte inputs are not looked up in the cache.
+   *
+   * @param  xml                          an XML, presented as bytes, to be converted to JSON format
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the converted object
+   */
+  public String execute(final byte[] xml, final boolean keepNamespaces, final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    Utilities.checkXml(xml);
+    return buildJson(xml, 0, xml.length, keepNamespaces, inputSpecialAttributePrefix);
+  }
+
+  /**
+   * Returns a String object that represents the json conversion
+   * of the remaining bytes of the xml input argument, whose position is left unchanged.
+   * The xml argument must be a valid XML, encoded as declared by its XML declaration,
+   * UTF-8 by default. The keepNamespaces and inputSpecialAttributePrefix arguments are
+   * the ones of {@link #execute(String, boolean, String)}. Byte inputs are not looked up
+   * in the cache. The bytes of a buffer without accessible array, such as a direct or a
+   * mapped buffer, are copied to the heap before being tokenized.
+   *
+   * @param  xml                          an XML, presented as a byte buffer, to be converted to JSON format
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the converted object
+   */
+  public String execute(final ByteBuffer xml, final boolean keepNamespaces, final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    Utilities.checkXml(xml);
+    if (xml.hasArray()) {
+      return buildJson(xml.array(), xml.arrayOffset() + xml.position(), xml.remaining(), keepNamespaces,
+                       inputSpecialAttributePrefix);
+    }
+    final byte[] bytes = new byte[xml.remaining()];
+    xml.duplicate().get(bytes);
+    return buildJson(bytes, 0, bytes.length, keepNamespaces, inputSpecialAttributePrefix);
+  }
+
+  /**
+   * Writes the json conversion of the input argument to the output, without building any
+   * tree, so that documents of any size are converted with a bounded heap: the json of the
+   * elements waiting for their parent to complete is spilled to memory-mapped temporary files
+   * past the spill threshold. The output is the one of {@link #execute(String)}, except in the
+   * namespace-aware mode when a namespace URI without mapping is declared with several prefixes.
+   * The xml argument must be a valid XML, encoded as declared by its XML declaration, UTF-8 by
+   * default. Streamed inputs are not looked up in the cache.
+   *
+   * @param  xml     an XML, presented as a byte stream, to be converted to JSON format
+   * @param  output  the writer of the converted object, flushed but not closed
+   */
+  public void execute(final InputStream xml, final Writer output)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    execute(xml, output, true, null);
+  }
+
+  /**
+   * Writes the json conversion of the xml input argument to the output, without building any
+   * tree, as {@link #execute(InputStream, Writer)} does. The keepNamespaces and
+   * inputSpecialAttributePrefix arguments are the ones of {@link #execute(String, boolean, String)}.
+   *
+   * @param  xml                          an XML, presented as a byte stream, to be converted to JSON format
+   * @param  output                       the writer of the converted object, flushed but not closed
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   */
+  public void execute(final InputStream xml, final Writer output, final boolean keepNamespaces,
+                      final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    Utilities.checkXml(xml);
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    final Writer bufferedOutput = new BufferedWriter(output);
+    try (StreamingJsonBuilder builder = newStreamingJsonBuilder(keepNamespaces, inputSpecialAttributePrefix,
+                                                                bufferedOutput)) {
+      DomBuilder.parse(new InputSource(new SizeCheckingInputStream(xml, limits)), builder, namespaceMapping != null);
+    } catch (final IOException e) {
+      if (e.getCause() instanceof JxmlException) {
+        throw (JxmlException) e.getCause();
+      }
+      throw e;
+    }
+    bufferedOutput.flush();
+  }
+
+  /**
+   * Returns the json tree conversion of the xml input argument, without serializing it.
+   * The xml argument must be a valid XML.
+   *
+   * @param  xml  an XML, presented as string, to be converted to JSON format
+   * @return      the converted json tree
+   */
+  public JsonObject toJsonTree(final String xml)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+
+    return toJsonTree(xml, true, null);
+  }
+
+  /**
+   * Returns the json tree conversion of the xml input argument, without serializing it.
+   * The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}.
+   *
+   * @param  xml                          an XML, presented as string, to be converted to JSON format
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the converted json tree
+   */
+  public JsonObject toJsonTree(final String xml, final boolean keepNamespaces, final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+    checkInputParameters(xml, inputSpecialAttributePrefix);
+    return convertToTree(xml, keepNamespaces, getSpecialAttributePrefix(inputSpecialAttributePrefix));
+  }
+
+  /**
+   * Returns the json tree conversion of a DOM document or element, without parsing nor serializing
+   * any XML. Adjacent text nodes are converted as a single text, and comments are ignored.
+   * The limits checked while parsing do not apply, the nesting depth being still checked.
+   *
+   * @param  node  a DOM document or element to be converted to JSON format
+   * @return       the converted json tree
+   */
+  public JsonObject toJsonTree(final Node node) throws JxmlException {
+
+    return toJsonTree(node, true, null);
+  }
+
+  /**
+   * Returns the json tree conversion of a DOM document or element, without parsing nor serializing
+   * any XML. The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}.
+   *
+   * @param  node                         a DOM document or element to be converted to JSON format
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the converted json tree
+   */
+  public JsonObject toJsonTree(final Node node, final boolean keepNamespaces, final String inputSpecialAttributePrefix)
+      throws JxmlException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    return convertToTree(Utilities.checkRootElement(node), keepNamespaces,
+                         getSpecialAttributePrefix(inputSpecialAttributePrefix));
+  }
+
+  /**
+   * Returns the json tree conversion of an XML source: a DOM source is converted without
+   * parsing, stream and SAX sources are parsed with the limits checked, and any other
+   * source is first transformed into a DOM.
+   *
+   * @param  source  an XML source to be converted to JSON format
+   * @return         the converted json tree
+   */
+  public JsonObject toJsonTree(final Source source)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException, TransformerException {
+
+    return toJsonTree(source, true, null);
+  }
+
+  /**
+   * Returns the json tree conversion of an XML source. The keepNamespaces and
+   * inputSpecialAttributePrefix arguments are the ones of {@link #execute(String, boolean, String)}.
+   *
+   * @param  source                       an XML source to be converted to JSON format
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the converted json tree
+   */
+  public JsonObject toJsonTree(final Source source, final boolean keepNamespaces,
+                               final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException, TransformerException {
+    if (source instanceof DOMSource) {
+      return toJsonTree(((DOMSource) source).getNode(), keepNamespaces, inputSpecialAttributePrefix);
+    }
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    final InputSource inputSource = SAXSource.sourceToInputSource(source);
+    final Node rootNode;
+    if (inputSource != null) {
+      rootNode = DomBuilder.parse(inputSource, limits, namespaceMapping != null).getDocumentElement();
+    } else {
+      final DOMResult result = new DOMResult();
+      TransformerFactory.newInstance().newTransformer().transform(source, result);
+      rootNode = Utilities.checkRootElement(result.getNode());
+    }
+    return convertToTree(rootNode, keepNamespaces, getSpecialAttributePrefix(inputSpecialAttributePrefix));
+  }
+
+  /**
+   * Returns a SAX ContentHandler converting the reported XML document into json, to be used as
+   * the handler of a SAXResult or of any SAX pipeline. The json is written to the given output
+   * without building any tree, as {@link #execute(InputStream, Writer)} does, and flushed once
+   * the end of the document is reported. The ContentHandler is also a LexicalHandler.
+   *
+   * @param  output  the writer receiving the converted json
+   * @return         the ContentHandler
+   */
+  public ContentHandler newContentHandler(final Writer output) throws ParserConfigurationException {
+    return newJsonContentHandler(true, null, new BufferedWriter(output));
+  }
+
+  /**
+   * Returns a SAX ContentHandler converting the reported XML document into json, written
+   * to the given output as {@link #newContentHandler(Writer)} does. The keepNamespaces and
+   * inputSpecialAttributePrefix arguments are the ones of {@link #execute(String, boolean, String)}.
+   *
+   * @param  output                       the writer receiving the converted json
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the ContentHandler
+   */
+  public ContentHandler newContentHandler(final Writer output, final boolean keepNamespaces,
+                                          final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    return newJsonContentHandler(keepNamespaces, inputSpecialAttributePrefix, new BufferedWriter(output));
+  }
+
+  /**
+   * Returns an XMLStreamWriter converting the written XML document into json, to be used as the
+   * writer of a StAXResult or by any StAX producer. The json is written to the given output
+   * without building any tree, as {@link #execute(InputStream, Writer)} does, and flushed once
+   * the document is ended. The XMLStreamWriter is not namespace-repairing.
+   *
+   * @param  output  the writer receiving the converted json
+   * @return         the XMLStreamWriter
+   */
+  public XMLStreamWriter newXmlStreamWriter(final Writer output) throws ParserConfigurationException {
+    final Writer bufferedOutput = new BufferedWriter(output);
+    return new JsonStreamWriter(newJsonContentHandler(true, null, bufferedOutput), bufferedOutput);
+  }
+
+  /**
+   * Returns an XMLStreamWriter converting the written XML document into json, written to
+   * the given output as {@link #newXmlStreamWriter(Writer)} does. The keepNamespaces and
+   * inputSpecialAttributePrefix arguments are the ones of {@link #execute(String, boolean, String)}.
+   *
+   * @param  output                       the writer receiving the converted json
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the XMLStreamWriter
+   */
+  public XMLStreamWriter newXmlStreamWriter(final Writer output, final boolean keepNamespaces,
+                                            final String inputSpecialAttributePrefix)
+      throws JxmlException, ParserConfigurationException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    final Writer bufferedOutput = new BufferedWriter(output);
+    return new JsonStreamWriter(newJsonContentHandler(keepNamespaces, inputSpecialAttributePrefix, bufferedOutput),
+                                bufferedOutput);
+  }
+
+  private JsonContentHandler newJsonContentHandler(final boolean keepNamespaces,
+                                                   final String inputSpecialAttributePrefix, final Writer output) {
+    return new JsonContentHandler(newStreamingJsonBuilder(keepNamespaces, inputSpecialAttributePrefix, output),
+                                  output);
+  }
+
+  private StreamingJsonBuilder newStreamingJsonBuilder(final boolean keepNamespaces,
+                                                       final String inputSpecialAttributePrefix, final Writer output) {
+    return new StreamingJsonBuilder(limits, structureHints == null ? null : structureHints.compile(),
+                                    namespaceMapping == null ? null : new QualifiedNames(namespaceMapping,
+                                                                                         keepNamespaces),
+                                    keepNamespaces, getSpecialAttributePrefix(inputSpecialAttributePrefix), output,
+                                    spillThreshold, spillDirectory);
+  }
+
+  private DomBuilder newDomBuilder() throws ParserConfigurationException {
+    return new DomBuilder(DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument(), limits,
+                          namespaceMapping != null);
+  }
+
+  static String toJsonName(final String qName, final boolean keepNamespace) {
+    if (!keepNamespace && qName.contains(":")) {
+      return qName.split(":", JxmlConstants.ATTRIBUTE_NAME_SPLIT_LIMIT)[1];
+    }
+    return qName;
+  }
+
+  /**
+   * Returns the json text of the leading text of an element, or null if it is blank.
+   */
+  static String toJsonText(final String text) {
+    if (text != null && !isBlank(text)) {
+      return normalizeText(text);
+    }
+    return null;
+  }
+
+  /**
+   * Starts a non-blocking conversion of an XML encoded in UTF-8, fed by chunks as they arrive.
+   * The chunks are parsed on the given executor as they arrive, as {@link AsyncConversion} details,
+   * and the json output is pushed to the sink by chunks of UTF-8 bytes.
+   *
+   * @param  sink      the consumer of the output chunks
+   * @param  executor  the executor running the conversion
+   * @return           the conversion to feed
+   */
+  public AsyncConversion executeAsync(final Consumer<ByteBuffer> sink, final Executor executor) {
+    return new AsyncConversion(limits, (xml, output) -> execute(xml, output), sink, executor,
+                               StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Starts a non-blocking conversion of an XML encoded in UTF-8, fed by chunks as they arrive.
+   * The chunks are parsed on the given executor as they arrive, as {@link AsyncConversion} details,
+   * and the json output is pushed to the sink by chunks of UTF-8 bytes.
+   * The keepNamespaces and inputSpecialAttributePrefix arguments are the ones of
+   * {@link #execute(String, boolean, String)}.
+   *
+   * @param  sink                         the consumer of the output chunks
+   * @param  executor                     the executor running the conversion
+   * @param  keepNamespaces               a boolean used to specify if the conversion has to keep Namespace information
+   * @param  inputSpecialAttributePrefix  a string used to specify the input special attribute prefix
+   * @return                              the conversion to feed
+   */
+  public AsyncConversion executeAsync(final Consumer<ByteBuffer> sink, final Executor executor,
+                                      final boolean keepNamespaces, final String inputSpecialAttributePrefix)
+      throws JxmlException {
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    return new AsyncConversion(limits, (xml, output) -> execute(xml, output, keepNamespaces,
+                                                                 inputSpecialAttributePrefix),
+                               sink, executor, StandardCharsets.UTF_8);
+  }
+
+  private String buildJson(final byte[] xml, final int offset, final int length, final boolean keepNamespaces,
+                           final String inputSpecialAttributePrefix) throws JxmlException, ParserConfigurationException,
+                                                                            SAXException, IOException {
+    limits.checkDocumentSize(length);
+    if (inputSpecialAttributePrefix != null) {
+      Utilities.checkDelimiter(inputSpecialAttributePrefix);
+    }
+    final boolean namespaceAware = namespaceMapping != null;
+    // the json prefixes of unmapped namespace URIs are the first ones met, in the order of the tree conversion
+    if (byteTokenizer && !(namespaceAware && keepNamespaces)) {
+      final StringWriter output = new StringWriter(length);
+      try (StreamingJsonBuilder builder = newStreamingJsonBuilder(keepNamespaces, inputSpecialAttributePrefix,
+                                                                  output)) {
+        if (Utf8XmlTokenizer.tokenize(xml, offset, length, builder, namespaceAware)) {
+          return output.toString();
+        }
+      } catch (final SAXException e) {
+        throw DomBuilder.unwrap(e);
+      }
+    }
+    Document document = null;
+    if (byteTokenizer && namespaceAware && keepNamespaces) {
+      final DomBuilder builder = newDomBuilder();
+      try {
+        if (Utf8XmlTokenizer.tokenize(xml, offset, length, builder, true)) {
+          document = builder.getDocument();
+        }
+      } catch (final SAXException e) {
+        throw DomBuilder.unwrap(e);
+      }
+    }
+    if (document == null) {
+      // unsupported or malformed documents are parsed by JAXP, for its error messages
+      document = DomBuilder.parse(new InputSource(new ByteArrayInputStream(xml, offset, length)), limits,
+                                  namespaceAware);
+    }
+    return toJson(convertToTree(document.getDocumentElement(), keepNamespaces,
+                                getSpecialAttributePrefix(inputSpecialAttributePrefix)));
+  }
+
+  private static String getSpecialAttributePrefix(final String inputSpecialAttributePrefix) {
+    return inputSpecialAttributePrefix != null ? inputSpecialAttributePrefix
+        : JxmlConstants.DEFAULT_SPECIAL_ATTRIBUTE_PREFIX;
+  }
+
   private String buildJson(final String xml, final boolean keepNamespaces, final String inputSpecialAttributePrefix)
       throws JxmlException, ParserConfigurationException,
              SAXException, IOException {
@@ -104,12 +606,24 @@ public class XmlToJson {
       specialAttributePrefix = JxmlConstants.DEFAULT_SPECIAL_ATTRIBUTE_PREFIX;
     }
 
-    return convert(xml, keepNamespaces, specialAttributePrefix);
+    if (cache == null) {
+      return convert(xml, keepNamespaces, specialAttributePrefix);
+    }
+    final ConversionCache.Key key = ConversionCache.key(
+        ConversionCache.Direction.XML_TO_JSON, xml, keepNamespaces, specialAttributePrefix,
+        ConversionCache.settings(structureHints, namespaceMapping, limits));
+    String json = cache.get(key);
+    if (json == null) {
+      json = convert(xml, keepNamespaces, specialAttributePrefix);
+      cache.put(key, json);
+    }
+    return json;
   }
 
   private void checkInputParameters(final String xml, final String specialAttributePrefix)
       throws JxmlException {
     Utilities.checkXml(xml);
+    limits.checkDocumentSize(xml.length());
     if (specialAttributePrefix != null) {
       Utilities.checkDelimiter(specialAttributePrefix);
     }
@@ -117,35 +631,175 @@ public class XmlToJson {
 
   private String convert(final String xml, final boolean keepNamespace,
                          final String specialAttributePrefix) throws ParserConfigurationException,
-                                                                     SAXException, IOException {
+                                                                     SAXException, IOException, JxmlException {
 
-    final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    return toJson(convertToTree(xml, keepNamespace, specialAttributePrefix));
+  }
 
-    final DocumentBuilder dBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-    final Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-    doc.normalizeDocument();
+  private static String toJson(final JsonObject tree) throws IOException {
+    final StringWriter output = new StringWriter();
+    writeJson(tree, output);
+    return output.toString();
+  }
+
+  /*
+   * Writes a converted json tree as Gson does, without HTML escaping, but from a stack of the open objects and arrays
+   * instead of recursively, so that the depth of the tree is only bounded by the limits.
+   */
+  private static void writeJson(final JsonElement tree, final Writer output) throws IOException {
+    final JsonWriter writer = new JsonWriter(output);
+    writer.setLenient(true);
+    writer.setHtmlSafe(false);
+    writer.setSerializeNulls(false);
+    final Deque<OpenContainer> open = new ArrayDeque<>();
+    JsonElement value = tree;
+    while (true) {
+      if (value != null) {
+        if (value.isJsonObject()) {
+          writer.beginObject();
+          open.push(new OpenContainer(true, value.getAsJsonObject().entrySet().iterator()));
+        } else if (value.isJsonArray()) {
+          writer.beginArray();
+          open.push(new OpenContainer(false, value.getAsJsonArray().iterator()));
+        } else {
+          // the conversion only produces string values
+          writer.value(value.getAsString());
+        }
+        value = null;
+      }
+      final OpenContainer container = open.peek();
+      if (container == null) {
+        return;
+      }
+      if (!container.members.hasNext()) {
+        open.pop();
+        if (container.object) {
+          writer.endObject();
+        } else {
+          writer.endArray();
+        }
+        continue;
+      }
+      final Object member = container.members.next();
+      if (container.object) {
+        @SuppressWarnings("unchecked")
+        final Map.Entry<String, JsonElement> entry = (Map.Entry<String, JsonElement>) member;
+        writer.name(entry.getKey());
+        value = entry.getValue();
+      } else {
+        value = (JsonElement) member;
+      }
+    }
+  }
+
+  private JsonObject convertToTree(final String xml, final boolean keepNamespace,
+                                   final String specialAttributePrefix) throws ParserConfigurationException,
+                                                                               SAXException, IOException,
+                                                                               JxmlException {
+
+    final Document doc = DomBuilder.parse(new InputSource(new StringReader(xml)), limits, namespaceMapping != null);
+    return convertToTree(doc.getDocumentElement(), keepNamespace, specialAttributePrefix);
+  }
+
+  private JsonObject convertToTree(final Node rootNode, final boolean keepNamespace,
+                                   final String specialAttributePrefix) throws JxmlException {
+    final QualifiedNames names = namespaceMapping == null ? null : new QualifiedNames(namespaceMapping, keepNamespace);
 
-    final Node rootNode = doc.getDocumentElement();
     final JsonObject rootData = new JsonObject();
     final String attributePrefix = specialAttributePrefix;
     final String textContentPrefix = specialAttributePrefix + specialAttributePrefix +
         JxmlConstants.TEXT_CONTENT_IDENTIFIER_SUFFIX;
-    convertRecursively(rootNode, rootData, keepNamespace, attributePrefix, textContentPrefix);
+    // the root element is always an object, so only its descendants can be hinted
+    final StructureHints.HintNode rootHints = structureHints == null ? null
+        : structureHints.compile().child(getNodeName(rootNode, keepNamespace, names));
+    convertIteratively(rootNode, rootData, keepNamespace, attributePrefix, textContentPrefix, rootHints, names);
+
+    return rootData;
+  }
+
+  private void convertIteratively(final Node rootNode, final JsonObject rootData, final boolean keepNamespace,
+                                  final String attributePrefix, final String textContentPrefix,
+                                  final StructureHints.HintNode rootHints, final QualifiedNames names)
+      throws JxmlException {
+    final Deque<ElementFrame> stack = new ArrayDeque<>();
+    final ElementFrame rootFrame = openElement(rootNode, keepNamespace, attributePrefix, rootHints, names);
+    rootData.add(getNodeName(rootNode, keepNamespace, names), rootFrame.jsonObject);
+    stack.push(rootFrame);
+
+    while (!stack.isEmpty()) {
+      final ElementFrame frame = stack.peek();
+      final Node innerNode = frame.nextChild;
+      if (innerNode == null) {
+        closeElement(frame, textContentPrefix);
+        stack.pop();
+        continue;
+      }
+      frame.nextChild = innerNode.getNextSibling();
+      if (innerNode.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
+      }
 
-    return gson.toJson(rootData);
+      limits.checkDepth(stack.size() + 1);
+      final String innerNodeName = getNodeName(innerNode, keepNamespace, names);
+      final StructureHints.HintNode innerHints = frame.hints == null ? null : frame.hints.child(innerNodeName);
+      final ElementFrame innerFrame = openElement(innerNode, keepNamespace, attributePrefix, innerHints, names);
+      if (isArray(frame, innerNodeName, innerHints, keepNamespace, names)) {
+        // arrays are added to their parent once all single elements have been added
+        if (frame.arrayMap == null) {
+          frame.arrayMap = new HashMap<>();
+        }
+        JsonArray jsonArray = frame.arrayMap.get(innerNodeName);
+        if (jsonArray == null) {
+          jsonArray = new JsonArray();
+          frame.arrayMap.put(innerNodeName, jsonArray);
+        }
+        jsonArray.add(innerFrame.jsonObject);
+      } else {
+        frame.jsonObject.add(innerNodeName, innerFrame.jsonObject);
+      }
+      stack.push(innerFrame);
+    }
   }
 
-  private void convertRecursively(final Node node, final JsonObject nodeValue, final boolean keepNamespace,
-                                  final String attributePrefix, final String textContentPrefix) {
-    if (node.getNodeType() == Node.ELEMENT_NODE) {
-      final JsonObject innerJsonObject = new JsonObject();
+  private ElementFrame openElement(final Node node, final boolean keepNamespace, final String attributePrefix,
+                                   final StructureHints.HintNode hints, final QualifiedNames names)
+      throws JxmlException {
+    final JsonObject jsonObject = new JsonObject();
+    if (names != null) {
+      parseQualifiedAttributes(node, keepNamespace, attributePrefix, jsonObject, names);
+    } else {
+      parseAttributes(node, keepNamespace, attributePrefix, jsonObject);
+    }
+    return new ElementFrame(node, jsonObject, hints);
+  }
 
-      parseAttributes(node, keepNamespace, attributePrefix, innerJsonObject);
-      iterateOnInnerNodes(node, keepNamespace, attributePrefix, textContentPrefix, innerJsonObject);
-      addTextContent(node, textContentPrefix, innerJsonObject);
+  private void closeElement(final ElementFrame frame, final String textContentPrefix) {
+    if (frame.arrayMap != null) {
+      for (final Map.Entry<String, JsonArray> mapPair : frame.arrayMap.entrySet()) {
+        frame.jsonObject.add(mapPair.getKey(), mapPair.getValue());
+      }
+    }
+    addTextContent(frame.node, textContentPrefix, frame.jsonObject);
+  }
 
-      nodeValue.add(getNodeName(node, keepNamespace), innerJsonObject);
+  private boolean isArray(final ElementFrame frame, final String innerNodeName,
+                          final StructureHints.HintNode innerHints, final boolean keepNamespace,
+                          final QualifiedNames names) throws JxmlException {
+    final StructureHints.Shape shape = innerHints == null ? null : innerHints.getShape();
+    if (shape == StructureHints.Shape.ALWAYS_ARRAY) {
+      return true;
+    }
+    if (shape == StructureHints.Shape.NEVER_ARRAY) {
+      if (frame.jsonObject.has(innerNodeName)) {
+        throw new JxmlException(String.format(ERROR_NEVER_ARRAY_REPEATED, innerNodeName));
+      }
+      return false;
     }
+    // sibling counting is only needed for elements without any structure hint
+    if (frame.nodeMap == null) {
+      frame.nodeMap = extractNodeMap(frame.node, keepNamespace, names);
+    }
+    return frame.nodeMap.get(innerNodeName) > 1;
   }
 
   private void parseAttributes(final Node node, final boolean keepNamespace, final String attributePrefix,
@@ -163,86 +817,158 @@ public class XmlToJson {
     }
   }
 
-  private void iterateOnInnerNodes(final Node node, final boolean keepNamespace, final String attributePrefix,
-                                   final String textContentPrefix, final JsonObject jsonObject) {
-    final NodeList nodeList = node.getChildNodes();
+  private void parseQualifiedAttributes(final Node node, final boolean keepNamespace, final String attributePrefix,
+                                        final JsonObject jsonObject, final QualifiedNames names)
+      throws JxmlException {
+    final NamedNodeMap nodeAttributes = node.getAttributes();
+    for (int j = 0; j < nodeAttributes.getLength(); j++) {
+      final Node attribute = nodeAttributes.item(j);
+      if (QualifiedNames.isXmlNamespaceDeclaration(attribute.getNamespaceURI())) {
+        if (keepNamespace) {
+          final String declaredPrefix = attribute.getPrefix() == null ? null : attribute.getLocalName();
+          jsonObject.addProperty(attributePrefix + names.toJsonDeclarationName(declaredPrefix, attribute.getNodeValue()),
+                                 attribute.getNodeValue());
+        }
+      } else {
+        jsonObject.addProperty(attributePrefix + names.toJsonName(attribute.getNamespaceURI(), getLocalName(attribute),
+                                                                  attribute.getPrefix()),
+                               attribute.getNodeValue());
+      }
+    }
+  }
 
-    final Map<String, ArrayList<Integer>> nodeMap = extractNodeMap(nodeList, keepNamespace);
+  private void addTextContent(final Node node, final String textContentPrefix, final JsonObject jsonObject) {
+    final String text = toJsonText(getLeadingText(node));
+    if (text != null) {
+      jsonObject.addProperty(textContentPrefix, text);
+    }
+  }
 
-    final Map<String, JsonArray> arrayMap = new HashMap<>();
-    for (int i = 0; i < nodeList.getLength(); i++) {
-      final Node innerNode = nodeList.item(i);
-      final String innerNodeName = getNodeName(innerNode, keepNamespace);
+  /*
+   * Returns the value of the first child node, text, CDATA section, comment or processing instruction, as in
+   * a normalized DOM, where adjacent text nodes make a single one: a DOM built by the caller can split the
+   * text into several nodes, while the one of DomBuilder holds the value as a single text node.
+   */
+  private String getLeadingText(final Node node) {
+    final Node child = node.getFirstChild();
+    if (child == null || child.getNodeType() == Node.ELEMENT_NODE) {
+      return null;
+    }
+    Node next = child.getNextSibling();
+    if (child.getNodeType() != Node.TEXT_NODE || next == null || next.getNodeType() != Node.TEXT_NODE) {
+      return child.getNodeValue();
+    }
+    final StringBuilder text = new StringBuilder(child.getNodeValue());
+    for (; next != null && next.getNodeType() == Node.TEXT_NODE; next = next.getNextSibling()) {
+      text.append(next.getNodeValue());
+    }
+    return text.toString();
+  }
 
+  private Map<String, Integer> extractNodeMap(final Node node, final boolean keepNamespace,
+                                              final QualifiedNames names) throws JxmlException {
+    final Map<String, Integer> nodeMap = new HashMap<>();
+    for (Node innerNode = node.getFirstChild(); innerNode != null; innerNode = innerNode.getNextSibling()) {
       if (innerNode.getNodeType() == Node.ELEMENT_NODE) {
-        if (nodeMap.get(innerNodeName).size() == 1) {
-          convertRecursively(innerNode, jsonObject, keepNamespace, attributePrefix, textContentPrefix);
-        } else {
-          if (arrayMap.containsKey(innerNodeName)) {
-            final JsonArray jsonArray = arrayMap.get(innerNodeName);
-            iterateOnArray(innerNode, keepNamespace, attributePrefix, textContentPrefix, jsonArray);
-          } else {
-            final JsonArray jsonArray = new JsonArray();
-            iterateOnArray(innerNode, keepNamespace, attributePrefix, textContentPrefix, jsonArray);
-            arrayMap.put(innerNodeName, jsonArray);
-          }
-        }
+        nodeMap.merge(getNodeName(innerNode, keepNamespace, names), 1, Integer::sum);
       }
     }
-    final Iterator<Map.Entry<String, JsonArray>> iterator = arrayMap.entrySet().iterator();
-    while (iterator.hasNext()) {
-      final Map.Entry<String, JsonArray> mapPair = iterator.next();
-      jsonObject.add(mapPair.getKey(), mapPair.getValue());
-      iterator.remove();
+    return nodeMap;
+  }
+
+  private String getNodeName(final Node node, final boolean keepNamespace, final QualifiedNames names)
+      throws JxmlException {
+    if (names != null) {
+      return names.toJsonName(node.getNamespaceURI(), getLocalName(node), node.getPrefix());
     }
+    return toJsonName(node.getNodeName(), keepNamespace);
   }
 
-  private void iterateOnArray(final Node node, final boolean keepNamespace, final String attributePrefix,
-                              final String textContentPrefix, final JsonArray jsonArray) {
-    final JsonObject iterationJsonObject = new JsonObject();
-    convertRecursively(node, iterationJsonObject, keepNamespace, attributePrefix, textContentPrefix);
-    jsonArray.add(iterationJsonObject.get(getNodeName(node, keepNamespace)));
+  private static String getLocalName(final Node node) {
+    // nodes of a DOM built without namespace support have no local name
+    return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
   }
 
-  private void addTextContent(final Node node, final String textContentPrefix, final JsonObject jsonObject) {
-    if (node.hasChildNodes() &&  node.getFirstChild().getNodeValue() != null
-        && !"".equals(node.getFirstChild().getNodeValue()
-                          .replaceAll("\n|\t","")
-                          .replace(" ",""))) {
-      jsonObject.addProperty(textContentPrefix, normalizeText(node.getFirstChild().getNodeValue()));
-    }
-  }
-
-  private Map<String, ArrayList<Integer>> extractNodeMap(final NodeList nodeList, final boolean keepNamespace) {
-    final Map<String, ArrayList<Integer>> nodeMap = new HashMap<>();
-    for (int i = 0; i < nodeList.getLength(); i++) {
-      final Node node = nodeList.item(i);
-      final String nodeName = getNodeName(node, keepNamespace);
-      if (node.getNodeType() == Node.ELEMENT_NODE) {
-        if (nodeMap.containsKey(nodeName)) {
-          nodeMap.get(nodeName).add(i);
-        } else {
-          final ArrayList<Integer> nodeIndexes = new ArrayList<>(); // we need a not fixed-size list
-          nodeIndexes.add(i);
-          nodeMap.put(nodeName, nodeIndexes);
+  private static boolean isBlank(final String text) {
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (c != ' ' && c != '\n' && c != '\t') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Replaces line feeds and tabs by spaces, collapses runs of spaces and trims the result, in a single pass
+   * instead of a regular expression per step, an already normalized text being returned as it is.
+   */
+  private static String normalizeText(final String text) {
+    final int length = text.length();
+    char[] normalized = null;
+    int count = 0;
+    char previous = 0;
+    for (int i = 0; i < length; i++) {
+      final char original = text.charAt(i);
+      final char c = original == '\n' || original == '\t' ? ' ' : original;
+      final boolean collapsed = c == ' ' && previous == ' ';
+      if (normalized == null && (collapsed || c != original)) {
+        // the characters so far are unchanged
+        normalized = new char[length];
+        text.getChars(0, i, normalized, 0);
+      }
+      if (!collapsed) {
+        if (normalized != null) {
+          normalized[count] = c;
         }
+        count++;
+        previous = c;
       }
     }
-    return nodeMap;
+    if (normalized == null) {
+      return text.trim();
+    }
+    int start = 0;
+    while (start < count && normalized[start] <= ' ') {
+      start++;
+    }
+    while (count > start && normalized[count - 1] <= ' ') {
+      count--;
+    }
+    return new String(normalized, start, count - start);
   }
 
-  private String getNodeName(final Node node, final boolean keepNamespace) {
-    String nodeName = node.getNodeName();
-    if (!keepNamespace && nodeName.contains(":")) {
-      nodeName = nodeName.split(":", JxmlConstants.ATTRIBUTE_NAME_SPLIT_LIMIT)[1];
+
+  /*
+   * An object or array being written, with its remaining members.
+   */
+  private static final class OpenContainer {
+    private final boolean object;
+    private final Iterator<?> members;
+
+    private OpenContainer(final boolean object, final Iterator<?> members) {
+      this.object = object;
+      this.members = members;
     }
-    return nodeName;
   }
 
-  private String normalizeText(final String text) {
-    return text.replaceAll("\n|\t"," ")
-        .replaceAll(" +"," ")
-        .trim();
+  /*
+   * State of an element being converted, replacing a stack frame of the former recursive walk.
+   */
+  private static final class ElementFrame {
+    private final Node node;
+    private final JsonObject jsonObject;
+    private final StructureHints.HintNode hints;
+    private Node nextChild;
+    private Map<String, Integer> nodeMap;
+    private Map<String, JsonArray> arrayMap;
+
+    private ElementFrame(final Node node, final JsonObject jsonObject, final StructureHints.HintNode hints) {
+      this.node = node;
+      this.jsonObject = jsonObject;
+      this.hints = hints;
+      this.nextChild = node.getFirstChild();
+    }
   }
 
 }
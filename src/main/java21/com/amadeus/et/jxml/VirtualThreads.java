@@ -0,0 +1,32 @@
+package com.amadeus.et.jxml;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors starting a virtual thread per task, of the server and of the command line.
+ *
+ * <p>This Java 21 version of the multi-release jar creates them directly, without any lookup,
+ * and names the threads so that they can be told apart in thread dumps.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {}
+
+  /**
+   * Returns the name of the implementation in use, reported by the benchmark.
+   */
+  static String implementation() {
+    return "Thread.ofVirtual";
+  }
+
+  /**
+   * Returns an executor starting a virtual thread per task.
+   *
+   * @param  name  the name of the threads, followed by a counter
+   */
+  static ExecutorService newExecutor(final String name) {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + '-', 1).factory());
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.amadeus.et.jxml;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Skips runs of bytes of the same kind for Utf8XmlTokenizer: whitespace, plain ASCII text and
+ * plain ASCII attribute values, the ones copied as they are.
+ *
+ * <p>This Java 9 version of the multi-release jar reads eight bytes at a time through a VarHandle,
+ * each word being tested at once with SWAR (SIMD within a register) arithmetic, and only a word
+ * holding a byte of another kind being read a byte at a time.
+ */
+final class ByteScanner {
+
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final int WORD_SIZE = Long.BYTES;
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+  // added to the low bits of each byte, sets its high bit when it is not a control character
+  private static final long CONTROL_THRESHOLD = ONES * (0x80 - 0x20);
+  private static final long SPACES = ONES * ' ';
+  private static final long LINE_FEEDS = ONES * '\n';
+  private static final long TABS = ONES * '\t';
+  private static final long CARRIAGE_RETURNS = ONES * '\r';
+  private static final long LESS_THANS = ONES * '<';
+  private static final long AMPERSANDS = ONES * '&';
+  private static final long BRACKETS = ONES * ']';
+  private static final long QUOTES = ONES * '"';
+  private static final long APOSTROPHES = ONES * '\'';
+
+  private ByteScanner() {}
+
+  /**
+   * Returns the name of the implementation in use, reported by the benchmark.
+   */
+  static String implementation() {
+    return "VarHandle SWAR";
+  }
+
+  /**
+   * Returns the position of the first byte of the range that is not XML whitespace, or its end.
+   */
+  static int skipWhitespace(final byte[] in, final int from, final int end) {
+    int i = from;
+    for (; i + WORD_SIZE <= end; i += WORD_SIZE) {
+      final long word = (long) LONGS.get(in, i);
+      final long whitespace = zeroBytes(word ^ SPACES) | zeroBytes(word ^ LINE_FEEDS) | zeroBytes(word ^ TABS)
+          | zeroBytes(word ^ CARRIAGE_RETURNS);
+      if (whitespace != HIGH_BITS) {
+        break;
+      }
+    }
+    while (i < end && isWhitespace(in[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Returns the position of the first byte of the range that is not plain text, or its end:
+   * plain text being ASCII, without markup, reference, carriage return or other control character
+   * than tab and line feed, and without ']', which may start the end of a CDATA section.
+   */
+  static int skipPlainText(final byte[] in, final int from, final int end) {
+    int i = from;
+    while (i + WORD_SIZE <= end) {
+      final long word = (long) LONGS.get(in, i);
+      // tabs and line feeds are plain, but found a byte at a time
+      if ((nonPlainBytes(word) | zeroBytes(word ^ BRACKETS)) == 0) {
+        i += WORD_SIZE;
+        continue;
+      }
+      for (final int wordEnd = i + WORD_SIZE; i < wordEnd; i++) {
+        if (!isPlainText(in[i])) {
+          return i;
+        }
+      }
+    }
+    while (i < end && isPlainText(in[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Returns the position of the first byte of the range that is not a plain attribute value
+   * character, or its end: plain attribute value characters being ASCII, without markup,
+   * reference, quote or control character.
+   */
+  static int skipPlainAttribute(final byte[] in, final int from, final int end) {
+    int i = from;
+    for (; i + WORD_SIZE <= end; i += WORD_SIZE) {
+      final long word = (long) LONGS.get(in, i);
+      if ((nonPlainBytes(word) | zeroBytes(word ^ QUOTES) | zeroBytes(word ^ APOSTROPHES)) != 0) {
+        break;
+      }
+    }
+    while (i < end && isPlainAttribute(in[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  /*
+   * Returns the high bit of the non-ASCII bytes, control characters, '<' and '&' of a word.
+   */
+  private static long nonPlainBytes(final long word) {
+    return word & HIGH_BITS | ~((word & LOW_BITS) + CONTROL_THRESHOLD) & HIGH_BITS
+        | zeroBytes(word ^ LESS_THANS) | zeroBytes(word ^ AMPERSANDS);
+  }
+
+  /*
+   * Returns the high bit of each zero byte of a word, exactly, without any carry between bytes.
+   */
+  private static long zeroBytes(final long word) {
+    return ~((word & LOW_BITS) + LOW_BITS | word | LOW_BITS);
+  }
+
+  private static boolean isWhitespace(final byte b) {
+    return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+  }
+
+  private static boolean isPlainText(final byte b) {
+    return b >= 0x20 && b != '<' && b != '&' && b != ']' || b == '\t' || b == '\n';
+  }
+
+  private static boolean isPlainAttribute(final byte b) {
+    return b >= 0x20 && b != '<' && b != '&' && b != '"' && b != '\'';
+  }
+
+}
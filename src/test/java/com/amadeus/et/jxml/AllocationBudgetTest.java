@@ -0,0 +1,350 @@
+package com.amadeus.et.jxml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullWriter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Guards the memory behavior of the conversion engines: the bytes allocated by each engine
+ * on each fixture, and the peak heap retained while converting the generated large documents,
+ * must stay within the budgets checked in allocation/allocationBudgets-&lt;java version&gt;.properties.
+ *
+ * <p>Budgets are the measures of the current code plus a margin, on the Java versions they were
+ * recorded on, the test being skipped on the others. After an intended change, they are measured
+ * again with -Djxml.allocation.record=true, which writes them to
+ * target/allocationBudgets-&lt;java version&gt;.properties instead of checking them. The test runs
+ * in its own surefire execution, so that no other test weighs on the measured heap.
+ */
+class AllocationBudgetTest {
+
+  private static final String JAVA_VERSION = javaVersion();
+  private static final String BUDGETS_RESOURCE = "allocation/allocationBudgets-" + JAVA_VERSION + ".properties";
+  private static final String RECORD_PROPERTY = "jxml.allocation.record";
+  private static final Path RECORDED_BUDGETS = Paths.get("target", "allocationBudgets-" + JAVA_VERSION + ".properties");
+  private static final String[] XML_FIXTURES = {
+    "xmlInputValidBasic", "xmlInputValidBasicWithArray", "xmlInputValidBasicWithArrayNoNamespace",
+    "xmlInputValidBasicWithChild", "xmlInputValidBasicWithChildren", "xmlInputValidSOAPLike",
+    "xmlInputValidSOAPLikeNoNamespace", "xmlInputValidSpecialCharactersAndCarriageReturn"
+  };
+  private static final String[] JSON_FIXTURES = {
+    "jsonBasicExpectedConversion", "jsonBasicWithArrayExpectedConversion",
+    "jsonBasicWithArrayExpectedConversionNoNamespace", "jsonBasicWithChildExpectedConversion",
+    "jsonBasicWithChildrenExpectedConversion", "jsonExpectedComplexConversion",
+    "jsonExpectedConversionNoNamespace", "jsonSpecialCharactersAndCarriageReturnConversion"
+  };
+  private static final String GENERATED_RECORDS = "generatedRecords";
+  private static final String GENERATED_NESTED = "generatedNested";
+  private static final int GENERATED_SIZE = 1 << 20;
+  private static final int WARM_UP_RUNS = 3;
+  private static final int MEASURED_RUNS = 3;
+  private static final double RECORDED_MARGIN = 1.1;
+  private static final long RECORDED_ROUNDING = 1024;
+  private static final long GC_NOTIFICATION_TIMEOUT_MILLIS = 10_000;
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private static final Properties BUDGETS = new Properties();
+  private static final Map<String, Long> RECORDED = new TreeMap<>();
+  private static volatile Object lastResult;
+
+  @BeforeAll
+  static void loadBudgets() throws IOException {
+    Assumptions.assumeTrue(THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled(),
+                           "thread allocation measurement is not supported");
+    if (Boolean.getBoolean(RECORD_PROPERTY)) {
+      return;
+    }
+    try (InputStream budgets = AllocationBudgetTest.class.getClassLoader().getResourceAsStream(BUDGETS_RESOURCE)) {
+      // allocations depend on the JDK, so budgets are only checked on the versions they were recorded on
+      Assumptions.assumeTrue(budgets != null, "no allocation budgets recorded for Java " + JAVA_VERSION);
+      BUDGETS.load(budgets);
+    }
+  }
+
+  @AfterAll
+  static void recordBudgets() throws IOException {
+    if (!Boolean.getBoolean(RECORD_PROPERTY)) {
+      return;
+    }
+    final List<String> lines = new ArrayList<>();
+    for (final Map.Entry<String, Long> entry : RECORDED.entrySet()) {
+      final long budget = (long) Math.ceil(entry.getValue() * RECORDED_MARGIN / RECORDED_ROUNDING) * RECORDED_ROUNDING;
+      lines.add(entry.getKey() + '=' + budget);
+    }
+    Files.createDirectories(RECORDED_BUDGETS.getParent());
+    Files.write(RECORDED_BUDGETS, lines, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void xmlToJsonStaysWithinItsAllocationBudgets() throws Exception {
+    final XmlToJson converter = new XmlToJson();
+    for (final String fixture : XML_FIXTURES) {
+      final String xml = readUtf8("xml/conversion/" + fixture + ".xml");
+      checkAllocatedBytes("xml2json." + fixture, () -> converter.execute(xml));
+    }
+    final String records = generateRecords();
+    checkAllocatedBytes("xml2json." + GENERATED_RECORDS, () -> converter.execute(records));
+    final String nested = generateNested();
+    checkAllocatedBytes("xml2json." + GENERATED_NESTED, () -> converter.execute(nested));
+  }
+
+  @Test
+  void byteTokenizerStaysWithinItsAllocationBudgets() throws Exception {
+    final XmlToJson converter = new XmlToJson();
+    converter.setByteTokenizer(true);
+    for (final String fixture : XML_FIXTURES) {
+      final byte[] xml = readUtf8("xml/conversion/" + fixture + ".xml").getBytes(StandardCharsets.UTF_8);
+      checkAllocatedBytes("xml2json.bytes." + fixture, () -> converter.execute(xml, true, null));
+    }
+    final byte[] records = generateRecords().getBytes(StandardCharsets.UTF_8);
+    checkAllocatedBytes("xml2json.bytes." + GENERATED_RECORDS, () -> converter.execute(records, true, null));
+  }
+
+  @Test
+  void streamingConversionStaysWithinItsAllocationBudgets() throws Exception {
+    final XmlToJson converter = new XmlToJson();
+    for (final String fixture : XML_FIXTURES) {
+      final byte[] xml = readUtf8("xml/conversion/" + fixture + ".xml").getBytes(StandardCharsets.UTF_8);
+      checkAllocatedBytes("xml2json.streaming." + fixture, () -> stream(converter, xml));
+    }
+    final byte[] records = generateRecords().getBytes(StandardCharsets.UTF_8);
+    checkAllocatedBytes("xml2json.streaming." + GENERATED_RECORDS, () -> stream(converter, records));
+  }
+
+  @Test
+  void jsonToXmlStaysWithinItsAllocationBudgets() throws Exception {
+    final JsonToXml converter = new JsonToXml();
+    for (final String fixture : JSON_FIXTURES) {
+      final String json = readUtf8("json/conversion/" + fixture + ".json");
+      checkAllocatedBytes("json2xml." + fixture, () -> converter.execute(json));
+    }
+    final String records = new XmlToJson().execute(generateRecords());
+    checkAllocatedBytes("json2xml." + GENERATED_RECORDS, () -> converter.execute(records));
+  }
+
+  @Test
+  void largeDocumentsStayWithinTheirRetainedHeapBudgets() throws Exception {
+    final byte[] records = generateRecords().getBytes(StandardCharsets.UTF_8);
+    final XmlToJson converter = new XmlToJson();
+    checkRetainedBytes("xml2json.streaming." + GENERATED_RECORDS + ".retained", () -> stream(converter, records));
+    converter.setByteTokenizer(true);
+    checkRetainedBytes("xml2json.bytes." + GENERATED_RECORDS + ".retained",
+                       () -> converter.execute(records, true, null));
+  }
+
+  /*
+   * Measures the fewest bytes allocated by the conversion over a few runs, once warmed up.
+   */
+  private static void checkAllocatedBytes(final String key, final Conversion conversion) throws Exception {
+    final long threadId = Thread.currentThread().getId();
+    for (int i = 0; i < WARM_UP_RUNS; i++) {
+      conversion.run();
+    }
+    long allocated = Long.MAX_VALUE;
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      final long before = THREADS.getThreadAllocatedBytes(threadId);
+      conversion.run();
+      allocated = Math.min(allocated, THREADS.getThreadAllocatedBytes(threadId) - before);
+    }
+    checkBudget(key, allocated, "allocated");
+  }
+
+  /*
+   * Measures the highest heap occupancy after a garbage collection during the conversion,
+   * a last collection being forced while its result is still reachable. The collections
+   * sample the heap every few megabytes allocated, the surefire execution of this test fixing
+   * the size of the young generation, and the lowest peak over a few runs is kept, as garbage
+   * not yet collected from the old generation only ever adds to the occupancy.
+   */
+  private static void checkRetainedBytes(final String key, final Conversion conversion) throws Exception {
+    conversion.run();
+    long retained = Long.MAX_VALUE;
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      try (RetainedHeapRecorder recorder = new RetainedHeapRecorder()) {
+        final long baseline = recorder.collect();
+        recorder.reset();
+        final Object result = conversion.run();
+        recorder.collect();
+        // keeps the result reachable up to the last collection
+        lastResult = result;
+        retained = Math.min(retained, Math.max(recorder.peak() - baseline, 0));
+      }
+    }
+    checkBudget(key, retained, "retained");
+  }
+
+  private static void checkBudget(final String key, final long measured, final String measure) {
+    synchronized (RECORDED) {
+      RECORDED.put(key, measured);
+    }
+    if (Boolean.getBoolean(RECORD_PROPERTY)) {
+      return;
+    }
+    final String budget = BUDGETS.getProperty(key);
+    Assertions.assertNotNull(budget, "No budget for '" + key + "', " + measure + " bytes: " + measured);
+    Assertions.assertTrue(measured <= Long.parseLong(budget),
+                          "'" + key + "' " + measure + " " + measured + " bytes, over its budget of " + budget);
+  }
+
+  private static String javaVersion() {
+    final String version = System.getProperty("java.specification.version");
+    // 1.8, then 9 onwards
+    return version.startsWith("1.") ? version.substring(2) : version;
+  }
+
+  private static Object stream(final XmlToJson converter, final byte[] xml) throws Exception {
+    converter.execute(new ByteArrayInputStream(xml), NullWriter.INSTANCE);
+    return xml;
+  }
+
+  private static String readUtf8(final String resource) throws IOException {
+    try (InputStream input = AllocationBudgetTest.class.getClassLoader().getResourceAsStream(resource)) {
+      return IOUtils.toString(Objects.requireNonNull(input, resource), StandardCharsets.UTF_8);
+    }
+  }
+
+  /*
+   * A SOAP-like document of repeated records, with attributes, arrays and texts to normalize.
+   */
+  private static String generateRecords() {
+    final StringBuilder xml = new StringBuilder(GENERATED_SIZE + 1024);
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">")
+        .append("<soap:Body><Records xmlns=\"http://example.com/records\">\n");
+    for (int i = 0; xml.length() < GENERATED_SIZE; i++) {
+      xml.append("  <Record id=\"").append(i).append("\" type=\"T").append(i % 7).append("\" status=\"active\">\n")
+          .append("    <Name>  Record   number ").append(i).append(" éè &amp; co  </Name>\n")
+          .append("    <Amount currency=\"EUR\">").append(i * 13 % 1000).append(".50</Amount>\n")
+          .append("    <Tag>first</Tag><Tag>second</Tag><Tag>third</Tag>\n")
+          .append("    <Comment><![CDATA[line\n  two]]></Comment>\n")
+          .append("  </Record>\n");
+    }
+    return xml.append("</Records></soap:Body></soap:Envelope>").toString();
+  }
+
+  /*
+   * A document of nested groups, each with a few leaves, so that frames are opened and closed deeply.
+   */
+  private static String generateNested() {
+    final StringBuilder xml = new StringBuilder(GENERATED_SIZE + 1024);
+    xml.append("<root>");
+    while (xml.length() < GENERATED_SIZE) {
+      for (int depth = 0; depth < 50; depth++) {
+        xml.append("<group level=\"").append(depth).append("\"><leaf>").append(depth).append("</leaf>");
+      }
+      for (int depth = 0; depth < 50; depth++) {
+        xml.append("</group>");
+      }
+    }
+    return xml.append("</root>").toString();
+  }
+
+  @FunctionalInterface
+  private interface Conversion {
+    Object run() throws Exception;
+  }
+
+  /*
+   * Records the heap occupancy after each garbage collection, as notified by the collectors.
+   */
+  private static final class RetainedHeapRecorder implements NotificationListener, AutoCloseable {
+
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final AtomicLong notified = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+    private final AtomicLong last = new AtomicLong();
+    private final long initialCount;
+
+    RetainedHeapRecorder() {
+      initialCount = collectionCount();
+      for (final GarbageCollectorMXBean collector : collectors) {
+        ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+      }
+    }
+
+    @Override
+    public void handleNotification(final Notification notification, final Object handback) {
+      if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+        return;
+      }
+      final GarbageCollectionNotificationInfo info =
+          GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+      long used = 0;
+      for (final MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+        used += usage.getUsed();
+      }
+      last.set(used);
+      peak.accumulateAndGet(used, Math::max);
+      notified.incrementAndGet();
+    }
+
+    void reset() {
+      peak.set(0);
+    }
+
+    /*
+     * Forces a collection and returns the heap occupancy after it, once all collections are notified.
+     */
+    long collect() throws InterruptedException {
+      System.gc();
+      final long deadline = System.currentTimeMillis() + GC_NOTIFICATION_TIMEOUT_MILLIS;
+      while (notified.get() < collectionCount() - initialCount) {
+        Assertions.assertTrue(System.currentTimeMillis() < deadline, "Garbage collections were not notified");
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      return last.get();
+    }
+
+    long peak() {
+      return peak.get();
+    }
+
+    private long collectionCount() {
+      long count = 0;
+      for (final GarbageCollectorMXBean collector : collectors) {
+        count += Math.max(collector.getCollectionCount(), 0);
+      }
+      return count;
+    }
+
+    @Override
+    public void close() throws ListenerNotFoundException {
+      for (final GarbageCollectorMXBean collector : collectors) {
+        ((NotificationEmitter) collector).removeNotificationListener(this);
+      }
+    }
+
+  }
+
+}
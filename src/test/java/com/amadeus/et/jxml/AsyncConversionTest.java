@@ -0,0 +1,303 @@
+package com.amadeus.et.jxml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXException;
+
+import static com.amadeus.et.jxml.XmlToJsonTest.readResource;
+
+class AsyncConversionTest {
+
+  private static final String XML_RESOURCE_FOLDER = "xml/conversion/";
+
+  @Test
+  void xmlFedByChunksIsConvertedAsAWhole()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, InterruptedException,
+             ExecutionException, TimeoutException {
+    final String xml = readResource(XML_RESOURCE_FOLDER + "xmlInputValidSOAPLike.xml");
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      final AsyncConversion conversion = new XmlToJson().executeAsync(chunk -> write(chunk, output), executor);
+
+      feed(conversion, xml.getBytes(StandardCharsets.UTF_8), 7);
+      conversion.end().get(10, TimeUnit.SECONDS);
+
+      Assertions.assertEquals(new XmlToJson().execute(xml), new String(output.toByteArray(), StandardCharsets.UTF_8));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void charactersSplitBetweenChunksAreDecoded()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, InterruptedException,
+             ExecutionException {
+    final String xml = "<a b=\"été\"><c>€ 😀</c></a>";
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final AsyncConversion conversion = new XmlToJson().executeAsync(chunk -> write(chunk, output), Runnable::run,
+                                                                    false, "#");
+
+    feed(conversion, xml.getBytes(StandardCharsets.UTF_8), 1);
+    conversion.end().get();
+
+    Assertions.assertEquals(new XmlToJson().execute(xml, false, "#"),
+                            new String(output.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void jsonFedByChunksIsConvertedAsAWhole()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException,
+             InterruptedException, ExecutionException {
+    final String json = new XmlToJson().execute(readResource(XML_RESOURCE_FOLDER + "xmlInputValidSOAPLike.xml"));
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final AsyncConversion conversion = new JsonToXml().executeAsync(chunk -> write(chunk, output), Runnable::run);
+
+    feed(conversion, json.getBytes(StandardCharsets.UTF_8), 100);
+    conversion.end().get();
+
+    Assertions.assertEquals(new JsonToXml().execute(json), new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+    final String prefixedJson = json.replace("\"_", "\"#");
+    final ByteArrayOutputStream prefixedOutput = new ByteArrayOutputStream();
+    final AsyncConversion prefixedConversion = new JsonToXml().executeAsync(chunk -> write(chunk, prefixedOutput),
+                                                                            Runnable::run, false, "#");
+
+    feed(prefixedConversion, prefixedJson.getBytes(StandardCharsets.UTF_8), 100);
+    prefixedConversion.end().get();
+
+    Assertions.assertEquals(new JsonToXml().execute(prefixedJson, false, "#"),
+                            new String(prefixedOutput.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void largeXmlIsParsedWhileFed()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, InterruptedException,
+             ExecutionException, TimeoutException {
+    final String xml = generateXml(4 * AsyncConversion.CHUNK_SIZE);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      final AsyncConversion conversion = new XmlToJson().executeAsync(chunk -> write(chunk, output), executor);
+      final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+      feed(conversion, Arrays.copyOf(bytes, bytes.length - 1), 1000);
+      // the parser has consumed the chunks fed so far, and waits for the rest of the input
+      final Future<?> parsed = executor.submit(() -> { });
+      Assertions.assertThrows(TimeoutException.class, () -> parsed.get(100, TimeUnit.MILLISECONDS));
+      Assertions.assertFalse(conversion.getResult().isDone());
+      conversion.feed(ByteBuffer.wrap(bytes, bytes.length - 1, 1));
+      conversion.end().get(10, TimeUnit.SECONDS);
+      parsed.get(10, TimeUnit.SECONDS);
+
+      Assertions.assertEquals(new XmlToJson().execute(xml),
+                              new String(output.toByteArray(), StandardCharsets.UTF_8));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void largeXmlIsConvertedOnTheFeedingThread()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, InterruptedException,
+             ExecutionException, TimeoutException {
+    final String xml = generateXml(4 * AsyncConversion.CHUNK_SIZE);
+    final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final AsyncConversion conversion = new XmlToJson().executeAsync(chunk -> write(chunk, output), Runnable::run);
+
+    // a direct executor runs the conversion once a chunk has been fed, which is put off until the end of the input
+    feed(conversion, bytes, 1000);
+    Assertions.assertFalse(conversion.getResult().isDone());
+    Assertions.assertEquals(0, output.size());
+    conversion.end().get();
+
+    Assertions.assertEquals(new XmlToJson().execute(xml), new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+    // and so does an event loop, whose tasks run on the thread feeding the conversion
+    final ExecutorService loop = Executors.newSingleThreadExecutor();
+    try {
+      final ByteArrayOutputStream loopOutput = new ByteArrayOutputStream();
+      final AsyncConversion loopConversion = loop.submit(
+          () -> new XmlToJson().executeAsync(chunk -> write(chunk, loopOutput), loop)).get();
+      for (int offset = 0; offset < bytes.length; offset += 1000) {
+        final int chunkOffset = offset;
+        loop.submit(() -> loopConversion.feed(ByteBuffer.wrap(bytes, chunkOffset,
+                                                              Math.min(1000, bytes.length - chunkOffset))));
+      }
+      loop.submit(loopConversion::end).get().get(10, TimeUnit.SECONDS);
+
+      Assertions.assertEquals(new XmlToJson().execute(xml),
+                              new String(loopOutput.toByteArray(), StandardCharsets.UTF_8));
+    } finally {
+      loop.shutdown();
+    }
+  }
+
+  @Test
+  void documentSizeIsCheckedWhileFed() {
+    final XmlToJson converter = new XmlToJson();
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDocumentSize(10);
+    converter.setLimits(limits);
+    final AsyncConversion conversion = converter.executeAsync(chunk -> Assertions.fail("no output expected"),
+                                                              command -> Assertions.fail("no conversion expected"));
+
+    conversion.feed(ByteBuffer.wrap("<a>".getBytes(StandardCharsets.UTF_8)));
+    Assertions.assertFalse(conversion.getResult().isDone());
+    conversion.feed(ByteBuffer.wrap("<b>12345</b>".getBytes(StandardCharsets.UTF_8)));
+
+    Assertions.assertTrue(conversion.getResult().isCompletedExceptionally());
+    final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                                                                 () -> conversion.end().get());
+    Assertions.assertTrue(exception.getCause() instanceof JxmlException);
+    Assertions.assertEquals("Document size exceeds the maximum allowed size of 10.",
+                            exception.getCause().getMessage());
+  }
+
+  @Test
+  void invalidInputCompletesExceptionally() {
+    final AsyncConversion conversion = new XmlToJson().executeAsync(chunk -> { }, Runnable::run);
+
+    conversion.feed(ByteBuffer.wrap("<a><b></a>".getBytes(StandardCharsets.UTF_8)));
+
+    final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                                                                 () -> conversion.end().get());
+    Assertions.assertTrue(exception.getCause() instanceof SAXException);
+    Assertions.assertThrows(IllegalStateException.class, conversion::end);
+  }
+
+  @Test
+  void rejectedConversionsCompleteExceptionally() {
+    final AsyncConversion conversion = new XmlToJson().executeAsync(chunk -> { }, command -> {
+      throw new RejectedExecutionException();
+    });
+
+    conversion.feed(ByteBuffer.wrap("<a/>".getBytes(StandardCharsets.UTF_8)));
+    final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                                                                 () -> conversion.end().get());
+    Assertions.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+    Assertions.assertThrows(IllegalStateException.class, () -> conversion.feed(ByteBuffer.allocate(1)));
+  }
+
+  @Test
+  void chunksFedOnceTheConversionFailedAreIgnored() {
+    final XmlToJson converter = new XmlToJson();
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDocumentSize(1);
+    converter.setLimits(limits);
+    final AsyncConversion conversion = converter.executeAsync(chunk -> { }, Runnable::run);
+    conversion.feed(ByteBuffer.wrap("<a/>".getBytes(StandardCharsets.UTF_8)));
+
+    final ByteBuffer ignored = ByteBuffer.wrap("<b/>".getBytes(StandardCharsets.UTF_8));
+    conversion.feed(ignored);
+
+    Assertions.assertFalse(ignored.hasRemaining());
+    Assertions.assertTrue(conversion.getResult().isCompletedExceptionally());
+  }
+
+  @Test
+  void conversionsWaitingForTheInputAreInterruptedOrFailed() throws InterruptedException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDocumentSize(AsyncConversion.CHUNK_SIZE + 1);
+    final Thread[] thread = new Thread[1];
+    final Executor executor = command -> {
+      thread[0] = new Thread(command);
+      thread[0].start();
+    };
+    final AsyncConversion.Conversion reading = (input, output) -> {
+      Assertions.assertEquals(0, input.read(new byte[1], 0, 0));
+      Assertions.assertEquals(0, input.read());
+      Assertions.assertEquals(AsyncConversion.CHUNK_SIZE - 1, input.available());
+      Assertions.assertEquals(AsyncConversion.CHUNK_SIZE - 1, input.skip(AsyncConversion.CHUNK_SIZE));
+      input.read();
+    };
+
+    final AsyncConversion interrupted = new AsyncConversion(limits, reading, chunk -> { }, executor,
+                                                            StandardCharsets.UTF_8);
+    interrupted.feed(ByteBuffer.allocate(AsyncConversion.CHUNK_SIZE));
+    awaitWaiting(thread[0]);
+    thread[0].interrupt();
+    thread[0].join();
+    Assertions.assertTrue(Assertions.assertThrows(ExecutionException.class, () -> interrupted.getResult().get())
+                              .getCause() instanceof InterruptedIOException);
+
+    final AsyncConversion failed = new AsyncConversion(limits, reading, chunk -> { }, executor,
+                                                       StandardCharsets.UTF_8);
+    failed.feed(ByteBuffer.allocate(AsyncConversion.CHUNK_SIZE));
+    awaitWaiting(thread[0]);
+    failed.feed(ByteBuffer.allocate(2));
+    thread[0].join();
+    Assertions.assertTrue(Assertions.assertThrows(ExecutionException.class, () -> failed.getResult().get())
+                              .getCause() instanceof JxmlException);
+  }
+
+  @Test
+  void outputIsEncodedAcrossWrites() throws InterruptedException, ExecutionException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final AsyncConversion split = new AsyncConversion(new JxmlLimits(), (input, writer) -> {
+      writer.write("a\uD83D");
+      writer.write("\uDE00b");
+      writer.write("\uD83D");
+      writer.write("");
+      writer.write("\uDE00".toCharArray());
+      writer.flush();
+      writer.close();
+    }, chunk -> write(chunk, output), Runnable::run, StandardCharsets.UTF_8);
+
+    split.end().get();
+    Assertions.assertEquals("a\uD83D\uDE00b\uD83D\uDE00", new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+    for (final String malformed : new String[] {"\uDE00", "\uD83D"}) {
+      final AsyncConversion conversion = new AsyncConversion(new JxmlLimits(),
+                                                             (input, writer) -> writer.write(malformed), chunk -> { },
+                                                             Runnable::run, StandardCharsets.UTF_8);
+      Assertions.assertTrue(Assertions.assertThrows(ExecutionException.class, () -> conversion.end().get())
+                                .getCause() instanceof CharacterCodingException, malformed);
+    }
+  }
+
+  private static String generateXml(final int size) {
+    final StringBuilder xml = new StringBuilder("<a>");
+    for (int i = 0; xml.length() < size; i++) {
+      xml.append("<b id=\"").append(i).append("\">\u00e9t\u00e9</b>");
+    }
+    return xml.append("</a>").toString();
+  }
+
+  private static void awaitWaiting(final Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static void feed(final AsyncConversion conversion, final byte[] input, final int chunkSize) {
+    for (int offset = 0; offset < input.length; offset += chunkSize) {
+      conversion.feed(ByteBuffer.wrap(input, offset, Math.min(chunkSize, input.length - offset)));
+    }
+  }
+
+  private static void write(final ByteBuffer chunk, final ByteArrayOutputStream output) {
+    output.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+  }
+
+}
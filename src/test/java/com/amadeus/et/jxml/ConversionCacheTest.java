@@ -0,0 +1,248 @@
+package com.amadeus.et.jxml;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXException;
+
+import static com.amadeus.et.jxml.XmlToJsonTest.readResource;
+
+class ConversionCacheTest {
+
+  private static final String XML_RESOURCE_FOLDER = "xml/conversion/";
+
+  @Test
+  void repeatedInputsAreServedFromCache()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final ConversionCache cache = new ConversionCache(10, 1_000_000);
+    final XmlToJson converter = new XmlToJson();
+    converter.setCache(cache);
+    final String xml = readResource(XML_RESOURCE_FOLDER + "xmlInputValidSOAPLike.xml");
+
+    final String first = converter.execute(xml);
+    final String second = converter.execute(xml);
+
+    Assertions.assertSame(first, second);
+    Assertions.assertEquals(new XmlToJson().execute(xml), first);
+    Assertions.assertEquals(1, cache.getHitCount());
+    Assertions.assertEquals(1, cache.getMissCount());
+    Assertions.assertEquals(0.5, cache.getHitRate());
+    Assertions.assertEquals(1, cache.size());
+  }
+
+  @Test
+  void conversionOptionsArePartOfTheKey()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final ConversionCache cache = new ConversionCache(10, 1_000_000);
+    final XmlToJson xmlToJson = new XmlToJson();
+    xmlToJson.setCache(cache);
+    final JsonToXml jsonToXml = new JsonToXml();
+    jsonToXml.setCache(cache);
+    final String xml = readResource(XML_RESOURCE_FOLDER + "xmlInputValidSOAPLike.xml");
+
+    final String json = xmlToJson.execute(xml);
+    Assertions.assertNotEquals(json, xmlToJson.execute(xml, false));
+    Assertions.assertNotEquals(json, xmlToJson.execute(xml, "#"));
+    jsonToXml.execute(json);
+
+    Assertions.assertEquals(0, cache.getHitCount());
+    Assertions.assertEquals(4, cache.size());
+  }
+
+  @Test
+  void settingsChangedAfterAConversionArePartOfTheKey()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final ConversionCache cache = new ConversionCache(10, 1_000_000);
+    final XmlToJson converter = new XmlToJson();
+    converter.setCache(cache);
+    final String xml = "<r:Root xmlns:r=\"urn:root\"><Item>1</Item><Item>2</Item><Other>3</Other></r:Root>";
+    final String json = converter.execute(xml);
+
+    final StructureHints hints = new StructureHints();
+    converter.setStructureHints(hints);
+    Assertions.assertEquals(json, converter.execute(xml));
+    hints.addAlwaysArray("/r:Root/Other");
+    Assertions.assertTrue(converter.execute(xml).contains("\"Other\":[{"), "hints added after being set");
+
+    final NamespaceMapping mapping = new NamespaceMapping();
+    converter.setNamespaceMapping(mapping);
+    mapping.map("urn:root", "root");
+    Assertions.assertTrue(converter.execute(xml).contains("\"root:Root\""), "mapping added after being set");
+
+    final JxmlLimits limits = new JxmlLimits();
+    converter.setLimits(limits);
+    converter.execute(xml);
+    limits.setMaxArrayLength(1);
+    Assertions.assertThrows(JxmlException.class, () -> converter.execute(xml));
+    limits.setMaxArrayLength(2);
+    limits.setMaxDepth(1);
+    Assertions.assertThrows(JxmlException.class, () -> converter.execute(xml));
+
+    Assertions.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  void cacheIsSharedByConvertersOfDifferentSettings()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final ConversionCache cache = new ConversionCache(10, 1_000_000);
+    final XmlToJson plain = new XmlToJson();
+    plain.setCache(cache);
+    final XmlToJson hinted = new XmlToJson();
+    hinted.setCache(cache);
+    hinted.setStructureHints(StructureHints.parse("array /Root/Item"));
+    final XmlToJson limited = new XmlToJson();
+    limited.setCache(cache);
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxTextLength(1);
+    limited.setLimits(limits);
+    final String xml = "<Root><Item>text</Item></Root>";
+
+    Assertions.assertEquals("{\"Root\":{\"Item\":{\"__text\":\"text\"}}}", plain.execute(xml));
+    Assertions.assertEquals("{\"Root\":{\"Item\":[{\"__text\":\"text\"}]}}", hinted.execute(xml));
+    Assertions.assertThrows(JxmlException.class, () -> limited.execute(xml));
+
+    final JsonToXml jsonToXml = new JsonToXml();
+    jsonToXml.setCache(cache);
+    final String json = "{\"r:Root\":{\"_xmlns:r\":\"urn:root\",\"Item\":{\"__text\":\"1\"}}}";
+    final String xmlWithoutMapping = jsonToXml.execute(json);
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:other", "o");
+    jsonToXml.setNamespaceMapping(mapping);
+    Assertions.assertEquals(xmlWithoutMapping, jsonToXml.execute(json));
+
+    Assertions.assertEquals(0, cache.getHitCount());
+    Assertions.assertEquals(4, cache.size());
+  }
+
+  @Test
+  void hashCollisionsAreVerifiedOnTheFullInput() {
+    final ConversionCache cache = new ConversionCache(10, 1_000);
+    // "Aa" and "BB" share the same String.hashCode, and keys are compared on the full input anyway
+    final ConversionCache.Key first = key("Aa");
+    final ConversionCache.Key second = key("BB");
+    cache.put(first, "first");
+
+    Assertions.assertNull(cache.get(second));
+    Assertions.assertEquals("first", cache.get(first));
+    Assertions.assertNotEquals(ConversionCache.hash("Aa"), ConversionCache.hash("BB"));
+  }
+
+  @Test
+  void leastRecentlyUsedEntriesAreEvictedOnSize() {
+    final ConversionCache cache = new ConversionCache(2, 1_000);
+    final ConversionCache.Key first = key("<a/>");
+    final ConversionCache.Key second = key("<b/>");
+    final ConversionCache.Key third = key("<c/>");
+    cache.put(first, "a");
+    cache.put(second, "b");
+    cache.get(first);
+    cache.put(third, "c");
+
+    Assertions.assertEquals("a", cache.get(first));
+    Assertions.assertNull(cache.get(second));
+    Assertions.assertEquals("c", cache.get(third));
+    Assertions.assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  void entriesAreEvictedOnWeight() {
+    final ConversionCache cache = new ConversionCache(10, 12);
+    cache.put(key("<a/>"), "aa");
+    cache.put(key("<b/>"), "bb");
+    Assertions.assertEquals(12, cache.getWeight());
+
+    cache.put(key("<c/>"), "cc");
+    Assertions.assertEquals(2, cache.size());
+    Assertions.assertEquals(12, cache.getWeight());
+    Assertions.assertEquals(1, cache.getEvictionCount());
+
+    // heavier than the whole cache: not cached at all
+    cache.put(key("<too-heavy/>"), "x");
+    Assertions.assertEquals(2, cache.size());
+  }
+
+  @Test
+  void entriesExpireAfterTimeToLive() {
+    final AtomicLong now = new AtomicLong();
+    final ConversionCache cache = new ConversionCache(10, 1_000, TimeUnit.SECONDS.toNanos(60), now::get);
+    cache.put(key("<a/>"), "a");
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    Assertions.assertEquals("a", cache.get(key("<a/>")));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assertions.assertNull(cache.get(key("<a/>")));
+
+    Assertions.assertEquals(1, cache.getExpirationCount());
+    Assertions.assertEquals(0, cache.size());
+    Assertions.assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  void sizesMustBePositive() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new ConversionCache(0, 1_000));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new ConversionCache(10, 0));
+    Assertions.assertThrows(IllegalArgumentException.class,
+                            () -> new ConversionCache(10, 1_000, 0, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void replacedAndClearedEntriesReleaseTheirWeight() {
+    final ConversionCache cache = new ConversionCache(10, 1_000);
+    Assertions.assertEquals(0, cache.getHitRate());
+    cache.put(key("<a/>"), "aaaa");
+    cache.put(key("<a/>"), "a");
+    Assertions.assertEquals(1, cache.size());
+    Assertions.assertEquals(5, cache.getWeight());
+    Assertions.assertEquals("a", cache.get(key("<a/>")));
+
+    cache.clear();
+    Assertions.assertEquals(0, cache.size());
+    Assertions.assertEquals(0, cache.getWeight());
+    Assertions.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  void keysDifferOnEveryConversionOption() throws JxmlException {
+    final ConversionCache.Settings settings = ConversionCache.settings(null, null, new JxmlLimits());
+    final ConversionCache.Key key = key("<a/>");
+    final StructureHints hints = new StructureHints();
+    final NamespaceMapping mapping = new NamespaceMapping();
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(1);
+
+    Assertions.assertEquals(key, key);
+    Assertions.assertNotEquals(key, "<a/>");
+    Assertions.assertEquals(key, key("<a/>"));
+    Assertions.assertEquals(key.hashCode(), key("<a/>").hashCode());
+    Assertions.assertNotEquals(key, ConversionCache.key(ConversionCache.Direction.JSON_TO_XML, "<a/>", true, "_",
+                                                        settings));
+    Assertions.assertNotEquals(key, ConversionCache.key(ConversionCache.Direction.XML_TO_JSON, "<a/>", false, "_",
+                                                        settings));
+    Assertions.assertNotEquals(key, ConversionCache.key(ConversionCache.Direction.XML_TO_JSON, "<a/>", true, "#",
+                                                        settings));
+
+    Assertions.assertEquals(settings, settings);
+    Assertions.assertNotEquals(settings, key);
+    Assertions.assertNotEquals(settings, ConversionCache.settings(hints, null, new JxmlLimits()));
+    Assertions.assertNotEquals(settings, ConversionCache.settings(null, mapping, new JxmlLimits()));
+    Assertions.assertNotEquals(settings, ConversionCache.settings(null, null, limits));
+    final ConversionCache.Settings hinted = ConversionCache.settings(hints, mapping, new JxmlLimits());
+    hints.addAlwaysArray("/a");
+    Assertions.assertNotEquals(hinted, ConversionCache.settings(hints, mapping, new JxmlLimits()));
+    final ConversionCache.Settings mapped = ConversionCache.settings(hints, mapping, new JxmlLimits());
+    mapping.map("urn:a", "a");
+    Assertions.assertNotEquals(mapped, ConversionCache.settings(hints, mapping, new JxmlLimits()));
+  }
+
+  private static ConversionCache.Key key(final String input) {
+    return ConversionCache.key(ConversionCache.Direction.XML_TO_JSON, input, true, "_",
+                               ConversionCache.settings(null, null, new JxmlLimits()));
+  }
+
+}
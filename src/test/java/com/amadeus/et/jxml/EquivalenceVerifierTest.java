@@ -0,0 +1,209 @@
+package com.amadeus.et.jxml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXException;
+
+import static com.amadeus.et.jxml.XmlToJsonTest.readResource;
+
+class EquivalenceVerifierTest {
+
+  private static final String XML_RESOURCE_FOLDER = "xml/conversion/";
+  private static final String[] XML_RESOURCES = {
+      "xmlInputValidBasic.xml", "xmlInputValidBasicWithArray.xml", "xmlInputValidBasicWithArrayNoNamespace.xml",
+      "xmlInputValidBasicWithChild.xml", "xmlInputValidBasicWithChildren.xml", "xmlInputValidSOAPLike.xml",
+      "xmlInputValidSOAPLikeNoNamespace.xml", "xmlInputValidSpecialCharactersAndCarriageReturn.xml"};
+  private static final String RECORDS =
+      "<Records xmlns:r=\"urn:records\"><r:Header Id=\"1\">Records</r:Header>"
+      + "<Record Id=\"a\"><Name>first</Name></Record><Other/>"
+      + "<Record Id=\"b\"><Name>second</Name><Name>third</Name></Record></Records>";
+
+  @Test
+  void conversionsAreEquivalentToTheirInput()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    for (final String resource : XML_RESOURCES) {
+      final String xml = readResource(XML_RESOURCE_FOLDER + resource);
+      Assertions.assertNull(verifier.verify(xml, new XmlToJson().execute(xml)), resource);
+      Assertions.assertNull(verifier.verify(xml, new XmlToJson().execute(xml, false, "#"), false, "#"), resource);
+
+      // and both ways: the XML converted back from the json is equivalent to the json, except
+      // for escaped characters, that JsonToXml keeps escaped in the XML text
+      final String json = new XmlToJson().execute(xml);
+      if (!json.contains("\\")) {
+        Assertions.assertNull(verifier.verify(new JsonToXml().execute(json), json), resource);
+      }
+    }
+  }
+
+  @Test
+  void onlyTheOrderOfElementsOfTheSameNameIsSignificant()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    final String json = new XmlToJson().execute(RECORDS);
+
+    final String reordered = "{\"Records\":{\"Other\":{},\"Record\":[{\"_Id\":\"a\",\"Name\":[{\"__text\":\"first\"}]},"
+                             + "{\"Name\":[{\"__text\":\"second\"},{\"__text\":\"third\"}],\"_Id\":\"b\"}],"
+                             + "\"_xmlns:r\":\"urn:records\",\"r:Header\":{\"__text\":\"Records\",\"_Id\":\"1\"}}}";
+    Assertions.assertNull(verifier.verify(RECORDS, reordered));
+
+    final String swapped = json.replace("\"second\"", "\"@\"").replace("\"third\"", "\"second\"")
+        .replace("\"@\"", "\"third\"");
+    final EquivalenceVerifier.Divergence divergence = verifier.verify(RECORDS, swapped);
+    Assertions.assertEquals("/Records/Record[2]/Name[1]", divergence.getPath());
+    Assertions.assertEquals("Text is 'second' in the XML, 'third' in the json.", divergence.getMessage());
+  }
+
+  @Test
+  void firstDivergenceIsReportedWithItsPath()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    final String json = new XmlToJson().execute(RECORDS);
+
+    Assertions.assertEquals("/Records/Record[1]: Attribute '_Id' is 'a' in the XML, 'c' in the json.",
+                            verifier.verify(RECORDS, json.replace("\"a\"", "\"c\"")).toString());
+    Assertions.assertEquals("/Records/r:Header: Attribute '_Id' is '1' in the XML, missing in the json.",
+                            verifier.verify(RECORDS, json.replace("\"_Id\":\"1\",", "")).toString());
+    Assertions.assertEquals("/Records: Element 'Other' occurs 1 time(s) in the XML, 0 time(s) in the json.",
+                            verifier.verify(RECORDS, json.replace(",\"Other\":{}", "")).toString());
+    Assertions.assertEquals("/: The root element is 'Records' in the XML, 'Record' in the json.",
+                            verifier.verify(RECORDS, json.replace("{\"Records\"", "{\"Record\"")).toString());
+    Assertions.assertEquals("/Records/Record[1]/Name: Member 'Name' is neither a json object nor an array of json"
+                            + " objects.", verifier.verify(RECORDS, json.replace("{\"__text\":\"first\"}",
+                                                                                 "\"first\"")).toString());
+  }
+
+  @Test
+  void jsonOutsideTheConversionShapesDiverges()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+
+    Assertions.assertEquals("/: The json is not an object with a single root member.",
+                            verifier.verify(RECORDS, "[]").toString());
+    Assertions.assertEquals("/: The json is not an object with a single root member.",
+                            verifier.verify(RECORDS, "{}").toString());
+    Assertions.assertEquals("/: The json is not an object with a single root member.",
+                            verifier.verify("<Records/>", "{\"Records\":{},\"Other\":{}}").toString());
+    Assertions.assertThrows(IOException.class, () -> verifier.verify("<Records/>", "{\"Records\":{}} {}"));
+    Assertions.assertEquals("/: Member 'Records' is neither a json object nor an array of json objects.",
+                            verifier.verify(RECORDS, "{\"Records\":\"text\"}").toString());
+    Assertions.assertEquals("/Records/Other: Member 'Other' is neither a json object nor an array of json objects.",
+                            verifier.verify("<Records><Other/><Other/></Records>",
+                                            "{\"Records\":{\"Other\":[{},1]}}").toString());
+    Assertions.assertEquals("/Records/_Id: Member '_Id' is not a json string.",
+                            verifier.verify("<Records Id=\"1\"/>", "{\"Records\":{\"_Id\":1}}").toString());
+    Assertions.assertEquals("/Records: The element differs through duplicate json members.",
+                            verifier.verify("<Records Id=\"2\"/>",
+                                            "{\"Records\":{\"_Id\":\"1\",\"_Id\":\"2\"}}").toString());
+  }
+
+  @Test
+  void divergencesAreFoundAmongManyElementsOfTheSameName()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    final StringBuilder xml = new StringBuilder("<Records>");
+    for (int i = 1; i <= 10; i++) {
+      xml.append("<Record>").append(i).append("</Record>");
+    }
+    xml.append("</Records>");
+    final String json = new XmlToJson().execute(xml.toString());
+
+    Assertions.assertEquals("/Records/Record[9]: Text is '9' in the XML, 'nine' in the json.",
+                            verifier.verify(xml.toString(), json.replace("\"9\"", "\"nine\"")).toString());
+  }
+
+  @Test
+  void missingOrUnreadableDocumentsAreRejected() {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    final EquivalenceVerifier.Source unreadable = () -> {
+      throw new IOException("unreadable");
+    };
+
+    Assertions.assertThrows(JxmlException.class, () -> verifier.verify(source(RECORDS, new AtomicInteger()), null,
+                                                                       true, null));
+    Assertions.assertEquals("unreadable", Assertions.assertThrows(IOException.class, () -> verifier.verify(
+        source(RECORDS, new AtomicInteger()), unreadable, true, null)).getMessage());
+  }
+
+  @Test
+  void namespaceSettingsAreHonored()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    final String withoutNamespaces = new XmlToJson().execute(RECORDS, false, null);
+
+    Assertions.assertNull(verifier.verify(RECORDS, withoutNamespaces, false, null));
+    Assertions.assertEquals("/Records: Attribute '_xmlns:r' is 'urn:records' in the XML, missing in the json.",
+                            verifier.verify(RECORDS, withoutNamespaces).toString());
+
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:records", "rec");
+    final XmlToJson mapped = new XmlToJson();
+    mapped.setNamespaceMapping(mapping);
+    verifier.setNamespaceMapping(mapping);
+    Assertions.assertNull(verifier.verify(RECORDS, mapped.execute(RECORDS)));
+    Assertions.assertNull(verifier.verify(RECORDS, mapped.execute(RECORDS, false, null), false, null));
+    final String defaultNamespace = "<Records xmlns=\"urn:records\"><Record/></Records>";
+    Assertions.assertNull(verifier.verify(defaultNamespace, mapped.execute(defaultNamespace)));
+    Assertions.assertEquals("/Records: Attribute '_xmlns:r' is missing in the XML, 'urn:records' in the json.",
+                            verifier.verify(RECORDS, new XmlToJson().execute(RECORDS)).toString());
+  }
+
+  @Test
+  void sourcesAreReadOncePerPass()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    final String json = new XmlToJson().execute(RECORDS);
+    final AtomicInteger xmlPasses = new AtomicInteger();
+    final AtomicInteger jsonPasses = new AtomicInteger();
+
+    Assertions.assertNull(verifier.verify(source(RECORDS, xmlPasses), source(json, jsonPasses)));
+    Assertions.assertEquals(1, xmlPasses.get());
+    Assertions.assertEquals(1, jsonPasses.get());
+
+    // a divergence at depth 3 takes 1 + 3 passes
+    xmlPasses.set(0);
+    jsonPasses.set(0);
+    Assertions.assertEquals("/Records/Record[2]/Name[1]: Text is 'second' in the XML, 'other' in the json.",
+                            verifier.verify(source(RECORDS, xmlPasses),
+                                            source(json.replace("\"second\"", "\"other\""), jsonPasses)).toString());
+    Assertions.assertEquals(4, xmlPasses.get());
+    Assertions.assertEquals(4, jsonPasses.get());
+
+    Assertions.assertNull(verifier.verify(source(RECORDS, xmlPasses),
+                                          source(new XmlToJson().execute(RECORDS, false, "#"), jsonPasses),
+                                          false, "#"));
+  }
+
+  @Test
+  void limitsAreChecked() {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(2);
+    final EquivalenceVerifier verifier = new EquivalenceVerifier();
+    verifier.setLimits(limits);
+
+    Assertions.assertThrows(JxmlException.class, () -> verifier.verify(RECORDS, "{\"Records\":{}}"));
+    Assertions.assertThrows(JxmlException.class,
+                            () -> verifier.verify("<Records/>", "{\"Records\":{\"a\":{\"b\":{}}}}"));
+
+    limits.setMaxDepth(JxmlLimits.DEFAULT_MAX_DEPTH);
+    limits.setMaxDocumentSize(RECORDS.length() - 1);
+    Assertions.assertThrows(JxmlException.class, () -> verifier.verify(source(RECORDS, new AtomicInteger()),
+                                                                       source("{\"Records\":{}}", new AtomicInteger())));
+  }
+
+  private static EquivalenceVerifier.Source source(final String document, final AtomicInteger passes) {
+    return () -> {
+      passes.incrementAndGet();
+      return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+    };
+  }
+
+}
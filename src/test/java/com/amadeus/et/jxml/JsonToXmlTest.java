@@ -2,29 +2,64 @@ package com.amadeus.et.jxml;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.function.Consumer;
 
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
 
 import static com.amadeus.et.jxml.XmlToJsonTest.readResource;
 
@@ -172,6 +207,107 @@ public class JsonToXmlTest {
         exception.getMessage());
   }
 
+  @Test
+  void everyEntryPointChecksItsArguments() {
+    final String json = "{\"Example\":{\"_a\":\"Value\"}}";
+    final JsonElement tree = JsonParser.parseString(json);
+
+    for (final Executable entryPoint : new Executable[] {
+        () -> jsonToXmlconverter.execute((StringReader) null, new StringWriter(), true, null),
+        () -> jsonToXmlconverter.execute(new StringReader(json), new StringWriter(), true, "S"),
+        () -> jsonToXmlconverter.execute((ByteArrayInputStream) null, new StringWriter(), true, null),
+        () -> jsonToXmlconverter.toDocument(null, true, null),
+        () -> jsonToXmlconverter.toDocument(tree, true, "S"),
+        () -> jsonToXmlconverter.newXmlReader(true, "S"),
+        () -> jsonToXmlconverter.newXmlStreamReader(null, true, null),
+        () -> jsonToXmlconverter.newXmlStreamReader(new StringReader(json), true, "S"),
+        () -> jsonToXmlconverter.executeAsync(chunk -> { }, Runnable::run, true, "S")}) {
+      Assertions.assertThrows(JxmlException.class, entryPoint);
+    }
+  }
+
+  @Test
+  void deepDocumentSerializationFailuresReachTheCaller() throws JxmlException, ParserConfigurationException,
+                                                                TransformerException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(5000);
+    jsonToXmlconverter.setLimits(limits);
+    final StringBuilder json = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      json.append("{\"a\":");
+    }
+    json.append("{}");
+    for (int i = 0; i < 2000; i++) {
+      json.append('}');
+    }
+    final JsonElement tree = JsonParser.parseString(json.toString());
+    final Writer failing = new Writer() {
+      @Override
+      public void write(final char[] buffer, final int offset, final int length) throws IOException {
+        throw new IOException("failed");
+      }
+
+      @Override
+      public void flush() {
+        // nothing to flush
+      }
+
+      @Override
+      public void close() {
+        // nothing to close
+      }
+    };
+
+    Assertions.assertThrows(TransformerException.class,
+                            () -> jsonToXmlconverter.transform(tree, new StreamResult(failing)));
+    Assertions.assertThrows(TransformerException.class, () -> jsonToXmlconverter.transform(
+        tree, new SAXResult(new DefaultHandler() {
+          @Override
+          public void startElement(final String uri, final String localName, final String qName,
+                                   final Attributes attributes) {
+            throw new IllegalStateException("failed");
+          }
+        })));
+    Assertions.assertThrows(AssertionError.class, () -> jsonToXmlconverter.transform(
+        tree, new SAXResult(new DefaultHandler() {
+          @Override
+          public void startElement(final String uri, final String localName, final String qName,
+                                   final Attributes attributes) {
+            throw new AssertionError("failed");
+          }
+        })));
+
+    // the serialization runs to its end, the interruption being kept
+    Thread.currentThread().interrupt();
+    final DOMResult result = new DOMResult();
+    jsonToXmlconverter.transform(tree, result);
+    Assertions.assertTrue(Thread.interrupted());
+    Assertions.assertEquals("a", result.getNode().getFirstChild().getNodeName());
+  }
+
+  @Test
+  void sizeCheckingStreamsCountEveryRead() throws IOException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDocumentSize(3);
+
+    try (Reader reader = new JsonToXml.SizeCheckingReader(new StringReader("abcd"), limits)) {
+      Assertions.assertEquals('a', reader.read());
+      Assertions.assertEquals(2, reader.skip(2));
+      Assertions.assertThrows(IOException.class, reader::read);
+    }
+    try (Reader reader = new JsonToXml.SizeCheckingReader(new StringReader(""), limits)) {
+      Assertions.assertEquals(-1, reader.read());
+    }
+    try (InputStream input = new SizeCheckingInputStream(new ByteArrayInputStream(new byte[4]), limits)) {
+      Assertions.assertEquals(0, input.read());
+      Assertions.assertEquals(2, input.skip(2));
+      Assertions.assertThrows(IOException.class, input::read);
+    }
+    try (InputStream input = new SizeCheckingInputStream(new ByteArrayInputStream(new byte[0]), limits)) {
+      Assertions.assertEquals(-1, input.read());
+    }
+  }
+
   @Test
   void emptyJsonShouldRaiseError() {
     final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
@@ -199,6 +335,486 @@ public class JsonToXmlTest {
     compareExpectedAndObtained(expectedXML, jsonToXML);
   }
 
+  @Test
+  void numbersKeepTheirLexicalForm() throws JxmlException {
+    final String json = "{\"Element\":{\"_a\":1e3,\"Child\":{\"__text\":-2.0000}}}";
+    final JsonElement tree = JsonTreeReader.read(json, new JxmlLimits(), "_");
+
+    Assertions.assertEquals(JsonParser.parseString(json), tree);
+    Assertions.assertEquals("1e3", tree.getAsJsonObject().getAsJsonObject("Element").get("_a").getAsString());
+    Assertions.assertEquals(json, tree.toString());
+  }
+
+  @Test
+  void jsonTreeReaderReadsAnyJsonValue() throws JxmlException {
+    for (final String json : new String[] {"1", "\"text\"", "true", "[1,true,null,{\"a\":[[]]}]",
+                                           "{\"a\":{\"b\":false,\"c\":null,\"d\":[1.50,\"e\"]}}"}) {
+      Assertions.assertEquals(JsonParser.parseString(json), JsonTreeReader.read(json, new JxmlLimits(), "_"), json);
+    }
+    Assertions.assertTrue(JsonTreeReader.read("", new JxmlLimits(), "_").isJsonNull());
+    Assertions.assertThrows(JsonSyntaxException.class, () -> JsonTreeReader.read("{} {}", new JxmlLimits(), "_"));
+  }
+
+  @Test
+  void veryDeepJsonIsRejected() {
+    final StringBuilder json = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      json.append("{\"a\":");
+    }
+    json.append("{}");
+    for (int i = 0; i < 20000; i++) {
+      json.append("}");
+    }
+
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+        jsonToXmlconverter.execute(json.toString()));
+    Assertions.assertEquals(
+        "Document nesting depth exceeds the maximum allowed depth of 1000.",
+        exception.getMessage());
+  }
+
+  @Test
+  void raisedMaxDepthConvertsDeepJsonOnASmallStack() throws InterruptedException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(50000);
+    jsonToXmlconverter.setLimits(limits);
+    final StringBuilder json = new StringBuilder();
+    final StringBuilder expectedXml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    for (int i = 0; i < 5000; i++) {
+      json.append("{\"a\":");
+      expectedXml.append("<a>");
+    }
+    json.append("{\"__text\":\"x\"}");
+    expectedXml.append('x');
+    for (int i = 0; i < 5000; i++) {
+      json.append('}');
+      expectedXml.append("</a>");
+    }
+
+    final Object[] xml = new Object[1];
+    // the identity transformer recurses over the DOM, and overflows this stack at a few hundred levels
+    final Thread thread = new Thread(null, () -> {
+      try {
+        xml[0] = jsonToXmlconverter.execute(json.toString());
+      } catch (final Exception | StackOverflowError e) {
+        xml[0] = e;
+      }
+    }, "small-stack", 256 << 10);
+    thread.start();
+    thread.join();
+    Assertions.assertEquals(expectedXml.toString(), xml[0]);
+  }
+
+  @Test
+  void maxDepthCountsElementsNotArrays() throws IOException, ParserConfigurationException, SAXException,
+                                                TransformerException, JxmlException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(3);
+    jsonToXmlconverter.setLimits(limits);
+
+    final String jsonToXML = jsonToXmlconverter.execute("{\"A\":{\"B\":[{\"C\":{}},{\"C\":{}}]}}");
+    compareExpectedAndObtained("<A><B><C/></B><B><C/></B></A>", jsonToXML);
+
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+        jsonToXmlconverter.execute("{\"A\":{\"B\":[{\"C\":{\"D\":{}}}]}}"));
+    Assertions.assertEquals(
+        "Document nesting depth exceeds the maximum allowed depth of 3.",
+        exception.getMessage());
+  }
+  @Test
+  void limitsAreEnforcedWhileParsing() {
+    final String json = "{\"Root\":{\"_a\":\"1\",\"_b\":\"2\",\"T1\":{\"T2\":[{\"__text\":\"Ciccio1\"},"
+        + "{\"__text\":\"Ciccio2\"}]},\"Other\":{}}}";
+    assertLimitExceeded(json, limits -> limits.setMaxDocumentSize(json.length() - 1),
+                        "Document size exceeds the maximum allowed size of " + (json.length() - 1) + ".");
+    assertLimitExceeded(json, limits -> limits.setMaxElementCount(4),
+                        "Document element count exceeds the maximum allowed count of 4.");
+    assertLimitExceeded(json, limits -> limits.setMaxAttributeCount(1),
+                        "Element attribute count exceeds the maximum allowed count of 1.");
+    assertLimitExceeded(json, limits -> limits.setMaxTextLength(6),
+                        "Text length exceeds the maximum allowed length of 6.");
+    assertLimitExceeded(json, limits -> limits.setMaxNameLength(4),
+                        "Name length exceeds the maximum allowed length of 4.");
+    assertLimitExceeded(json, limits -> limits.setMaxArrayLength(1),
+                        "Array length exceeds the maximum allowed length of 1.");
+  }
+
+  @Test
+  void namespaceAwareRoundTrip() throws IOException, ParserConfigurationException, SAXException, JxmlException,
+                                        TransformerException {
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("http://schemas.xmltest.org/test/ext/", "ext");
+    mapping.map("http://schemas.xmltest.org/test/in/", "in");
+    xmlToJsonConverter.setNamespaceMapping(mapping);
+    jsonToXmlconverter.setNamespaceMapping(mapping);
+    final String xmlFileName = "xmlInputValidBasicWithChild.xml";
+
+    final String xmlToJson = xmlToJsonConverter.execute(getXmlFileContentAsString(xmlFileName));
+    final String jsonToXML = jsonToXmlconverter.execute(xmlToJson);
+
+    compareExpectedAndObtained(getXmlFileContentAsString(xmlFileName), jsonToXML);
+  }
+
+  @Test
+  void namespaceAwareModeDeclaresMappedNamespaces() throws IOException, ParserConfigurationException, SAXException,
+                                                           JxmlException, TransformerException {
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:env", "env");
+    mapping.map("urn:tx", "tx");
+    jsonToXmlconverter.setNamespaceMapping(mapping);
+
+    final String jsonToXML = jsonToXmlconverter.execute(
+        "{\"env:Envelope\":{\"tx:Trans\":{\"_tx:id\":\"1\",\"_href\":\"http://www.amadeus.com\",\"__text\":\"a\"}}}");
+
+    compareExpectedAndObtained("<env:Envelope xmlns:env=\"urn:env\"><tx:Trans xmlns:tx=\"urn:tx\" "
+                               + "href=\"http://www.amadeus.com\" tx:id=\"1\">a</tx:Trans></env:Envelope>", jsonToXML);
+  }
+
+  @Test
+  void namespaceAwareModeWithoutNamespacesDropsDeclarationsOnly() throws IOException, ParserConfigurationException,
+                                                                         SAXException, JxmlException,
+                                                                         TransformerException {
+    jsonToXmlconverter.setNamespaceMapping(new NamespaceMapping());
+
+    final String jsonToXML = jsonToXmlconverter.execute(
+        "{\"a:Link\":{\"_xmlns:a\":\"urn:a\",\"_href\":\"http://www.amadeus.com\",\"_x:type\":\"external\"}}", false);
+
+    compareExpectedAndObtained("<Link href=\"http://www.amadeus.com\" type=\"external\"/>", jsonToXML);
+  }
+
+  @Test
+  void jsonTreeIsConvertedWithoutSerialization() throws IOException, ParserConfigurationException, SAXException,
+                                                        JxmlException, TransformerException {
+    final String json = xmlToJsonConverter.execute(getXmlFileContentAsString("xmlInputValidSOAPLike.xml"));
+    final JsonElement tree = xmlToJsonConverter.toJsonTree(getXmlFileContentAsString("xmlInputValidSOAPLike.xml"));
+    final String expectedXML = jsonToXmlconverter.execute(json);
+
+    compareExpectedAndObtained(expectedXML, convertDomToString(jsonToXmlconverter.toDocument(tree)));
+    final StringWriter writer = new StringWriter();
+    jsonToXmlconverter.transform(tree, new StreamResult(writer));
+    Assertions.assertEquals(expectedXML, writer.toString());
+    final DOMResult result = new DOMResult();
+    jsonToXmlconverter.transform(tree, result, false, null);
+    compareExpectedAndObtained(jsonToXmlconverter.execute(json, false), convertDomToString((Document) result.getNode()));
+  }
+
+  @Test
+  void jsonTreeWithoutRootObjectShouldRaiseError() {
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class,
+                                                            () -> jsonToXmlconverter.toDocument(new JsonArray()));
+    Assertions.assertEquals("'json' should contain a root element to be converted to XML.", exception.getMessage());
+  }
+
+  @Test
+  void xmlReaderIsATransformerSource() throws IOException, ParserConfigurationException, SAXException,
+                                              JxmlException, TransformerException {
+    final String json = xmlToJsonConverter.execute(getXmlFileContentAsString("xmlInputValidSOAPLike.xml"));
+    final StringWriter writer = new StringWriter();
+
+    TransformerFactory.newInstance().newTransformer().transform(
+        new SAXSource(jsonToXmlconverter.newXmlReader(), new InputSource(new StringReader(json))),
+        new StreamResult(writer));
+
+    compareExpectedAndObtained(jsonToXmlconverter.execute(json), writer.toString());
+
+    final String prefixedJson = json.replace("\"_", "\"#");
+    final StringWriter prefixedWriter = new StringWriter();
+    TransformerFactory.newInstance().newTransformer().transform(
+        new SAXSource(jsonToXmlconverter.newXmlReader(false, "#"), new InputSource(new StringReader(prefixedJson))),
+        new StreamResult(prefixedWriter));
+
+    compareExpectedAndObtained(jsonToXmlconverter.execute(prefixedJson, false, "#"), prefixedWriter.toString());
+  }
+
+  @Test
+  void namespaceAwareXmlReaderReportsNamespaces() throws IOException, ParserConfigurationException, SAXException,
+                                                         JxmlException, TransformerException {
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:env", "env");
+    jsonToXmlconverter.setNamespaceMapping(mapping);
+    final DOMResult result = new DOMResult();
+
+    TransformerFactory.newInstance().newTransformer().transform(
+        new SAXSource(jsonToXmlconverter.newXmlReader(), new InputSource(new StringReader(
+            "{\"env:Envelope\":{\"_xmlns:a\":\"urn:a\",\"a:Body\":{\"_a:id\":\"1\",\"__text\":\"b\"}}}"))),
+        result);
+
+    final Element root = ((Document) result.getNode()).getDocumentElement();
+    Assertions.assertEquals("urn:env", root.getNamespaceURI());
+    final Element body = (Element) root.getFirstChild();
+    Assertions.assertEquals("urn:a", body.getNamespaceURI());
+    Assertions.assertEquals("Body", body.getLocalName());
+    Assertions.assertEquals("1", body.getAttributeNS("urn:a", "id"));
+    Assertions.assertEquals("b", body.getTextContent());
+  }
+
+  @Test
+  void xmlReaderAnswersTheSaxApi(@TempDir final Path directory) throws IOException, SAXException, JxmlException {
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:env", "env");
+    jsonToXmlconverter.setNamespaceMapping(mapping);
+    final String json = "{\"env:Envelope\":{\"_xmlns:a\":\"urn:a\",\"a:Body\":{\"__text\":\"\u00e9t\u00e9\"}}}";
+    final XMLReader reader = jsonToXmlconverter.newXmlReader();
+    final StringBuilder events = new StringBuilder();
+    final DefaultHandler handler = new DefaultHandler() {
+      @Override
+      public void startElement(final String uri, final String localName, final String qName,
+                               final Attributes attributes) {
+        events.append('<').append(qName);
+        for (int i = 0; i < attributes.getLength(); i++) {
+          events.append(' ').append(attributes.getQName(i));
+        }
+        events.append('>');
+      }
+
+      @Override
+      public void characters(final char[] ch, final int start, final int length) {
+        events.append(ch, start, length);
+      }
+    };
+
+    Assertions.assertTrue(reader.getFeature("http://xml.org/sax/features/namespaces"));
+    Assertions.assertFalse(reader.getFeature("http://xml.org/sax/features/namespace-prefixes"));
+    Assertions.assertThrows(SAXNotSupportedException.class,
+                            () -> reader.setFeature("http://xml.org/sax/features/namespaces", false));
+    Assertions.assertThrows(SAXNotRecognizedException.class, () -> reader.setFeature("feature", true));
+    Assertions.assertThrows(SAXNotRecognizedException.class, () -> reader.getFeature("feature"));
+    Assertions.assertThrows(SAXNotRecognizedException.class, () -> reader.setProperty("property", handler));
+    Assertions.assertThrows(SAXNotRecognizedException.class, () -> reader.getProperty("property"));
+    reader.setEntityResolver(handler);
+    reader.setDTDHandler(handler);
+    reader.setErrorHandler(handler);
+    Assertions.assertSame(handler, reader.getEntityResolver());
+    Assertions.assertSame(handler, reader.getDTDHandler());
+    Assertions.assertSame(handler, reader.getErrorHandler());
+    // without content handler, the json is only checked
+    reader.parse(new InputSource(new StringReader(json)));
+    Assertions.assertThrows(SAXException.class, () -> reader.parse(new InputSource(new StringReader("{\"a\":1"))));
+
+    reader.setContentHandler(handler);
+    reader.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+    Assertions.assertSame(handler, reader.getContentHandler());
+    Assertions.assertTrue(reader.getFeature("http://xml.org/sax/features/namespace-prefixes"));
+    final Path file = directory.resolve("document.json");
+    Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+    reader.parse(file.toUri().toString());
+    final InputSource utf16 = new InputSource(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_16)));
+    utf16.setEncoding("UTF-16");
+    reader.parse(utf16);
+
+    final String expected = "<env:Envelope xmlns:a xmlns:env><a:Body>\u00e9t\u00e9";
+    Assertions.assertEquals(expected + expected, events.toString());
+  }
+
+  @Test
+  void xmlStreamReaderIsATransformerSource() throws IOException, ParserConfigurationException, SAXException,
+                                                    JxmlException, TransformerException {
+    final String json = xmlToJsonConverter.execute(getXmlFileContentAsString("xmlInputValidSOAPLike.xml"));
+    final StringWriter writer = new StringWriter();
+
+    TransformerFactory.newInstance().newTransformer().transform(
+        new StAXSource(jsonToXmlconverter.newXmlStreamReader(new StringReader(json), false, null)),
+        new StreamResult(writer));
+
+    compareExpectedAndObtained(jsonToXmlconverter.execute(json, false), writer.toString());
+  }
+
+  @Test
+  void xmlStreamReaderResolvesTheJsonNames() throws JxmlException, XMLStreamException {
+    final String[] jsons = {"{\"p:Root\":{\"_p:a\":\"1\",\"__text\":\"\"}}",
+        "{\"Root\":{\"_a:id\":\"1\",\"_xmlns:x\":\"urn:x\",\"_x:y\":\"2\",\"Child\":{\"_a:id\":\"3\"}}}",
+        "{\"a:Root\":{\"_xmlns:a\":\"urn:other\",\"_a:x\":\"1\"}}"};
+    // undeclared prefixes are kept in the names, as with a non namespace-aware parser
+    final String[] withoutMapping = {"<p:Root p:a=1>", "<Root>",
+        "<Root xmlns:x=urn:x a:id=1 {urn:x}y=2><Child a:id=3>", "<Root><Child>",
+        "<{urn:other}Root xmlns:a=urn:other {urn:other}x=1>", "<Root>"};
+    // mapped prefixes are declared where used, and win over the declarations of the json
+    final String[] withMapping = {"<p:Root p:a=1>", "<Root a=1>",
+        "<Root xmlns:a=urn:a xmlns:x=urn:x {urn:a}id=1 {urn:x}y=2><Child {urn:a}id=3>", "<Root id=1 y=2><Child id=3>",
+        "<{urn:a}Root xmlns:a=urn:a {urn:a}x=1>", "<Root x=1>"};
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:a", "a");
+
+    for (int i = 0; i < jsons.length; i++) {
+      for (int j = 0; j < 2; j++) {
+        jsonToXmlconverter.setNamespaceMapping(null);
+        Assertions.assertEquals(withoutMapping[2 * i + j], events(
+            jsonToXmlconverter.newXmlStreamReader(new StringReader(jsons[i]), j == 0, null)), jsons[i]);
+        jsonToXmlconverter.setNamespaceMapping(mapping);
+        Assertions.assertEquals(withMapping[2 * i + j], events(
+            jsonToXmlconverter.newXmlStreamReader(new StringReader(jsons[i]), j == 0, null)), jsons[i]);
+      }
+    }
+  }
+
+  @Test
+  void xmlStreamReaderAnswersTheStaxApi() throws JxmlException, XMLStreamException {
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:env", "env");
+    jsonToXmlconverter.setNamespaceMapping(mapping);
+    final XMLStreamReader reader = jsonToXmlconverter.newXmlStreamReader(new StringReader(
+        "{\"env:Envelope\":{\"_xmlns:a\":\"urn:a\",\"_id\":\"7\",\"a:Body\":{\"_a:id\":\"1\",\"__text\":\"b\"},"
+        + "\"T\":{\"__text\":\"x\"}}}"));
+
+    Assertions.assertEquals(XMLStreamConstants.START_DOCUMENT, reader.getEventType());
+    Assertions.assertNull(reader.getProperty("property"));
+    Assertions.assertNull(reader.getEncoding());
+    Assertions.assertNull(reader.getVersion());
+    Assertions.assertNull(reader.getCharacterEncodingScheme());
+    Assertions.assertFalse(reader.isStandalone() || reader.standaloneSet());
+    Assertions.assertNull(reader.getPITarget());
+    Assertions.assertNull(reader.getPIData());
+    final Location location = reader.getLocation();
+    Assertions.assertEquals(-1, location.getLineNumber());
+    Assertions.assertEquals(-1, location.getColumnNumber());
+    Assertions.assertEquals(-1, location.getCharacterOffset());
+    Assertions.assertNull(location.getPublicId());
+    Assertions.assertNull(location.getSystemId());
+    Assertions.assertNull(reader.getNamespaceURI());
+    Assertions.assertFalse(reader.hasText());
+    Assertions.assertThrows(IllegalStateException.class, reader::getText);
+    Assertions.assertThrows(IllegalStateException.class, reader::getName);
+    Assertions.assertThrows(IllegalStateException.class, reader::getAttributeCount);
+
+    Assertions.assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+    reader.require(XMLStreamConstants.START_ELEMENT, "urn:env", "Envelope");
+    Assertions.assertEquals("env", reader.getPrefix());
+    final Map<String, String> declarations = new HashMap<>();
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      declarations.put(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+    }
+    Assertions.assertEquals("urn:a", declarations.get("a"));
+    Assertions.assertEquals("urn:env", declarations.get("env"));
+    Assertions.assertEquals(1, reader.getAttributeCount());
+    Assertions.assertEquals(new QName("id"), reader.getAttributeName(0));
+    Assertions.assertNull(reader.getAttributeNamespace(0));
+    Assertions.assertEquals("id", reader.getAttributeLocalName(0));
+    Assertions.assertEquals("", reader.getAttributePrefix(0));
+    Assertions.assertEquals("CDATA", reader.getAttributeType(0));
+    Assertions.assertEquals("7", reader.getAttributeValue(0));
+    Assertions.assertTrue(reader.isAttributeSpecified(0));
+    Assertions.assertEquals("7", reader.getAttributeValue(null, "id"));
+    Assertions.assertNull(reader.getAttributeValue("urn:a", "id"));
+    Assertions.assertEquals("urn:a", reader.getNamespaceURI("a"));
+    final NamespaceContext context = reader.getNamespaceContext();
+    Assertions.assertEquals("urn:a", context.getNamespaceURI("a"));
+    Assertions.assertEquals("", context.getNamespaceURI("none"));
+    Assertions.assertEquals("a", context.getPrefix("urn:a"));
+    Assertions.assertNull(context.getPrefix("urn:none"));
+    Assertions.assertThrows(XMLStreamException.class,
+                            () -> reader.require(XMLStreamConstants.START_ELEMENT, "urn:a", "Envelope"));
+    Assertions.assertThrows(XMLStreamException.class,
+                            () -> reader.require(XMLStreamConstants.START_ELEMENT, null, "Body"));
+
+    Assertions.assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+    Assertions.assertEquals("urn:a", reader.getNamespaceURI());
+    Assertions.assertEquals("1", reader.getAttributeValue("urn:a", "id"));
+    Assertions.assertEquals(XMLStreamConstants.CHARACTERS, reader.next());
+    Assertions.assertTrue(reader.hasText());
+    Assertions.assertFalse(reader.isWhiteSpace());
+    Assertions.assertEquals('b', reader.getTextCharacters()[0]);
+    Assertions.assertEquals(0, reader.getTextStart());
+    Assertions.assertEquals(1, reader.getTextLength());
+    final char[] target = new char[4];
+    Assertions.assertEquals(1, reader.getTextCharacters(0, target, 2, 4));
+    Assertions.assertEquals('b', target[2]);
+    Assertions.assertEquals(XMLStreamConstants.END_ELEMENT, reader.nextTag());
+    Assertions.assertEquals("Body", reader.getLocalName());
+
+    Assertions.assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+    Assertions.assertEquals("x", reader.getElementText());
+    Assertions.assertTrue(reader.isEndElement());
+    Assertions.assertEquals(XMLStreamConstants.END_ELEMENT, reader.nextTag());
+    Assertions.assertEquals(XMLStreamConstants.END_DOCUMENT, reader.next());
+    Assertions.assertFalse(reader.hasNext());
+    Assertions.assertThrows(NoSuchElementException.class, reader::next);
+    reader.close();
+  }
+
+  @Test
+  void xmlStreamReaderReportsTheDefaultNamespace() throws JxmlException, XMLStreamException {
+    final XMLStreamReader reader = jsonToXmlconverter.newXmlStreamReader(new StringReader(
+        "{\"Root\":{\"_xmlns\":\"urn:d\",\"__text\":\" \",\"Child\":{}}}"));
+
+    Assertions.assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+    Assertions.assertEquals(1, reader.getNamespaceCount());
+    Assertions.assertNull(reader.getNamespacePrefix(0));
+    Assertions.assertEquals("urn:d", reader.getNamespaceURI(0));
+    Assertions.assertEquals("", reader.getNamespaceContext().getPrefix("urn:d"));
+    Assertions.assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+    Assertions.assertEquals(new QName("urn:d", "Child"), reader.getName());
+  }
+
+  @Test
+  void xmlStreamReaderRejectsUnexpectedEvents() throws JxmlException, XMLStreamException {
+    final String json = "{\"Root\":{\"__text\":\"x\",\"Child\":{}}}";
+
+    final XMLStreamReader tagReader = jsonToXmlconverter.newXmlStreamReader(new StringReader(json));
+    tagReader.nextTag();
+    Assertions.assertEquals("Unexpected event 4.",
+                            Assertions.assertThrows(XMLStreamException.class, tagReader::nextTag).getMessage());
+    final XMLStreamReader textReader = jsonToXmlconverter.newXmlStreamReader(new StringReader(json));
+    textReader.nextTag();
+    Assertions.assertEquals("Unexpected event 1.",
+                            Assertions.assertThrows(XMLStreamException.class, textReader::getElementText).getMessage());
+    final XMLStreamReader unexpectedReader = jsonToXmlconverter.newXmlStreamReader(
+        new StringReader("{\"Root\":{\"A\":\"text\"}}"));
+    Assertions.assertThrows(XMLStreamException.class, () -> {
+      while (unexpectedReader.hasNext()) {
+        unexpectedReader.next();
+      }
+    });
+  }
+
+  @Test
+  void streamedJsonSizeIsCheckedInBytesAndReaderSizeInCharacters() throws IOException, ParserConfigurationException,
+                                                                        SAXException, JxmlException,
+                                                                        TransformerException {
+    final String json = "{\"Root\":{\"_a\":\"\u00e9t\u00e9\",\"T\":{\"__text\":\"caf\u00e9\"}}}";
+    final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    final StringWriter fromStream = new StringWriter();
+    jsonToXmlconverter.execute(new ByteArrayInputStream(bytes), fromStream);
+    final StringWriter fromReader = new StringWriter();
+    jsonToXmlconverter.execute(new StringReader(json), fromReader);
+    compareExpectedAndObtained(jsonToXmlconverter.execute(json), fromStream.toString());
+    compareExpectedAndObtained(jsonToXmlconverter.execute(json), fromReader.toString());
+
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDocumentSize(json.length());
+    jsonToXmlconverter.setLimits(limits);
+    jsonToXmlconverter.execute(new StringReader(json), new StringWriter());
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+        jsonToXmlconverter.execute(new ByteArrayInputStream(bytes), new StringWriter()));
+    Assertions.assertEquals("Document size exceeds the maximum allowed size of " + json.length() + ".",
+                            exception.getMessage());
+  }
+
+  private static String events(final XMLStreamReader reader) throws XMLStreamException {
+    final StringBuilder events = new StringBuilder();
+    while (reader.hasNext()) {
+      if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+        events.append('<').append(reader.getName());
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+          events.append(" xmlns:").append(reader.getNamespacePrefix(i)).append('=').append(reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+          events.append(' ').append(reader.getAttributeName(i)).append('=').append(reader.getAttributeValue(i));
+        }
+        events.append('>');
+      } else if (reader.getEventType() == XMLStreamConstants.CHARACTERS) {
+        events.append(reader.getText());
+      }
+    }
+    return events.toString();
+  }
+
+  private void assertLimitExceeded(final String json, final Consumer<JxmlLimits> limit, final String expectedMessage) {
+    final JxmlLimits limits = new JxmlLimits();
+    limit.accept(limits);
+    jsonToXmlconverter.setLimits(limits);
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () -> jsonToXmlconverter.execute(json));
+    Assertions.assertEquals(expectedMessage, exception.getMessage());
+  }
 
   private void compareExpectedAndObtained(final String expectedXML, final String obtainedXML)
       throws ParserConfigurationException, SAXException, IOException, TransformerException {
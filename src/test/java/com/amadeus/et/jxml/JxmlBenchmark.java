@@ -0,0 +1,160 @@
+package com.amadeus.et.jxml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A benchmark of the conversion of generated documents with the byte tokenizer, the hot path
+ * of the multi-release jar, reporting the implementations in use, the time per conversion,
+ * the throughput and a hash of the json, equal whichever the implementations:
+ *
+ * <pre>
+ * java -cp jxml.jar:target/test-classes com.amadeus.et.jxml.JxmlBenchmark [--size bytes] [--iterations count] [--compare]
+ * </pre>
+ *
+ * <p>With --compare, the benchmark runs twice in forked virtual machines of the same runtime,
+ * first on the Java 8 baseline, the jar being read with jdk.util.jar.enableMultiRelease=false,
+ * then on the versions of the jar for the runtime. The versions are only used when the classes
+ * are loaded from the jar, not from a directory. The benchmark is part of the test sources only,
+ * not of the jar.
+ */
+public final class JxmlBenchmark {
+
+  private static final int DEFAULT_SIZE = 1 << 20;
+  private static final int DEFAULT_ITERATIONS = 50;
+  private static final String MULTI_RELEASE_PROPERTY = "jdk.util.jar.enableMultiRelease";
+  private static final String[] WORDS = {
+      "flight", "departure", "arrival", "Nice", "Madrid", "Bangalore", "passenger", "fare", "seat", "baggage"};
+
+  private JxmlBenchmark() {}
+
+  public static void main(final String[] args)
+      throws IOException, InterruptedException, JxmlException, ParserConfigurationException, SAXException {
+    int size = DEFAULT_SIZE;
+    int iterations = DEFAULT_ITERATIONS;
+    boolean compare = false;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--size":
+          size = Integer.parseInt(args[++i]);
+          break;
+        case "--iterations":
+          iterations = Integer.parseInt(args[++i]);
+          break;
+        case "--compare":
+          compare = true;
+          break;
+        default:
+          System.err.println("Usage: java -cp jxml.jar:target/test-classes com.amadeus.et.jxml.JxmlBenchmark"
+                             + " [--size bytes] [--iterations count] [--compare]");
+          System.exit(JxmlCli.EXIT_USAGE);
+      }
+    }
+    if (compare) {
+      final boolean succeeded = fork(size, iterations, false) && fork(size, iterations, true);
+      System.exit(succeeded ? JxmlCli.EXIT_SUCCESS : JxmlCli.EXIT_FAILURE);
+    }
+    run(System.out, size, iterations);
+  }
+
+  /**
+   * Converts each generated document the given number of times, after as many warm-up
+   * conversions, and prints the results.
+   */
+  static void run(final PrintStream out, final int size, final int iterations)
+      throws JxmlException, ParserConfigurationException, SAXException, IOException {
+    out.println("Java " + System.getProperty("java.version") + ", byte scanning: " + ByteScanner.implementation()
+                + ", virtual threads: " + VirtualThreads.implementation());
+    final XmlToJson converter = new XmlToJson();
+    converter.setByteTokenizer(true);
+    final String[] names = {"text", "indentation", "attributes"};
+    final byte[][] documents = {textDocument(size), indentedDocument(size), attributeDocument(size)};
+    for (int d = 0; d < documents.length; d++) {
+      String json = null;
+      for (int i = 0; i < iterations; i++) {
+        json = converter.execute(documents[d], true, null);
+      }
+      final long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        json = converter.execute(documents[d], true, null);
+      }
+      final double millis = (System.nanoTime() - start) / 1e6 / iterations;
+      out.printf("%-12s %8.3f ms/op %9.1f MB/s   json hash %08x%n", names[d], millis,
+                 documents[d].length / 1e6 / (millis / 1e3), json.hashCode());
+    }
+  }
+
+  /*
+   * Runs the benchmark in a virtual machine of the same runtime and class path.
+   */
+  private static boolean fork(final int size, final int iterations, final boolean multiRelease)
+      throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.add("-D" + MULTI_RELEASE_PROPERTY + '=' + multiRelease);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(JxmlBenchmark.class.getName());
+    command.add("--size");
+    command.add(Integer.toString(size));
+    command.add("--iterations");
+    command.add(Integer.toString(iterations));
+    return new ProcessBuilder(command).inheritIO().start().waitFor() == 0;
+  }
+
+  /**
+   * Returns a document of long text contents, with line feeds and tabs to normalize.
+   */
+  static byte[] textDocument(final int size) {
+    final StringBuilder xml = new StringBuilder(size + 256).append("<Texts>");
+    for (int n = 0; xml.length() < size; n++) {
+      xml.append("<Text>");
+      for (int w = 0; w < 40; w++) {
+        xml.append(WORDS[(n + w) % WORDS.length]).append(w % 10 == 9 ? "\n\t" : " ");
+      }
+      xml.append("</Text>");
+    }
+    return xml.append("</Texts>").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns a deep, pretty-printed document of short text contents, mostly indentation.
+   */
+  static byte[] indentedDocument(final int size) {
+    final StringBuilder xml = new StringBuilder(size + 256).append("<Flights>\n");
+    for (int n = 0; xml.length() < size; n++) {
+      xml.append("    <Flight>\n");
+      xml.append("        <Segment>\n");
+      xml.append("            <From>").append(WORDS[3 + n % 3]).append("</From>\n");
+      xml.append("            <To>").append(WORDS[3 + (n + 1) % 3]).append("</To>\n");
+      xml.append("            <Number>").append(n).append("</Number>\n");
+      xml.append("        </Segment>\n");
+      xml.append("    </Flight>\n");
+    }
+    return xml.append("</Flights>\n").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns a document of empty elements of several long attribute values.
+   */
+  static byte[] attributeDocument(final int size) {
+    final StringBuilder xml = new StringBuilder(size + 256).append("<Passengers>");
+    for (int n = 0; xml.length() < size; n++) {
+      xml.append("<Passenger Id=\"").append(n)
+          .append("\" Name=\"").append(WORDS[n % WORDS.length]).append(" passenger of the ")
+          .append(WORDS[(n + 1) % WORDS.length]).append(" and the ").append(WORDS[(n + 2) % WORDS.length])
+          .append("\" Remark=\"checked in online, seat by the window, one ").append(WORDS[9])
+          .append(" of twenty kilograms\"/>");
+    }
+    return xml.append("</Passengers>").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+}
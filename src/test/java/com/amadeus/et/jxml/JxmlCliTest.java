@@ -0,0 +1,196 @@
+package com.amadeus.et.jxml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXException;
+
+import static com.amadeus.et.jxml.XmlToJsonTest.readResource;
+
+class JxmlCliTest {
+
+  private static final String XML_RESOURCE_FOLDER = "xml/conversion/";
+  private static final String XML_RESOURCE = XML_RESOURCE_FOLDER + "xmlInputValidSOAPLike.xml";
+
+  private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+  @Test
+  void directoryTreesAreMirroredInTheOutputDirectory(@TempDir final Path directory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final String xml = readResource(XML_RESOURCE);
+    final Path input = directory.resolve("in");
+    Files.createDirectories(input.resolve("a/b"));
+    write(input.resolve("first.xml"), xml);
+    write(input.resolve("a/b/second.xml"), "<root><x>1</x><x>2</x></root>");
+    write(input.resolve("a/ignored.txt"), "<root/>");
+    final Path output = directory.resolve("out");
+
+    final int status = run("xml2json", "--threads", "2", "-o", output.toString(), input.toString());
+
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, status, stderr.toString());
+    Assertions.assertEquals(new XmlToJson().execute(xml), read(output.resolve("first.json")));
+    Assertions.assertEquals("{\"root\":{\"x\":[{\"__text\":\"1\"},{\"__text\":\"2\"}]}}",
+                            read(output.resolve("a/b/second.json")));
+    Assertions.assertFalse(Files.exists(output.resolve("a/ignored.json")));
+    Assertions.assertTrue(stderr.toString().startsWith("2 files converted, 0 failed"), stderr.toString());
+    Assertions.assertTrue(stderr.toString().contains("Latency: p50 "), stderr.toString());
+  }
+
+  @Test
+  void virtualThreadsConvertTheFilesOrFallBackToThePool(@TempDir final Path directory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    for (int i = 0; i < 10; i++) {
+      write(directory.resolve("file" + i + ".xml"), "<root><x>" + i + "</x></root>");
+    }
+
+    final int status = run("xml2json", "-q", "--virtual-threads", "--threads", "3", directory.toString());
+
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, status, stderr.toString());
+    for (int i = 0; i < 10; i++) {
+      Assertions.assertEquals("{\"root\":{\"x\":{\"__text\":\"" + i + "\"}}}",
+                              read(directory.resolve("file" + i + ".json")));
+    }
+  }
+
+  @Test
+  void filesAreConvertedNextToTheirInputAndFilteredByGlob(@TempDir final Path directory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final String json = new XmlToJson().execute(readResource(XML_RESOURCE));
+    Files.createDirectories(directory.resolve("kept"));
+    write(directory.resolve("kept/document.json"), json);
+    write(directory.resolve("other.json"), json);
+
+    final int status = run("json2xml", "-q", "--glob", "kept/*.json", directory.toString());
+
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, status, stderr.toString());
+    Assertions.assertEquals(new JsonToXml().execute(json), read(directory.resolve("kept/document.xml")));
+    Assertions.assertFalse(Files.exists(directory.resolve("other.xml")));
+    Assertions.assertEquals("", stderr.toString());
+  }
+
+  @Test
+  void standardStreamsAreConvertedWithTheOptions()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final String xml = readResource(XML_RESOURCE);
+    final ByteArrayInputStream stdin = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+
+    final int status = JxmlCli.run(new String[] {"xml2json", "-q", "--no-namespaces", "--prefix", "#", "-"}, stdin,
+                                   new PrintStream(stdout, true), new PrintStream(stderr, true));
+
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, status, stderr.toString());
+    Assertions.assertEquals(new XmlToJson().execute(xml, false, "#"), stdout.toString("UTF-8"));
+  }
+
+  @Test
+  void failuresAreSkippedOrStopTheConversion(@TempDir final Path directory) throws IOException {
+    write(directory.resolve("invalid.xml"), "<root>");
+    write(directory.resolve("valid.xml"), "<root/>");
+
+    Assertions.assertEquals(JxmlCli.EXIT_FAILURE, run("xml2json", "--threads", "1", directory.toString()));
+    Assertions.assertTrue(stderr.toString().contains("Failed to convert '" + directory.resolve("invalid.xml")),
+                          stderr.toString());
+    Assertions.assertFalse(Files.exists(directory.resolve("valid.json")));
+
+    stderr.reset();
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, run("xml2json", "--on-error", "skip", directory.toString()));
+    Assertions.assertTrue(stderr.toString().contains("1 files converted, 1 failed"), stderr.toString());
+    Assertions.assertEquals("{\"root\":{}}", read(directory.resolve("valid.json")));
+  }
+
+  @Test
+  void hintsAndNamespaceMappingAreLoadedFromFiles(@TempDir final Path directory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final String xml = readResource(XML_RESOURCE);
+    final Path input = directory.resolve("input.xml");
+    write(input, xml);
+    final Path hints = directory.resolve("hints.txt");
+    write(hints, readResource("hints/structureHintsSOAPLike.txt"));
+    final Path mapping = directory.resolve("mapping.properties");
+    write(mapping, "env=http://schemas.xmlsoap.org/soap/envelope/");
+    final XmlToJson expected = new XmlToJson();
+    expected.setStructureHints(StructureHints.load(hints));
+    expected.setNamespaceMapping(NamespaceMapping.load(mapping));
+
+    final int status = run("xml2json", "-q", "--hints", hints.toString(), "--namespace-mapping", mapping.toString(),
+                           "-o", "-", input.toString());
+
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, status, stderr.toString());
+    Assertions.assertEquals(expected.execute(xml), stdout.toString("UTF-8"));
+
+    write(hints, "/Envelope never");
+    Assertions.assertEquals(JxmlCli.EXIT_FAILURE, run("xml2json", "--hints", hints.toString(), input.toString()));
+    Assertions.assertEquals(JxmlCli.EXIT_FAILURE,
+                            run("xml2json", "--namespace-mapping", directory.resolve("missing").toString()));
+  }
+
+  @Test
+  void singleFilesAreWrittenToTheGivenOutput(@TempDir final Path directory) throws IOException {
+    write(directory.resolve("first.xml"), "<root><x>1</x></root>");
+    write(directory.resolve("second.xml"), "<root/>");
+    final Path output = directory.resolve("out/converted.json");
+
+    final int status = run("xml2json", "-q", "-o", output.toString(), directory.resolve("first.xml").toString());
+
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, status, stderr.toString());
+    Assertions.assertEquals("{\"root\":{\"x\":{\"__text\":\"1\"}}}", read(output));
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("xml2json", "-o", "-", directory.toString()));
+    Assertions.assertTrue(stderr.toString().contains("standard output"), stderr.toString());
+  }
+
+  @Test
+  void invalidStandardInputIsReported() {
+    final ByteArrayInputStream stdin = new ByteArrayInputStream("{".getBytes(StandardCharsets.UTF_8));
+
+    final int status = JxmlCli.run(new String[] {"json2xml"}, stdin, new PrintStream(stdout, true),
+                                   new PrintStream(stderr, true));
+
+    Assertions.assertEquals(JxmlCli.EXIT_FAILURE, status);
+    Assertions.assertTrue(stderr.toString().contains("Failed to convert '-'"), stderr.toString());
+    Assertions.assertTrue(stderr.toString().contains("0 files converted, 1 failed"), stderr.toString());
+  }
+
+  @Test
+  void invalidArgumentsAreReportedWithTheUsage(@TempDir final Path directory) {
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run());
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("yaml2json"));
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("xml2json", "--threads", "0"));
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("xml2json", "--threads", "many"));
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("xml2json", "--on-error", "retry"));
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("xml2json", "--output"));
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("xml2json", "--unknown"));
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, run("xml2json", directory.resolve("missing.xml").toString()));
+    Assertions.assertTrue(stderr.toString().contains("Usage: java -jar jxml.jar"), stderr.toString());
+
+    for (final String[] help : new String[][] {{"--help"}, {"-h"}, {"json2xml", "-h"}}) {
+      stdout.reset();
+      Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, run(help));
+      Assertions.assertTrue(stdout.toString().startsWith("Usage: "), stdout.toString());
+    }
+  }
+
+  private int run(final String... args) {
+    return JxmlCli.run(args, new ByteArrayInputStream(new byte[0]), new PrintStream(stdout, true),
+                       new PrintStream(stderr, true));
+  }
+
+  private static void write(final Path path, final String content) throws IOException {
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(final Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+}
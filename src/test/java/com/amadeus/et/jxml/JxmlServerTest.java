@@ -0,0 +1,309 @@
+package com.amadeus.et.jxml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXException;
+
+import static com.amadeus.et.jxml.XmlToJsonTest.readResource;
+
+class JxmlServerTest {
+
+  private static final String XML_RESOURCE_FOLDER = "xml/conversion/";
+  private static final String XML_RESOURCE = XML_RESOURCE_FOLDER + "xmlInputValidSOAPLike.xml";
+
+  private JxmlServer server;
+
+  @AfterEach
+  void stopServer() {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  void requestBodiesAreConvertedWithTheOptionsAndGzip()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final String xml = readResource(XML_RESOURCE);
+    startServer(new JxmlServer(new XmlToJson(), new JsonToXml()));
+
+    final Response json = post("/xml2json", xml.getBytes(StandardCharsets.UTF_8), false);
+    Assertions.assertEquals(200, json.status);
+    Assertions.assertEquals("application/json; charset=utf-8", json.contentType);
+    Assertions.assertEquals(new XmlToJson().execute(xml), json.body);
+
+    final Response withOptions = post("/xml2json?keepNamespaces=false&prefix=%23",
+                                      xml.getBytes(StandardCharsets.UTF_8), false);
+    Assertions.assertEquals(new XmlToJson().execute(xml, false, "#"), withOptions.body);
+
+    final Response gzipped = post("/json2xml", json.body.getBytes(StandardCharsets.UTF_8), true);
+    Assertions.assertEquals(200, gzipped.status);
+    Assertions.assertEquals("application/xml; charset=utf-8", gzipped.contentType);
+    Assertions.assertEquals(new JsonToXml().execute(json.body), gzipped.body);
+  }
+
+  @Test
+  void invalidRequestsAreAnsweredWithAnErrorStatus() throws IOException {
+    startServer(new JxmlServer(new XmlToJson(), new JsonToXml()));
+
+    final Response invalid = post("/xml2json", "<root>".getBytes(StandardCharsets.UTF_8), false);
+    Assertions.assertEquals(400, invalid.status);
+    Assertions.assertEquals("text/plain; charset=utf-8", invalid.contentType);
+    Assertions.assertFalse(invalid.body.isEmpty());
+    final Response malformed = post("/json2xml", "{\"root\" {}}".getBytes(StandardCharsets.UTF_8), false);
+    Assertions.assertEquals(400, malformed.status);
+    Assertions.assertFalse(malformed.body.isEmpty());
+
+    final HttpURLConnection get = open("/json2xml");
+    Assertions.assertEquals(405, get.getResponseCode());
+    Assertions.assertEquals("POST", get.getHeaderField("Allow"));
+
+    final HttpURLConnection deflated = open("/json2xml");
+    deflated.setRequestMethod("POST");
+    deflated.setDoOutput(true);
+    deflated.setRequestProperty("Content-Encoding", "deflate");
+    deflated.getOutputStream().close();
+    Assertions.assertEquals(415, deflated.getResponseCode());
+
+    final String metrics = read(open("/metrics").getInputStream(), false);
+    Assertions.assertTrue(metrics.contains("jxml_requests_total{endpoint=\"xml2json\",outcome=\"failure\"} 1"),
+                          metrics);
+    Assertions.assertTrue(metrics.contains("jxml_requests_total{endpoint=\"json2xml\",outcome=\"failure\"} 1"),
+                          metrics);
+  }
+
+  @Test
+  void failuresOnceTheResponseStartedDropTheConnection() throws IOException {
+    startServer(new JxmlServer(new XmlToJson(), new JsonToXml()));
+    final StringBuilder xml = new StringBuilder("<Root>");
+    for (int i = 0; i < 20000; i++) {
+      xml.append("<Item>").append(i).append("</Item>");
+    }
+    // the json is written once the root element ends, before the second root is met
+    xml.append("</Root><Root/>");
+
+    final HttpURLConnection truncated = open("/xml2json");
+    truncated.setRequestMethod("POST");
+    truncated.setDoOutput(true);
+    truncated.getOutputStream().write(xml.toString().getBytes(StandardCharsets.UTF_8));
+    Assertions.assertEquals(200, truncated.getResponseCode());
+    Assertions.assertThrows(IOException.class, () -> read(truncated.getInputStream(), false));
+
+    final HttpURLConnection corrupted = open("/xml2json");
+    corrupted.setRequestMethod("POST");
+    corrupted.setDoOutput(true);
+    corrupted.setRequestProperty("Content-Encoding", "gzip");
+    // streamed, so that the request is not sent again on the dropped connection
+    corrupted.setFixedLengthStreamingMode(7);
+    corrupted.getOutputStream().write("<Root/>".getBytes(StandardCharsets.UTF_8));
+    Assertions.assertThrows(IOException.class, corrupted::getResponseCode);
+
+    final HttpURLConnection identity = open("/xml2json?other=1&keepNamespaces");
+    identity.setRequestMethod("POST");
+    identity.setDoOutput(true);
+    identity.setRequestProperty("Content-Encoding", "identity");
+    identity.setRequestProperty("Accept-Encoding", "identity");
+    identity.getOutputStream().write("<Root/>".getBytes(StandardCharsets.UTF_8));
+    Assertions.assertEquals("{\"Root\":{}}", read(identity.getInputStream(), false));
+
+    final String metrics = read(open("/metrics").getInputStream(), false);
+    Assertions.assertTrue(metrics.contains("jxml_requests_total{endpoint=\"xml2json\",outcome=\"failure\"} 2"),
+                          metrics);
+  }
+
+  @Test
+  void requestsPastTheQueueAreRejected() throws IOException, InterruptedException {
+    assertRequestsPastTheQueueAreRejected(false);
+    server.close();
+    // past the permits with virtual threads, where the runtime provides them
+    assertRequestsPastTheQueueAreRejected(true);
+  }
+
+  private void assertRequestsPastTheQueueAreRejected(final boolean virtualThreads)
+      throws IOException, InterruptedException {
+    final JxmlServer overloaded = new JxmlServer(new XmlToJson(), new JsonToXml());
+    overloaded.setMaxConcurrentRequests(1);
+    overloaded.setMaxQueuedRequests(0);
+    overloaded.setVirtualThreads(virtualThreads);
+    startServer(overloaded);
+
+    // holds the only thread, waiting for the rest of its body
+    try (Socket slow = new Socket(InetAddress.getLoopbackAddress(), server.getAddress().getPort())) {
+      final OutputStream output = slow.getOutputStream();
+      output.write(("POST /xml2json HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                    + "Content-Length: 7\r\n\r\n<r>").getBytes(StandardCharsets.US_ASCII));
+      output.flush();
+      while (!read(open("/metrics").getInputStream(), false).contains("jxml_requests_active 1")) {
+        Thread.sleep(10);
+      }
+
+      final HttpURLConnection rejected = open("/xml2json");
+      rejected.setRequestMethod("POST");
+      rejected.setDoOutput(true);
+      rejected.getOutputStream().write("<r/>".getBytes(StandardCharsets.UTF_8));
+      Assertions.assertEquals(503, rejected.getResponseCode());
+      Assertions.assertEquals("1", rejected.getHeaderField("Retry-After"));
+
+      output.write("</r>".getBytes(StandardCharsets.US_ASCII));
+      output.flush();
+      final String response = read(slow.getInputStream(), false);
+      Assertions.assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+    }
+    final String metrics = read(open("/metrics").getInputStream(), false);
+    Assertions.assertTrue(metrics.contains("jxml_requests_total{outcome=\"rejected\"} 1"), metrics);
+    Assertions.assertTrue(metrics.contains("jxml_requests_queued 0"), metrics);
+  }
+
+  @Test
+  void loadGeneratorReportsTheRequestsOverKeepAliveConnections() throws IOException, InterruptedException {
+    final byte[] xml = readResource(XML_RESOURCE).getBytes(StandardCharsets.UTF_8);
+    final JxmlServer pooled = new JxmlServer(new XmlToJson(), new JsonToXml());
+    pooled.setVirtualThreads(true);
+    startServer(pooled);
+
+    // more requests than the initial capacity of the recorded latencies
+    final ConversionStatistics statistics = JxmlLoadGenerator.run(url("/xml2json"), xml, 4, 100, true);
+
+    Assertions.assertEquals(100, statistics.converted());
+    Assertions.assertEquals(0, statistics.failed());
+    final String metrics = read(open("/metrics").getInputStream(), false);
+    Assertions.assertTrue(metrics.contains("jxml_request_duration_seconds_count{endpoint=\"xml2json\"} 100"),
+                          metrics);
+  }
+
+  @Test
+  void loadGeneratorCommandLineReportsTheFailedRequests(@TempDir final Path directory)
+      throws IOException, InterruptedException {
+    startServer(new JxmlServer(new XmlToJson(), new JsonToXml()));
+    final Path body = directory.resolve("body.xml");
+    Files.write(body, "<root/>".getBytes(StandardCharsets.UTF_8));
+    final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    final PrintStream out = new PrintStream(stdout, true);
+    final PrintStream err = new PrintStream(stderr, true);
+
+    Assertions.assertEquals(JxmlCli.EXIT_SUCCESS, JxmlLoadGenerator.run(new String[] {
+        url("/xml2json").toString(), body.toString(), "--concurrency", "2", "--requests", "6", "--gzip"}, out, err));
+    Assertions.assertTrue(stdout.toString().startsWith("6 requests converted, 0 failed"), stdout.toString());
+    Assertions.assertEquals(JxmlCli.EXIT_FAILURE, JxmlLoadGenerator.run(new String[] {
+        url("/json2xml").toString(), body.toString(), "--requests", "2"}, out, err));
+    Assertions.assertTrue(stdout.toString().contains("0 requests converted, 2 failed"), stdout.toString());
+
+    Assertions.assertEquals(JxmlCli.EXIT_USAGE, JxmlLoadGenerator.run(new String[] {"url"}, out, err));
+    Assertions.assertTrue(stderr.toString().startsWith("Usage: "), stderr.toString());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> JxmlLoadGenerator.run(
+        new String[] {url("/xml2json").toString(), body.toString(), "--unknown"}, out, err));
+    final URL stopped = url("/xml2json");
+    server.close();
+    Assertions.assertEquals(1, JxmlLoadGenerator.run(stopped, new byte[0], 1, 1, false).failed());
+  }
+
+  @Test
+  void commandLineOptionsConfigureTheServer(@TempDir final Path directory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final String xml = readResource(XML_RESOURCE);
+    final Path hints = directory.resolve("hints.txt");
+    Files.write(hints, readResource("hints/structureHintsSOAPLike.txt").getBytes(StandardCharsets.UTF_8));
+    final Path mapping = directory.resolve("mapping.properties");
+    Files.write(mapping, "env=http://schemas.xmlsoap.org/soap/envelope/".getBytes(StandardCharsets.ISO_8859_1));
+    server = JxmlServer.start(new String[] {"0", "--threads", "2", "--queue", "1", "--virtual-threads", "--tcp-nodelay",
+                                            "--hints", hints.toString(), "--namespace-mapping", mapping.toString()});
+    final XmlToJson expected = new XmlToJson();
+    expected.setStructureHints(StructureHints.load(hints));
+    expected.setNamespaceMapping(NamespaceMapping.load(mapping));
+
+    final Response json = post("/xml2json", xml.getBytes(StandardCharsets.UTF_8), false);
+    Assertions.assertEquals(expected.execute(xml), json.body);
+    Assertions.assertThrows(IllegalStateException.class, () -> server.start(new InetSocketAddress(0)));
+    server.close();
+    Assertions.assertNull(server.getAddress());
+    server.close();
+  }
+
+  @Test
+  void requestLimitsMustBeValid() {
+    final JxmlServer invalid = new JxmlServer(new XmlToJson(), new JsonToXml());
+
+    Assertions.assertEquals("'maxConcurrentRequests' must be strictly positive.", Assertions.assertThrows(
+        IllegalArgumentException.class, () -> invalid.setMaxConcurrentRequests(0)).getMessage());
+    Assertions.assertEquals("'maxQueuedRequests' must not be negative.", Assertions.assertThrows(
+        IllegalArgumentException.class, () -> invalid.setMaxQueuedRequests(-1)).getMessage());
+  }
+
+  private void startServer(final JxmlServer started) throws IOException {
+    server = started;
+    server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  private HttpURLConnection open(final String path) throws IOException {
+    return (HttpURLConnection) url(path).openConnection();
+  }
+
+  private URL url(final String path) throws IOException {
+    return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+  }
+
+  private Response post(final String path, final byte[] body, final boolean gzip) throws IOException {
+    final HttpURLConnection connection = open(path);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    if (gzip) {
+      connection.setRequestProperty("Content-Encoding", "gzip");
+      connection.setRequestProperty("Accept-Encoding", "gzip");
+      try (OutputStream output = new GZIPOutputStream(connection.getOutputStream())) {
+        output.write(body);
+      }
+    } else {
+      try (OutputStream output = connection.getOutputStream()) {
+        output.write(body);
+      }
+    }
+    final Response response = new Response();
+    response.status = connection.getResponseCode();
+    response.contentType = connection.getContentType();
+    final boolean gzipped = "gzip".equals(connection.getContentEncoding());
+    Assertions.assertEquals(gzip && response.status == 200, gzipped);
+    response.body = read(response.status == 200 ? connection.getInputStream() : connection.getErrorStream(),
+                         gzipped);
+    return response;
+  }
+
+  private static String read(final InputStream input, final boolean gzipped) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream body = gzipped ? new GZIPInputStream(input) : input) {
+      final byte[] chunk = new byte[4096];
+      int read;
+      while ((read = body.read(chunk)) >= 0) {
+        bytes.write(chunk, 0, read);
+      }
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static final class Response {
+    private int status;
+    private String contentType;
+    private String body;
+  }
+
+}
@@ -0,0 +1,125 @@
+package com.amadeus.et.jxml;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Checks the versions of the multi-release jar against the Java 8 baseline, loading them from the
+ * compiled versions directories, which only exist when the build JDK can compile them.
+ */
+class MultiReleaseTest {
+
+  private static final byte[] BYTES = {
+      ' ', '\n', '\t', '\r', '<', '&', ']', '"', '\'', 'a', 'Z', '0', '=', '~', 0x7F, 0x1F, 0x00, 0x0B,
+      (byte) 0x80, (byte) 0xC3, (byte) 0xA9, (byte) 0xFF};
+  private static final String[] SCANS = {"skipWhitespace", "skipPlainText", "skipPlainAttribute"};
+
+  @Test
+  void versionedByteScannerSkipsTheBytesOfTheBaseline() throws Exception {
+    final Class<?> versioned = loadVersion(9, "ByteScanner");
+    Assertions.assertEquals("VarHandle SWAR", invoke(versioned, "implementation"));
+    final Random random = new Random(42);
+    for (final String scan : SCANS) {
+      final Method method = versioned.getDeclaredMethod(scan, byte[].class, int.class, int.class);
+      method.setAccessible(true);
+      for (int n = 0; n < 2000; n++) {
+        // runs of a few kinds of bytes, so that words mostly of a single kind are frequent
+        final byte[] in = new byte[random.nextInt(40)];
+        for (int i = 0; i < in.length; ) {
+          final byte b = BYTES[random.nextInt(BYTES.length)];
+          for (int run = random.nextInt(12); run >= 0 && i < in.length; run--) {
+            in[i++] = b;
+          }
+        }
+        for (int from = 0; from <= in.length; from++) {
+          for (int end = from; end <= in.length; end += 1 + random.nextInt(4)) {
+            Assertions.assertEquals(scan(scan, in, from, end), method.invoke(null, in, from, end),
+                                    () -> scan + " " + Arrays.toString(in));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void versionedVirtualThreadsRunTheTasksInNamedVirtualThreads() throws Exception {
+    final Class<?> versioned = loadVersion(21, "VirtualThreads");
+    Assertions.assertEquals("Thread.ofVirtual", invoke(versioned, "implementation"));
+    final Method newExecutor = versioned.getDeclaredMethod("newExecutor", String.class);
+    newExecutor.setAccessible(true);
+    final ExecutorService executor = (ExecutorService) newExecutor.invoke(null, "test-worker");
+
+    final String[] thread = new String[2];
+    executor.submit(() -> {
+      thread[0] = Thread.currentThread().getName();
+      thread[1] = String.valueOf(Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()));
+      return null;
+    }).get();
+    executor.shutdown();
+
+    Assertions.assertEquals("test-worker-1", thread[0]);
+    Assertions.assertEquals("true", thread[1]);
+    Assertions.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+  }
+
+  @Test
+  void baselineVirtualThreadsAreLookedUp() throws Exception {
+    final ExecutorService executor = VirtualThreads.newExecutor("test-worker");
+    if (executor == null) {
+      Assertions.assertThrows(NoSuchMethodException.class, () -> Thread.class.getMethod("ofVirtual"));
+      return;
+    }
+    Assertions.assertEquals(Boolean.TRUE, executor.submit(
+        () -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get());
+    executor.shutdown();
+    Assertions.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+  }
+
+  private static int scan(final String scan, final byte[] in, final int from, final int end) {
+    switch (scan) {
+      case "skipWhitespace":
+        return ByteScanner.skipWhitespace(in, from, end);
+      case "skipPlainText":
+        return ByteScanner.skipPlainText(in, from, end);
+      default:
+        return ByteScanner.skipPlainAttribute(in, from, end);
+    }
+  }
+
+  /*
+   * Loads a versioned class alone, without the baseline classes as a parent.
+   */
+  private static Class<?> loadVersion(final int version, final String simpleName) throws Exception {
+    final Path classes = Paths.get(ByteScanner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    final Path directory = classes.resolve("META-INF/versions/" + version);
+    Assumptions.assumeTrue(Files.isDirectory(directory), "Java " + version + " version not compiled");
+    Assumptions.assumeTrue(javaVersion() >= version, "Java " + version + " version not supported by the runtime");
+    final URLClassLoader loader = new URLClassLoader(new URL[] {directory.toUri().toURL()}, null);
+    return Class.forName(ByteScanner.class.getPackage().getName() + '.' + simpleName, true, loader);
+  }
+
+  private static int javaVersion() {
+    final String version = System.getProperty("java.specification.version");
+    // 1.8, then 9 onwards
+    return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+  }
+
+  private static Object invoke(final Class<?> type, final String name) throws ReflectiveOperationException {
+    final Method method = type.getDeclaredMethod(name);
+    method.setAccessible(true);
+    return method.invoke(null);
+  }
+
+}
@@ -1,20 +1,65 @@
 package com.amadeus.et.jxml;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 class XmlToJsonTest {
 
@@ -186,6 +231,51 @@ class XmlToJsonTest {
     Assertions.assertEquals(expectedJson, XmltoJson);
   }
 
+  @Test
+  void leadingTextIsTheValueOfTheFirstChildNode()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException, XMLStreamException {
+    final String[][] cases = {
+        {"<a>t<!--c-->u<b/></a>", "{\"a\":{\"b\":{},\"__text\":\"t\"}}"},
+        {"<a><!--c-->t<b/></a>", "{\"a\":{\"b\":{},\"__text\":\"c\"}}"},
+        {"<a><?p data?>t</a>", "{\"a\":{\"__text\":\"data\"}}"},
+        {"<a>t<?p data?>u<b/></a>", "{\"a\":{\"b\":{},\"__text\":\"t\"}}"},
+        {"<a><![CDATA[<x> & ]]>y</a>", "{\"a\":{\"__text\":\"<x> &\"}}"},
+        {"<a>y<![CDATA[x]]>z<b/></a>", "{\"a\":{\"b\":{},\"__text\":\"y\"}}"},
+        {"<a>y &amp; z<b/>t</a>", "{\"a\":{\"b\":{},\"__text\":\"y & z\"}}"},
+        {"<a>\n <!--c-->t</a>", "{\"a\":{}}"},
+        {"<a><!-- --> t</a>", "{\"a\":{}}"},
+        {"<!--c--><a><b/>t</a><?p data?>", "{\"a\":{\"b\":{}}}"}};
+    for (final String[] conversion : cases) {
+      final String xml = conversion[0];
+      final Document parsed = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .parse(new InputSource(new StringReader(xml)));
+      parsed.normalizeDocument();
+      // the json of a DOM parsed by JAXP, as the conversion has always given it
+      Assertions.assertEquals(JsonParser.parseString(conversion[1]), converter.toJsonTree(parsed), xml);
+
+      Assertions.assertEquals(conversion[1], converter.execute(xml), xml);
+      Assertions.assertEquals(conversion[1], executeStreaming(xml, true, null), xml);
+      final StringWriter saxOutput = new StringWriter();
+      final SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+      final XMLReader reader = factory.newSAXParser().getXMLReader();
+      final ContentHandler handler = converter.newContentHandler(saxOutput);
+      reader.setContentHandler(handler);
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+      reader.parse(new InputSource(new StringReader(xml)));
+      Assertions.assertEquals(conversion[1], saxOutput.toString(), xml);
+      final StringWriter staxOutput = new StringWriter();
+      final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+      inputFactory.setProperty("http://java.sun.com/xml/stream/properties/report-cdata-event", true);
+      copyEvents(inputFactory.createXMLStreamReader(new StringReader(xml)), converter.newXmlStreamWriter(staxOutput));
+      Assertions.assertEquals(conversion[1], staxOutput.toString(), xml);
+      Assertions.assertNull(new EquivalenceVerifier().verify(xml, conversion[1]), xml);
+      converter.setByteTokenizer(true);
+      Assertions.assertEquals(conversion[1], converter.execute(xml.getBytes(StandardCharsets.UTF_8), true, null), xml);
+      converter.setByteTokenizer(false);
+    }
+  }
+
   @Test
   void readmeExample()
       throws ParserConfigurationException, IOException, SAXException, JxmlException {
@@ -199,6 +289,1075 @@ class XmlToJsonTest {
     Assertions.assertEquals(expectedJson, XmltoJson);
   }
 
+  @Test
+  void structureHintsForceArraysAndObjects()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    converter.setStructureHints(StructureHints.parse(readResource("hints/structureHintsSOAPLike.txt")));
+    final String result = converter.execute(getXmlFileContentAsString("xmlInputValidSOAPLike.xml"));
+
+    final String expectedActor = "\"Actor\":[{\"_Type\":\"USER\",\"_Unit\":\"UNIT-A\",\"__text\":\"AAAAAA9Z9ZZZHHHHHIII0A==\"}]";
+    // hinted arrays are appended after single elements, as any other array
+    final String expectedFirstRights = "\"__text\":\"ABC\"},\"Role\":[{\"_Base\":\"A\",\"_Organization\":\"AAA\","
+        + "\"_Type\":\"Composite\",\"__text\":\"BASE_MANAGEMENT\"}]}";
+    Assertions.assertTrue(result.contains(expectedActor), result);
+    Assertions.assertTrue(result.contains(expectedFirstRights), result);
+  }
+
+  @Test
+  void structureHintsSingleElementArray()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    final StructureHints hints = new StructureHints();
+    hints.addAlwaysArray("/TransactionFlowLink/T1/*");
+    converter.setStructureHints(hints);
+
+    final String result = converter.execute("<TransactionFlowLink><T1><T2>Ciccio1</T2></T1></TransactionFlowLink>");
+
+    Assertions.assertEquals("{\"TransactionFlowLink\":{\"T1\":{\"T2\":[{\"__text\":\"Ciccio1\"}]}}}", result);
+  }
+
+  @Test
+  void structureHintsMostSpecificPathWins()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    converter.setStructureHints(StructureHints.parse("object /A/*/C\narray /A/B/C\narray /A/*/D"));
+
+    final String result = converter.execute("<A><B><C>1</C><D>2</D></B></A>");
+
+    Assertions.assertEquals("{\"A\":{\"B\":{\"C\":[{\"__text\":\"1\"}],\"D\":[{\"__text\":\"2\"}]}}}", result);
+  }
+
+  @Test
+  void structureHintsRepeatedNeverArrayElement() throws JxmlException {
+    final StructureHints hints = new StructureHints();
+    hints.addNeverArray("/TransactionFlowLink/T1/T2");
+    converter.setStructureHints(hints);
+
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+        converter.execute("<TransactionFlowLink><T1><T2>Ciccio1</T2><T2>Ciccio2</T2></T1></TransactionFlowLink>"));
+    Assertions.assertEquals(
+        "Element 'T2' is hinted as never being an array, but it occurs more than once under the same element.",
+        exception.getMessage());
+  }
+
+  @Test
+  void structureHintsInvalidConfiguration() {
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+        StructureHints.parse("array /A\nlist /A/B"));
+    Assertions.assertEquals(
+        "Structure hint line 2 must follow the pattern '(array|object) /path/to/element': 'list /A/B'.",
+        exception.getMessage());
+    Assertions.assertEquals(
+        "Structure hint line 3 must follow the pattern '(array|object) /path/to/element': 'array'.",
+        Assertions.assertThrows(JxmlException.class, () -> StructureHints.parse("# comment\n\narray")).getMessage());
+    for (final String path : new String[] {null, "A/B", "/A//B", "/A/"}) {
+      Assertions.assertEquals(
+          "Structure hint path must be absolute and must not contain empty segments: '" + path + "'.",
+          Assertions.assertThrows(JxmlException.class, () -> new StructureHints().addAlwaysArray(path)).getMessage());
+    }
+  }
+
+  @Test
+  void structureHintsForTheSamePathLetTheLastOneWin()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    converter.setStructureHints(StructureHints.parse("array /A/B\nobject /A/B\nobject /A/*\narray /A/*"));
+
+    Assertions.assertEquals("{\"A\":{\"B\":{},\"C\":[{}]}}", converter.execute("<A><B/><C/></A>"));
+  }
+
+  @Test
+  void veryDeepXmlIsRejected() {
+    final StringBuilder xml = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      xml.append("<a>");
+    }
+    for (int i = 0; i < 20000; i++) {
+      xml.append("</a>");
+    }
+
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+        converter.execute(xml.toString()));
+    Assertions.assertEquals(
+        "Document nesting depth exceeds the maximum allowed depth of 1000.",
+        exception.getMessage());
+  }
+
+  @Test
+  void raisedMaxDepthConvertsDeepXmlOnASmallStack() throws InterruptedException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(50000);
+    converter.setLimits(limits);
+    final StringBuilder xml = new StringBuilder();
+    final StringBuilder expectedJson = new StringBuilder("{");
+    for (int i = 0; i < 20000; i++) {
+      xml.append("<a>");
+      expectedJson.append("\"a\":{");
+    }
+    xml.append('x');
+    expectedJson.append("\"__text\":\"x\"");
+    for (int i = 0; i < 20000; i++) {
+      xml.append("</a>");
+      expectedJson.append('}');
+    }
+    expectedJson.append('}');
+
+    final Object[] json = new Object[1];
+    // the stack of the recursive conversions of the former versions overflows at a few thousand levels
+    final Thread thread = new Thread(null, () -> {
+      try {
+        json[0] = converter.execute(xml.toString());
+      } catch (final Exception | StackOverflowError e) {
+        json[0] = e;
+      }
+    }, "small-stack", 256 << 10);
+    thread.start();
+    thread.join();
+    Assertions.assertEquals(expectedJson.toString(), json[0]);
+  }
+
+  @Test
+  void maxDepthIsConfigurable()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(3);
+    converter.setLimits(limits);
+
+    Assertions.assertEquals("{\"A\":{\"B\":{\"C\":{}}}}", converter.execute("<A><B><C/></B></A>"));
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+        converter.execute("<A><B><C><D/></C></B></A>"));
+    Assertions.assertEquals(
+        "Document nesting depth exceeds the maximum allowed depth of 3.",
+        exception.getMessage());
+  }
+
+  @Test
+  void limitsAreEnforcedWhileParsing() {
+    final String xml = getXmlContent();
+    assertLimitExceeded(xml, limits -> limits.setMaxDocumentSize(xml.length() - 1),
+                        "Document size exceeds the maximum allowed size of " + (xml.length() - 1) + ".");
+    assertLimitExceeded(xml, limits -> limits.setMaxElementCount(4),
+                        "Document element count exceeds the maximum allowed count of 4.");
+    assertLimitExceeded(xml, limits -> limits.setMaxAttributeCount(1),
+                        "Element attribute count exceeds the maximum allowed count of 1.");
+    assertLimitExceeded(xml, limits -> limits.setMaxTextLength(6),
+                        "Text length exceeds the maximum allowed length of 6.");
+    assertLimitExceeded(xml, limits -> limits.setMaxNameLength(4),
+                        "Name length exceeds the maximum allowed length of 4.");
+    assertLimitExceeded(xml, limits -> limits.setMaxArrayLength(1),
+                        "Array length exceeds the maximum allowed length of 1.");
+  }
+
+  @Test
+  void limitsAllowDocumentsWithinBounds()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    final String xml = getXmlContent();
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDocumentSize(xml.length());
+    limits.setMaxElementCount(5);
+    limits.setMaxAttributeCount(2);
+    limits.setMaxTextLength(7);
+    limits.setMaxNameLength(5);
+    limits.setMaxArrayLength(2);
+    converter.setLimits(limits);
+
+    final String result = converter.execute(xml);
+
+    Assertions.assertEquals("{\"Root\":{\"_a\":\"1\",\"_b\":\"2\",\"T1\":{\"T2\":[{\"__text\":\"Ciccio1\"},"
+                            + "{\"__text\":\"Ciccio2\"}]},\"Other\":{}}}", result);
+  }
+
+  @Test
+  void limitsMustBePositive() {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(1);
+    limits.setMaxDocumentSize(2);
+    limits.setMaxElementCount(3);
+    limits.setMaxAttributeCount(4);
+    limits.setMaxTextLength(5);
+    limits.setMaxNameLength(6);
+    limits.setMaxArrayLength(7);
+
+    Assertions.assertArrayEquals(new long[] {1, 2, 3, 4, 5, 6, 7},
+                                 new long[] {limits.getMaxDepth(), limits.getMaxDocumentSize(),
+                                             limits.getMaxElementCount(), limits.getMaxAttributeCount(),
+                                             limits.getMaxTextLength(), limits.getMaxNameLength(),
+                                             limits.getMaxArrayLength()});
+    Assertions.assertEquals("'maxDepth' must be strictly positive.", Assertions.assertThrows(
+        IllegalArgumentException.class, () -> limits.setMaxDepth(0)).getMessage());
+    Assertions.assertEquals("'maxDocumentSize' must be strictly positive.", Assertions.assertThrows(
+        IllegalArgumentException.class, () -> limits.setMaxDocumentSize(0)).getMessage());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> converter.setSpillThreshold(-1));
+  }
+
+  @Test
+  void byteTokenizerEnforcesTheLimits() throws IOException, JxmlException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(1);
+    converter.setLimits(limits);
+    converter.setByteTokenizer(true);
+    final byte[] xml = "<r:A xmlns:r=\"urn:r\"><B/></r:A>".getBytes(StandardCharsets.UTF_8);
+
+    Assertions.assertThrows(JxmlException.class, () -> converter.execute(xml, true, null));
+    converter.setNamespaceMapping(NamespaceMapping.load(new StringReader("r=urn:r")));
+    Assertions.assertThrows(JxmlException.class, () -> converter.execute(xml, true, null));
+    Assertions.assertThrows(JxmlException.class, () -> converter.execute(xml, false, null));
+  }
+
+  @Test
+  void namespaceAwareModeUsesMappedPrefixes()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    final NamespaceMapping mapping =
+        NamespaceMapping.load(new StringReader(readResource("namespaces/namespaceMapping.properties")));
+    converter.setNamespaceMapping(mapping);
+
+    final String result = converter.execute(
+        "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+        + "<m:Trans xmlns:m=\"https://www.w3schools.com/transaction/\" m:Id=\"1\">234</m:Trans>"
+        + "<link:Flow xmlns:link=\"http://schemas.xmlsoap.org/soap/envelope/\"/>"
+        + "<Other xmlns=\"urn:other\"/>"
+        + "</soap:Envelope>");
+
+    Assertions.assertEquals("{\"env:Envelope\":{\"_xmlns:env\":\"http://schemas.xmlsoap.org/soap/envelope/\","
+                            + "\"tx:Trans\":{\"_tx:Id\":\"1\",\"_xmlns:tx\":\"https://www.w3schools.com/transaction/\","
+                            + "\"__text\":\"234\"},"
+                            + "\"env:Flow\":{\"_xmlns:env\":\"http://schemas.xmlsoap.org/soap/envelope/\"},"
+                            + "\"Other\":{\"_xmlns\":\"urn:other\"}}}", result);
+  }
+
+  @Test
+  void namespaceAwareModeWithoutNamespacesKeepsUrlValuedAttributes()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    converter.setNamespaceMapping(new NamespaceMapping());
+
+    final String result = converter.execute(
+        "<a:Link xmlns:a=\"urn:a\" xmlns:x=\"urn:x\" href=\"http://www.amadeus.com\" x:type=\"external\"/>", false);
+
+    Assertions.assertEquals("{\"Link\":{\"_href\":\"http://www.amadeus.com\",\"_type\":\"external\"}}", result);
+  }
+
+  @Test
+  void namespaceMappingRejectsAmbiguousPrefixes() throws JxmlException {
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:a", "a");
+
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () -> mapping.map("urn:b", "a"));
+    Assertions.assertEquals("Json prefix 'a' is already mapped to namespace URI 'urn:a'.", exception.getMessage());
+    final JxmlException reserved = Assertions.assertThrows(JxmlException.class, () -> mapping.map("urn:b", "xmlns"));
+    Assertions.assertEquals("Json prefix must not be null, contain ':' or be 'xml' or 'xmlns': 'xmlns'.",
+                            reserved.getMessage());
+    Assertions.assertThrows(JxmlException.class, () -> mapping.map("urn:b", "xml"));
+    mapping.map("urn:b", "xmlData");
+    Assertions.assertEquals("urn:b", mapping.getNamespaceUri("xmlData"));
+    mapping.map("urn:b", "xmlData");
+    Assertions.assertEquals("Namespace URI 'urn:b' is already mapped to json prefix 'xmlData'.",
+                            Assertions.assertThrows(JxmlException.class, () -> mapping.map("urn:b", "b"))
+                                .getMessage());
+    for (final String prefix : new String[] {null, "a:b"}) {
+      Assertions.assertThrows(JxmlException.class, () -> mapping.map("urn:c", prefix));
+    }
+    for (final String uri : new String[] {null, "", XMLConstants.XML_NS_URI, XMLConstants.XMLNS_ATTRIBUTE_NS_URI}) {
+      Assertions.assertThrows(JxmlException.class, () -> mapping.map(uri, "c"));
+    }
+  }
+
+  @Test
+  void unmappedNamespacesDeclaredWithTheJsonPrefixOfAnotherOneAreRejected()
+      throws ParserConfigurationException, IOException, SAXException, JxmlException {
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("urn:mapped", "m");
+    converter.setNamespaceMapping(mapping);
+    final String unmapped = "<Root><p:A xmlns:p=\"urn:one\"/><p:B xmlns:p=\"urn:two\"/></Root>";
+    final String mapped = "<Root xmlns:m=\"urn:mapped\"><m:A xmlns:m=\"urn:other\"/></Root>";
+    final String expectedUnmapped =
+        "Namespace URIs 'urn:one' and 'urn:two' both have json prefix 'p'; map them to distinct json prefixes.";
+    final String expectedMapped =
+        "Namespace URIs 'urn:mapped' and 'urn:other' both have json prefix 'm'; map them to distinct json prefixes.";
+
+    for (final boolean byteTokenizer : new boolean[] {false, true}) {
+      converter.setByteTokenizer(byteTokenizer);
+      Assertions.assertEquals(expectedUnmapped, Assertions.assertThrows(JxmlException.class,
+          () -> converter.execute(unmapped.getBytes(StandardCharsets.UTF_8), true, null)).getMessage());
+      Assertions.assertEquals(expectedMapped, Assertions.assertThrows(JxmlException.class,
+          () -> converter.execute(mapped.getBytes(StandardCharsets.UTF_8), true, null)).getMessage());
+    }
+    Assertions.assertEquals(expectedUnmapped, Assertions.assertThrows(JxmlException.class,
+        () -> converter.execute(unmapped)).getMessage());
+    Assertions.assertEquals(expectedUnmapped, Assertions.assertThrows(JxmlException.class,
+        () -> executeStreaming(unmapped, true, null)).getMessage());
+    // prefixes only matter when namespaces are kept
+    Assertions.assertEquals("{\"Root\":{\"A\":{},\"B\":{}}}", converter.execute(unmapped, false));
+  }
+
+  @Test
+  void jsonTreeIsTheParsedJson() throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final String xml = getXmlFileContentAsString("xmlInputValidSOAPLike.xml");
+
+    Assertions.assertEquals(JsonParser.parseString(converter.execute(xml, false, "#")),
+                            converter.toJsonTree(xml, false, "#"));
+  }
+
+  @Test
+  void domAndSourcesAreConvertedWithoutSerialization()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final String xml = getXmlFileContentAsString("xmlInputValidSOAPLike.xml");
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    final JsonObject expected = JsonParser.parseString(converter.execute(xml)).getAsJsonObject();
+
+    Assertions.assertEquals(expected, converter.toJsonTree(document));
+    Assertions.assertEquals(expected, converter.toJsonTree(new DOMSource(document.getDocumentElement())));
+    Assertions.assertEquals(expected, converter.toJsonTree(new StreamSource(new StringReader(xml))));
+  }
+
+  @Test
+  void otherSourcesAndBuffersAreConverted()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException,
+             XMLStreamException {
+    final String xml = getXmlFileContentAsString("xmlInputValidSOAPLike.xml");
+    final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+
+    Assertions.assertEquals(JsonParser.parseString(converter.execute(xml)), converter.toJsonTree(
+        new StAXSource(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml)))));
+    Assertions.assertEquals(converter.execute(xml, false, "#"), converter.execute(direct, false, "#"));
+    Assertions.assertEquals(0, direct.position());
+  }
+
+  @Test
+  void streamingEntryPointsCheckTheirArguments() throws ParserConfigurationException {
+    final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    document.appendChild(document.createElement("root"));
+    final StringWriter output = new StringWriter();
+    final InputStream broken = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("broken");
+      }
+    };
+
+    Assertions.assertThrows(JxmlException.class, () -> converter.toJsonTree(document, true, "S"));
+    Assertions.assertThrows(JxmlException.class,
+                            () -> converter.toJsonTree(new StreamSource(new StringReader("<root/>")), true, "S"));
+    Assertions.assertThrows(JxmlException.class, () -> converter.newContentHandler(output, true, "S"));
+    Assertions.assertThrows(JxmlException.class, () -> converter.newXmlStreamWriter(output, true, "S"));
+    Assertions.assertThrows(JxmlException.class, () -> converter.execute(broken, output, true, "S"));
+    Assertions.assertEquals("broken", Assertions.assertThrows(IOException.class,
+                                                              () -> converter.execute(broken, output)).getMessage());
+  }
+
+  @Test
+  void textSplitByTheCallerDomIsConvertedAsASingleText() throws ParserConfigurationException, JxmlException {
+    final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    final Element root = document.createElement("root");
+    document.appendChild(root);
+    root.appendChild(document.createTextNode("first "));
+    root.appendChild(document.createTextNode("second"));
+    root.appendChild(document.createComment("comment"));
+    root.appendChild(document.createElement("child"));
+
+    Assertions.assertEquals(JsonParser.parseString("{\"root\":{\"child\":{},\"__text\":\"first second\"}}"),
+                            converter.toJsonTree(document));
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class,
+                                                            () -> converter.toJsonTree(document.createComment("c")));
+    Assertions.assertEquals("'node' should be a document with a root element, or an element.", exception.getMessage());
+  }
+
+  @Test
+  void contentHandlerIsATransformerTarget()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final String xml = getXmlFileContentAsString("xmlInputValidSOAPLike.xml");
+    final StringWriter output = new StringWriter();
+
+    TransformerFactory.newInstance().newTransformer().transform(new StreamSource(new StringReader(xml)),
+                                                                new SAXResult(converter.newContentHandler(output)));
+
+    Assertions.assertEquals(converter.execute(xml), output.toString());
+  }
+
+  @Test
+  void namespaceAwareContentHandlerIsATransformerTarget()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final String xml = getXmlFileContentAsString("xmlInputValidSOAPLike.xml");
+    final NamespaceMapping mapping = new NamespaceMapping();
+    mapping.map("http://schemas.xmlsoap.org/soap/envelope/", "env");
+    converter.setNamespaceMapping(mapping);
+    final StringWriter output = new StringWriter();
+
+    TransformerFactory.newInstance().newTransformer().transform(
+        new StreamSource(new StringReader(xml)), new SAXResult(converter.newContentHandler(output, false, "#")));
+
+    Assertions.assertEquals(converter.execute(xml, false, "#"), output.toString());
+  }
+
+  @Test
+  void xmlStreamWriterIsATransformerTarget()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final String xml = getXmlFileContentAsString("xmlInputValidSOAPLike.xml");
+    final StringWriter output = new StringWriter();
+
+    TransformerFactory.newInstance().newTransformer().transform(
+        new StreamSource(new StringReader(xml)), new StAXResult(converter.newXmlStreamWriter(output)));
+
+    Assertions.assertEquals(converter.execute(xml), output.toString());
+  }
+
+  @Test
+  void xmlStreamWriterWritesWhatAnyStaxProducerWrites()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, XMLStreamException {
+    final String xml = "<Root xmlns=\"urn:default\" xmlns:p=\"urn:p\" a=\"1\" p:b=\"2\" p:c=\"3\">text &amp;&lt;&gt;\"'"
+                       + "chars<p:Child/><q:Other xmlns:q=\"urn:q\"><q:Empty/></q:Other><p:Empty/><Empty/>"
+                       + "<c:FromContext/><s:Set/><Notes><!--comment--><?target?><![CDATA[cdata]]></Notes>"
+                       + "<Open><Inner/></Open></Root>";
+    final StringWriter output = new StringWriter();
+    final XMLStreamWriter writer = converter.newXmlStreamWriter(output);
+    writer.setNamespaceContext(new NamespaceContext() {
+      @Override
+      public String getNamespaceURI(final String prefix) {
+        return "c".equals(prefix) ? "urn:c" : null;
+      }
+
+      @Override
+      public String getPrefix(final String namespaceURI) {
+        return "urn:c".equals(namespaceURI) ? "c" : null;
+      }
+
+      @Override
+      public Iterator<String> getPrefixes(final String namespaceURI) {
+        return Collections.singletonList(getPrefix(namespaceURI)).iterator();
+      }
+    });
+
+    writer.writeStartDocument("UTF-8", "1.0");
+    writer.writeDTD("<!DOCTYPE Root>");
+    writer.writeStartElement("Root");
+    writer.writeDefaultNamespace("urn:default");
+    writer.writeNamespace("p", "urn:p");
+    writer.writeAttribute("a", "1");
+    writer.writeAttribute("p", "urn:p", "b", "2");
+    writer.writeAttribute("urn:p", "c", "3");
+    writer.writeCharacters("text ");
+    for (final String entity : new String[] {"amp", "lt", "gt", "quot", "apos"}) {
+      writer.writeEntityRef(entity);
+    }
+    writer.writeCharacters("_chars_".toCharArray(), 1, 5);
+    writer.writeStartElement("urn:p", "Child");
+    writer.writeEndElement();
+    writer.writeStartElement("q", "Other", "urn:q");
+    writer.writeNamespace("q", "urn:q");
+    writer.writeEmptyElement("q", "Empty", "urn:q");
+    writer.writeEndElement();
+    writer.writeEmptyElement("urn:p", "Empty");
+    writer.writeEmptyElement("Empty");
+    writer.writeEmptyElement("urn:c", "FromContext");
+    writer.setPrefix("s", "urn:s");
+    writer.writeEmptyElement("urn:s", "Set");
+    writer.writeStartElement("urn:default", "Notes");
+    writer.writeComment("comment");
+    writer.writeProcessingInstruction("target");
+    writer.writeCData("cdata");
+    writer.writeEndElement();
+    writer.writeStartElement("Open");
+    writer.writeStartElement("Inner");
+
+    final NamespaceContext context = writer.getNamespaceContext();
+    Assertions.assertEquals("urn:p", context.getNamespaceURI("p"));
+    Assertions.assertEquals("urn:c", context.getNamespaceURI("c"));
+    Assertions.assertEquals("p", context.getPrefix("urn:p"));
+    Assertions.assertEquals("", writer.getPrefix("urn:default"));
+    Assertions.assertEquals("c", context.getPrefixes("urn:c").next());
+    Assertions.assertFalse(context.getPrefixes("urn:none").hasNext());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> writer.getProperty("property"));
+    Assertions.assertEquals("Entity reference 'nbsp' is not supported.",
+                            Assertions.assertThrows(XMLStreamException.class,
+                                                    () -> writer.writeEntityRef("nbsp")).getMessage());
+    Assertions.assertEquals("Namespace URI 'urn:none' is not bound to any prefix.",
+                            Assertions.assertThrows(XMLStreamException.class,
+                                                    () -> writer.writeStartElement("urn:none", "None")).getMessage());
+    writer.writeEndDocument();
+    writer.flush();
+    writer.close();
+
+    Assertions.assertEquals(converter.execute(xml), output.toString());
+    Assertions.assertEquals("There is no open element.",
+                            Assertions.assertThrows(XMLStreamException.class, writer::writeEndElement).getMessage());
+
+    final XMLStreamWriter defaultWriter = converter.newXmlStreamWriter(new StringWriter());
+    defaultWriter.setDefaultNamespace("urn:default");
+    Assertions.assertEquals("", defaultWriter.getPrefix("urn:default"));
+  }
+
+  @Test
+  void xmlStreamWriterReportsTheConversionErrors() throws ParserConfigurationException, JxmlException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxElementCount(1);
+    converter.setLimits(limits);
+    final XMLStreamWriter writer = converter.newXmlStreamWriter(new StringWriter(), false, "#");
+
+    final XMLStreamException exception = Assertions.assertThrows(XMLStreamException.class, () -> {
+      writer.writeStartDocument();
+      writer.writeStartElement("Root");
+      writer.writeEmptyElement("Child");
+      writer.writeEndDocument();
+    });
+    Assertions.assertEquals("Document element count exceeds the maximum allowed count of 1.",
+                            exception.getNestedException().getCause().getMessage());
+  }
+
+  @Test
+  void contentHandlerCompletesTheOptionalQualifiedNames()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, XMLStreamException {
+    final StringWriter output = new StringWriter();
+    final ContentHandler handler = converter.newContentHandler(output);
+    final AttributesImpl rootAttributes = new AttributesImpl();
+    rootAttributes.addAttribute("urn:p", "a", "", "CDATA", "1");
+    rootAttributes.addAttribute("", "b", null, "CDATA", "2");
+    final AttributesImpl childAttributes = new AttributesImpl();
+    childAttributes.addAttribute("urn:p", "c", "", "CDATA", "3");
+    final char[] text = "text".toCharArray();
+
+    handler.startDocument();
+    handler.startPrefixMapping("p", "urn:p");
+    handler.startElement("urn:p", "Root", "", rootAttributes);
+    handler.ignorableWhitespace(text, 0, 0);
+    handler.skippedEntity("entity");
+    handler.startElement("", "Child", null, childAttributes);
+    handler.characters(text, 0, text.length);
+    handler.endElement("", "Child", "Child");
+    handler.endElement("urn:p", "Root", "p:Root");
+    handler.endPrefixMapping("p");
+    handler.endDocument();
+
+    Assertions.assertEquals(converter.execute("<p:Root xmlns:p=\"urn:p\" p:a=\"1\" b=\"2\"><Child p:c=\"3\">text</Child>"
+                                              + "</p:Root>"), output.toString());
+
+    final Writer failing = new Writer() {
+      @Override
+      public void write(final char[] buffer, final int offset, final int length) {
+        // discarded
+      }
+
+      @Override
+      public void flush() throws IOException {
+        throw new IOException("flush");
+      }
+
+      @Override
+      public void close() {
+        // nothing to close
+      }
+    };
+    final ContentHandler failingHandler = converter.newContentHandler(failing);
+    failingHandler.startDocument();
+    failingHandler.startElement("", "Root", "Root", new AttributesImpl());
+    failingHandler.endElement("", "Root", "Root");
+    Assertions.assertEquals("flush", Assertions.assertThrows(SAXException.class, failingHandler::endDocument)
+        .getException().getMessage());
+    final XMLStreamWriter failingWriter = converter.newXmlStreamWriter(failing);
+    failingWriter.writeStartDocument();
+    failingWriter.writeEmptyElement("Root");
+    Assertions.assertThrows(XMLStreamException.class, failingWriter::writeEndDocument);
+  }
+
+  @Test
+  void xmlStreamWriterReportsToPlainContentHandlers() throws XMLStreamException {
+    final StringBuilder events = new StringBuilder();
+    final XMLStreamWriter writer = new JsonStreamWriter(new DefaultHandler() {
+      @Override
+      public void startPrefixMapping(final String prefix, final String uri) {
+        events.append(" xmlns=").append(uri);
+      }
+
+      @Override
+      public void startElement(final String uri, final String localName, final String qName,
+                               final Attributes attributes) {
+        events.append('<').append(qName).append('>');
+      }
+
+      @Override
+      public void characters(final char[] ch, final int start, final int length) {
+        events.append(ch, start, length);
+      }
+
+      @Override
+      public void endDocument() {
+        events.append(" end");
+      }
+    }, new StringWriter());
+
+    writer.writeStartElement("Root");
+    writer.writeNamespace(null, "urn:a");
+    writer.writeNamespace("xmlns", "urn:b");
+    writer.writeComment("comment");
+    writer.writeCData("cdata");
+    writer.writeStartElement(null, "Child");
+    Assertions.assertNull(writer.getPrefix("urn:unknown"));
+    Assertions.assertEquals("", writer.getNamespaceContext().getNamespaceURI("unknown"));
+    writer.close();
+    Assertions.assertEquals(" xmlns=urn:a xmlns=urn:b<Root>cdata", events.toString());
+    writer.writeEndDocument();
+    Assertions.assertEquals(" xmlns=urn:a xmlns=urn:b<Root>cdata<Child> end", events.toString());
+  }
+
+  @Test
+  void xmlStreamWriterWrapsTheHandlerFailures() {
+    final List<StreamWriterAction> actions = Arrays.asList(
+        writer -> writer.writeNamespace("p", "urn:p"), writer -> writer.writeComment("comment"),
+        writer -> writer.writeProcessingInstruction("target"), writer -> writer.writeCData("cdata"),
+        writer -> writer.writeCharacters("text"), XMLStreamWriter::writeEndElement,
+        writer -> {
+          writer.writeEmptyElement("Empty");
+          writer.writeEndElement();
+        }, XMLStreamWriter::writeEndDocument, XMLStreamWriter::flush);
+    for (final StreamWriterAction action : actions) {
+      final AtomicBoolean failing = new AtomicBoolean();
+      final XMLStreamWriter writer = new JsonStreamWriter(new DefaultHandler2() {
+        @Override
+        public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+          fail();
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName,
+                                 final Attributes attributes) throws SAXException {
+          fail();
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+          fail();
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+          fail();
+        }
+
+        @Override
+        public void processingInstruction(final String target, final String data) throws SAXException {
+          fail();
+        }
+
+        @Override
+        public void comment(final char[] ch, final int start, final int length) throws SAXException {
+          fail();
+        }
+
+        @Override
+        public void startCDATA() throws SAXException {
+          fail();
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+          fail();
+        }
+
+        private void fail() throws SAXException {
+          if (failing.get()) {
+            throw new SAXException("failed");
+          }
+        }
+      }, new Writer() {
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) {
+          // nothing written
+        }
+
+        @Override
+        public void flush() throws IOException {
+          throw new IOException("failed");
+        }
+
+        @Override
+        public void close() {
+          // nothing to close
+        }
+      });
+      Assertions.assertThrows(XMLStreamException.class, () -> {
+        writer.writeStartElement("Root");
+        writer.writeCharacters("");
+        failing.set(true);
+        action.run(writer);
+      });
+    }
+    final XMLStreamWriter failingStart = new JsonStreamWriter(new DefaultHandler() {
+      @Override
+      public void startDocument() throws SAXException {
+        throw new SAXException("failed");
+      }
+    }, new StringWriter());
+    Assertions.assertThrows(XMLStreamException.class, failingStart::writeStartDocument);
+  }
+
+  private interface StreamWriterAction {
+    void run(XMLStreamWriter writer) throws XMLStreamException;
+  }
+
+  @Test
+  void transformerTargetsStreamLargeDocuments(@TempDir final Path spillDirectory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException, TransformerException {
+    final StringBuilder xml = new StringBuilder("<Root>");
+    for (int i = 0; i < 2000; i++) {
+      xml.append("<Item id=\"").append(i).append("\"><Value>").append(i).append("</Value></Item><Other/>");
+    }
+    xml.append("</Root>");
+    final String expected = converter.execute(xml.toString());
+    converter.setSpillThreshold(4096);
+    converter.setSpillDirectory(spillDirectory);
+    final StringWriter saxOutput = new StringWriter();
+    final StringWriter staxOutput = new StringWriter();
+
+    TransformerFactory.newInstance().newTransformer().transform(
+        new StreamSource(new StringReader(xml.toString())), new SAXResult(converter.newContentHandler(saxOutput)));
+    TransformerFactory.newInstance().newTransformer().transform(
+        new StreamSource(new StringReader(xml.toString())), new StAXResult(converter.newXmlStreamWriter(staxOutput)));
+
+    Assertions.assertEquals(expected, saxOutput.toString());
+    Assertions.assertEquals(expected, staxOutput.toString());
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      Assertions.assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  void byteTokenizerGivesTheJsonOfTheParsedXml()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    converter.setByteTokenizer(true);
+    for (final String fileName : new String[] {"xmlInputValidBasic.xml", "xmlInputValidBasicWithArray.xml",
+                                               "xmlInputValidBasicWithChildren.xml", "xmlInputValidSOAPLike.xml",
+                                               "xmlInputValidSpecialCharactersAndCarriageReturn.xml"}) {
+      final String xml = getXmlFileContentAsString(fileName);
+      final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+      Assertions.assertEquals(converter.execute(xml, true, "#"), converter.execute(bytes, true, "#"), fileName);
+      Assertions.assertEquals(converter.execute(xml, false, null),
+                              converter.execute(ByteBuffer.wrap(bytes), false, null), fileName);
+    }
+    converter.setStructureHints(StructureHints.parse(readResource("hints/structureHintsSOAPLike.txt")));
+    final String soap = getXmlFileContentAsString("xmlInputValidSOAPLike.xml");
+    Assertions.assertEquals(converter.execute(soap), converter.execute(soap.getBytes(StandardCharsets.UTF_8), true, null));
+  }
+
+  @Test
+  void byteTokenizerHandlesReferencesLineEndsAndCdata()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final byte[] xml = ("\uFEFF<?xml version='1.0' encoding='utf-8' standalone='yes'?>\r\n<!-- prolog --><?pi data?>"
+        + "<Root a='&#x3C;&#65;\t&quot;\r\nb' b=\"caf\u00e9 &apos;\">line\r\nbreak\rand &amp; \uD83D\uDE00 "
+        + "<![CDATA[<raw> & ]]]]><!-- inner --><?pi?><Item x = \"1\" /><Item>\u00e9t\u00e9</Item></Root >\n")
+        .getBytes(StandardCharsets.UTF_8);
+    final String expected = converter.execute(xml, true, null);
+    converter.setByteTokenizer(true);
+
+    Assertions.assertEquals(expected, converter.execute(xml, true, null));
+    Assertions.assertEquals("{\"Root\":{\"_a\":\"<A \\\" b\",\"_b\":\"caf\u00e9 '\",\"Item\":[{\"_x\":\"1\"},"
+                            + "{\"__text\":\"\u00e9t\u00e9\"}],"
+                            + "\"__text\":\"line break and & \uD83D\uDE00\"}}", expected);
+  }
+
+  @Test
+  void byteTokenizerFallsBackToJaxp() throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    converter.setByteTokenizer(true);
+    final byte[] doctype = "<!DOCTYPE Root [<!ENTITY e 'entity'>]><Root>&e;</Root>".getBytes(StandardCharsets.UTF_8);
+    final byte[] latin1 = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><Root>\u00e9</Root>"
+        .getBytes(StandardCharsets.ISO_8859_1);
+
+    Assertions.assertEquals("{\"Root\":{\"__text\":\"entity\"}}", converter.execute(doctype, true, null));
+    Assertions.assertEquals("{\"Root\":{\"__text\":\"\u00e9\"}}", converter.execute(latin1, true, null));
+    final SAXParseException exception = Assertions.assertThrows(SAXParseException.class, () ->
+        converter.execute("<Root>&e;</Root>".getBytes(StandardCharsets.UTF_8), true, null));
+    Assertions.assertEquals("The entity \"e\" was referenced, but not declared.", exception.getMessage());
+    final SAXParseException mismatch = Assertions.assertThrows(SAXParseException.class, () ->
+        converter.execute(getXmlFileContentAsString("xmlInputInvalidSOAPLike.xml").getBytes(StandardCharsets.UTF_8),
+                          true, "#"));
+    Assertions.assertEquals(
+        "The element type \"soap:Header\" must be terminated by the matching end-tag \"</soap:Header>\".",
+        mismatch.getMessage());
+  }
+
+  @Test
+  void byteTokenizerAgreesWithJaxpOnEdgeCases() throws IOException, JxmlException {
+    final String deep = String.join("", Collections.nCopies(40, "<a>")) + String.join("", Collections.nCopies(40, "</a>"));
+    final String[] utf8 = {"", "  ", "<r/>x", "<r/> <!-- c --><?pi d?> ", "<?pi?><r/>", "<?xml-model x?><r/>",
+        "<?xml version='1.0' standalone='maybe'?><r/>", "<r><", "<r", "<r a='1'b='2'/>", "<r a='1' a='2'/>",
+        deep, "<r xmlnsx='1'/>", "<r xmlns:p=''/>", "<r xmlns:xmlns='u'/>", "<r xmlns='u'><x xmlns=''/></r>",
+        "<r xmlns:a='u' xmlns:b='u' a:x='1' b:x='2'/>", "<:r/>", "<r:/>", "<a:b:c/>", "<p:r/>", "<r p:a='1'/>",
+        "<r>a]]>b</r>", "<r>a]b]</r>", "<r><![CDATA[abc", "<r><![CDATA[a]b]]c\r\nd\r\u00e9\u20ac]]></r>",
+        "<r a=1/>", "<r a='1", "<r a=\"it's\" b='a \"b\"'/>", "<r a='a\tb\nc\r\nd\re'/>", "<r a='<'/>",
+        "<r>a\r</r>", "<r>a\r", "<r>&#;</r>", "<r>&#123456789;</r>", "<r>&#xZZ;</r>", "<r>&#1;</r>",
+        "<r>&#xD800;</r>", "<r>&#xFFFE;</r>", "<r>&#x110000;</r>", "<r>&unknown;</r>", "<r>&amp</r>", "<r>\u0001</r>",
+        "<r>\u00e9\u20ac\uD83D\uDE00</r>", "<r><!-</r>", "<r><!-- a -- b --></r>", "<r><!-- a</r>", "<r><?xml x?></r>",
+        "<r><?a:b?></r>", "<r><?pi/?></r>", "<r><?pi data", "<r><?pi a\r\nb\rc?></r>", "<1r/>", "<r\u00e9/>",
+        "<\u00e9/>", "<r></x>", "<r/ >", "<r>text</r", "<r><!DOCTYPE r></r>"};
+    final String[] latin1 = {"\u00ef\u00bb<r/>", "<r>\u00e0\u0080\u0080</r>", "<r>\u00ed\u00a0\u0080</r>",
+        "<r>\u00ef\u00bf\u00be</r>", "<r>\u00f0\u0080\u0080\u0080</r>", "<r>\u00f4\u0090\u0080\u0080</r>",
+        "<r>\u00c0\u0080</r>", "<r>\u00f8</r>", "<r>\u00c3</r>", "<r>\u00c3x</r>", "<r a='\u00e0\u0080'/>"};
+    final XmlToJson jaxp = new XmlToJson();
+    final XmlToJson bytes = new XmlToJson();
+    bytes.setByteTokenizer(true);
+    final NamespaceMapping mapping = NamespaceMapping.load(new StringReader("u=u"));
+    for (final byte[] xml : Stream.concat(Stream.of(utf8).map(xml -> xml.getBytes(StandardCharsets.UTF_8)),
+                                          Stream.of(latin1).map(xml -> xml.getBytes(StandardCharsets.ISO_8859_1)))
+        .toArray(byte[][]::new)) {
+      for (final NamespaceMapping namespaceMapping : new NamespaceMapping[] {null, mapping}) {
+        jaxp.setNamespaceMapping(namespaceMapping);
+        bytes.setNamespaceMapping(namespaceMapping);
+        for (final boolean keepNamespaces : new boolean[] {true, false}) {
+          Assertions.assertEquals(convert(jaxp, xml, keepNamespaces), convert(bytes, xml, keepNamespaces),
+                                  new String(xml, StandardCharsets.ISO_8859_1));
+        }
+      }
+    }
+  }
+
+  @Test
+  void byteTokenizerReportsToPlainContentHandlers() throws SAXException {
+    final StringBuilder events = new StringBuilder();
+    final byte[] xml = "<r><!-- c --><?pi d?><![CDATA[<x>]]>t</r>".getBytes(StandardCharsets.UTF_8);
+
+    Assertions.assertTrue(Utf8XmlTokenizer.tokenize(xml, 0, xml.length, new DefaultHandler() {
+      @Override
+      public void startElement(final String uri, final String localName, final String qName,
+                               final Attributes attributes) {
+        events.append('<').append(qName).append('>');
+      }
+
+      @Override
+      public void characters(final char[] ch, final int start, final int length) {
+        events.append(ch, start, length);
+      }
+
+      @Override
+      public void processingInstruction(final String target, final String data) {
+        events.append("?").append(target);
+      }
+    }, false));
+    Assertions.assertEquals("<r>?pi<x>t", events.toString());
+  }
+
+  private static String convert(final XmlToJson converter, final byte[] xml, final boolean keepNamespaces) {
+    try {
+      return converter.execute(xml, keepNamespaces, null);
+    } catch (final Exception e) {
+      return e.getClass().getName() + ": " + e.getMessage();
+    }
+  }
+
+  @Test
+  void byteTokenizerChecksLimitsAndNamespaces()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    converter.setByteTokenizer(true);
+    converter.setNamespaceMapping(
+        NamespaceMapping.load(new StringReader(readResource("namespaces/namespaceMapping.properties"))));
+    final String xml = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+        + "<m:Trans xmlns:m=\"https://www.w3schools.com/transaction/\" m:Id=\"1\">234</m:Trans>"
+        + "<Other xmlns=\"urn:other\"><Inner/></Other></soap:Envelope>";
+
+    Assertions.assertEquals(converter.execute(xml), converter.execute(xml.getBytes(StandardCharsets.UTF_8), true, null));
+    Assertions.assertEquals(converter.execute(xml, false, null),
+                            converter.execute(xml.getBytes(StandardCharsets.UTF_8), false, null));
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDepth(2);
+    converter.setLimits(limits);
+    for (final boolean keepNamespaces : new boolean[] {true, false}) {
+      final JxmlException exception = Assertions.assertThrows(JxmlException.class, () ->
+          converter.execute(xml.getBytes(StandardCharsets.UTF_8), keepNamespaces, null));
+      Assertions.assertEquals("Document nesting depth exceeds the maximum allowed depth of 2.", exception.getMessage());
+    }
+  }
+
+  @Test
+  void byteTokenizerHandlesRunsAcrossWordBoundaries()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final String[] insertions = {"\u00e9", "&amp;", "]", "\r\n", "\t", "<!-- c -->", "'", "\""};
+    for (int length = 0; length < 20; length++) {
+      for (final String insertion : insertions) {
+        final String run = "abcdefghijklmnopqrst".substring(0, length);
+        final String text = run + insertion + run;
+        final String attribute = insertion.equals("\"") ? run + "&quot;" + run
+            : insertion.startsWith("<") ? run : run + insertion + run;
+        final String xml = "<Root a=\"" + attribute + "\" b='" + attribute.replace("'", "&apos;") + "'>  \n\t"
+            + text + "<Item/>" + run + "</Root>";
+        final XmlToJson byteConverter = new XmlToJson();
+        byteConverter.setByteTokenizer(true);
+
+        Assertions.assertEquals(converter.execute(xml), byteConverter.execute(xml.getBytes(StandardCharsets.UTF_8),
+                                                                              true, null), xml);
+      }
+    }
+    for (final byte[] document : new byte[][] {JxmlBenchmark.textDocument(1 << 14),
+                                               JxmlBenchmark.indentedDocument(1 << 14),
+                                               JxmlBenchmark.attributeDocument(1 << 14)}) {
+      final XmlToJson byteConverter = new XmlToJson();
+      byteConverter.setByteTokenizer(true);
+      Assertions.assertEquals(converter.execute(new String(document, StandardCharsets.UTF_8)),
+                              byteConverter.execute(document, true, null));
+    }
+  }
+
+  @Test
+  void textIsNormalizedAsByRegularExpressions() {
+    final char[] alphabet = {' ', ' ', '\n', '\t', '\r', '\u0001', 'a', 'b', '\u00e9'};
+    final Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      final char[] chars = new char[random.nextInt(12)];
+      for (int c = 0; c < chars.length; c++) {
+        chars[c] = alphabet[random.nextInt(alphabet.length)];
+      }
+      final String text = new String(chars);
+      final String expected = "".equals(text.replaceAll("\n|\t", "").replace(" ", "")) ? null
+          : text.replaceAll("\n|\t", " ").replaceAll(" +", " ").trim();
+
+      Assertions.assertEquals(expected, XmlToJson.toJsonText(text), text);
+    }
+  }
+
+  @Test
+  void streamingConversionGivesTheJsonOfTheTreeConversion()
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    converter.setStructureHints(StructureHints.parse(readResource("hints/structureHintsSOAPLike.txt")));
+    for (final String fileName : new String[] {"xmlInputValidBasic.xml", "xmlInputValidBasicWithArray.xml",
+                                               "xmlInputValidBasicWithChildren.xml", "xmlInputValidSOAPLike.xml",
+                                               "xmlInputValidSpecialCharactersAndCarriageReturn.xml"}) {
+      final String xml = getXmlFileContentAsString(fileName);
+      for (final long spillThreshold : new long[] {0, XmlToJson.DEFAULT_SPILL_THRESHOLD}) {
+        converter.setSpillThreshold(spillThreshold);
+
+        Assertions.assertEquals(converter.execute(xml), executeStreaming(xml, true, null), fileName);
+        Assertions.assertEquals(converter.execute(xml, false, "#"), executeStreaming(xml, false, "#"), fileName);
+      }
+    }
+  }
+
+  @Test
+  void streamingConversionSpillsNonContiguousRepeatedSiblings(@TempDir final Path spillDirectory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final StringBuilder xml = new StringBuilder("<Root _Item=\"attribute\">leading \"text\"");
+    for (int i = 0; i < 2000; i++) {
+      xml.append("<Item id=\"").append(i).append("\"><Value>").append(i).append("</Value><Value/></Item><Other/>")
+          .append("<Single").append(i % 1000).append(">\u2028\u2029</Single").append(i % 1000).append('>');
+    }
+    xml.append("<_Item/></Root>");
+    converter.setSpillThreshold(4096);
+    converter.setSpillDirectory(spillDirectory);
+
+    Assertions.assertEquals(converter.execute(xml.toString()), executeStreaming(xml.toString(), true, null));
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      Assertions.assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  void streamingConversionBuffersDeepDocuments(@TempDir final Path spillDirectory)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final StringBuilder xml = new StringBuilder();
+    for (int depth = 0; depth < 500; depth++) {
+      xml.append("<Level depth=\"").append(depth).append("\">text ").append(depth).append("<Item/><Item>")
+          .append(depth).append("</Item>");
+    }
+    for (int depth = 0; depth < 500; depth++) {
+      xml.append("<Other/></Level>");
+    }
+    converter.setSpillThreshold(4096);
+    converter.setSpillDirectory(spillDirectory);
+
+    Assertions.assertEquals(converter.execute(xml.toString()), executeStreaming(xml.toString(), true, null));
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      Assertions.assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  void spillBuffersShareTheirHeapBudget() throws IOException {
+    final SpillBuffer.Budget budget = new SpillBuffer.Budget(16384);
+    try (SpillBuffer first = new SpillBuffer(budget, null); SpillBuffer second = new SpillBuffer(budget, null)) {
+      for (int i = 0; i < 1024; i++) {
+        first.putLong(i);
+      }
+      Assertions.assertFalse(first.isSpilled());
+      second.putLong(0);
+      Assertions.assertFalse(second.isSpilled());
+      for (int i = 0; i < 1024; i++) {
+        second.putLong(i);
+      }
+      Assertions.assertTrue(second.isSpilled());
+      Assertions.assertEquals(1023, first.getLong(1023 * 8));
+      Assertions.assertEquals(1023, second.getLong(1024 * 8));
+    }
+  }
+
+  @Test
+  void streamingConversionChecksLimitsAndHints() throws JxmlException {
+    final JxmlLimits limits = new JxmlLimits();
+    limits.setMaxDocumentSize(20);
+    converter.setLimits(limits);
+    final JxmlException sizeException = Assertions.assertThrows(JxmlException.class, () ->
+        executeStreaming("<Root><Item/><Item/></Root>", true, null));
+    Assertions.assertEquals("Document size exceeds the maximum allowed size of 20.", sizeException.getMessage());
+
+    converter.setLimits(new JxmlLimits());
+    converter.setStructureHints(StructureHints.parse("object /Root/Item"));
+    final JxmlException hintException = Assertions.assertThrows(JxmlException.class, () ->
+        executeStreaming("<Root><Item/><Item/></Root>", true, null));
+    Assertions.assertEquals(
+        "Element 'Item' is hinted as never being an array, but it occurs more than once under the same element.",
+        hintException.getMessage());
+  }
+
+  private static String getXmlContent() {
+    return "<Root a=\"1\" b=\"2\"><T1><T2>Ciccio1</T2><T2>Ciccio2</T2></T1><Other/></Root>";
+  }
+
+  /*
+   * The identity transformer reports CDATA sections as plain characters, as a stream reader does by default.
+   */
+  private static void copyEvents(final XMLStreamReader reader, final XMLStreamWriter writer)
+      throws XMLStreamException {
+    writer.writeStartDocument();
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          writer.writeStartElement(reader.getLocalName());
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          writer.writeEndElement();
+          break;
+        case XMLStreamConstants.CHARACTERS:
+          writer.writeCharacters(reader.getText());
+          break;
+        case XMLStreamConstants.CDATA:
+          writer.writeCData(reader.getText());
+          break;
+        case XMLStreamConstants.COMMENT:
+          writer.writeComment(reader.getText());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+          break;
+        default:
+          break;
+      }
+    }
+    writer.writeEndDocument();
+  }
+
+  private String executeStreaming(final String xml, final boolean keepNamespaces, final String prefix)
+      throws IOException, ParserConfigurationException, SAXException, JxmlException {
+    final StringWriter output = new StringWriter();
+    converter.execute(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), output, keepNamespaces, prefix);
+    return output.toString();
+  }
+
+  private void assertLimitExceeded(final String xml, final Consumer<JxmlLimits> limit, final String expectedMessage) {
+    final JxmlLimits limits = new JxmlLimits();
+    limit.accept(limits);
+    converter.setLimits(limits);
+    final JxmlException exception = Assertions.assertThrows(JxmlException.class, () -> converter.execute(xml));
+    Assertions.assertEquals(expectedMessage, exception.getMessage());
+    final JxmlException streamingException = Assertions.assertThrows(JxmlException.class,
+                                                                     () -> executeStreaming(xml, true, null));
+    Assertions.assertEquals(expectedMessage, streamingException.getMessage());
+  }
+
   private static String getXmlFileContentAsString(final String fileName) throws IOException {
     return readResource(XML_RESOURCE_FOLDER + fileName);
   }